@@ -53,7 +53,11 @@ import com.intellij.util.messages.Topic
 import com.vladsch.md.nav.editor.MdPreviewFileEditorProvider
 import com.vladsch.md.nav.editor.MdSplitEditor
 import com.vladsch.md.nav.editor.api.MdEditorCustomizationProvider
+import com.vladsch.md.nav.highlighter.MdLargeFileMode
 import com.vladsch.md.nav.highlighter.MdSyntaxHighlighter
+import com.vladsch.md.nav.parser.MdBackgroundLexParser
+import com.vladsch.md.nav.parser.MdFlexmarkObjectCache
+import com.vladsch.md.nav.parser.cache.MdLinkedFileCacheWarmUp
 import com.vladsch.md.nav.psi.element.MdFile
 import com.vladsch.md.nav.psi.element.MdNamedElement
 import com.vladsch.md.nav.settings.*
@@ -357,6 +361,8 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
     override fun projectClosed() {
         println("projectClosed $time")
         reinitializeEditorSettings.clear()
+        MdBackgroundLexParser.getInstance().projectClosed(project)
+        MdFlexmarkObjectCache.getInstance().projectClosed(project)
         runWhenProjectClosed.runAll()
     }
 
@@ -465,6 +471,21 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
             }, ModalityState.NON_MODAL)
         })
 
+        // cached flexmark options and parsers are built from project rendering profiles
+        messageBusConnection.subscribe(ProjectSettingsChangedListener.TOPIC, ProjectSettingsChangedListener { _, _ ->
+            MdFlexmarkObjectCache.getInstance().clear()
+        })
+
+        messageBusConnection.subscribe(ProfileManagerChangeListener.TOPIC, object : ProfileManagerChangeListener {
+            override fun onSettingsChange(manager: RenderingProfileManager) {
+                MdFlexmarkObjectCache.getInstance().clear()
+            }
+
+            override fun onSettingsLoaded(manager: RenderingProfileManager) {
+                MdFlexmarkObjectCache.getInstance().clear()
+            }
+        })
+
         ApplicationManager.getApplication().invokeLater({
             if (!project.isDisposed) {
                 MdPlugin.instance.projectLoaded(project)
@@ -494,6 +515,11 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
                 } else {
                     reinitializeEditorSettings.clear()
                 }
+
+                if (event.manager.project === project) {
+                    // compute cached data of linked files before it is needed for navigation and completion
+                    MdLinkedFileCacheWarmUp.getInstance(project).fileSelected(event.newFile)
+                }
             }
         })
 
@@ -514,6 +540,10 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
                 override fun editorReleased(event: EditorFactoryEvent) {
                     if (project.isDisposed) return
                     reinitializeEditorSettings.removeIf { it -> it.isDisposed || it === event.editor }
+                    MdLargeFileMode.editorReleased(event.editor)
+                    if (event.editor.project === project) {
+                        MdBackgroundLexParser.getInstance().editorReleased(event.editor.document)
+                    }
                 }
 
                 // NOTE: now editors are created with the correct highlighter. Swapping is only needed for diff view because it requests editor highlighter for the project file for both repository and project file
@@ -521,6 +551,12 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
                     if (project.isDisposed) return
 
                     val editor = event.editor
+                    val virtualFile = FileDocumentManager.getInstance().getFile(editor.document)
+                    if (editor.project === project && virtualFile != null && virtualFile.fileType == MdFileType.INSTANCE && !MdLargeFileMode.isLargeFile(editor.document)) {
+                        // parse changes in the background so the highlighter lexer does not parse on the EDT
+                        MdBackgroundLexParser.getInstance().editorCreated(project, virtualFile, editor.document)
+                    }
+
                     if (editor is EditorEx) {
                         if (LOG_EDITOR.isDebugEnabled) LOG_EDITOR.debug("editorEx created $editor ${editor.virtualFile} isWritable: ${editor.document.isWritable}")
                         AwtRunnable.schedule(MdCancelableJobScheduler.getInstance(), "$editor", 100, ModalityState.any()) {
@@ -667,13 +703,19 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
             val editorHighlighter = editor.highlighter
             var swapHighlighter = false
             val documentSettings = MdApplicationSettings.instance.documentSettings
-            val forAnnotator = documentSettings.syntaxHighlighting == SyntaxHighlightingType.ANNOTATOR.intValue && editor.document.isWritable
+            val largeFileDocument = if (MdLargeFileMode.isLargeFile(editor.document)) editor.document else null
+            val forAnnotator = documentSettings.syntaxHighlighting == SyntaxHighlightingType.ANNOTATOR.intValue && editor.document.isWritable && largeFileDocument == null
 
             if (editorHighlighter is LexerEditorHighlighter) {
                 val syntaxHighlighter = editorHighlighter.syntaxHighlighter
                 if (syntaxHighlighter is MdSyntaxHighlighter && !syntaxHighlighter.forSampleDoc) {
                     val isPlainTextLexer = syntaxHighlighter.highlightingLexer.javaClass.simpleName == "MdPlainTextLexer"
-                    swapHighlighter = if (forAnnotator) !isPlainTextLexer else isPlainTextLexer
+                    val isWindowedLexer = syntaxHighlighter.largeFileDocument != null
+                    swapHighlighter = when {
+                        largeFileDocument != null -> !isWindowedLexer
+                        forAnnotator -> !isPlainTextLexer
+                        else -> isPlainTextLexer || isWindowedLexer
+                    }
                     if (!swapHighlighter && LOG_EDITOR.isDebugEnabled) LOG_EDITOR.debug("swapEditorHighlighter lexer already ${syntaxHighlighter.highlightingLexer.javaClass.simpleName} $editor $virtualFile")
                 } else {
                     if (LOG_EDITOR.isDebugEnabled) LOG_EDITOR.debug("swapEditorHighlighter not mdHighlighter or for SampleDoc $editor $virtualFile")
@@ -693,7 +735,7 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
                         if (psiFile != null) MdRenderingProfileManager.getProfile(psiFile)
                         else MdRenderingProfileManager.getInstance(project).defaultRenderingProfile
 
-                    val mdSyntaxHighlighter = MdSyntaxHighlighter(renderingProfile, false, forAnnotator)
+                    val mdSyntaxHighlighter = MdSyntaxHighlighter(renderingProfile, false, forAnnotator, largeFileDocument)
                     val highlighter = LexerEditorHighlighter(mdSyntaxHighlighter, editor.colorsScheme)
                     highlighter.setText(editor.document.immutableCharSequence)
                     editor.highlighter = highlighter
@@ -709,6 +751,10 @@ class MdProjectComponent(val project: Project) : ProjectComponent, Disposable {
                     if (LOG_EDITOR.isDebugEnabled) LOG_EDITOR.debug(e)
                 }
             }
+
+            if (largeFileDocument != null) {
+                MdLargeFileMode.installWindowUpdater(editor, this)
+            }
         } else {
             if (LOG_EDITOR.isDebugEnabled) LOG_EDITOR.debug("swapEditorHighlighter not markdown $editor $virtualFile")
         }
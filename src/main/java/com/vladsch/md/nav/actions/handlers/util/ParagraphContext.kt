@@ -19,7 +19,7 @@ import com.vladsch.flexmark.util.sequence.BasedSequence.NULL
 import com.vladsch.flexmark.util.sequence.SequenceUtils
 import com.vladsch.md.nav.MdBundle
 import com.vladsch.md.nav.actions.api.MdElementContextInfoProvider
-import com.vladsch.md.nav.parser.PegdownOptionsAdapter
+import com.vladsch.md.nav.parser.MdFlexmarkObjectCache
 import com.vladsch.md.nav.parser.api.HtmlPurpose
 import com.vladsch.md.nav.parser.api.ParserPurpose
 import com.vladsch.md.nav.psi.element.*
@@ -77,10 +77,9 @@ open class ParagraphContext(val context: CaretContextInfo, val paragraphInfo: Pa
 
             val renderingProfile = context.renderingProfile
             val parserSettings = renderingProfile.parserSettings
-            val optionsAdapter = PegdownOptionsAdapter()
             val formatOptionsAdapter = FlexmarkFormatOptionsAdapter(context, paragraphSeq.startOffset, paragraphSeq.endOffset)
 
-            val parserOptions = optionsAdapter.getFlexmarkOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, null, renderingProfile)
+            val parserOptions = MdFlexmarkObjectCache.getInstance().getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile)
 
             val formatOptions = formatOptionsAdapter.formatOptions
                 .set(Formatter.MAX_BLANK_LINES, 0)
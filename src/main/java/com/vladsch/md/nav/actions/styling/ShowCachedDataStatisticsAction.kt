@@ -0,0 +1,142 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.actions.styling
+
+import com.intellij.openapi.actionSystem.AnAction
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.ide.CopyPasteManager
+import com.intellij.openapi.project.DumbAware
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.DialogWrapper
+import com.intellij.ui.components.JBScrollPane
+import com.intellij.ui.table.JBTable
+import com.vladsch.md.nav.parser.cache.data.transaction.CachedDataStatistics
+import com.vladsch.md.nav.util.MdRegexCache
+import java.awt.BorderLayout
+import java.awt.Dimension
+import java.awt.datatransfer.StringSelection
+import java.awt.event.ActionEvent
+import javax.swing.AbstractAction
+import javax.swing.Action
+import javax.swing.JComponent
+import javax.swing.JLabel
+import javax.swing.JPanel
+import javax.swing.table.AbstractTableModel
+
+/**
+ * Internal mode action showing per cached data key statistics of [CachedDataStatistics] and [MdRegexCache] hit rate
+ */
+class ShowCachedDataStatisticsAction : AnAction(), DumbAware {
+    override fun isDumbAware(): Boolean {
+        return true
+    }
+
+    override fun update(e: AnActionEvent) {
+        e.presentation.isEnabledAndVisible = ApplicationManager.getApplication().isInternal
+    }
+
+    override fun actionPerformed(e: AnActionEvent) {
+        CachedDataStatisticsDialog(e.project).show()
+    }
+
+    private class StatisticsTableModel : AbstractTableModel() {
+        var rows: List<CachedDataStatistics.KeyStatistics> = CachedDataStatistics.getInstance().keyStatistics
+
+        fun refresh() {
+            rows = CachedDataStatistics.getInstance().keyStatistics
+            fireTableDataChanged()
+        }
+
+        override fun getRowCount(): Int = rows.size
+
+        override fun getColumnCount(): Int = COLUMNS.size
+
+        override fun getColumnName(column: Int): String = COLUMNS[column]
+
+        override fun getColumnClass(columnIndex: Int): Class<*> {
+            return when (columnIndex) {
+                0, 8 -> String::class.java
+                5, 6 -> java.lang.Double::class.java
+                else -> java.lang.Long::class.java
+            }
+        }
+
+        override fun getValueAt(rowIndex: Int, columnIndex: Int): Any {
+            val row = rows[rowIndex]
+            return when (columnIndex) {
+                0 -> row.keyName
+                1 -> row.hits
+                2 -> row.misses
+                3 -> row.waits
+                4 -> row.invalidations
+                5 -> row.computeNanos / 1e6
+                6 -> row.maxComputeNanos / 1e6
+                7 -> row.maxDepth
+                else -> row.invalidationsByType.entries.joinToString(", ") { "${it.key}: ${it.value}" }
+            }
+        }
+
+        companion object {
+            val COLUMNS = arrayOf("Key", "Hits", "Misses", "Waits", "Invalidations", "Total ms", "Max ms", "Max Depth", "Invalidated By")
+        }
+    }
+
+    private class CachedDataStatisticsDialog(project: Project?) : DialogWrapper(project, false) {
+        private val myModel = StatisticsTableModel()
+        private val myRegexCacheLabel = JLabel(MdRegexCache.getStatistics())
+
+        init {
+            title = "Cached Data Statistics"
+            setOKButtonText("Close")
+            init()
+        }
+
+        override fun createCenterPanel(): JComponent {
+            val table = JBTable(myModel)
+            table.autoCreateRowSorter = true
+            val scrollPane = JBScrollPane(table)
+            scrollPane.preferredSize = Dimension(900, 400)
+
+            val panel = JPanel(BorderLayout())
+            panel.add(scrollPane, BorderLayout.CENTER)
+            panel.add(myRegexCacheLabel, BorderLayout.SOUTH)
+            return panel
+        }
+
+        private fun refresh() {
+            myModel.refresh()
+            myRegexCacheLabel.text = MdRegexCache.getStatistics()
+        }
+
+        override fun getDimensionServiceKey(): String? {
+            return "MarkdownNavigator.CachedDataStatisticsDialog"
+        }
+
+        override fun createActions(): Array<Action> {
+            return arrayOf(okAction)
+        }
+
+        override fun createLeftSideActions(): Array<Action> {
+            return arrayOf(
+                object : AbstractAction("Refresh") {
+                    override fun actionPerformed(e: ActionEvent?) {
+                        refresh()
+                    }
+                },
+                object : AbstractAction("Reset") {
+                    override fun actionPerformed(e: ActionEvent?) {
+                        CachedDataStatistics.getInstance().resetCounters()
+                        MdRegexCache.resetCounters()
+                        refresh()
+                    }
+                },
+                object : AbstractAction("Copy JSON") {
+                    override fun actionPerformed(e: ActionEvent?) {
+                        CopyPasteManager.getInstance().setContents(StringSelection(CachedDataStatistics.getInstance().statisticsJson))
+                    }
+                }
+            )
+        }
+    }
+}
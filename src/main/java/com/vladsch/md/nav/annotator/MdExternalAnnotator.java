@@ -12,11 +12,12 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiFile;
 import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.md.nav.highlighter.MdLargeFileMode;
 import com.vladsch.md.nav.highlighter.MdSyntaxHighlighter;
 import com.vladsch.md.nav.parser.LexerData;
-import com.vladsch.md.nav.parser.LexerToken;
 import com.vladsch.md.nav.parser.MdLexParserManager;
 import com.vladsch.md.nav.parser.MdLexemeProcessor;
+import com.vladsch.md.nav.parser.PackedLexerTokens;
 import com.vladsch.md.nav.settings.MdApplicationSettings;
 import com.vladsch.md.nav.settings.MdParserSettings;
 import com.vladsch.md.nav.settings.MdRenderingProfile;
@@ -25,15 +26,12 @@ import com.vladsch.md.nav.settings.SyntaxHighlightingType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-
 import static com.vladsch.flexmark.util.sequence.BasedSequence.EMPTY;
 
-public class MdExternalAnnotator extends ExternalAnnotator<MdExternalAnnotator.ProjectCharSequence, LexerToken[]> {
+public class MdExternalAnnotator extends ExternalAnnotator<MdExternalAnnotator.ProjectCharSequence, PackedLexerTokens> {
     private static final Logger LOG = Logger.getInstance("com.vladsch.md.nav.annotator.external");
 
     private static final SyntaxHighlighter SYNTAX_HIGHLIGHTER = new MdSyntaxHighlighter();
-    private static final LexerToken[] LEXER_TOKENS = new LexerToken[0];
 
     public MdExternalAnnotator() {
 
@@ -57,7 +55,7 @@ public class MdExternalAnnotator extends ExternalAnnotator<MdExternalAnnotator.P
     @Override
     public ProjectCharSequence collectInformation(@NotNull PsiFile file) {
         LOG.debug("collectInformation for " + file + " of type " + file.getFileType());
-        if (MdApplicationSettings.getInstance().getDocumentSettings().getSyntaxHighlighting() == SyntaxHighlightingType.ANNOTATOR.getIntValue())
+        if (MdApplicationSettings.getInstance().getDocumentSettings().getSyntaxHighlighting() == SyntaxHighlightingType.ANNOTATOR.getIntValue() && !MdLargeFileMode.isLargeFile(file))
             return new ProjectCharSequence(file.getProject(), BasedSequence.of(file.getText()), file.toString(), MdRenderingProfileManager.getProfile(file));
         return new ProjectCharSequence(file.getProject(), EMPTY, file.toString(), MdRenderingProfileManager.getProfile(file));
     }
@@ -66,13 +64,13 @@ public class MdExternalAnnotator extends ExternalAnnotator<MdExternalAnnotator.P
     @Override
     public ProjectCharSequence collectInformation(@NotNull PsiFile file, @NotNull Editor editor, boolean hasErrors) {
         LOG.debug("collectInformation editor, hasErrors for " + file + " of type " + file.getFileType());
-        if (MdApplicationSettings.getInstance().getDocumentSettings().getSyntaxHighlighting() == SyntaxHighlightingType.ANNOTATOR.getIntValue())
+        if (MdApplicationSettings.getInstance().getDocumentSettings().getSyntaxHighlighting() == SyntaxHighlightingType.ANNOTATOR.getIntValue() && !MdLargeFileMode.isLargeFile(editor.getDocument()))
             return new ProjectCharSequence(file.getProject(), editor.getDocument().getImmutableCharSequence(), file.toString(), MdRenderingProfileManager.getProfile(file));
         return new ProjectCharSequence(file.getProject(), EMPTY, file.toString(), MdRenderingProfileManager.getProfile(file));
     }
 
     @Override
-    public LexerToken[] doAnnotate(final ProjectCharSequence source) {
+    public PackedLexerTokens doAnnotate(final ProjectCharSequence source) {
         LOG.debug("doAnnotate editor, hasErrors for " + source.mySource);
         if (MdApplicationSettings.getInstance().getDocumentSettings().getSyntaxHighlighting() == SyntaxHighlightingType.ANNOTATOR.getIntValue()) {
             final MdRenderingProfile renderingProfile = source.myRenderingProfile;
@@ -85,30 +83,30 @@ public class MdExternalAnnotator extends ExternalAnnotator<MdExternalAnnotator.P
                 lexerData[0] = MdLexParserManager.parseMarkdown(renderingProfile, source.myCharSequence);
             });
             if (lexerData[0] != null) {
-                LexerToken[] tokens = lexerData[0].lexerTokens;
+                PackedLexerTokens tokens = lexerData[0].tokens;
                 // parse whitespace and EOL as per lexer
                 CharSequence chars = source.myCharSequence;
                 MdLexemeProcessor processor = new MdLexemeProcessor(chars, tokens, 0, chars.length(), 0);
-                ArrayList<LexerToken> tokenList = new ArrayList<>();
-                while (true) {
-                    LexerToken token = processor.getLexerToken();
-                    if (token == null) break;
-                    tokenList.add(token);
+                PackedLexerTokens tokensWithWhiteSpace = new PackedLexerTokens(tokens.size() * 2 + 1);
+                while (processor.getTokenType() != null) {
+                    tokensWithWhiteSpace.add(processor.getTokenStart(), processor.getTokenEnd(), processor.getTokenType(), processor.getTokenNesting());
                     processor.advance();
                 }
-                LexerToken[] tokensWithWhiteSpace = tokenList.toArray(LEXER_TOKENS);
                 return tokensWithWhiteSpace;
             }
         }
-        return LEXER_TOKENS;
+        return PackedLexerTokens.empty();
     }
 
     @Override
-    public void apply(final @NotNull PsiFile file, final LexerToken[] annotationResult, final @NotNull AnnotationHolder holder) {
-        for (final LexerToken token : annotationResult) {
-            final TextAttributesKey[] attrs = SYNTAX_HIGHLIGHTER.getTokenHighlights(token.getElementType());
-            TextRange range = token.getTextRange();
-            if (attrs.length > 0) holder.createInfoAnnotation(range, null).setTextAttributes(attrs[0]);
+    public void apply(final @NotNull PsiFile file, final PackedLexerTokens annotationResult, final @NotNull AnnotationHolder holder) {
+        int iMax = annotationResult.size();
+        for (int i = 0; i < iMax; i++) {
+            final TextAttributesKey[] attrs = SYNTAX_HIGHLIGHTER.getTokenHighlights(annotationResult.getElementType(i));
+            if (attrs.length > 0) {
+                TextRange range = new TextRange(annotationResult.getStart(i), annotationResult.getEnd(i));
+                holder.createInfoAnnotation(range, null).setTextAttributes(attrs[0]);
+            }
         }
     }
 }
@@ -3,6 +3,7 @@
 package com.vladsch.md.nav.flex.parser
 
 import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer
+import com.intellij.ide.highlighter.JavaFileType
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.project.DumbService
@@ -14,6 +15,7 @@ import com.intellij.psi.PsiJavaFile
 import com.intellij.psi.impl.java.stubs.index.JavaFieldNameIndex
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.util.PsiTreeUtil
+import com.vladsch.md.nav.MdFileType
 import com.vladsch.md.nav.flex.psi.util.FlexmarkPsiImplUtils
 import com.vladsch.md.nav.parser.cache.CachedData
 import com.vladsch.md.nav.parser.cache.PsiClassProcessor
@@ -21,6 +23,7 @@ import com.vladsch.md.nav.parser.cache.PsiFileProcessor
 import com.vladsch.md.nav.parser.cache.data.CachedDataKey
 import com.vladsch.md.nav.parser.cache.data.ProjectCachedData
 import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFilePredicate
+import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFileScope
 import com.vladsch.md.nav.parser.cache.data.transaction.CachedTransactionContext
 import com.vladsch.md.nav.psi.element.MdFile
 import com.vladsch.md.nav.util.*
@@ -47,6 +50,9 @@ class FlexmarkProjectCachedData {
         val RENDERING_TEST_CASES_DATA: CachedDataKey<ProjectCachedData, Data> = object : CachedDataKey<ProjectCachedData, Data>("RENDERING_TEST_CASES_DATA"), ProjectFilePredicate {
             override fun isValid(value: Data): Boolean = value.isValid()
 
+            // only java test case classes and flexmark spec files affect the data
+            override fun getFileScope(): ProjectFileScope = ProjectFileScope().addFileType(JavaFileType.INSTANCE).addFileType(MdFileType.INSTANCE)
+
             override fun compute(context: CachedTransactionContext<ProjectCachedData>): Data {
                 val project = context.dataOwner.project
                 val psiClasses = PsiMap<PsiClass, Int> { HashMap() }
@@ -3,9 +3,11 @@
 package com.vladsch.md.nav.highlighter;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
 import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
 import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileTypes.EditorHighlighterProvider;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.SyntaxHighlighter;
@@ -24,6 +26,7 @@ public class MdEditorHighlighterProvider implements EditorHighlighterProvider {
     @Override
     public EditorHighlighter getEditorHighlighter(@Nullable Project project, @NotNull FileType fileType, @Nullable VirtualFile virtualFile, @NotNull EditorColorsScheme colors) {
         boolean forAnnotator = false;
+        Document largeFileDocument = null;
         MdRenderingProfile renderingProfile;
 
         if (virtualFile == null || project == null) {
@@ -31,9 +34,15 @@ public class MdEditorHighlighterProvider implements EditorHighlighterProvider {
         } else {
             renderingProfile = MdRenderingProfileManager.getProfile(project, virtualFile);
             forAnnotator = MdApplicationSettings.getInstance().getDocumentSettings().getSyntaxHighlighting() == SyntaxHighlightingType.ANNOTATOR.intValue && virtualFile.isWritable();
+
+            if (MdLargeFileMode.isLargeFile(virtualFile)) {
+                // annotator is not run for large files, highlight the visible window with the lexer
+                largeFileDocument = FileDocumentManager.getInstance().getDocument(virtualFile);
+                if (largeFileDocument != null) forAnnotator = false;
+            }
         }
 
-        SyntaxHighlighter mdSyntaxHighlighter = new MdSyntaxHighlighter(renderingProfile, false, forAnnotator);
+        SyntaxHighlighter mdSyntaxHighlighter = new MdSyntaxHighlighter(renderingProfile, false, forAnnotator, largeFileDocument);
         LexerEditorHighlighter highlighter = new LexerEditorHighlighter(mdSyntaxHighlighter, colors);
 
         if (LOG_EDITOR.isDebugEnabled()) LOG_EDITOR.debug(String.format("MdEditorHighlightProvider profile: %s, %s for writeable:%s, %s", renderingProfile.getProfileName(), mdSyntaxHighlighter.getHighlightingLexer().getClass().getSimpleName(), virtualFile != null && virtualFile.isWritable(), virtualFile));
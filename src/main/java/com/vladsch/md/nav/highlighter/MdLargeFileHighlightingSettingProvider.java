@@ -0,0 +1,26 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.highlighter;
+
+import com.intellij.codeInsight.daemon.impl.analysis.DefaultHighlightingSettingProvider;
+import com.intellij.codeInsight.daemon.impl.analysis.FileHighlightingSetting;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vladsch.md.nav.MdFileType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Skips daemon highlighting, annotators, inspections and line markers, of large markdown files so that editing
+ * them does not build their PSI. Syntax highlighting of the editor is done by the lexer and is not affected.
+ */
+public class MdLargeFileHighlightingSettingProvider extends DefaultHighlightingSettingProvider {
+    @Nullable
+    @Override
+    public FileHighlightingSetting getDefaultSetting(@NotNull Project project, @NotNull VirtualFile file) {
+        if (file.getFileType() == MdFileType.INSTANCE && MdLargeFileMode.isLargeFile(file)) {
+            return FileHighlightingSetting.SKIP_HIGHLIGHTING;
+        }
+        return null;
+    }
+}
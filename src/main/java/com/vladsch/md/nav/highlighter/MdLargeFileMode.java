@@ -0,0 +1,199 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.highlighter;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.LogicalPosition;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.vladsch.md.nav.parser.MdWindowedLexer;
+import com.vladsch.md.nav.parser.MdWindowedLexer.HighlightWindow;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import com.vladsch.md.nav.settings.MdDocumentSettings;
+import com.vladsch.md.nav.util.MdCancelableJobScheduler;
+import com.vladsch.plugin.util.AwtRunnable;
+import com.vladsch.plugin.util.CancellableRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * Large file mode: files over the size or line count threshold of document settings are highlighted by
+ * {@link MdWindowedLexer} around the visible area of the editor and PSI based editor features are skipped.
+ * <p>
+ * Daemon highlighting is skipped by {@link MdLargeFileHighlightingSettingProvider}, so the editor does not build the
+ * file's PSI. Stubs and indices are still built, PSI is built when a feature like navigation asks for it.
+ */
+public class MdLargeFileMode {
+    private static final Logger LOG = Logger.getInstance("com.vladsch.md.nav.highlighter.large-file");
+
+    // text around the visible area included in the highlighting window
+    public static final int WINDOW_MARGIN = 32 * 1024;
+    public static final int SCROLL_UPDATE_DELAY = 150;
+
+    private static final Key<Disposable> WINDOW_UPDATER_KEY = Key.create("MdLargeFileMode.windowUpdater");
+
+    public static boolean isLargeFile(int textLength, int lineCount) {
+        MdDocumentSettings documentSettings = MdApplicationSettings.getInstance().getDocumentSettings();
+        int largeFileSize = documentSettings.getLargeFileSize();
+        int largeFileLineCount = documentSettings.getLargeFileLineCount();
+        return largeFileSize > 0 && textLength >= largeFileSize || largeFileLineCount > 0 && lineCount >= largeFileLineCount;
+    }
+
+    public static boolean isLargeFile(@NotNull Document document) {
+        return isLargeFile(document.getTextLength(), document.getLineCount());
+    }
+
+    public static boolean isLargeFile(@Nullable VirtualFile virtualFile) {
+        if (virtualFile == null) return false;
+
+        Document document = FileDocumentManager.getInstance().getCachedDocument(virtualFile);
+        if (document != null) return isLargeFile(document);
+
+        // byte length is close enough before the document is loaded
+        return isLargeFile((int) Math.min(virtualFile.getLength(), Integer.MAX_VALUE), 0);
+    }
+
+    public static boolean isLargeFile(@Nullable PsiFile psiFile) {
+        if (psiFile == null) return false;
+
+        Document document = PsiDocumentManager.getInstance(psiFile.getProject()).getCachedDocument(psiFile);
+        if (document != null) return isLargeFile(document);
+        return isLargeFile(psiFile.getTextLength(), 0);
+    }
+
+    /**
+     * Move the highlighting window of large file editors to follow the visible area, re-highlighting when it moves
+     * out of the current window, and shift the window with edits before it
+     *
+     * @param editor           editor
+     * @param parentDisposable disposable of the editor's project, listeners are removed when it or the editor is released
+     */
+    public static void installWindowUpdater(@NotNull EditorEx editor, @NotNull Disposable parentDisposable) {
+        if (editor.getUserData(WINDOW_UPDATER_KEY) != null) return;
+
+        Disposable windowUpdater = Disposer.newDisposable("MdLargeFileMode.windowUpdater");
+        Disposer.register(parentDisposable, windowUpdater);
+        editor.putUserData(WINDOW_UPDATER_KEY, windowUpdater);
+
+        CancellableRunnable[] pendingUpdate = new CancellableRunnable[] { CancellableRunnable.NULL };
+        VisibleAreaListener listener = e -> {
+            pendingUpdate[0].cancel();
+            pendingUpdate[0] = AwtRunnable.schedule(MdCancelableJobScheduler.getInstance(), "MdLargeFileMode.updateWindow", SCROLL_UPDATE_DELAY, ModalityState.any(), () -> {
+                if (!editor.isDisposed()) updateWindow(editor);
+            });
+        };
+
+        editor.getScrollingModel().addVisibleAreaListener(listener);
+        Disposer.register(windowUpdater, () -> {
+            pendingUpdate[0].cancel();
+            editor.getScrollingModel().removeVisibleAreaListener(listener);
+            editor.putUserData(WINDOW_UPDATER_KEY, null);
+        });
+
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void beforeDocumentChange(@NotNull DocumentEvent event) {
+                // before the highlighter re-lexes the change
+                HighlightWindow highlightWindow = getHighlightWindow(editor);
+                if (highlightWindow != null) {
+                    highlightWindow.setRange(shiftWindow(highlightWindow.getRange(), event.getOffset(), event.getOldLength(), event.getNewLength()));
+                }
+            }
+        }, windowUpdater);
+
+        updateWindow(editor);
+    }
+
+    /**
+     * Remove the window updater of a released editor
+     *
+     * @param editor editor
+     */
+    public static void editorReleased(@NotNull Editor editor) {
+        Disposable windowUpdater = editor.getUserData(WINDOW_UPDATER_KEY);
+        if (windowUpdater != null) Disposer.dispose(windowUpdater);
+    }
+
+    /**
+     * Highlight window after an edit, moved with text inserted or deleted before it and resized by edits inside it
+     *
+     * @param window    highlight window or null
+     * @param offset    edit offset
+     * @param oldLength length of replaced text
+     * @param newLength length of inserted text
+     * @return highlight window for the edited text
+     */
+    @Nullable
+    static TextRange shiftWindow(@Nullable TextRange window, int offset, int oldLength, int newLength) {
+        if (window == null) return null;
+
+        int start = window.getStartOffset();
+        int end = window.getEndOffset();
+        int delta = newLength - oldLength;
+
+        if (offset >= end) return window;
+        if (offset + oldLength <= start) return new TextRange(start + delta, end + delta);
+
+        // edit overlaps the window, include all of the inserted text
+        int newStart = Math.min(start, offset);
+        int newEnd = Math.max(end + delta, offset + newLength);
+        return new TextRange(newStart, Math.max(newStart, newEnd));
+    }
+
+    @Nullable
+    private static HighlightWindow getHighlightWindow(@NotNull EditorEx editor) {
+        EditorHighlighter highlighter = editor.getHighlighter();
+        if (!(highlighter instanceof LexerEditorHighlighter)) return null;
+        if (!(((LexerEditorHighlighter) highlighter).getSyntaxHighlighter() instanceof MdSyntaxHighlighter)) return null;
+
+        // each editor has its own highlighter, the window follows only this editor's visible area
+        return ((MdSyntaxHighlighter) ((LexerEditorHighlighter) highlighter).getSyntaxHighlighter()).getHighlightWindow();
+    }
+
+    static void updateWindow(@NotNull EditorEx editor) {
+        HighlightWindow highlightWindow = getHighlightWindow(editor);
+        if (highlightWindow == null) return;
+
+        Document document = editor.getDocument();
+        CharSequence text = document.getImmutableCharSequence();
+        int length = text.length();
+
+        Rectangle visibleArea = editor.getScrollingModel().getVisibleArea();
+        int visibleStart = editor.logicalPositionToOffset(editor.xyToLogicalPosition(visibleArea.getLocation()));
+        LogicalPosition endPosition = editor.xyToLogicalPosition(new Point(visibleArea.x + visibleArea.width, visibleArea.y + visibleArea.height));
+        int visibleEnd = editor.logicalPositionToOffset(endPosition);
+
+        TextRange window = highlightWindow.getRange();
+        if (window != null && window.getStartOffset() <= Math.max(0, visibleStart - WINDOW_MARGIN / 2) && window.getEndOffset() >= Math.min(length, visibleEnd + WINDOW_MARGIN / 2)) {
+            // still well inside the window
+            return;
+        }
+
+        int windowStart = Math.max(0, visibleStart - WINDOW_MARGIN);
+        int windowEnd = Math.min(length, visibleEnd + WINDOW_MARGIN);
+        highlightWindow.setRange(new TextRange(windowStart, windowEnd));
+
+        if (LOG.isDebugEnabled()) LOG.debug(String.format("highlight window [%d, %d) of %d for %s", windowStart, windowEnd, length, editor.getVirtualFile()));
+
+        // re-lex with the new window
+        editor.setHighlighter(editor.getHighlighter());
+    }
+}
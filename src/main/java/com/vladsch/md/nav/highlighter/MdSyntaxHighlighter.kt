@@ -2,6 +2,7 @@
 package com.vladsch.md.nav.highlighter
 
 import com.intellij.lexer.Lexer
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.colors.EditorColorsManager
 import com.intellij.openapi.editor.colors.TextAttributesKey
 import com.intellij.openapi.editor.colors.impl.EditorColorsManagerImpl
@@ -12,6 +13,7 @@ import com.intellij.psi.tree.IElementType
 import com.intellij.psi.tree.TokenSet
 import com.vladsch.md.nav.parser.MdLexer
 import com.vladsch.md.nav.parser.MdPlainTextLexer
+import com.vladsch.md.nav.parser.MdWindowedLexer
 import com.vladsch.md.nav.psi.util.MdTokenSets.*
 import com.vladsch.md.nav.settings.MdApplicationSettings
 import com.vladsch.md.nav.settings.MdRenderingProfile
@@ -21,19 +23,24 @@ import java.util.*
 import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.collections.HashMap
 
-class MdSyntaxHighlighter constructor(val renderingProfile: MdRenderingProfile, val forSampleDoc: Boolean, val forAnnotator: Boolean) : SyntaxHighlighterBase() {
+class MdSyntaxHighlighter @JvmOverloads constructor(val renderingProfile: MdRenderingProfile, val forSampleDoc: Boolean, val forAnnotator: Boolean, val largeFileDocument: Document? = null) : SyntaxHighlighterBase() {
 
     constructor() : this(MdRenderingProfile.DEFAULT, false, false)
 
+    // highlighters are per editor, so is the large file highlighting window
+    val highlightWindow = MdWindowedLexer.HighlightWindow()
+
     override fun getHighlightingLexer(): Lexer {
         val noSyntax = MdApplicationSettings.instance.documentSettings.syntaxHighlighting == SyntaxHighlightingType.NONE.intValue
         val renderingProfile = this.renderingProfile
+        val largeFileDocument = this.largeFileDocument
         return when {
             forAnnotator -> MdPlainTextLexer()
             forSampleDoc -> MdLexer(MdRenderingProfile.FOR_SAMPLE_DOC)
             noSyntax -> PlainTextSyntaxHighlighterFactory.createPlainTextLexer()
+            largeFileDocument != null -> MdWindowedLexer(renderingProfile, highlightWindow)
             else ->
-                MdLexer(renderingProfile)
+                MdLexer(renderingProfile, true)
         }
     }
 
@@ -10,7 +10,9 @@ import com.intellij.psi.*
 import com.intellij.psi.impl.source.tree.LeafPsiElement
 import com.intellij.util.NullableFunction
 import com.vladsch.md.nav.MdBundle
+import com.vladsch.md.nav.highlighter.MdLargeFileMode
 import com.vladsch.md.nav.language.api.MdLineMarkerExtension
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks
 import com.vladsch.md.nav.psi.element.*
 import com.vladsch.md.nav.psi.reference.MdPsiReference
 import com.vladsch.md.nav.psi.text.MdLineSelectionFakePsiElement
@@ -115,6 +117,19 @@ class MdLineMarkerProvider : RelatedItemLineMarkerProvider() {
         return options.toTypedArray()
     }
 
+    override fun collectNavigationMarkers(elements: MutableList<out PsiElement>, result: MutableCollection<in RelatedItemLineMarkerInfo<*>>, forNavigation: Boolean) {
+        // elements of a pass are from one file
+        if (elements.isEmpty() || MdLargeFileMode.isLargeFile(elements[0].containingFile)) return
+
+        val file = elements[0].containingFile
+        if (file is MdFile && MdApplicationSettings.instance.documentSettings.enableLineMarkers) {
+            // link references below get their targets from the file's cached links instead of matching links one at a time
+            MdCachedResolvedLinks.resolveAllLinks(file)
+        }
+
+        super.collectNavigationMarkers(elements, result, forNavigation)
+    }
+
     override fun collectNavigationMarkers(element: PsiElement, result: MutableCollection<in RelatedItemLineMarkerInfo<*>>) {
         if (!MdApplicationSettings.instance.documentSettings.enableLineMarkers) return
 
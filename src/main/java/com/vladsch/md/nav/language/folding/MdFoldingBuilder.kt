@@ -9,6 +9,7 @@ import com.intellij.openapi.diagnostic.debug
 import com.intellij.openapi.editor.Document
 import com.intellij.psi.PsiElement
 import com.vladsch.md.nav.MdBundle
+import com.vladsch.md.nav.highlighter.MdLargeFileMode
 import com.vladsch.md.nav.language.api.MdFoldingBuilderProvider
 import com.vladsch.md.nav.psi.element.MdPsiElement
 import com.vladsch.md.nav.psi.util.MdTypes.*
@@ -20,7 +21,7 @@ class MdFoldingBuilder private constructor(val settings: MdFoldingSettings) : Fo
     private val defaultPlaceHolderText = MdBundle.message("code-folding.default.placeholder")
 
     override fun buildFoldRegions(root: PsiElement, document: Document, quick: Boolean): Array<FoldingDescriptor> {
-        if (root !is MdPsiElement) {
+        if (root !is MdPsiElement || MdLargeFileMode.isLargeFile(document)) {
             return EMPTY_DESCRIPTORS
         }
 
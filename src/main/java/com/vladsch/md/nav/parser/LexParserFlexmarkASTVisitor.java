@@ -79,6 +79,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Stack;
@@ -115,8 +116,9 @@ public class LexParserFlexmarkASTVisitor implements MdParser,
     NodeVisitor myVisitor;
     boolean parseHtmlBlocks = !MdApplicationSettings.getInstance().getDocumentSettings().getHtmlLangInjections();
     private final int length;
+    private final MdParseBudget myBudget;
 
-    protected final ArrayList<LexerToken> tokens = new ArrayList<>(100);
+    protected final PackedLexerTokens tokens = new PackedLexerTokens(256);
 
     final private Document myDocument;
 
@@ -128,7 +130,12 @@ public class LexParserFlexmarkASTVisitor implements MdParser,
     final private Map<IElementType, IElementType> TEXT_TOKEN_TYPE_MAP;
 
     public LexParserFlexmarkASTVisitor(final Document document) {
+        this(document, MdParseBudget.UNLIMITED);
+    }
+
+    public LexParserFlexmarkASTVisitor(final Document document, @NotNull MdParseBudget budget) {
         this.myDocument = document;
+        this.myBudget = budget;
         this.length = document.getEndOffset();
         this.rootASTNode = new MdASTCompositeNode(MdParserDefinition.MARKDOWN_FILE, 0, this.length);
         this.currentASTNode = this.rootASTNode;
@@ -176,10 +183,20 @@ public class LexParserFlexmarkASTVisitor implements MdParser,
         return myDocument;
     }
 
-    public ArrayList<LexerToken> getTokens() {
+    @NotNull
+    public PackedLexerTokens getPackedTokens() {
         return tokens;
     }
 
+    /**
+     * @return copy of tokens as objects
+     * @deprecated use {@link #getPackedTokens()}
+     */
+    @Deprecated
+    public ArrayList<LexerToken> getTokens() {
+        return new ArrayList<>(Arrays.asList(tokens.toTokenArray()));
+    }
+
     @NotNull
     public MdASTCompositeNode getRootASTNode() {
         return rootASTNode;
@@ -209,11 +226,44 @@ public class LexParserFlexmarkASTVisitor implements MdParser,
     }
 
     public void build() {
-        myVisitor.visit(myDocument);
+        try {
+            myVisitor.visit(myDocument);
+        } catch (MdParseBudget.ExceededException e) {
+            buildPlainText(e.getNode());
+        }
+    }
+
+    /**
+     * Replace tokens and AST nodes of the top level block containing the node and all following blocks by plain text tokens
+     *
+     * @param node node at which the time budget was exceeded
+     */
+    private void buildPlainText(@NotNull Node node) {
+        Node topLevelNode = node;
+        while (topLevelNode.getParent() != null && !(topLevelNode.getParent() instanceof Document)) {
+            topLevelNode = topLevelNode.getParent();
+        }
+
+        int regionStart = Math.min(topLevelNode.getStartOffset(), length);
+        myBudget.setExceeded(node, regionStart, myDocument.getLineNumber(regionStart));
+
+        tokens.removeEndingAfter(regionStart);
+        rootASTNode.getChildren().removeIf(astNode -> astNode.getEndOffset() > regionStart);
+        currentASTNode = rootASTNode;
+        astNodeStack.clear();
+        parentRanges.clear();
+
+        MdPlainTextLexer lexer = new MdPlainTextLexer();
+        lexer.start(myDocument.getChars(), regionStart, length, 0);
+        while (lexer.getTokenType() != null) {
+            tokens.add(lexer.getTokenStart(), lexer.getTokenEnd(), lexer.getTokenType(), 0);
+            lexer.advance();
+        }
     }
 
     @Override
     public void visitChildren(Node node) {
+        if (node instanceof Block) myBudget.check(node);
         myVisitor.visitChildren(node);
     }
 
@@ -1152,9 +1202,9 @@ public class LexParserFlexmarkASTVisitor implements MdParser,
                     } else {
                         combinedType = processCombinationAncestors(tokenType, tokenType);
                     }
-                    tokens.add(new LexerToken(range, combinedType, parentRanges.size()));
+                    tokens.add(range.getStart(), range.getEnd(), combinedType, parentRanges.size());
                 } else {
-                    tokens.add(new LexerToken(range, tokenType, parentRanges.size()));
+                    tokens.add(range.getStart(), range.getEnd(), tokenType, parentRanges.size());
                 }
             }
         }
@@ -1175,7 +1225,7 @@ public class LexParserFlexmarkASTVisitor implements MdParser,
             SegmentedRange range = processAncestors(new SegmentedRange(startIndex, endIndex, tokenType, originalTokenType));
             tokenType = range.getTokenType();
             for (Range subRange : range.getSegments()) {
-                if (!subRange.isEmpty()) tokens.add(new LexerToken(subRange, tokenType, parentRanges.size()));
+                if (!subRange.isEmpty()) tokens.add(subRange.getStart(), subRange.getEnd(), tokenType, parentRanges.size());
             }
         }
     }
@@ -6,13 +6,39 @@ import com.vladsch.md.nav.parser.ast.MdASTCompositeNode;
 import org.jetbrains.annotations.NotNull;
 
 public class LexerData {
-    @NotNull public final LexerToken[] lexerTokens;
+    @NotNull public final PackedLexerTokens tokens;
     //@NotNull public final Map<Integer, String> headerOffsetAnchorIds;
     @NotNull public final MdASTCompositeNode rootNode;
 
-    public LexerData(@NotNull LexerToken[] lexerTokens, /*@NotNull Map<Integer, String> headerOffsetAnchorIds,*/ @NotNull MdASTCompositeNode rootNode) {
+    /**
+     * Object form of {@link #tokens}, kept for extensions reading the field
+     *
+     * @deprecated use {@link #tokens}, which does not need an object per token
+     */
+    @Deprecated
+    @NotNull public final LexerToken[] lexerTokens;
+
+    public LexerData(@NotNull PackedLexerTokens tokens, /*@NotNull Map<Integer, String> headerOffsetAnchorIds,*/ @NotNull MdASTCompositeNode rootNode) {
+        this(tokens, tokens.toTokenArray(), rootNode);
+    }
+
+    public LexerData(@NotNull LexerToken[] lexerTokens, @NotNull MdASTCompositeNode rootNode) {
+        this(PackedLexerTokens.of(lexerTokens), lexerTokens, rootNode);
+    }
+
+    private LexerData(@NotNull PackedLexerTokens tokens, @NotNull LexerToken[] lexerTokens, @NotNull MdASTCompositeNode rootNode) {
+        this.tokens = tokens;
         this.lexerTokens = lexerTokens;
         //this.headerOffsetAnchorIds = headerOffsetAnchorIds;
         this.rootNode = rootNode;
     }
+
+    /**
+     * @return lexer tokens, same as the {@link #lexerTokens} field
+     */
+    @SuppressWarnings("deprecation")
+    @NotNull
+    public LexerToken[] getLexerTokens() {
+        return lexerTokens;
+    }
 }
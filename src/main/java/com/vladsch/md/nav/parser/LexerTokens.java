@@ -0,0 +1,63 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Read only lexer tokens, implemented by {@link PackedLexerTokens} and by views of them
+ */
+public interface LexerTokens {
+    int size();
+
+    int getStart(int index);
+
+    int getEnd(int index);
+
+    int getNesting(int index);
+
+    short getTypeIndex(int index);
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @NotNull
+    default IElementType getElementType(int index) {
+        return PackedLexerTokens.elementType(getTypeIndex(index));
+    }
+
+    /**
+     * Index of first token whose start is at or after the given offset, tokens must be sorted by start offset
+     *
+     * @param offset offset
+     * @return index of first token starting at or after offset, size() if none
+     */
+    default int findStartIndex(int offset) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getStart(mid) < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    @NotNull
+    default LexerToken getToken(int index) {
+        return new LexerToken(getStart(index), getEnd(index), getElementType(index), getNesting(index));
+    }
+
+    @NotNull
+    default LexerToken[] toTokenArray() {
+        int size = size();
+        if (size == 0) return MdLexParser.EMPTY_TOKENS;
+
+        LexerToken[] lexerTokens = new LexerToken[size];
+        for (int i = 0; i < size; i++) {
+            lexerTokens[i] = getToken(i);
+        }
+        return lexerTokens;
+    }
+}
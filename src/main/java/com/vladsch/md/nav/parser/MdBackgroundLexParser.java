@@ -0,0 +1,601 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.ex.EditorDocumentPriorities;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.ex.PrioritizedDocumentListener;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.md.nav.highlighter.MdSyntaxHighlighter;
+import com.vladsch.md.nav.parser.ast.MdASTNode;
+import com.vladsch.md.nav.parser.ast.MdASTVisitor;
+import com.vladsch.md.nav.parser.api.HtmlPurpose;
+import com.vladsch.md.nav.parser.api.ParserPurpose;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import com.vladsch.md.nav.settings.MdRenderingProfileManager;
+import com.vladsch.md.nav.util.MdCancelableJobScheduler;
+import com.vladsch.plugin.util.CancellableRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+
+/**
+ * Parses open markdown documents in the background after each change and publishes the resulting lexer data
+ * so that the editor highlighter lexer does not run flexmark on the EDT.
+ * <p>
+ * {@link MdLexer} uses the published data when it was parsed from the text being lexed. Until the parse of the
+ * latest change is published, the highlighter lexer gets provisional data: the last published tokens with the
+ * edited range removed and the tokens after it shifted. Provisional data is a view of the published data, built
+ * in constant time from the document edits since the parse. Editors which were highlighted with provisional data
+ * get a new highlighter when the parse is published, lexed from the published data.
+ */
+public class MdBackgroundLexParser {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.background");
+
+    public static final int PARSE_DELAY = 25;
+
+    private static MdBackgroundLexParser DEFAULT = null;
+
+    @NotNull
+    public static MdBackgroundLexParser getInstance() {
+        if (ApplicationManager.getApplication() == null) {
+            if (DEFAULT == null) DEFAULT = new MdBackgroundLexParser();
+            return DEFAULT;
+        }
+        return ServiceManager.getService(MdBackgroundLexParser.class);
+    }
+
+    private static class Published {
+        final long stamp;
+        final @NotNull CharSequence text;
+        final @NotNull DataHolder options;
+        final @NotNull LexerData lexerData;
+        final boolean degraded;
+
+        Published(long stamp, @NotNull CharSequence text, @NotNull DataHolder options, @NotNull LexerData lexerData, boolean degraded) {
+            this.stamp = stamp;
+            this.text = text;
+            this.options = options;
+            this.lexerData = lexerData;
+            this.degraded = degraded;
+        }
+    }
+
+    /**
+     * Read only lexer data for highlighting, published data or a provisional view of it
+     */
+    static class LexerView {
+        final @NotNull LexerTokens tokens;
+        final @NotNull MdASTNode rootNode;
+        // published lexer data, null for provisional data
+        final @Nullable LexerData lexerData;
+
+        LexerView(@NotNull LexerTokens tokens, @NotNull MdASTNode rootNode, @Nullable LexerData lexerData) {
+            this.tokens = tokens;
+            this.rootNode = rootNode;
+            this.lexerData = lexerData;
+        }
+    }
+
+    // document change, offsets of the text at the time of the change
+    private static class Edit {
+        final long stamp;
+        final int offset;
+        final int oldLength;
+        final int newLength;
+
+        Edit(long stamp, int offset, int oldLength, int newLength) {
+            this.stamp = stamp;
+            this.offset = offset;
+            this.oldLength = oldLength;
+            this.newLength = newLength;
+        }
+    }
+
+    /**
+     * Union of edits after the given stamp
+     *
+     * @param edits edits in the order they were made
+     * @param stamp modification stamp of the text the range is relative to
+     * @return start and end of the changed range in the text after the edits and the change in length, null if no edits
+     */
+    @Nullable
+    private static int[] changedRange(@NotNull List<Edit> edits, long stamp) {
+        int start = -1;
+        int end = -1;
+        int delta = 0;
+
+        for (Edit edit : edits) {
+            if (edit.stamp <= stamp) continue;
+
+            int editDelta = edit.newLength - edit.oldLength;
+            int editEnd = edit.offset + edit.newLength;
+
+            if (start == -1) {
+                start = edit.offset;
+                end = editEnd;
+            } else {
+                end = edit.offset + edit.oldLength <= end ? Math.max(end + editDelta, editEnd) : editEnd;
+                start = Math.min(start, edit.offset);
+            }
+            delta += editDelta;
+        }
+        return start == -1 ? null : new int[] { start, end, delta };
+    }
+
+    private class DocumentParser implements PrioritizedDocumentListener {
+        final @NotNull Project project;
+        final @NotNull VirtualFile virtualFile;
+        final @NotNull Document document;
+        int editorCount = 0;
+
+        volatile @Nullable Published published = null;
+        volatile long provisionalStamp = -1;
+        @Nullable MdIncrementalLexParser incrementalParser = null;
+        @Nullable DataHolder incrementalOptions = null;
+        @NotNull CancellableRunnable pendingParse = CancellableRunnable.NULL;
+        @Nullable EmptyProgressIndicator parseIndicator = null;
+        // key of this parser in myTextParsers
+        @Nullable CharSequence mappedText = null;
+
+        // edits not yet published or, with provisional highlighting, not yet re-highlighted
+        final @NotNull ArrayList<Edit> edits = new ArrayList<>();
+
+        DocumentParser(@NotNull Project project, @NotNull VirtualFile virtualFile, @NotNull Document document) {
+            this.project = project;
+            this.virtualFile = virtualFile;
+            this.document = document;
+        }
+
+        @Override
+        public int getPriority() {
+            // edits are recorded before the highlighter lexes the changed text
+            return EditorDocumentPriorities.LEXER_EDITOR - 1;
+        }
+
+        @Override
+        public void documentChanged(@NotNull DocumentEvent event) {
+            synchronized (this) {
+                edits.add(new Edit(document.getModificationStamp(), event.getOffset(), event.getOldLength(), event.getNewLength()));
+            }
+            updateText(this);
+            scheduleParse();
+        }
+
+        @Nullable
+        synchronized int[] changedRange(long stamp) {
+            if (edits.isEmpty() || edits.get(edits.size() - 1).stamp != document.getModificationStamp()) return null;
+            return MdBackgroundLexParser.changedRange(edits, stamp);
+        }
+
+        synchronized void scheduleParse() {
+            pendingParse.cancel();
+            if (parseIndicator != null) parseIndicator.cancel();
+
+            pendingParse = MdCancelableJobScheduler.getInstance().schedule("MdBackgroundLexParser.parse", PARSE_DELAY, () -> {
+                AppExecutorUtil.getAppExecutorService().execute(this::parse);
+            });
+        }
+
+        void parse() {
+            if (project.isDisposed() || !virtualFile.isValid()) return;
+
+            EmptyProgressIndicator indicator = new EmptyProgressIndicator();
+            synchronized (this) {
+                if (parseIndicator != null) parseIndicator.cancel();
+                parseIndicator = indicator;
+            }
+
+            try {
+                ProgressManager.getInstance().runProcess(() -> {
+                    Pair<Long, CharSequence> snapshot = ReadAction.compute(() -> Pair.create(document.getModificationStamp(), document.getImmutableCharSequence()));
+                    long stamp = snapshot.first;
+                    CharSequence text = snapshot.second;
+
+                    MdRenderingProfile renderingProfile = MdRenderingProfileManager.getProfile(project, virtualFile);
+                    DataHolder options = MdFlexmarkObjectCache.getInstance().getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+
+                    MdIncrementalLexParser parser;
+                    synchronized (this) {
+                        if (incrementalParser == null || incrementalOptions != options) {
+                            incrementalParser = new MdIncrementalLexParser(renderingProfile, true);
+                            incrementalOptions = options;
+                        }
+                        parser = incrementalParser;
+                    }
+
+                    LexerData lexerData;
+                    boolean degraded;
+                    synchronized (parser) {
+                        lexerData = parser.parseMarkdown(text);
+                        degraded = parser.isDegraded();
+                    }
+
+                    published = new Published(stamp, text, options, lexerData, degraded);
+                    if (LOG.isDebugEnabled()) LOG.debug(String.format("published stamp %d for %s", stamp, virtualFile));
+
+                    if (provisionalStamp != -1 && provisionalStamp <= stamp) {
+                        ApplicationManager.getApplication().invokeLater(() -> rehighlight(stamp), ModalityState.any(), project.getDisposed());
+                    } else if (provisionalStamp == -1) {
+                        synchronized (this) {
+                            edits.removeIf(edit -> edit.stamp <= stamp);
+                        }
+                    }
+                }, indicator);
+            } catch (ProcessCanceledException ignored) {
+                // next change will be parsed
+            } finally {
+                synchronized (this) {
+                    if (parseIndicator == indicator) parseIndicator = null;
+                }
+            }
+        }
+
+        void rehighlight(long stamp) {
+            if (document.getModificationStamp() != stamp || provisionalStamp == -1 || provisionalStamp > stamp) return;
+            provisionalStamp = -1;
+
+            synchronized (this) {
+                edits.clear();
+            }
+
+            for (Editor editor : EditorFactory.getInstance().getEditors(document)) {
+                if (editor instanceof EditorEx && !editor.isDisposed()) {
+                    EditorEx editorEx = (EditorEx) editor;
+                    EditorHighlighter highlighter = editorEx.getHighlighter();
+                    if (highlighter instanceof LexerEditorHighlighter && ((LexerEditorHighlighter) highlighter).getSyntaxHighlighter() instanceof MdSyntaxHighlighter) {
+                        // lexed from published data, no parsing on the EDT
+                        EditorHighlighter newHighlighter = EditorHighlighterFactory.getInstance().createEditorHighlighter(project, virtualFile);
+                        newHighlighter.setColorScheme(editorEx.getColorsScheme());
+                        editorEx.setHighlighter(newHighlighter);
+                    }
+                }
+            }
+        }
+
+        synchronized void dispose() {
+            pendingParse.cancel();
+            if (parseIndicator != null) parseIndicator.cancel();
+            document.removeDocumentListener(this);
+        }
+    }
+
+    private final ConcurrentHashMap<Document, DocumentParser> myDocumentParsers = new ConcurrentHashMap<>();
+
+    // current text of each document, immutable document text is the same instance for the same modification stamp
+    private final IdentityHashMap<CharSequence, DocumentParser> myTextParsers = new IdentityHashMap<>();
+
+    private void updateText(@NotNull DocumentParser documentParser) {
+        CharSequence text = documentParser.document.getImmutableCharSequence();
+        synchronized (myTextParsers) {
+            if (documentParser.mappedText != null) myTextParsers.remove(documentParser.mappedText);
+            documentParser.mappedText = text;
+            myTextParsers.put(text, documentParser);
+        }
+    }
+
+    private void removeText(@NotNull DocumentParser documentParser) {
+        synchronized (myTextParsers) {
+            if (documentParser.mappedText != null) myTextParsers.remove(documentParser.mappedText);
+            documentParser.mappedText = null;
+        }
+    }
+
+    /**
+     * Start background parsing of the editor's document, called for each markdown editor created
+     *
+     * @param project     project
+     * @param virtualFile file of the document
+     * @param document    document
+     */
+    public void editorCreated(@NotNull Project project, @NotNull VirtualFile virtualFile, @NotNull Document document) {
+        if (!MdApplicationSettings.getInstance().getDebugSettings().getBackgroundLexerParse()) return;
+
+        DocumentParser documentParser = myDocumentParsers.computeIfAbsent(document, doc -> {
+            DocumentParser parser = new DocumentParser(project, virtualFile, doc);
+            doc.addDocumentListener(parser);
+            updateText(parser);
+            return parser;
+        });
+
+        synchronized (documentParser) {
+            documentParser.editorCount++;
+        }
+
+        if (documentParser.published == null) {
+            documentParser.scheduleParse();
+        }
+    }
+
+    public void editorReleased(@NotNull Document document) {
+        DocumentParser documentParser = myDocumentParsers.get(document);
+        if (documentParser == null) return;
+
+        synchronized (documentParser) {
+            if (--documentParser.editorCount > 0) return;
+        }
+
+        myDocumentParsers.remove(document);
+        removeText(documentParser);
+        documentParser.dispose();
+    }
+
+    public void projectClosed(@NotNull Project project) {
+        myDocumentParsers.values().removeIf(documentParser -> {
+            if (documentParser.project != project) return false;
+            removeText(documentParser);
+            documentParser.dispose();
+            return true;
+        });
+    }
+
+    @Nullable
+    private DocumentParser findDocumentParser(@NotNull CharSequence buffer) {
+        synchronized (myTextParsers) {
+            return myTextParsers.get(buffer);
+        }
+    }
+
+    @Nullable
+    private Published findPublished(@NotNull DocumentParser documentParser, @NotNull MdRenderingProfile renderingProfile) {
+        Published published = documentParser.published;
+        if (published == null) return null;
+
+        DataHolder options = MdFlexmarkObjectCache.getInstance().getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        return published.options == options ? published : null;
+    }
+
+    /**
+     * Get published lexer data for the text of an open document
+     *
+     * @param renderingProfile rendering profile of the lexer
+     * @param buffer           text being lexed
+     * @return lexer data or null if the text has to be parsed
+     */
+    @Nullable
+    public LexerData getLexerData(@NotNull MdRenderingProfile renderingProfile, @NotNull CharSequence buffer) {
+        if (myDocumentParsers.isEmpty()) return null;
+
+        DocumentParser documentParser = findDocumentParser(buffer);
+        if (documentParser == null) return null;
+
+        // degraded lexer data is only used for highlighting, PSI is built from an exact parse
+        Published published = findPublished(documentParser, renderingProfile);
+        return published != null && published.text == buffer && !published.degraded ? published.lexerData : null;
+    }
+
+    /**
+     * Get published or provisional lexer data for highlighting the text of an open document
+     *
+     * @param renderingProfile rendering profile of the lexer
+     * @param buffer           text being lexed
+     * @return lexer view or null if the text has to be parsed
+     */
+    @Nullable
+    LexerView getHighlightingView(@NotNull MdRenderingProfile renderingProfile, @NotNull CharSequence buffer) {
+        if (myDocumentParsers.isEmpty()) return null;
+
+        DocumentParser documentParser = findDocumentParser(buffer);
+        if (documentParser == null) return null;
+
+        Published published = findPublished(documentParser, renderingProfile);
+        if (published == null) return null;
+
+        LexerData lexerData = published.lexerData;
+        if (published.text == buffer) return new LexerView(lexerData.tokens, lexerData.rootNode, lexerData);
+
+        int[] range = documentParser.changedRange(published.stamp);
+        LexerView lexerView = provisionalLexerView(published, buffer, range);
+        documentParser.provisionalStamp = documentParser.document.getModificationStamp();
+        return lexerView;
+    }
+
+    /**
+     * Previously published lexer data adjusted to the edited text: tokens and top level blocks overlapping the
+     * edited range are removed and the ones after it are shifted.
+     * <p>
+     * Tokens and blocks are views of the published data, shifted on access, only the changed range is searched.
+     *
+     * @param published published data
+     * @param text      edited text
+     * @param range     changed range from document edits after the published stamp, null to compare published and edited text
+     * @return lexer view
+     */
+    @NotNull
+    private static LexerView provisionalLexerView(@NotNull Published published, @NotNull CharSequence text, @Nullable int[] range) {
+        CharSequence oldText = published.text;
+        int oldLength = oldText.length();
+        int length = text.length();
+        int prefix;
+        int oldChangeEnd;
+
+        if (range != null && oldLength + range[2] == length) {
+            prefix = range[0];
+            oldChangeEnd = range[1] - range[2];
+        } else {
+            // edits were not recorded, compare the text
+            int maxCommon = Math.min(oldLength, length);
+
+            prefix = 0;
+            while (prefix < maxCommon && oldText.charAt(prefix) == text.charAt(prefix)) prefix++;
+
+            int suffix = 0;
+            while (suffix < maxCommon - prefix && oldText.charAt(oldLength - suffix - 1) == text.charAt(length - suffix - 1)) suffix++;
+
+            oldChangeEnd = oldLength - suffix;
+        }
+
+        int delta = length - oldLength;
+
+        LexerTokens oldTokens = published.lexerData.tokens;
+        int before = oldTokens.findStartIndex(prefix);
+        while (before > 0 && oldTokens.getEnd(before - 1) > prefix) before--;
+        int after = Math.max(before, oldTokens.findStartIndex(oldChangeEnd));
+
+        LexerTokens tokens = PackedLexerTokens.splicedView(oldTokens, before, after, delta);
+
+        // top level blocks outside the edit keep their block context
+        List<MdASTNode> children = published.lexerData.rootNode.getChildren();
+        int firstAfter = findFirstStartingAt(children, oldChangeEnd);
+        int lastBefore = firstAfter;
+        while (lastBefore > 0 && children.get(lastBefore - 1).getEndOffset() > prefix) lastBefore--;
+
+        MdASTNode rootNode = new SplicedRootNode(length, children, lastBefore, firstAfter, delta);
+        return new LexerView(tokens, rootNode, null);
+    }
+
+    private static int findFirstStartingAt(@NotNull List<MdASTNode> children, int offset) {
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (children.get(mid).getStartOffset() < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Root node with children of another node in [before, after) removed and the ones after them shifted on access
+     */
+    private static class SplicedRootNode implements MdASTNode {
+        private final int myLength;
+        private final @NotNull List<MdASTNode> myChildren;
+
+        SplicedRootNode(int length, @NotNull List<MdASTNode> children, int before, int after, int delta) {
+            myLength = length;
+            myChildren = new AbstractList<MdASTNode>() {
+                @Override
+                public MdASTNode get(int index) {
+                    return index < before ? children.get(index) : ShiftedNode.of(children.get(index - before + after), delta);
+                }
+
+                @Override
+                public int size() {
+                    return children.size() - (after - before);
+                }
+            };
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return myLength;
+        }
+
+        @Override
+        public IElementType getElementType() {
+            return MdParserDefinition.MARKDOWN_FILE;
+        }
+
+        @Override
+        public List<MdASTNode> getChildren() {
+            return myChildren;
+        }
+
+        @Override
+        public void accept(MdASTVisitor visitor) {
+            visitor.visitNode(this);
+        }
+
+        @Override
+        public void acceptChildren(MdASTVisitor visitor) {
+            for (MdASTNode child : myChildren) {
+                child.accept(visitor);
+            }
+        }
+    }
+
+    /**
+     * View of a node with offsets shifted by delta, children are shifted on access
+     */
+    private static class ShiftedNode implements MdASTNode {
+        private final @NotNull MdASTNode myNode;
+        private final int myDelta;
+
+        private ShiftedNode(@NotNull MdASTNode node, int delta) {
+            myNode = node;
+            myDelta = delta;
+        }
+
+        @NotNull
+        static MdASTNode of(@NotNull MdASTNode node, int delta) {
+            return delta == 0 ? node : new ShiftedNode(node, delta);
+        }
+
+        @Override
+        public int getStartOffset() {
+            return myNode.getStartOffset() + myDelta;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return myNode.getEndOffset() + myDelta;
+        }
+
+        @Override
+        public IElementType getElementType() {
+            return myNode.getElementType();
+        }
+
+        @Override
+        public List<MdASTNode> getChildren() {
+            List<MdASTNode> children = myNode.getChildren();
+            return new AbstractList<MdASTNode>() {
+                @Override
+                public MdASTNode get(int index) {
+                    return new ShiftedNode(children.get(index), myDelta);
+                }
+
+                @Override
+                public int size() {
+                    return children.size();
+                }
+            };
+        }
+
+        @Override
+        public void accept(MdASTVisitor visitor) {
+            // visitors expect concrete nodes
+            MdIncrementalLexParser.shiftNode(myNode, myDelta).accept(visitor);
+        }
+
+        @Override
+        public void acceptChildren(MdASTVisitor visitor) {
+            for (MdASTNode child : getChildren()) {
+                child.accept(visitor);
+            }
+        }
+    }
+}
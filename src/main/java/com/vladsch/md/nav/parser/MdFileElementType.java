@@ -14,6 +14,7 @@ import com.intellij.util.diff.FlyweightCapableTreeStructure;
 import com.vladsch.flexmark.util.misc.Utils;
 import com.vladsch.md.nav.MdLanguage;
 import com.vladsch.md.nav.psi.element.MdFileStub;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
 import com.vladsch.plugin.util.TestUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -21,7 +22,7 @@ import org.jetbrains.annotations.Nullable;
 public class MdFileElementType extends ILightStubFileElementType<MdFileStub> {
     public static final MdFileElementType INSTANCE = new MdFileElementType();
 
-    public static final int MD_INDEX_VERSION = 34;
+    public static final int MD_INDEX_VERSION = 37;
 
     private MdFileElementType() {
         super("psi.MdFile", MdLanguage.INSTANCE);
@@ -55,6 +56,18 @@ public class MdFileElementType extends ILightStubFileElementType<MdFileStub> {
             System.out.printf("Using profile: '%s' for injected element '%s'", mdLexer.renderingProfile.getProfileName(), Utils.escapeJavaString(chameleon.getText()));
         }
 
+        if (!wantProfileTrace && lexer instanceof MdLexer && MdApplicationSettings.getInstance().getDebugSettings().getLightStubTreeIndexing()) {
+            // stubs only need stub element subtrees, build them from lexer data without a PsiBuilder
+            CharSequence text = chameleon.getChars();
+            LexerData lexerData = MdLexParserManager.parseMarkdownForStubs(((MdLexer) lexer).renderingProfile, text);
+            return MdLightStubTree.build(text, lexerData);
+        }
+
+        if (lexer instanceof MdLexer) {
+            // same lexer data as the light stub tree, without caching the parse
+            lexer = MdLexer.createStubLexer(((MdLexer) lexer).renderingProfile);
+        }
+
         PsiBuilderFactory factory = PsiBuilderFactory.getInstance();
         PsiBuilder builder = factory.createBuilder(parserDefinition, lexer, chameleon.getText());
 
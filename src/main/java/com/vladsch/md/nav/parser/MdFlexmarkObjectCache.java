@@ -0,0 +1,334 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.data.DataKey;
+import com.vladsch.md.nav.parser.api.HtmlPurpose;
+import com.vladsch.md.nav.parser.api.ParserPurpose;
+import com.vladsch.md.nav.settings.MdHtmlSettings;
+import com.vladsch.md.nav.settings.MdParserSettings;
+import com.vladsch.md.nav.settings.MdPreviewSettings;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import com.vladsch.md.nav.settings.SettingsChangedListener;
+import com.vladsch.md.nav.settings.api.MdExtendableSettings;
+import com.vladsch.md.nav.settings.api.MdSettingsExtension;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+
+/**
+ * Cache of flexmark options and parsers built from a rendering profile for a given purpose.
+ * <p>
+ * Only for options which do not depend on a link resolver or per call adjustments. Entries are keyed by a fingerprint
+ * of the profile's parser, HTML, preview and CSS settings used in building the options, including settings extensions
+ * read by parser extensions. Cleared on application settings change and on project settings or rendering profile
+ * change, see MdProjectComponent. Entries of a project are removed when it is closed.
+ */
+public class MdFlexmarkObjectCache {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.cache");
+
+    public static final int MAX_ENTRIES = 32;
+
+    private static MdFlexmarkObjectCache DEFAULT = null;
+
+    @NotNull
+    public static MdFlexmarkObjectCache getInstance() {
+        if (ApplicationManager.getApplication() == null) {
+            if (DEFAULT == null) DEFAULT = new MdFlexmarkObjectCache();
+            return DEFAULT;
+        }
+        return ServiceManager.getService(MdFlexmarkObjectCache.class);
+    }
+
+    /**
+     * Fingerprint of the rendering profile settings used to build flexmark options and parsers
+     * <p>
+     * Holds values of parser, HTML, preview and CSS settings instead of the mutable profile, so that a copy of a profile,
+     * including a project profile whose style settings come from the project code style, maps to the same entry.
+     * Settings extensions of the profile and its parser, HTML and preview settings are compared with their own equals().
+     */
+    private static class Key {
+        final @NotNull ParserPurpose parserPurpose;
+        final @NotNull HtmlPurpose htmlPurpose;
+        final @Nullable Project project;
+        final int pegdownFlags;
+        final long optionsFlags;
+        final int emojiShortcuts;
+        final int emojiImages;
+        final boolean addAnchorLinks;
+        final boolean anchorLinksWrapText;
+        final boolean imageUriSerials;
+        final int plantUmlConversion;
+        final @NotNull Map<String, String> fencedCodeConversions;
+        final boolean synchronizePreviewPosition;
+        final int highlightPreviewType;
+        final boolean isDarkTheme;
+        final @NotNull List<MdSettingsExtension<?>> extensionSettings;
+        final int hashCode;
+
+        private Key(@NotNull ParserPurpose parserPurpose, @NotNull HtmlPurpose htmlPurpose, @NotNull MdRenderingProfile renderingProfile, @NotNull Map<String, String> fencedCodeConversions, @NotNull List<MdSettingsExtension<?>> extensionSettings) {
+            MdParserSettings parserSettings = renderingProfile.getParserSettings();
+            MdHtmlSettings htmlSettings = renderingProfile.getHtmlSettings();
+            MdPreviewSettings previewSettings = renderingProfile.getPreviewSettings();
+
+            this.parserPurpose = parserPurpose;
+            this.htmlPurpose = htmlPurpose;
+            this.project = renderingProfile.getProject();
+            this.pegdownFlags = parserSettings.getPegdownFlags();
+            this.optionsFlags = parserSettings.getOptionsFlags();
+            this.emojiShortcuts = parserSettings.getEmojiShortcuts();
+            this.emojiImages = parserSettings.getEmojiImages();
+            this.addAnchorLinks = htmlSettings.getAddAnchorLinks();
+            this.anchorLinksWrapText = htmlSettings.getAnchorLinksWrapText();
+            this.imageUriSerials = htmlSettings.getImageUriSerials();
+            this.plantUmlConversion = htmlSettings.getPlantUmlConversion();
+            this.fencedCodeConversions = fencedCodeConversions;
+            this.synchronizePreviewPosition = previewSettings.getSynchronizePreviewPosition();
+            this.highlightPreviewType = previewSettings.getHighlightPreviewType();
+            this.isDarkTheme = renderingProfile.getCssSettings().isDarkTheme();
+            this.extensionSettings = extensionSettings;
+
+            this.hashCode = Objects.hash(parserPurpose, htmlPurpose, project, pegdownFlags, optionsFlags, emojiShortcuts, emojiImages,
+                    addAnchorLinks, anchorLinksWrapText, imageUriSerials, plantUmlConversion, fencedCodeConversions,
+                    synchronizePreviewPosition, highlightPreviewType, isDarkTheme, extensionSettings);
+        }
+
+        private static void addExtensionSettings(@NotNull ArrayList<MdSettingsExtension<?>> extensionSettings, @NotNull MdExtendableSettings settings) {
+            for (DataKey<MdSettingsExtension<?>> key : settings.getExtensionKeys()) {
+                extensionSettings.add(key.get(settings.getExtensions()));
+            }
+        }
+
+        /**
+         * Key for lookup, shares the profile's fenced code conversion map and settings extensions
+         */
+        @NotNull
+        static Key lookupKey(@NotNull ParserPurpose parserPurpose, @NotNull HtmlPurpose htmlPurpose, @NotNull MdRenderingProfile renderingProfile) {
+            ArrayList<MdSettingsExtension<?>> extensionSettings = new ArrayList<>();
+            addExtensionSettings(extensionSettings, renderingProfile);
+            addExtensionSettings(extensionSettings, renderingProfile.getParserSettings());
+            addExtensionSettings(extensionSettings, renderingProfile.getHtmlSettings());
+            addExtensionSettings(extensionSettings, renderingProfile.getPreviewSettings());
+            return new Key(parserPurpose, htmlPurpose, renderingProfile, renderingProfile.getHtmlSettings().getFencedCodeConversions(), extensionSettings);
+        }
+
+        /**
+         * Key for storing in the cache, independent of later changes to the profile
+         */
+        @NotNull
+        Key immutableCopy() {
+            ArrayList<MdSettingsExtension<?>> extensionSettings = new ArrayList<>(this.extensionSettings.size());
+            for (MdSettingsExtension<?> settings : this.extensionSettings) {
+                extensionSettings.add(settings.createCopy());
+            }
+
+            Key key = new Key(this, Collections.unmodifiableMap(new HashMap<>(fencedCodeConversions)), Collections.unmodifiableList(extensionSettings));
+            assert key.equals(this);
+            return key;
+        }
+
+        private Key(@NotNull Key other, @NotNull Map<String, String> fencedCodeConversions, @NotNull List<MdSettingsExtension<?>> extensionSettings) {
+            this.parserPurpose = other.parserPurpose;
+            this.htmlPurpose = other.htmlPurpose;
+            this.project = other.project;
+            this.pegdownFlags = other.pegdownFlags;
+            this.optionsFlags = other.optionsFlags;
+            this.emojiShortcuts = other.emojiShortcuts;
+            this.emojiImages = other.emojiImages;
+            this.addAnchorLinks = other.addAnchorLinks;
+            this.anchorLinksWrapText = other.anchorLinksWrapText;
+            this.imageUriSerials = other.imageUriSerials;
+            this.plantUmlConversion = other.plantUmlConversion;
+            this.fencedCodeConversions = fencedCodeConversions;
+            this.synchronizePreviewPosition = other.synchronizePreviewPosition;
+            this.highlightPreviewType = other.highlightPreviewType;
+            this.isDarkTheme = other.isDarkTheme;
+            this.extensionSettings = extensionSettings;
+            this.hashCode = other.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return hashCode == key.hashCode
+                    && parserPurpose == key.parserPurpose
+                    && htmlPurpose == key.htmlPurpose
+                    && project == key.project
+                    && pegdownFlags == key.pegdownFlags
+                    && optionsFlags == key.optionsFlags
+                    && emojiShortcuts == key.emojiShortcuts
+                    && emojiImages == key.emojiImages
+                    && addAnchorLinks == key.addAnchorLinks
+                    && anchorLinksWrapText == key.anchorLinksWrapText
+                    && imageUriSerials == key.imageUriSerials
+                    && plantUmlConversion == key.plantUmlConversion
+                    && synchronizePreviewPosition == key.synchronizePreviewPosition
+                    && highlightPreviewType == key.highlightPreviewType
+                    && isDarkTheme == key.isDarkTheme
+                    && fencedCodeConversions.equals(key.fencedCodeConversions)
+                    && extensionSettings.equals(key.extensionSettings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Entry {
+        final @NotNull DataHolder options;
+        @Nullable Parser parser;
+
+        Entry(@NotNull DataHolder options) {
+            this.options = options;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> myEntries = new LinkedHashMap<Key, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long myHits = 0;
+    private long myMisses = 0;
+    private long myClears = 0;
+
+    public MdFlexmarkObjectCache() {
+        if (ApplicationManager.getApplication() != null) {
+            ApplicationManager.getApplication().getMessageBus().connect().subscribe(SettingsChangedListener.TOPIC, settings -> clear());
+        }
+    }
+
+    @NotNull
+    private Entry getEntry(@NotNull ParserPurpose parserPurpose, @NotNull HtmlPurpose htmlPurpose, @NotNull MdRenderingProfile renderingProfile) {
+        Key key = Key.lookupKey(parserPurpose, htmlPurpose, renderingProfile);
+
+        synchronized (myEntries) {
+            Entry entry = myEntries.get(key);
+            if (entry != null) {
+                myHits++;
+                return entry;
+            }
+            myMisses++;
+        }
+
+        // compute outside the lock, building options calls out to extensions
+        DataHolder options = new PegdownOptionsAdapter().getFlexmarkOptions(parserPurpose, htmlPurpose, null, renderingProfile).toImmutable();
+        Entry entry = new Entry(options);
+
+        synchronized (myEntries) {
+            Entry prevEntry = myEntries.putIfAbsent(key.immutableCopy(), entry);
+            if (prevEntry != null) entry = prevEntry;
+        }
+        return entry;
+    }
+
+    @NotNull
+    public DataHolder getOptions(@NotNull ParserPurpose parserPurpose, @NotNull HtmlPurpose htmlPurpose, @NotNull MdRenderingProfile renderingProfile) {
+        return getEntry(parserPurpose, htmlPurpose, renderingProfile).options;
+    }
+
+    @NotNull
+    public Parser getParser(@NotNull ParserPurpose parserPurpose, @NotNull HtmlPurpose htmlPurpose, @NotNull MdRenderingProfile renderingProfile) {
+        Entry entry = getEntry(parserPurpose, htmlPurpose, renderingProfile);
+        Parser parser = entry.parser;
+        if (parser == null) {
+            // a duplicate build on a race is harmless, parsers are immutable
+            parser = Parser.builder(entry.options).build();
+            entry.parser = parser;
+        }
+        return parser;
+    }
+
+    /**
+     * Remove entries of a closed project, keys and options hold on to the project
+     *
+     * @param project closed project
+     */
+    public void projectClosed(@NotNull Project project) {
+        boolean removed = false;
+
+        synchronized (myEntries) {
+            Iterator<Key> iterator = myEntries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().project == project) {
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+        }
+
+        // lexer data is keyed by options instances of this cache
+        if (removed) MdLexerDataCache.getInstance().clear();
+    }
+
+    public void clear() {
+        synchronized (myEntries) {
+            if (!myEntries.isEmpty()) {
+                myEntries.clear();
+                myClears++;
+            }
+        }
+
+        // lexer data is keyed by options instances of this cache
+        MdLexerDataCache.getInstance().clear();
+    }
+
+    public long getHits() {
+        synchronized (myEntries) {
+            return myHits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (myEntries) {
+            return myMisses;
+        }
+    }
+
+    public long getClears() {
+        synchronized (myEntries) {
+            return myClears;
+        }
+    }
+
+    public void resetCounters() {
+        synchronized (myEntries) {
+            myHits = 0;
+            myMisses = 0;
+            myClears = 0;
+        }
+    }
+
+    @NotNull
+    public String getStatistics() {
+        synchronized (myEntries) {
+            long total = myHits + myMisses;
+            return String.format("FlexmarkObjectCache entries: %d, hits: %d, misses: %d, clears: %d, hit rate: %.1f%%", myEntries.size(), myHits, myMisses, myClears, total == 0 ? 0.0 : myHits * 100.0 / total);
+        }
+    }
+
+    public void logStatistics() {
+        if (LOG.isDebugEnabled()) LOG.debug(getStatistics());
+    }
+}
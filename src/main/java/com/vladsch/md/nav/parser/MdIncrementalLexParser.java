@@ -0,0 +1,255 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.text.ImmutableCharSequence;
+import com.vladsch.md.nav.parser.api.ParserPurpose;
+import com.vladsch.md.nav.parser.ast.MdASTCompositeNode;
+import com.vladsch.md.nav.parser.ast.MdASTLeafNode;
+import com.vladsch.md.nav.parser.ast.MdASTNode;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+import static com.vladsch.md.nav.psi.util.MdTypes.ABBREVIATION;
+import static com.vladsch.md.nav.psi.util.MdTypes.ENUM_REF_FORMAT;
+import static com.vladsch.md.nav.psi.util.MdTypes.FOOTNOTE;
+import static com.vladsch.md.nav.psi.util.MdTypes.MACRO;
+import static com.vladsch.md.nav.psi.util.MdTypes.REFERENCE;
+
+/**
+ * Keeps the lexer data of the last parsed text version and on the next parse only re-parses the
+ * top level blocks affected by the edit, splicing the resulting tokens and AST children into the previous data.
+ * <p>
+ * Falls back to a full parse when the text contains document level definitions (references, abbreviations, footnotes,
+ * macros, enumerated reference formats) at any nesting level, because these change the parsing of blocks outside
+ * the edited region, or when the re-parsed region does not converge with the block following it.
+ * <p>
+ * A parser for the highlighter parses with the time budget of {@link MdParseBudget#create()}. Lexer data degraded by
+ * an exceeded budget is returned but not cached or kept for the next incremental parse.
+ */
+public class MdIncrementalLexParser {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.incremental");
+
+    // small files are parsed in full, the splicing overhead is not worth it
+    public static final int MIN_INCREMENTAL_LENGTH = 16 * 1024;
+
+    // definitions affect parsing of other blocks, their presence needs a full parse
+    private static final TokenSet DOCUMENT_DEFINITION_SET = TokenSet.create(REFERENCE, ABBREVIATION, FOOTNOTE, MACRO, ENUM_REF_FORMAT);
+
+    private final @NotNull MdRenderingProfile myRenderingProfile;
+    private @Nullable CharSequence myText = null;
+    private @Nullable LexerData myLexerData = null;
+    private boolean myHasDefinitions = false;
+    private final boolean myForHighlighting;
+    private boolean myDegraded = false;
+    private boolean myIncremental = false;
+
+    public MdIncrementalLexParser(@NotNull MdRenderingProfile renderingProfile) {
+        this(renderingProfile, false);
+    }
+
+    /**
+     * @param renderingProfile rendering profile
+     * @param forHighlighting  true if parsing for the highlighter, parses are limited by the parser time budget
+     */
+    public MdIncrementalLexParser(@NotNull MdRenderingProfile renderingProfile, boolean forHighlighting) {
+        myRenderingProfile = renderingProfile;
+        myForHighlighting = forHighlighting;
+    }
+
+    public void reset() {
+        myText = null;
+        myLexerData = null;
+        myHasDefinitions = false;
+        myDegraded = false;
+        myIncremental = false;
+    }
+
+    /**
+     * @return true if lexer data of the last parse was degraded to plain text by an exceeded time budget
+     */
+    public boolean isDegraded() {
+        return myDegraded;
+    }
+
+    /**
+     * @return true if lexer data of the last parse was spliced from the previous parse's data
+     */
+    boolean isIncremental() {
+        return myIncremental;
+    }
+
+    @NotNull
+    public LexerData parseMarkdown(@NotNull CharSequence buffer) {
+        CharSequence text = ImmutableCharSequence.asImmutable(buffer);
+        LexerData lexerData = MdLexParserManager.getCachedLexerData(myRenderingProfile, text);
+        MdParseBudget budget = myForHighlighting ? MdParseBudget.create() : MdParseBudget.UNLIMITED;
+        myIncremental = false;
+
+        if (lexerData == null && myText != null && myLexerData != null && !myHasDefinitions
+                && text.length() >= MIN_INCREMENTAL_LENGTH
+                && MdApplicationSettings.getInstance().getDebugSettings().getIncrementalLexerParse()) {
+            lexerData = reparse(myText, myLexerData, text, budget);
+            if (lexerData != null) {
+                myIncremental = true;
+                if (!budget.isExceeded()) MdLexParserManager.cacheLexerData(myRenderingProfile, text, lexerData);
+            }
+        }
+
+        if (lexerData == null) {
+            lexerData = MdLexParserManager.parseMarkdown(myRenderingProfile, text, budget);
+        }
+
+        myDegraded = budget.isExceeded();
+        if (myDegraded) {
+            // plain text blocks cannot be spliced, next parse is a full one
+            myText = null;
+            myLexerData = null;
+            myHasDefinitions = false;
+        } else {
+            myText = text;
+            myLexerData = lexerData;
+            myHasDefinitions = hasDefinitions(lexerData.rootNode);
+        }
+        return lexerData;
+    }
+
+    /**
+     * Test for document level definitions, including ones nested in block quotes, list items and other containers
+     *
+     * @param node node to test
+     * @return true if node or any of its descendants is a definition
+     */
+    static boolean hasDefinitions(@NotNull MdASTNode node) {
+        if (DOCUMENT_DEFINITION_SET.contains(node.getElementType())) return true;
+
+        // leaf nodes have no children, views of composite nodes are not composite node instances
+        for (MdASTNode child : node.getChildren()) {
+            if (hasDefinitions(child)) return true;
+        }
+        return false;
+    }
+
+    private static int lineStart(@NotNull CharSequence text, int offset) {
+        while (offset > 0 && text.charAt(offset - 1) != '\n') offset--;
+        return offset;
+    }
+
+    @Nullable
+    private LexerData reparse(@NotNull CharSequence oldText, @NotNull LexerData oldData, @NotNull CharSequence text, @NotNull MdParseBudget budget) {
+        int oldLength = oldText.length();
+        int length = text.length();
+        int maxCommon = Math.min(oldLength, length);
+
+        int prefix = 0;
+        while (prefix < maxCommon && oldText.charAt(prefix) == text.charAt(prefix)) prefix++;
+
+        if (prefix == oldLength && oldLength == length) return oldData;
+
+        int suffix = 0;
+        while (suffix < maxCommon - prefix && oldText.charAt(oldLength - suffix - 1) == text.charAt(length - suffix - 1)) suffix++;
+
+        int changeStart = prefix;
+        int oldChangeEnd = oldLength - suffix;
+        int delta = length - oldLength;
+
+        List<MdASTNode> children = oldData.rootNode.getChildren();
+        int iMax = children.size();
+        if (iMax == 0 || oldData.rootNode.getElementType() != MdParserDefinition.MARKDOWN_FILE) return null;
+
+        // first block to re-parse is the one preceding the one containing the change, to allow edits to merge with it
+        int firstIndex = 0;
+        while (firstIndex + 1 < iMax && children.get(firstIndex + 1).getStartOffset() <= changeStart) firstIndex++;
+        if (firstIndex > 0) firstIndex--;
+
+        // last block is the first block starting after the change, it is re-parsed to test convergence
+        int lastIndex = firstIndex;
+        while (lastIndex < iMax && children.get(lastIndex).getStartOffset() < oldChangeEnd) lastIndex++;
+
+        int regionStart = lineStart(oldText, children.get(firstIndex).getStartOffset());
+        int regionEnd = lastIndex + 1 < iMax ? lineStart(oldText, children.get(lastIndex + 1).getStartOffset()) : oldLength;
+
+        if (regionEnd < oldChangeEnd || regionEnd - regionStart > oldLength / 2) return null;
+
+        int newRegionEnd = regionEnd + delta;
+        LexerData regionData = MdLexParserManager.parseMarkdownUncached(ParserPurpose.PARSER, myRenderingProfile, text.subSequence(regionStart, newRegionEnd), budget);
+        List<MdASTNode> regionChildren = regionData.rootNode.getChildren();
+
+        if (regionData.rootNode.getElementType() != MdParserDefinition.MARKDOWN_FILE) return null;
+        if (hasDefinitions(regionData.rootNode)) return null;
+
+        // test convergence: the block after the edit must be re-parsed unchanged, otherwise the edit affects the rest of the file
+        if (lastIndex < iMax) {
+            MdASTNode convergeNode = children.get(lastIndex);
+            MdASTNode regionLast = regionChildren.isEmpty() ? null : regionChildren.get(regionChildren.size() - 1);
+            if (regionLast == null
+                    || regionLast.getElementType() != convergeNode.getElementType()
+                    || regionLast.getStartOffset() + regionStart != convergeNode.getStartOffset() + delta
+                    || regionLast.getEndOffset() + regionStart != convergeNode.getEndOffset() + delta) {
+                return null;
+            }
+        }
+
+        PackedLexerTokens lexerTokens = spliceTokens(oldData.tokens, regionData.tokens, regionStart, regionEnd, delta);
+        if (lexerTokens == null) return null;
+
+        MdASTCompositeNode rootNode = new MdASTCompositeNode(MdParserDefinition.MARKDOWN_FILE, 0, length);
+        for (int i = 0; i < firstIndex; i++) {
+            rootNode.add(children.get(i));
+        }
+
+        for (MdASTNode child : regionChildren) {
+            rootNode.add(shiftNode(child, regionStart));
+        }
+
+        for (int i = lastIndex + 1; i < iMax; i++) {
+            rootNode.add(shiftNode(children.get(i), delta));
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("incremental parse [%d, %d) of %d, blocks %d..%d of %d", regionStart, newRegionEnd, length, firstIndex, lastIndex, iMax));
+        }
+        return new LexerData(lexerTokens, rootNode);
+    }
+
+    @Nullable
+    private static PackedLexerTokens spliceTokens(@NotNull PackedLexerTokens oldTokens, @NotNull PackedLexerTokens regionTokens, int regionStart, int regionEnd, int delta) {
+        int before = oldTokens.findStartIndex(regionStart);
+        int after = oldTokens.findStartIndex(regionEnd);
+
+        // tokens straddling region boundaries cannot be spliced
+        if (before > 0 && oldTokens.getEnd(before - 1) > regionStart) return null;
+        if (after > before && oldTokens.getEnd(after - 1) > regionEnd) return null;
+
+        PackedLexerTokens tokens = new PackedLexerTokens(before + regionTokens.size() + oldTokens.size() - after);
+        tokens.addShifted(oldTokens, 0, before, 0);
+        tokens.addShifted(regionTokens, 0, regionTokens.size(), regionStart);
+        tokens.addShifted(oldTokens, after, oldTokens.size(), delta);
+        return tokens;
+    }
+
+    @NotNull
+    static MdASTNode shiftNode(@NotNull MdASTNode node, int delta) {
+        if (delta == 0) return node;
+
+        IElementType elementType = node.getElementType();
+        if (node instanceof MdASTCompositeNode) {
+            List<MdASTNode> children = node.getChildren();
+            ArrayList<MdASTNode> shiftedChildren = new ArrayList<>(children.size());
+            for (MdASTNode child : children) {
+                shiftedChildren.add(shiftNode(child, delta));
+            }
+            return new MdASTCompositeNode(elementType, node.getStartOffset() + delta, node.getEndOffset() + delta, shiftedChildren);
+        } else {
+            return new MdASTLeafNode(elementType, node.getStartOffset() + delta, node.getEndOffset() + delta);
+        }
+    }
+}
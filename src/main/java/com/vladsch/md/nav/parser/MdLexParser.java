@@ -4,12 +4,10 @@ package com.vladsch.md.nav.parser;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.tree.TokenSet;
 import com.vladsch.flexmark.util.ast.Document;
-import com.vladsch.flexmark.util.sequence.Range;
 import com.vladsch.md.nav.parser.ast.MdASTCompositeNode;
 import com.vladsch.md.nav.psi.util.MdTypes;
 import com.vladsch.md.nav.settings.MdProjectSettings;
 import com.vladsch.md.nav.settings.MdRenderingProfile;
-import com.vladsch.plugin.util.psi.PsiUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -67,135 +65,236 @@ public class MdLexParser {
 
     @NotNull
     public static LexerData parseFlexmarkMarkdown(@Nullable final Document document) {
+        return parseFlexmarkMarkdown(document, MdParseBudget.UNLIMITED);
+    }
+
+    @NotNull
+    public static LexerData parseFlexmarkMarkdown(@Nullable final Document document, @NotNull MdParseBudget budget) {
         if (document == null) return EMPTY_DATA;
 
-        LexParserFlexmarkASTVisitor visitor = new LexParserFlexmarkASTVisitor(document);
+        LexParserFlexmarkASTVisitor visitor = new LexParserFlexmarkASTVisitor(document, budget);
         visitor.build();
-        ArrayList<LexerToken> lexerTokens = visitor.getTokens();
+        budget.checkCanceled();
 
-        LexerToken[] tokens = getData(lexerTokens);
-        return tokens == null ? EMPTY_DATA : new LexerData(tokens, visitor.getRootASTNode());
+        PackedLexerTokens tokens = getData(visitor.getPackedTokens());
+        return new LexerData(tokens, visitor.getRootASTNode());
+    }
+
+    /**
+     * Lexer data of text which could not be parsed as markdown within its time budget
+     *
+     * @param text text
+     * @return plain text tokens of the whole text and an empty file AST node
+     */
+    @NotNull
+    public static LexerData parsePlainText(@NotNull CharSequence text) {
+        PackedLexerTokens tokens = new PackedLexerTokens(256);
+        MdPlainTextLexer lexer = new MdPlainTextLexer();
+        lexer.start(text, 0, text.length(), 0);
+        while (lexer.getTokenType() != null) {
+            tokens.add(lexer.getTokenStart(), lexer.getTokenEnd(), lexer.getTokenType(), 0);
+            lexer.advance();
+        }
+        return new LexerData(getData(tokens), new MdASTCompositeNode(MdParserDefinition.MARKDOWN_FILE, 0, text.length()));
     }
 
+    /**
+     * @param lexerTokens visitor tokens
+     * @return non-overlapping lexemes
+     * @deprecated use {@link #getData(PackedLexerTokens)}
+     */
+    @Deprecated
     @Nullable
     public static LexerToken[] getData(ArrayList<LexerToken> lexerTokens) {
-        LexerToken[] tokens = new LexerToken[lexerTokens.size()];
-        tokens = lexerTokens.toArray(tokens);
-        TokenSet NON_MERGE_TOKEN_SET = LexParserState.getInstance().getState().NON_MERGE_TOKEN_SET;
+        return getData(PackedLexerTokens.of(lexerTokens.toArray(EMPTY_TOKENS))).toTokenArray();
+    }
 
-        if (tokens.length > 0) {
-            Arrays.sort(tokens);
+    /**
+     * Convert visitor tokens to non-overlapping lexemes sorted by offset
+     * <p>
+     * Tokens are ordered by start offset, longest first, then by nesting. A single sweep keeps a stack of open
+     * tokens and emits the part of the enclosing token which precedes each nested token, so the innermost token
+     * covering an offset wins. Identical ranges keep the most deeply nested token, adjacent tokens of the same type
+     * are merged unless the type is in the non-merge token set.
+     *
+     * @param rawTokens visitor tokens, in any order, not modified
+     * @return lexemes
+     */
+    @NotNull
+    public static PackedLexerTokens getData(@NotNull PackedLexerTokens rawTokens) {
+        int iMax = rawTokens.size();
+        if (iMax == 0) return PackedLexerTokens.empty();
+
+        TokenSet NON_MERGE_TOKEN_SET = LexParserState.getInstance().getState().NON_MERGE_TOKEN_SET;
+        int[] order = getSortedOrder(rawTokens);
+        LexemeSweep sweep = new LexemeSweep(iMax);
 
-            // now need to step through and merge consecutive tokens
-            int iMax = tokens.length;
-            LexerToken thisToken = tokens[0];
-            lexerTokens = new ArrayList<LexerToken>(iMax);
+        for (int k = 0; k < iMax; k++) {
+            int i = order[k];
+            int start = rawTokens.getStart(i);
+            int end = rawTokens.getEnd(i);
+            short typeIndex = rawTokens.getTypeIndex(i);
+            int nesting = rawTokens.getNesting(i);
 
-            for (int i = 1; i < iMax; i++) {
-                LexerToken thatToken = tokens[i];
+            if (sweep.depth > 0) {
+                int top = sweep.depth - 1;
 
-                // same region, keep deepest child since it did not get excluded by the parent so it should survive
-                // QUERY: is this still valid?
-                // FIX: in reality here we only get exact duplicates, need to trace where they are generated
-                if (thisToken.getRange().equals(thatToken.getRange())) {
-                    if (thisToken.getNesting() < thatToken.getNesting()) thisToken = thatToken;
+                if (sweep.starts[top] == start && sweep.ends[top] == end) {
+                    // same region, keep deepest child since it did not get excluded by the parent
+                    if (sweep.nesting[top] < nesting) {
+                        sweep.types[top] = typeIndex;
+                        sweep.nesting[top] = nesting;
+                    }
                     continue;
                 }
 
-                if (!thatToken.doesExtend(thisToken) || PsiUtils.isTypeOf(thisToken.getElementType(), NON_MERGE_TOKEN_SET)) {
-                    lexerTokens.add(thisToken);
-                    thisToken = thatToken;
-                } else {
-                    thisToken.setRange(thisToken.getRange().expandToInclude(thatToken.getRange()));
+                if (sweep.types[top] == typeIndex && sweep.ends[top] == start && !NON_MERGE_TOKEN_SET.contains(PackedLexerTokens.elementType(typeIndex))) {
+                    sweep.ends[top] = end;
+                    continue;
                 }
             }
-            lexerTokens.add(thisToken);
 
-            // now we generate lexemes from the combined optimized tokens
-            tokens = new LexerToken[lexerTokens.size()];
-            tokens = lexerTokens.toArray(tokens);
+            sweep.push(start, end, typeIndex, nesting);
+        }
+
+        sweep.closeTo(Integer.MAX_VALUE);
+        sweep.lexemes.trimToSize();
+        return sweep.lexemes;
+    }
+
+    /**
+     * Stack of open tokens, tokens are pushed in start order so the top is the innermost token at the current offset
+     */
+    private static class LexemeSweep {
+        final PackedLexerTokens lexemes;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] nesting = new int[16];
+        short[] types = new short[16];
+        int depth = 0;
+        int emittedEnd = 0;
 
-            // we create a list of non-intersecting, sorted, ranges
-            tokens = splitLexerTokens(tokens);
+        LexemeSweep(int tokenCount) {
+            lexemes = new PackedLexerTokens(tokenCount + (tokenCount >> 1));
         }
 
-        return tokens;
+        void push(int start, int end, short typeIndex, int tokenNesting) {
+            closeTo(start);
+
+            // part of the enclosing token preceding this one
+            if (depth > 0) emit(depth - 1, start);
+
+            if (depth == starts.length) {
+                int newLength = depth * 2;
+                starts = Arrays.copyOf(starts, newLength);
+                ends = Arrays.copyOf(ends, newLength);
+                nesting = Arrays.copyOf(nesting, newLength);
+                types = Arrays.copyOf(types, newLength);
+            }
+
+            starts[depth] = start;
+            ends[depth] = end;
+            nesting[depth] = tokenNesting;
+            types[depth] = typeIndex;
+            depth++;
+        }
+
+        // pop all tokens ending at or before offset, emitting their remaining part
+        void closeTo(int offset) {
+            while (depth > 0 && ends[depth - 1] <= offset) {
+                depth--;
+                emit(depth, ends[depth]);
+            }
+        }
+
+        void emit(int index, int end) {
+            int start = Math.max(emittedEnd, starts[index]);
+            if (start < end) {
+                // only the whole token keeps its nesting
+                boolean whole = start == starts[index] && end == ends[index];
+                lexemes.addIndexed(start, end, types[index], whole ? nesting[index] : Integer.MAX_VALUE);
+                emittedEnd = end;
+            }
+        }
     }
 
-    protected static
-    @Nullable
-    LexerToken[] splitLexerTokens(@NotNull LexerToken[] tokens) {
-        int end = tokens.length;
+    // ranges shorter than this are sorted by insertion
+    private static final int INSERTION_SORT_THRESHOLD = 8;
 
-        if (end > 0) {
-            ArrayList<LexerToken> lexemes = new ArrayList<LexerToken>(tokens.length);
+    /**
+     * Order of tokens by start offset, end offset descending then nesting, stable for equal tokens
+     * <p>
+     * Merge sort of token indices, so the work and allocation depend on the token count and not on the text length.
+     * The visitor adds parent tokens after their children, so the input is made up of ordered runs and merges of
+     * runs which are already in order are skipped. Input which is already in order is not sorted.
+     * <p>
+     * Tokens are not emitted in document order by the visitor: composite nodes add their own token after visiting
+     * their children and parser extension handlers add tokens for their nodes in any order.
+     *
+     * @param tokens tokens
+     * @return token indices in sorted order
+     */
+    @NotNull
+    static int[] getSortedOrder(@NotNull PackedLexerTokens tokens) {
+        int iMax = tokens.size();
+        int[] order = new int[iMax];
+        boolean sorted = true;
 
-            // do all of them
-            splitLexemes(lexemes, tokens, 0, Integer.MAX_VALUE);
-            LexerToken[] lexerTokens = new LexerToken[lexemes.size()];
-            return lexemes.toArray(lexerTokens);
+        for (int i = 0; i < iMax; i++) {
+            order[i] = i;
+            if (sorted && i > 0 && compareTokens(tokens, i - 1, i) > 0) sorted = false;
         }
-        return null;
+
+        if (!sorted) {
+            mergeSort(tokens, order.clone(), order, 0, iMax);
+        }
+        return order;
     }
 
-    protected static int splitLexemes(@NotNull ArrayList<LexerToken> lexemes, @NotNull LexerToken[] tokens, int start, int rangeEnd) {
-        LexerToken token = tokens[start];
-        Range range = token.getRange();
-        com.vladsch.flexmark.util.sequence.Range range1;
-
-        if (range.getEnd() <= rangeEnd) {
-            int end = tokens.length;
-
-            start++;
-            for (; start < end && (range1 = tokens[start].getRange()).getEnd() <= rangeEnd; start++) {
-                if (range.compare(range1) <= 0 && (range.doesNotOverlap(range1) || range.equals(range1))) {
-                    // it comes before, add it, if it equals, then skip it
-                    if (!range.equals(range1)) {
-                        if (range.equals(token.getRange())) {
-                            lexemes.add(token);
-                        } else {
-                            LexerToken newToken = new LexerToken(range, token.getElementType());
-                            lexemes.add(newToken);
-                        }
-                        token = tokens[start];
-                        range = token.getRange();
-                    }
-                } else if (!range.doesContain(range1)) {
-                    lexemes.add(token);
-                    token = tokens[start];
-                    range = token.getRange();
-                } else {
-                    if (range.doesOverlap(range1) && !range.doesContain(range1)) {
-                        // split the range and continue if it contains it, then skip it
-                        com.vladsch.flexmark.util.sequence.Range newRange = range.withEnd(range1.getStart());
-                        if (newRange.isEmpty()) {
-                            token = tokens[start];
-                            range = token.getRange();
-                        } else {
-                            LexerToken newToken = new LexerToken(newRange, token.getElementType());
-                            lexemes.add(newToken);
-
-                            range = range.withStart(range1.getEnd());
-                            if (range.isEmpty()) {
-                                token = tokens[start];
-                                range = token.getRange();
-                            } else {
-                                start = splitLexemes(lexemes, tokens, start, range.getStart());
-                            }
-                        }
-                    }
+    // sort range of src into dst, both have the same content on entry
+    private static void mergeSort(@NotNull PackedLexerTokens tokens, @NotNull int[] src, @NotNull int[] dst, int low, int high) {
+        int length = high - low;
+
+        if (length < INSERTION_SORT_THRESHOLD) {
+            for (int k = low + 1; k < high; k++) {
+                int index = dst[k];
+                int j = k - 1;
+                while (j >= low && compareTokens(tokens, dst[j], index) > 0) {
+                    dst[j + 1] = dst[j];
+                    j--;
                 }
+                dst[j + 1] = index;
             }
+            return;
+        }
 
-            if (!range.isEmpty()) {
-                if (range.equals(token.getRange())) {
-                    lexemes.add(token);
-                } else {
-                    LexerToken newToken = new LexerToken(range, token.getElementType());
-                    lexemes.add(newToken);
-                }
+        int mid = (low + high) >>> 1;
+        mergeSort(tokens, dst, src, low, mid);
+        mergeSort(tokens, dst, src, mid, high);
+
+        if (compareTokens(tokens, src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, low, dst, low, length);
+            return;
+        }
+
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high || p < mid && compareTokens(tokens, src[p], src[q]) <= 0) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
             }
         }
-        return start;
+    }
+
+    private static int compareTokens(@NotNull PackedLexerTokens tokens, int index1, int index2) {
+        int start1 = tokens.getStart(index1);
+        int start2 = tokens.getStart(index2);
+        if (start1 != start2) return start1 < start2 ? -1 : 1;
+
+        int end1 = tokens.getEnd(index1);
+        int end2 = tokens.getEnd(index2);
+        if (end1 != end2) return end1 > end2 ? -1 : 1;
+
+        return Integer.compare(tokens.getNesting(index1), tokens.getNesting(index2));
     }
 }
@@ -2,6 +2,9 @@
 package com.vladsch.md.nav.parser;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.text.ImmutableCharSequence;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.ast.Document;
@@ -16,14 +19,23 @@ import com.vladsch.md.nav.settings.MdRenderingProfile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 public class MdLexParserManager {
+    // interval of cancellation and time budget checks while waiting for a budgeted flexmark parse
+    public static final long BUDGETED_PARSE_POLL_INTERVAL = 10;
+
+    private static ExecutorService ourBudgetedParseExecutor = null;
+
     @Nullable
     public static Document parseFlexmarkDocument(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer, boolean forParser) {
-        PegdownOptionsAdapter optionsAdapter = new PegdownOptionsAdapter();
         Document rootNode = null;
 
-        DataHolder options = optionsAdapter.getFlexmarkOptions(forParser ? ParserPurpose.PARSER : ParserPurpose.HTML, HtmlPurpose.RENDER, null, renderingProfile);
-        Parser parser = Parser.builder(options).build();
+        Parser parser = MdFlexmarkObjectCache.getInstance().getParser(forParser ? ParserPurpose.PARSER : ParserPurpose.HTML, HtmlPurpose.RENDER, renderingProfile);
         String exceptionText = null;
         // use an immutable copy so it does not change in the process of being parsed
         final BasedSequence input = buffer instanceof BasedSequence ? (BasedSequence) buffer : BasedSequence.of(ImmutableCharSequence.asImmutable(buffer));
@@ -33,6 +45,8 @@ public class MdLexParserManager {
         } else {
             try {
                 rootNode = parser.parse(input);
+            } catch (ProcessCanceledException e) {
+                throw e;
             } catch (Throwable e) {
                 exceptionText = e.getMessage();
                 return null;
@@ -42,24 +56,142 @@ public class MdLexParserManager {
         return rootNode;
     }
 
+    @Nullable
+    public static LexerData getCachedLexerData(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer) {
+        DataHolder options = MdFlexmarkObjectCache.getInstance().getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        return MdLexerDataCache.getInstance().get(options, buffer);
+    }
+
+    public static void cacheLexerData(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer, @NotNull LexerData lexerData) {
+        DataHolder options = MdFlexmarkObjectCache.getInstance().getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        MdLexerDataCache.getInstance().put(options, buffer, lexerData);
+    }
+
+    /**
+     * Parse or get previously parsed lexer data for the same text and rendering profile
+     *
+     * @param renderingProfile rendering profile
+     * @param buffer           text to parse
+     * @return lexer data
+     */
     @NotNull
     public static LexerData parseMarkdown(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer) {
+        return parseMarkdown(renderingProfile, buffer, MdParseBudget.UNLIMITED);
+    }
+
+    /**
+     * Parse or get previously parsed lexer data for the same text and rendering profile
+     * <p>
+     * Lexer data degraded to plain text by an exceeded budget is not cached, so it is only seen by the caller
+     *
+     * @param renderingProfile rendering profile
+     * @param buffer           text to parse
+     * @param budget           parse budget, {@link MdParseBudget#UNLIMITED} for exact lexer data
+     * @return lexer data
+     */
+    @NotNull
+    public static LexerData parseMarkdown(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer, @NotNull MdParseBudget budget) {
+        DataHolder options = MdFlexmarkObjectCache.getInstance().getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        MdLexerDataCache lexerDataCache = MdLexerDataCache.getInstance();
+        LexerData lexerData = lexerDataCache.get(options, buffer);
+
+        if (lexerData == null) {
+            lexerData = parseMarkdownUncached(ParserPurpose.PARSER, renderingProfile, buffer, budget);
+            if (!budget.isExceeded()) lexerDataCache.put(options, buffer, lexerData);
+        }
+        return lexerData;
+    }
+
+    /**
+     * Lexer data for building stubs
+     * <p>
+     * Stubs must match stub elements of the PSI tree, so they are always built from {@link ParserPurpose#PARSER} lexer
+     * data, whether the editor's data is cached or not. {@link ParserPurpose#INDEXING} exclusions change plain text
+     * tokens, which are stub elements. Text which is not cached is parsed without caching, stub parses are not used again.
+     *
+     * @param renderingProfile rendering profile
+     * @param buffer           text to parse
+     * @return lexer data
+     */
+    @NotNull
+    public static LexerData parseMarkdownForStubs(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer) {
+        LexerData lexerData = getCachedLexerData(renderingProfile, buffer);
+        if (lexerData != null) return lexerData;
+        return parseMarkdownUncached(ParserPurpose.PARSER, renderingProfile, buffer);
+    }
+
+    /**
+     * Lexer data for id and todo indexing
+     * <p>
+     * Parses with {@link ParserPurpose#INDEXING} without caching, index parses are not used again. Cached editor data
+     * is not used so that index content does not depend on the cache state. With the indexing purpose disabled, same
+     * as {@link #parseMarkdownForStubs(MdRenderingProfile, CharSequence)}.
+     *
+     * @param renderingProfile rendering profile
+     * @param buffer           text to parse
+     * @return lexer data
+     */
+    @NotNull
+    public static LexerData parseMarkdownForIndexing(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer) {
+        if (!MdApplicationSettings.getInstance().getDebugSettings().getIndexingParserPurpose()) {
+            return parseMarkdownForStubs(renderingProfile, buffer);
+        }
+        return parseMarkdownUncached(ParserPurpose.INDEXING, renderingProfile, buffer);
+    }
+
+    @NotNull
+    public static LexerData parseMarkdownUncached(@NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer) {
+        return parseMarkdownUncached(ParserPurpose.PARSER, renderingProfile, buffer);
+    }
+
+    /**
+     * Parse lexer data without caching
+     *
+     * @param parserPurpose    {@link ParserPurpose#PARSER} for editor parsing or {@link ParserPurpose#INDEXING} for id and todo indexing
+     * @param renderingProfile rendering profile
+     * @param buffer           text to parse
+     * @return lexer data
+     */
+    @NotNull
+    public static LexerData parseMarkdownUncached(@NotNull ParserPurpose parserPurpose, @NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer) {
+        return parseMarkdownUncached(parserPurpose, renderingProfile, buffer, MdParseBudget.UNLIMITED);
+    }
+
+    /**
+     * Parse lexer data without caching
+     * <p>
+     * With a time budget, flexmark parsing of the text is abandoned when it runs out of time and the whole file is
+     * lexed as plain text. The budget is checked at block boundaries of the AST visit, when it is exceeded there
+     * the rest of the file is lexed as plain text.
+     *
+     * @param parserPurpose    {@link ParserPurpose#PARSER} for editor parsing or {@link ParserPurpose#INDEXING} for id and todo indexing
+     * @param renderingProfile rendering profile
+     * @param buffer           text to parse
+     * @param budget           parse budget, {@link MdParseBudget#UNLIMITED} for exact lexer data
+     * @return lexer data
+     */
+    @NotNull
+    public static LexerData parseMarkdownUncached(@NotNull ParserPurpose parserPurpose, @NotNull MdRenderingProfile renderingProfile, @NotNull final CharSequence buffer, @NotNull MdParseBudget budget) {
         int pegdownExtensions = renderingProfile.getParserSettings().getPegdownFlags();
         long parserOptions = renderingProfile.getParserSettings().getOptionsFlags();
 
-        PegdownOptionsAdapter optionsAdapter = new PegdownOptionsAdapter();
         Document rootNode = null;
 
-        DataHolder options = optionsAdapter.getFlexmarkOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, null, renderingProfile);
-        Parser parser = Parser.builder(options).build();
+        budget.checkCanceled();
+
+        MdFlexmarkObjectCache objectCache = MdFlexmarkObjectCache.getInstance();
+        DataHolder options = objectCache.getOptions(parserPurpose, HtmlPurpose.RENDER, renderingProfile);
+        Parser parser = objectCache.getParser(parserPurpose, HtmlPurpose.RENDER, renderingProfile);
         // use an immutable copy so it does not change in the process of being parsed
-        final BasedSequence input = BasedSequence.of(ImmutableCharSequence.asImmutable(buffer));
+        final CharSequence text = ImmutableCharSequence.asImmutable(buffer);
 
         if (MdApplicationSettings.getInstance().getDebugSettings().getGenerateParserExceptions()) {
-            rootNode = parser.parse(input);
+            rootNode = parseDocument(parser, text, budget);
         } else {
             try {
-                rootNode = parser.parse(input);
+                rootNode = parseDocument(parser, text, budget);
+            } catch (ProcessCanceledException e) {
+                throw e;
             } catch (Throwable e) {
                 for (MdPreviewCustomizationProvider provider : MdPreviewCustomizationProvider.EXTENSIONS.getValue()) {
                     if (provider.createParserErrorReport(pegdownExtensions, parserOptions, options, e, buffer.toString())) break;
@@ -69,7 +201,118 @@ public class MdLexParserManager {
             }
         }
 
-        LexerData lexerData = MdLexParser.parseFlexmarkMarkdown(rootNode);
+        LexerData lexerData = rootNode == null ? MdLexParser.parsePlainText(text) : MdLexParser.parseFlexmarkMarkdown(rootNode, budget);
+        if (budget.isExceeded()) {
+            budget.notifyExceeded(renderingProfile.getProject());
+        }
         return lexerData;
     }
+
+    /**
+     * Parse text with flexmark
+     * <p>
+     * Without a time budget, parses on the calling thread. With a time budget, the parse runs on a pooled thread
+     * while the calling thread waits, checking for cancellation. If the parse does not finish within the budget,
+     * it is abandoned: the text it reads stops it with an exception at the next character read.
+     *
+     * @param parser flexmark parser
+     * @param text   immutable text to parse
+     * @param budget parse budget
+     * @return document or null if the time budget was exceeded
+     */
+    @Nullable
+    private static Document parseDocument(@NotNull Parser parser, @NotNull CharSequence text, @NotNull MdParseBudget budget) {
+        if (budget.getBudget() <= 0 || ApplicationManager.getApplication() == null) {
+            return parser.parse(BasedSequence.of(text));
+        }
+
+        AbandonableCharSequence.Parse parse = new AbandonableCharSequence.Parse();
+        BasedSequence input = BasedSequence.of(new AbandonableCharSequence(text, 0, parse));
+        Future<Document> future = getBudgetedParseExecutor().submit(() -> parser.parse(input));
+
+        try {
+            while (true) {
+                budget.checkCanceled();
+
+                long remaining = budget.getRemaining();
+                if (remaining == 0) {
+                    int offset = Math.min(parse.lastOffset, text.length());
+                    budget.setExceeded("Document", offset, StringUtil.offsetToLineNumber(text, offset));
+                    return null;
+                }
+
+                try {
+                    return future.get(Math.min(remaining, BUDGETED_PARSE_POLL_INTERVAL), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignored) {
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new ProcessCanceledException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            // stops a parse which is still running
+            parse.abandoned = true;
+        }
+    }
+
+    @NotNull
+    private static synchronized ExecutorService getBudgetedParseExecutor() {
+        if (ourBudgetedParseExecutor == null) {
+            // abandoned parses which do not read the text keep their thread, later parses queue and run out of budget
+            ourBudgetedParseExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("MdLexParserManager", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        }
+        return ourBudgetedParseExecutor;
+    }
+
+    /**
+     * Text of a budgeted parse, throws {@link AbandonedException} on character reads once the parse is abandoned
+     */
+    private static class AbandonableCharSequence implements CharSequence {
+        static class Parse {
+            volatile boolean abandoned = false;
+            int lastOffset = 0;
+        }
+
+        static class AbandonedException extends ProcessCanceledException {
+        }
+
+        private final @NotNull CharSequence myText;
+        private final int myOffset;
+        private final @NotNull Parse myParse;
+
+        AbandonableCharSequence(@NotNull CharSequence text, int offset, @NotNull Parse parse) {
+            myText = text;
+            myOffset = offset;
+            myParse = parse;
+        }
+
+        @Override
+        public int length() {
+            return myText.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (myParse.abandoned) throw new AbandonedException();
+            // only used to report where the parse was when its budget ran out
+            myParse.lastOffset = myOffset + index;
+            return myText.charAt(index);
+        }
+
+        @NotNull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AbandonableCharSequence(myText.subSequence(start, end), myOffset + start, myParse);
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return myText.toString();
+        }
+    }
 }
@@ -4,7 +4,6 @@ package com.vladsch.md.nav.parser;
 import com.intellij.lexer.LexerPosition;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.psi.tree.IElementType;
-import com.vladsch.flexmark.util.sequence.Range;
 import org.jetbrains.annotations.NotNull;
 
 import static com.intellij.openapi.diagnostic.Logger.getInstance;
@@ -19,25 +18,52 @@ public class MdLexemeProcessor {
     private static final Logger LOG = getInstance("com.vladsch.md.nav.parser");
 
     final protected CharSequence buffer;
-    final protected LexerToken[] lexerTokens;
+    final protected LexerTokens lexerTokens;
+
+    // current token, offsets are relative to startOffset, null type when there is no token
+    protected IElementType tokenType = null;
+    protected int tokenStart = 0;
+    protected int tokenEnd = 0;
+    protected int tokenNesting = Integer.MAX_VALUE;
 
-    protected LexerToken lexerToken = null;
     protected int startOffset = 0;
     protected int endOffset = 0;
     protected int lexemeIndex = 0;
     protected int currentOffset = 0;
-    protected LexerToken prevToken = null;
 
-    public MdLexemeProcessor(final CharSequence buffer, final LexerToken[] lexerTokens, int startOffset, int endOffset, int initialState) {
+    protected IElementType prevTokenType = null;
+    protected int prevTokenStart = 0;
+    protected int prevTokenEnd = 0;
+    protected int prevTokenNesting = Integer.MAX_VALUE;
+
+    public MdLexemeProcessor(final CharSequence buffer, final LexerTokens lexerTokens, int startOffset, int endOffset, int initialState) {
+        this(buffer, lexerTokens, startOffset, endOffset, initialState, startOffset);
+    }
+
+    /**
+     * Lexeme processor whose first token is at restart offset instead of start offset
+     *
+     * @param buffer        buffer
+     * @param lexerTokens   tokens with offsets relative to start offset
+     * @param startOffset   start offset of the parsed text in buffer
+     * @param endOffset     end offset of the parsed text in buffer
+     * @param initialState  index of first lexeme to consider, must not be after the first lexeme ending after restart offset
+     * @param restartOffset offset in buffer of first token, at or after start offset
+     */
+    public MdLexemeProcessor(final CharSequence buffer, final LexerTokens lexerTokens, int startOffset, int endOffset, int initialState, int restartOffset) {
         this.buffer = buffer;
         this.lexerTokens = lexerTokens;
         this.startOffset = startOffset;
         this.endOffset = endOffset;
-        this.currentOffset = this.startOffset;
+        this.currentOffset = restartOffset;
         this.lexemeIndex = initialState;
         initialize();
     }
 
+    public MdLexemeProcessor(final CharSequence buffer, final LexerToken[] lexerTokens, int startOffset, int endOffset, int initialState) {
+        this(buffer, lexerTokens == null ? null : PackedLexerTokens.of(lexerTokens), startOffset, endOffset, initialState);
+    }
+
     protected void logStackTrace() {
         StackTraceElement[] traceElements = Thread.currentThread().getStackTrace();
         for (StackTraceElement traceElement : traceElements) {
@@ -67,70 +93,79 @@ public class MdLexemeProcessor {
     }
 
     public LexerToken getPrevToken() {
-        return prevToken;
+        return prevTokenType == null ? null : new LexerToken(prevTokenStart, prevTokenEnd, prevTokenType, prevTokenNesting);
+    }
+
+    private int tokenCount() {
+        return lexerTokens == null ? 0 : lexerTokens.size();
+    }
+
+    private void setToken(int index) {
+        tokenType = lexerTokens.getElementType(index);
+        tokenStart = lexerTokens.getStart(index);
+        tokenEnd = lexerTokens.getEnd(index);
+        tokenNesting = lexerTokens.getNesting(index);
     }
 
     private void initialize() {
-        lexerToken = null;
-        LOG.debug(String.format("start lexer buffer end %d, start %d, end %d, state %d", buffer.length(), startOffset, endOffset, lexemeIndex));
+        tokenType = null;
+        if (LOG.isDebugEnabled()) LOG.debug(String.format("start lexer buffer end %d, start %d, end %d, state %d", buffer.length(), startOffset, endOffset, lexemeIndex));
 
         // prime the lexeme stream, if the first is white space we need to start with that
-        if (lexerTokens != null && lexerTokens.length > lexemeIndex) {
+        int count = tokenCount();
+        if (count > lexemeIndex) {
             // lexemeIndex needs to be advanced if currentOffset > 0
             if (currentOffset > 0) {
-                while (lexemeIndex < lexerTokens.length) {
-                    LexerToken token = lexerTokens[lexemeIndex];
-                    Range range = token.getRange();
-                    if (range.getEnd() + startOffset > currentOffset) {
+                while (lexemeIndex < count) {
+                    if (lexerTokens.getEnd(lexemeIndex) + startOffset > currentOffset) {
                         break;
                     }
 
                     lexemeIndex++;
                 }
 
-                if (lexemeIndex >= lexerTokens.length) {
+                if (lexemeIndex >= count) {
                     lexemeIndex = 0;
                 }
             }
 
-            LOG.debug(String.format("start lexer buffer end %d, start %d, end %d, index %d", buffer.length(), startOffset, endOffset, lexemeIndex));
+            if (LOG.isDebugEnabled()) LOG.debug(String.format("start lexer buffer end %d, start %d, end %d, index %d", buffer.length(), startOffset, endOffset, lexemeIndex));
 
-            lexerToken = lexerTokens[lexemeIndex];
-            if (currentOffset < lexerToken.getRange().getStart() + startOffset) {
-                lexerToken = getNextWhitespace(lexerToken.getRange().getStart() + startOffset);
+            int nextStart = lexerTokens.getStart(lexemeIndex) + startOffset;
+            if (currentOffset < nextStart) {
+                setNextWhitespace(nextStart);
             } else {
+                setToken(lexemeIndex);
                 lexemeIndex++;
             }
         }
 
-        if (lexerToken == null) {
+        if (tokenType == null) {
             // create a dummy whitespace token for the whole file
-            lexerToken = getNextWhitespace(endOffset);
+            setNextWhitespace(endOffset);
         }
 
-        currentOffset = lexerToken.getRange().getEnd() + startOffset;
+        currentOffset = tokenEnd + startOffset;
 
         //assert currentOffset <= endOffset;
         if (currentOffset > endOffset) {
             currentOffset = endOffset;
         }
 
-        LOG.debug("start advanced to " + currentOffset + " (" + (lexerToken == null ? "null" : lexerToken.toString()) + ") \"" + (lexerToken == null ? "" : (buffer.subSequence(lexerToken.getRange().getStart() + startOffset, lexerToken.getRange().getEnd() + startOffset))) + "\"");
+        if (LOG.isDebugEnabled()) LOG.debug("start advanced to " + currentOffset + " (" + getLexerToken() + ") \"" + buffer.subSequence(tokenStart + startOffset, tokenEnd + startOffset) + "\"");
     }
 
-    private LexerToken getNextWhitespace(int offset) {
+    private void setNextWhitespace(int offset) {
         int pos = currentOffset;
-        IElementType tokenType = WHITESPACE;
-
-        IElementType prevTokenType = prevToken == null ? null : prevToken.getElementType();
+        IElementType whitespaceType = WHITESPACE;
 
         // here we also split into block quote and aside whitespace
         while (pos < offset) {
             char c = buffer.charAt(pos);
             if (c == '\n') {
-                if (tokenType != WHITESPACE) break;
+                if (whitespaceType != WHITESPACE) break;
                 pos++;
-                tokenType = (prevTokenType == null
+                whitespaceType = (prevTokenType == null
                         || prevTokenType == BLANK_LINE
                         || prevTokenType == VERBATIM_CONTENT
                         || prevTokenType == EOL
@@ -139,20 +174,53 @@ public class MdLexemeProcessor {
                 ) ? BLANK_LINE : EOL;
                 break;
             } else if (c == '>') {
-                if (tokenType == ASIDE_BLOCK_WHITESPACE) break;
-                tokenType = BLOCK_QUOTE_WHITESPACE;
+                if (whitespaceType == ASIDE_BLOCK_WHITESPACE) break;
+                whitespaceType = BLOCK_QUOTE_WHITESPACE;
             } else if (c == '|') {
-                if (tokenType == BLOCK_QUOTE_WHITESPACE) break;
-                tokenType = ASIDE_BLOCK_WHITESPACE;
+                if (whitespaceType == BLOCK_QUOTE_WHITESPACE) break;
+                whitespaceType = ASIDE_BLOCK_WHITESPACE;
             }
             pos++;
         }
 
-        return new LexerToken(currentOffset - startOffset, pos - startOffset, tokenType);
+        tokenType = whitespaceType;
+        tokenStart = currentOffset - startOffset;
+        tokenEnd = pos - startOffset;
+        tokenNesting = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return type of current token or null if there is no current token
+     */
+    public IElementType getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * @return start of current token relative to start offset, only valid if token type is not null
+     */
+    public int getTokenStart() {
+        return tokenStart;
     }
 
+    /**
+     * @return end of current token relative to start offset, only valid if token type is not null
+     */
+    public int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    public int getTokenNesting() {
+        return tokenNesting;
+    }
+
+    /**
+     * Object view of current token, allocated on every call, use {@link #getTokenType()}, {@link #getTokenStart()} and {@link #getTokenEnd()} instead
+     *
+     * @return current token or null
+     */
     public LexerToken getLexerToken() {
-        return lexerToken;
+        return tokenType == null ? null : new LexerToken(tokenStart, tokenEnd, tokenType, tokenNesting);
     }
 
     public int getLineColumn(int posOffset) {
@@ -167,47 +235,53 @@ public class MdLexemeProcessor {
     }
 
     public void advance() {
-        prevToken = lexerToken;
+        prevTokenType = tokenType;
+        prevTokenStart = tokenStart;
+        prevTokenEnd = tokenEnd;
+        prevTokenNesting = tokenNesting;
+
         if (currentOffset < endOffset) {
+            int count = tokenCount();
             do {
-                if (lexerTokens != null && lexemeIndex >= 0 && lexemeIndex < lexerTokens.length) {
-                    if (lexerToken == null || currentOffset < lexerToken.getRange().getStart() + startOffset) {
-                        lexerToken = getNextWhitespace(lexerTokens[lexemeIndex].getRange().getStart() + startOffset);
+                if (lexemeIndex >= 0 && lexemeIndex < count) {
+                    int nextStart = lexerTokens.getStart(lexemeIndex) + startOffset;
+                    if (tokenType == null || currentOffset < tokenStart + startOffset) {
+                        setNextWhitespace(nextStart);
                     } else {
-                        lexerToken = lexerTokens[lexemeIndex];
-                        if (currentOffset < lexerToken.getRange().getStart() + startOffset) {
-                            lexerToken = getNextWhitespace(lexerToken.getRange().getStart() + startOffset);
+                        if (currentOffset < nextStart) {
+                            setNextWhitespace(nextStart);
                         } else {
+                            setToken(lexemeIndex);
                             lexemeIndex++;
                         }
                     }
                 } else {
                     if (currentOffset < endOffset) {
-                        lexerToken = getNextWhitespace(endOffset);
+                        setNextWhitespace(endOffset);
                     } else {
-                        lexerToken = null;
+                        tokenType = null;
                     }
                 }
-            } while (lexerToken != null && lexerToken.getRange().getEnd() + startOffset < currentOffset);
+            } while (tokenType != null && tokenEnd + startOffset < currentOffset);
 
-            currentOffset = lexerToken == null ? endOffset : lexerToken.getRange().getEnd() + startOffset;
+            currentOffset = tokenType == null ? endOffset : tokenEnd + startOffset;
         } else {
-            lexerToken = null;
+            tokenType = null;
         }
 
         if (currentOffset > endOffset) {
-            lexerToken = null;
+            tokenType = null;
             currentOffset = endOffset;
         }
 
-        LOG.debug("advanced to " + currentOffset + " (" + (lexerToken == null ? "null" : lexerToken.toString()) + ") \"" + (lexerToken == null ? "" : (buffer.subSequence(lexerToken.getRange().getStart() + startOffset, lexerToken.getRange().getEnd() + startOffset))) + "\"");
+        if (LOG.isDebugEnabled()) LOG.debug("advanced to " + currentOffset + " (" + getLexerToken() + ") \"" + (tokenType == null ? "" : buffer.subSequence(tokenStart + startOffset, tokenEnd + startOffset)) + "\"");
     }
 
     public void restore(@NotNull LexerPosition lexerPosition) {
         currentOffset = lexerPosition.getOffset();
         lexemeIndex = lexerPosition.getState();
-        lexerToken = null;
-        prevToken = null;
+        tokenType = null;
+        prevTokenType = null;
         advance();
     }
 
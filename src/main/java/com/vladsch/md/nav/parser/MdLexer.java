@@ -12,30 +12,105 @@ import com.vladsch.md.nav.settings.MdRenderingProfile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.List;
 
 import static com.intellij.openapi.diagnostic.Logger.getInstance;
-import static com.vladsch.md.nav.psi.util.MdTypes.BULLET_LIST;
-import static com.vladsch.md.nav.psi.util.MdTypes.DEFINITION_LIST;
-import static com.vladsch.md.nav.psi.util.MdTypes.ORDERED_LIST;
-
+import static com.vladsch.md.nav.psi.util.MdTypes.ASIDE_BLOCK;
+import static com.vladsch.md.nav.psi.util.MdTypes.BLOCK_QUOTE;
+import static com.vladsch.md.nav.psi.util.MdTypes.BULLET_LIST_ITEM;
+import static com.vladsch.md.nav.psi.util.MdTypes.DEFINITION;
+import static com.vladsch.md.nav.psi.util.MdTypes.ORDERED_LIST_ITEM;
+import static com.vladsch.md.nav.psi.util.MdTypes.VERBATIM;
+
+/**
+ * Markdown lexer, tokens come from a flexmark parse of the text.
+ * <p>
+ * Lexer state encodes the block context of the current token: {@link #STATE_IN_BLOCK} when the token is not at a
+ * restart offset, block quote depth, list item indent column and fenced code. State 0 is restartable, so
+ * {@code LexerEditorHighlighter} re-lexes from the nearest restart offset before an edit and stops at the first
+ * token where type and state converge with the previous highlighting.
+ * <p>
+ * Restart offsets are starts of top level blocks which follow a blank line, so an edit which merges a block with the
+ * preceding one (setext heading underline, lazy continuation) is re-lexed from the start of the merged block. A file
+ * with document level definitions (references, abbreviations, footnotes) has only offset 0 as a restart offset,
+ * adding or changing a definition can change tokens anywhere in the file.
+ * <p>
+ * A restart on the full buffer is lexed from the incremental parse of the whole text, so only the edited blocks are
+ * re-parsed and tokens after the restart offset keep their document context (references, abbreviations).
+ */
 public class MdLexer extends Lexer implements RestartableLexer {
     private static final Logger LOG = getInstance("com.vladsch.md.nav.parser");
 
+    // state layout, kept within 15 bits for the editor highlighter segment storage
+    public static final int STATE_IN_BLOCK = 1;
+    public static final int STATE_QUOTE_SHIFT = 1;
+    public static final int STATE_QUOTE_MASK = 0x07;
+    public static final int STATE_FENCED = 1 << 4;
+    public static final int STATE_INDENT_SHIFT = 5;
+    public static final int STATE_INDENT_MASK = 0x3ff;
+
     protected MdLexemeProcessor myLexemeProcessor = null;
 
     protected LexerData lexerData = null;
+    protected MdASTNode myRootNode = null;
     protected final @NotNull MdRenderingProfile renderingProfile;
-    protected HashSet<Integer> myFileLevelLexemeStarts = null;
-
+    protected int[] myRestartOffsets = null;
+    protected final @NotNull MdIncrementalLexParser myIncrementalParser;
+    protected final boolean myForHighlighting;
+    protected final boolean myForIndexing;
+    protected final boolean myForStubs;
+
+    /**
+     * @return lexer data of the lexed text, null for a highlighting lexer which lexed provisional background data
+     */
     public LexerData getLexerData() {
         return lexerData;
     }
 
     public MdLexer(final @NotNull MdRenderingProfile renderingProfile) {
+        this(renderingProfile, false);
+    }
+
+    /**
+     * @param renderingProfile rendering profile
+     * @param forHighlighting  true if used by the editor highlighter, allows provisional tokens of the background parser
+     *                         and limits parsing by the parser time budget
+     */
+    public MdLexer(final @NotNull MdRenderingProfile renderingProfile, boolean forHighlighting) {
+        this(renderingProfile, forHighlighting, false, false);
+    }
+
+    private MdLexer(final @NotNull MdRenderingProfile renderingProfile, boolean forHighlighting, boolean forIndexing, boolean forStubs) {
         super();
 
         this.renderingProfile = renderingProfile;
+        this.myIncrementalParser = new MdIncrementalLexParser(renderingProfile, forHighlighting);
+        this.myForHighlighting = forHighlighting;
+        this.myForIndexing = forIndexing;
+        this.myForStubs = forStubs;
+    }
+
+    /**
+     * Lexer for id and todo indexing, text is parsed by {@link MdLexParserManager#parseMarkdownForIndexing(MdRenderingProfile, CharSequence)}
+     *
+     * @param renderingProfile rendering profile
+     * @return lexer
+     */
+    @NotNull
+    public static MdLexer createIndexingLexer(final @NotNull MdRenderingProfile renderingProfile) {
+        return new MdLexer(renderingProfile, false, true, false);
+    }
+
+    /**
+     * Lexer for building stubs, text is parsed by {@link MdLexParserManager#parseMarkdownForStubs(MdRenderingProfile, CharSequence)}
+     *
+     * @param renderingProfile rendering profile
+     * @return lexer
+     */
+    @NotNull
+    public static MdLexer createStubLexer(final @NotNull MdRenderingProfile renderingProfile) {
+        return new MdLexer(renderingProfile, false, false, true);
     }
 
     protected void logStackTrace() {
@@ -63,84 +138,172 @@ public class MdLexer extends Lexer implements RestartableLexer {
 
     @Override
     public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
-        LexerToken[] lexerTokens = null;
+        myRestartOffsets = null;
+
+        if (buffer.length() == 0) {
+            myIncrementalParser.reset();
+            lexerData = null;
+            myRootNode = null;
+            myLexemeProcessor = new MdLexemeProcessor(buffer, (LexerTokens) null, startOffset, endOffset, 0);
+        } else if (myForIndexing || myForStubs) {
+            // indexing lexes each text once, no incremental or background parse
+            CharSequence text = buffer.subSequence(startOffset, endOffset);
+            lexerData = myForStubs ? MdLexParserManager.parseMarkdownForStubs(renderingProfile, text) : MdLexParserManager.parseMarkdownForIndexing(renderingProfile, text);
+            myRootNode = lexerData.rootNode;
+            myLexemeProcessor = new MdLexemeProcessor(buffer, lexerData.tokens, startOffset, endOffset, 0);
+        } else if (endOffset == buffer.length() && (startOffset == 0 || isRestartableState(initialState))) {
+            // whole buffer, use the background parse of an open document or keep the previous version to re-parse
+            // only the edited blocks, restart lexes from startOffset
+            MdBackgroundLexParser backgroundParser = MdBackgroundLexParser.getInstance();
+            LexerTokens lexerTokens;
+
+            MdBackgroundLexParser.LexerView lexerView = myForHighlighting ? backgroundParser.getHighlightingView(renderingProfile, buffer) : null;
+            if (lexerView != null) {
+                lexerData = lexerView.lexerData;
+                myRootNode = lexerView.rootNode;
+                lexerTokens = lexerView.tokens;
+            } else {
+                LexerData published = myForHighlighting ? null : backgroundParser.getLexerData(renderingProfile, buffer);
+                lexerData = published != null ? published : myIncrementalParser.parseMarkdown(buffer);
+                myRootNode = lexerData.rootNode;
+                lexerTokens = lexerData.tokens;
+            }
 
-        if (buffer.length() > 0) {
-            lexerData = MdLexParserManager.parseMarkdown(renderingProfile, buffer.subSequence(startOffset, endOffset));
-            lexerTokens = lexerData.lexerTokens;
-        }
+            int lexemeIndex = lexerTokens.findStartIndex(startOffset);
+            if (lexemeIndex > 0 && lexerTokens.getEnd(lexemeIndex - 1) > startOffset) lexemeIndex--;
 
-        myLexemeProcessor = new MdLexemeProcessor(buffer, lexerTokens, startOffset, endOffset, initialState);
-        myFileLevelLexemeStarts = null;
+            myLexemeProcessor = new MdLexemeProcessor(buffer, lexerTokens, 0, endOffset, lexemeIndex, startOffset);
+        } else {
+            myIncrementalParser.reset();
+            lexerData = MdLexParserManager.parseMarkdown(renderingProfile, buffer.subSequence(startOffset, endOffset), myForHighlighting ? MdParseBudget.create() : MdParseBudget.UNLIMITED);
+            myRootNode = lexerData.rootNode;
+            myLexemeProcessor = new MdLexemeProcessor(buffer, lexerData.tokens, startOffset, endOffset, 0);
+        }
     }
 
-    // this is only valid when parsing the whole file, for reparse highly depends on restart being respected which it is not
-    // the IDE assumes that all needed information is stored in state
-    boolean isFileLevelOffset(int lexemeStart) {
-        if (lexerData != null) {
-            if (myFileLevelLexemeStarts == null) {
-                // compute file level lexeme start offsets
-                myFileLevelLexemeStarts = new HashSet<>();
-
-                // add all root level starts
-                for (MdASTNode astNode : lexerData.rootNode.getChildren()) {
-                    myFileLevelLexemeStarts.add(astNode.getStartOffset());
-
-                    // cannot work all the time, first item of a list can be significant for indentation purposes.
-                    // Only real top level items can be re-parsed without preceding text but this makes files with long
-                    // lists too slow.
-                    // as an alternative can check if item matches first item's indentation level then it can also be started from without
-                    // affecting indentation of other items
-                    IElementType type = astNode.getElementType();
-                    if (type == BULLET_LIST || type == ORDERED_LIST || type == DEFINITION_LIST) {
-                        // these are holders of items so pass through first children
-                        int firstItemIndent = -1;
-                        for (MdASTNode itemNode : astNode.getChildren()) {
-                            int startOffset = itemNode.getStartOffset();
-                            int itemStart = myLexemeProcessor.getLineColumn(startOffset);
-
-                            if (firstItemIndent == -1 || firstItemIndent == itemStart || type == DEFINITION_LIST) {
-                                // this is either the first item or has the same indentation, we can start parsing from it
-                                firstItemIndent = itemStart;
-                                myFileLevelLexemeStarts.add(startOffset);
-                            }
-                        }
+    // offsets relative to lexeme processor start offset from which lexing can restart without preceding text
+    int[] getRestartOffsets() {
+        if (myRestartOffsets == null) {
+            if (myRootNode == null || MdIncrementalLexParser.hasDefinitions(myRootNode)) {
+                // definitions change parsing of blocks before and after them, restart from the top and do not converge
+                myRestartOffsets = new int[] { 0 };
+            } else {
+                List<MdASTNode> children = myRootNode.getChildren();
+                int[] offsets = new int[children.size() + 1];
+                int size = 0;
+
+                offsets[size++] = 0;
+
+                // top level blocks following a blank line, others can merge with the preceding block on edit,
+                // setext heading underline, lazy continuation. List items are not restart offsets, an edit in
+                // one item can change the list between tight and loose.
+                for (MdASTNode astNode : children) {
+                    int startOffset = astNode.getStartOffset();
+                    if (startOffset > offsets[size - 1] && followsBlankLine(startOffset)) {
+                        offsets[size++] = startOffset;
                     }
                 }
+                myRestartOffsets = Arrays.copyOf(offsets, size);
             }
-            return myFileLevelLexemeStarts.contains(lexemeStart);
+        }
+        return myRestartOffsets;
+    }
+
+    /**
+     * @param offset offset relative to lexeme processor start offset
+     * @return true if offset is at the start of a line preceded by a blank line
+     */
+    private boolean followsBlankLine(int offset) {
+        CharSequence buffer = myLexemeProcessor.getBuffer();
+        int startOffset = myLexemeProcessor.getStartOffset();
+        int pos = startOffset + offset;
+
+        if (pos <= startOffset || buffer.charAt(pos - 1) != '\n') return false;
+
+        // previous line must have only whitespace
+        pos--;
+        while (pos > startOffset) {
+            char c = buffer.charAt(pos - 1);
+            if (c == '\n') return true;
+            if (c != ' ' && c != '\t') return false;
+            pos--;
         }
         return true;
     }
 
+    boolean isFileLevelOffset(int lexemeStart) {
+        return Arrays.binarySearch(getRestartOffsets(), lexemeStart) >= 0;
+    }
+
+    @Nullable
+    private static MdASTNode findChildContaining(@NotNull List<MdASTNode> children, int offset) {
+        int low = 0;
+        int high = children.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            MdASTNode child = children.get(mid);
+            if (child.getEndOffset() <= offset) low = mid + 1;
+            else if (child.getStartOffset() > offset) high = mid - 1;
+            else return child;
+        }
+        return null;
+    }
+
+    /**
+     * Block context state of a lexeme
+     *
+     * @param lexemeStart lexeme start offset relative to lexeme processor start offset
+     * @return 0 if lexing can restart at lexemeStart, otherwise {@link #STATE_IN_BLOCK} with enclosing block context
+     */
+    int getBlockState(int lexemeStart) {
+        if (myRootNode == null || isFileLevelOffset(lexemeStart)) return 0;
+
+        int quoteDepth = 0;
+        int indent = 0;
+        boolean fenced = false;
+
+        MdASTNode node = myRootNode;
+        while (true) {
+            MdASTNode child = findChildContaining(node.getChildren(), lexemeStart);
+            if (child == null) break;
+
+            IElementType type = child.getElementType();
+            if (type == BLOCK_QUOTE || type == ASIDE_BLOCK) {
+                quoteDepth++;
+            } else if (type == BULLET_LIST_ITEM || type == ORDERED_LIST_ITEM || type == DEFINITION) {
+                indent = myLexemeProcessor.getLineColumn(child.getStartOffset()) + 1;
+            } else if (type == VERBATIM) {
+                fenced = true;
+                break;
+            }
+            node = child;
+        }
+
+        return STATE_IN_BLOCK
+                | Math.min(quoteDepth, STATE_QUOTE_MASK) << STATE_QUOTE_SHIFT
+                | (fenced ? STATE_FENCED : 0)
+                | Math.min(indent, STATE_INDENT_MASK) << STATE_INDENT_SHIFT;
+    }
+
     @Override
     public int getState() {
-        LexerToken lexerToken = myLexemeProcessor.getLexerToken();
-
-        // here we need to return 0 in low bit when the file can be re-parsed from this point, ie. file level elements
-        return (lexerToken != null && isFileLevelOffset(lexerToken.getRange().getStart()) ? 0 : 1);
+        return myLexemeProcessor.getTokenType() != null ? getBlockState(myLexemeProcessor.getTokenStart()) : 0;
     }
 
     @Nullable
     @Override
     public IElementType getTokenType() {
-        LexerToken lexerToken = myLexemeProcessor.getLexerToken();
-
-        return lexerToken != null ? lexerToken.getElementType() : null;
+        return myLexemeProcessor.getTokenType();
     }
 
     @Override
     public int getTokenStart() {
-        LexerToken lexerToken = myLexemeProcessor.getLexerToken();
-
-        return lexerToken != null ? lexerToken.getRange().getStart() + myLexemeProcessor.getStartOffset() : myLexemeProcessor.getEndOffset();
+        return myLexemeProcessor.getTokenType() != null ? myLexemeProcessor.getTokenStart() + myLexemeProcessor.getStartOffset() : myLexemeProcessor.getEndOffset();
     }
 
     @Override
     public int getTokenEnd() {
-        LexerToken lexerToken = myLexemeProcessor.getLexerToken();
-
-        return lexerToken != null ? lexerToken.getRange().getEnd() + myLexemeProcessor.getStartOffset() : myLexemeProcessor.getEndOffset();
+        return myLexemeProcessor.getTokenType() != null ? myLexemeProcessor.getTokenEnd() + myLexemeProcessor.getStartOffset() : myLexemeProcessor.getEndOffset();
     }
 
     @Override
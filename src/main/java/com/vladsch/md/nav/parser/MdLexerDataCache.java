@@ -0,0 +1,156 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.text.ImmutableCharSequence;
+import com.vladsch.flexmark.util.data.DataHolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parse results shared by the editor highlighter lexer, PSI parsing, external annotator and indexers
+ * so that each text version is parsed once per rendering profile.
+ * <p>
+ * Keyed by text hash and the cached parser options instance from {@link MdFlexmarkObjectCache}, which is
+ * unique per rendering profile fingerprint and replaced when settings change. Values are soft referenced.
+ */
+public class MdLexerDataCache {
+    public static final int MAX_ENTRIES = 64;
+
+    private static MdLexerDataCache DEFAULT = null;
+
+    @NotNull
+    public static MdLexerDataCache getInstance() {
+        if (ApplicationManager.getApplication() == null) {
+            if (DEFAULT == null) DEFAULT = new MdLexerDataCache();
+            return DEFAULT;
+        }
+        return ServiceManager.getService(MdLexerDataCache.class);
+    }
+
+    private static class Key {
+        final @NotNull DataHolder options;
+        final int textHash;
+        final int textLength;
+
+        Key(@NotNull DataHolder options, @NotNull CharSequence text) {
+            this.options = options;
+            this.textHash = StringUtil.stringHashCode(text);
+            this.textLength = text.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return options == key.options && textHash == key.textHash && textLength == key.textLength;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(options);
+            result = 31 * result + textHash;
+            result = 31 * result + textLength;
+            return result;
+        }
+    }
+
+    private static class Entry {
+        final @NotNull CharSequence text;
+        final @NotNull LexerData lexerData;
+
+        Entry(@NotNull CharSequence text, @NotNull LexerData lexerData) {
+            this.text = text;
+            this.lexerData = lexerData;
+        }
+    }
+
+    private final LinkedHashMap<Key, SoftReference<Entry>> myEntries = new LinkedHashMap<Key, SoftReference<Entry>>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<Entry>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long myHits = 0;
+    private long myMisses = 0;
+
+    @Nullable
+    public LexerData get(@NotNull DataHolder options, @NotNull CharSequence text) {
+        Key key = new Key(options, text);
+        Entry entry;
+
+        synchronized (myEntries) {
+            SoftReference<Entry> ref = myEntries.get(key);
+            entry = ref == null ? null : ref.get();
+            if (entry == null) {
+                if (ref != null) myEntries.remove(key);
+                myMisses++;
+                return null;
+            }
+        }
+
+        // hash match, confirm content outside of the lock
+        if (!StringUtil.equals(entry.text, text)) {
+            synchronized (myEntries) {
+                myMisses++;
+            }
+            return null;
+        }
+
+        synchronized (myEntries) {
+            myHits++;
+        }
+        return entry.lexerData;
+    }
+
+    public void put(@NotNull DataHolder options, @NotNull CharSequence text, @NotNull LexerData lexerData) {
+        CharSequence immutableText = ImmutableCharSequence.asImmutable(text);
+        Key key = new Key(options, immutableText);
+
+        synchronized (myEntries) {
+            myEntries.put(key, new SoftReference<>(new Entry(immutableText, lexerData)));
+        }
+    }
+
+    public void clear() {
+        synchronized (myEntries) {
+            myEntries.clear();
+        }
+    }
+
+    public long getHits() {
+        synchronized (myEntries) {
+            return myHits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (myEntries) {
+            return myMisses;
+        }
+    }
+
+    public void resetCounters() {
+        synchronized (myEntries) {
+            myHits = 0;
+            myMisses = 0;
+        }
+    }
+
+    @NotNull
+    public String getStatistics() {
+        synchronized (myEntries) {
+            long total = myHits + myMisses;
+            return String.format("LexerDataCache entries: %d, hits: %d, misses: %d, hit rate: %.1f%%", myEntries.size(), myHits, myMisses, total == 0 ? 0.0 : myHits * 100.0 / total);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.LighterASTTokenNode;
+import com.intellij.openapi.util.Ref;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.diff.FlyweightCapableTreeStructure;
+import com.vladsch.md.nav.parser.ast.MdASTLeafNode;
+import com.vladsch.md.nav.parser.ast.MdASTNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+
+import static com.vladsch.md.nav.psi.util.MdTypes.BLANK_LINE;
+
+/**
+ * Light tree for stub building made directly from parsed {@link LexerData}, without a PsiBuilder.
+ * <p>
+ * Only subtrees of stub element types are included, hoisted under the file root node. Inside these subtrees
+ * composite nodes and tokens are the same as the ones {@link PsiBuilderFillingVisitor} creates, so stub element
+ * types see the same children as with the PsiBuilder light tree. Tokens are generated by {@link MdLexemeProcessor}
+ * for the stub subtree ranges only.
+ */
+public class MdLightStubTree implements FlyweightCapableTreeStructure<LighterASTNode> {
+    static class Node implements LighterASTNode {
+        final @NotNull IElementType type;
+        final int startOffset;
+        int endOffset;
+        @Nullable Composite parent;
+
+        Node(@NotNull IElementType type, int startOffset, int endOffset) {
+            this.type = type;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        @NotNull
+        @Override
+        public IElementType getTokenType() {
+            return type;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return startOffset;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    static class Token extends Node implements LighterASTTokenNode {
+        final @NotNull CharSequence text;
+
+        Token(@NotNull IElementType type, int startOffset, int endOffset, @NotNull CharSequence text) {
+            super(type, startOffset, endOffset);
+            this.text = text;
+        }
+
+        @NotNull
+        @Override
+        public CharSequence getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    static class Composite extends Node {
+        final ArrayList<Node> children = new ArrayList<>();
+
+        Composite(@NotNull IElementType type, int startOffset) {
+            super(type, startOffset, startOffset);
+        }
+
+        void add(@NotNull Node child) {
+            child.parent = this;
+            children.add(child);
+        }
+
+        @Override
+        public String toString() {
+            return type.toString();
+        }
+    }
+
+    private final @NotNull CharSequence myText;
+    private final @NotNull Composite myRoot;
+
+    private MdLightStubTree(@NotNull CharSequence text, @NotNull Composite root) {
+        myText = text;
+        myRoot = root;
+    }
+
+    /**
+     * Build light tree of stub element subtrees
+     *
+     * @param text      parsed text
+     * @param lexerData lexer data of the text
+     * @return tree structure
+     */
+    @NotNull
+    public static MdLightStubTree build(@NotNull CharSequence text, @NotNull LexerData lexerData) {
+        Composite root = new Composite(lexerData.rootNode.getElementType(), 0);
+        root.endOffset = text.length();
+        new Builder(text, lexerData.tokens).collectStubs(lexerData.rootNode, root);
+        return new MdLightStubTree(text, root);
+    }
+
+    private static class Builder {
+        final @NotNull CharSequence text;
+        final @NotNull PackedLexerTokens tokens;
+        MdLexemeProcessor processor;
+
+        Builder(@NotNull CharSequence text, @NotNull PackedLexerTokens tokens) {
+            this.text = text;
+            this.tokens = tokens;
+        }
+
+        void collectStubs(@NotNull MdASTNode node, @NotNull Composite parent) {
+            for (MdASTNode child : node.getChildren()) {
+                if (child instanceof MdASTLeafNode) continue;
+
+                if (child.getElementType() instanceof IStubElementType) {
+                    parent.add(buildStubSubtree(child));
+                } else {
+                    collectStubs(child, parent);
+                }
+            }
+        }
+
+        @NotNull
+        Composite buildStubSubtree(@NotNull MdASTNode stubNode) {
+            int startOffset = stubNode.getStartOffset();
+
+            // start lexing at a lexer token before the node, whitespace lexemes depend on the preceding token type
+            int anchorIndex = Math.max(0, tokens.findStartIndex(startOffset) - 1);
+            int anchorOffset = tokens.isEmpty() ? 0 : Math.min(tokens.getStart(anchorIndex), startOffset);
+            processor = new MdLexemeProcessor(text, tokens, 0, text.length(), anchorIndex, anchorOffset);
+
+            // tokens before the node belong to its parent
+            while (hasToken() && tokenStart() < startOffset) processor.advance();
+            return visit(stubNode);
+        }
+
+        boolean hasToken() {
+            return processor.getTokenType() != null;
+        }
+
+        int tokenStart() {
+            return processor.getTokenStart();
+        }
+
+        int currentOffset() {
+            return hasToken() ? processor.getTokenStart() : text.length();
+        }
+
+        @NotNull
+        Composite visit(@NotNull MdASTNode node) {
+            Composite composite = new Composite(node.getElementType(), currentOffset());
+
+            for (MdASTNode child : node.getChildren()) {
+                if (child instanceof MdASTLeafNode) continue;
+
+                advanceTo(child.getStartOffset(), composite);
+                composite.add(visit(child));
+            }
+
+            advanceTo(node.getEndOffset(), composite);
+            composite.endOffset = currentOffset();
+            return composite;
+        }
+
+        // same as PsiBuilderFillingVisitor.ensureBuilderInPosition
+        void advanceTo(int offset, @NotNull Composite parent) {
+            while (hasToken() && tokenStart() < offset) {
+                IElementType tokenType = processor.getTokenType();
+                int start = processor.getTokenStart();
+                int end = processor.getTokenEnd();
+                Token token = new Token(tokenType, start, end, text.subSequence(start, end));
+
+                if (tokenType == BLANK_LINE) {
+                    Composite blankLine = new Composite(BLANK_LINE, start);
+                    blankLine.add(token);
+                    blankLine.endOffset = end;
+                    parent.add(blankLine);
+                } else {
+                    parent.add(token);
+                }
+
+                processor.advance();
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public LighterASTNode getRoot() {
+        return myRoot;
+    }
+
+    @Nullable
+    @Override
+    public LighterASTNode getParent(@NotNull LighterASTNode node) {
+        return ((Node) node).parent;
+    }
+
+    @NotNull
+    @Override
+    public LighterASTNode prepareForGetChildren(@NotNull LighterASTNode node) {
+        return node;
+    }
+
+    @Override
+    public int getChildren(@NotNull LighterASTNode parent, @NotNull Ref<LighterASTNode[]> into) {
+        if (!(parent instanceof Composite)) return 0;
+
+        ArrayList<Node> children = ((Composite) parent).children;
+        into.set(children.toArray(LighterASTNode.EMPTY_ARRAY));
+        return children.size();
+    }
+
+    @Override
+    public void disposeChildren(LighterASTNode[] nodes, int count) {
+
+    }
+
+    @NotNull
+    @Override
+    public CharSequence toString(@NotNull LighterASTNode node) {
+        return myText.subSequence(node.getStartOffset(), node.getEndOffset());
+    }
+
+    @Override
+    public int getStartOffset(@NotNull LighterASTNode node) {
+        return node.getStartOffset();
+    }
+
+    @Override
+    public int getEndOffset(@NotNull LighterASTNode node) {
+        return node.getEndOffset();
+    }
+}
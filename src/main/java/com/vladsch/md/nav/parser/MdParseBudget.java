@@ -0,0 +1,155 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.vladsch.flexmark.util.ast.Node;
+import com.vladsch.md.nav.MdBundle;
+import com.vladsch.md.nav.PluginNotifications;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+
+/**
+ * Cancellation and time budget of a single markdown parse, checked by {@link LexParserFlexmarkASTVisitor} at block boundaries.
+ * <p>
+ * Only highlighter parses are given a time budget, PSI, stub and index parses use {@link #UNLIMITED} which only
+ * checks for cancellation. With a time budget, flexmark's parsing of the text runs on a pooled thread, see
+ * {@link MdLexParserManager#parseMarkdownUncached(com.vladsch.md.nav.parser.api.ParserPurpose, com.vladsch.md.nav.settings.MdRenderingProfile, CharSequence, MdParseBudget)},
+ * and the whole file is lexed as plain text when it does not finish within the budget.
+ * <p>
+ * When the budget is exceeded in the AST visit, the visitor converts the rest of the file, starting with the top level
+ * block being visited, to plain text tokens and records the offending construct here.
+ */
+public class MdParseBudget {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.budget");
+
+    // do not repeat the notification on every keystroke
+    public static final long NOTIFICATION_INTERVAL = 60 * 1000L;
+    private static long ourLastNotificationTime = 0;
+
+    public static final MdParseBudget UNLIMITED = new MdParseBudget(0);
+
+    public static class ExceededException extends RuntimeException {
+        final @NotNull Node node;
+
+        ExceededException(@NotNull Node node) {
+            super(null, null, false, false);
+            this.node = node;
+        }
+
+        @NotNull
+        public Node getNode() {
+            return node;
+        }
+    }
+
+    private final int myBudget;
+    private final long myDeadline;
+    private @Nullable String myExceededConstruct = null;
+    private int myExceededOffset = -1;
+    private int myExceededLine = -1;
+
+    /**
+     * @param budget time budget in milliseconds, counted from now, 0 or negative for no time limit
+     */
+    public MdParseBudget(int budget) {
+        myBudget = budget;
+        myDeadline = budget > 0 ? System.nanoTime() + budget * 1000_000L : 0;
+    }
+
+    @NotNull
+    public static MdParseBudget create() {
+        if (ApplicationManager.getApplication() == null) return new MdParseBudget(0);
+        return new MdParseBudget(MdApplicationSettings.getInstance().getDebugSettings().getParserTimeBudget());
+    }
+
+    public void checkCanceled() {
+        if (ApplicationManager.getApplication() != null) ProgressManager.checkCanceled();
+    }
+
+    /**
+     * Check for cancellation and time budget
+     *
+     * @param node block node about to be visited
+     * @throws ExceededException if the time budget was exceeded
+     */
+    public void check(@NotNull Node node) {
+        checkCanceled();
+        if (isOverTime()) {
+            throw new ExceededException(node);
+        }
+    }
+
+    /**
+     * @return true if the time budget was exceeded, does not check for cancellation
+     */
+    public boolean isOverTime() {
+        return myDeadline != 0 && System.nanoTime() - myDeadline > 0;
+    }
+
+    /**
+     * @return milliseconds left in the time budget, 0 if exceeded, {@link Long#MAX_VALUE} if there is no time limit
+     */
+    public long getRemaining() {
+        if (myDeadline == 0) return Long.MAX_VALUE;
+        return Math.max(0, (myDeadline - System.nanoTime()) / 1000_000L);
+    }
+
+    void setExceeded(@NotNull Node node, int offset, int line) {
+        setExceeded(node.getNodeName(), offset, line);
+    }
+
+    void setExceeded(@NotNull String construct, int offset, int line) {
+        myExceededConstruct = construct;
+        myExceededOffset = offset;
+        myExceededLine = line;
+    }
+
+    public int getBudget() {
+        return myBudget;
+    }
+
+    public boolean isExceeded() {
+        return myExceededConstruct != null;
+    }
+
+    @Nullable
+    public String getExceededConstruct() {
+        return myExceededConstruct;
+    }
+
+    public int getExceededOffset() {
+        return myExceededOffset;
+    }
+
+    public int getExceededLine() {
+        return myExceededLine;
+    }
+
+    public void notifyExceeded(@Nullable Project project) {
+        if (myExceededConstruct == null) return;
+
+        String message = MdBundle.message("parser.time-budget.exceeded", myBudget, myExceededConstruct, myExceededLine + 1);
+
+        long now = System.currentTimeMillis();
+        synchronized (MdParseBudget.class) {
+            if (now - ourLastNotificationTime < NOTIFICATION_INTERVAL) {
+                if (LOG.isDebugEnabled()) LOG.debug(message);
+                return;
+            }
+            ourLastNotificationTime = now;
+        }
+
+        LOG.warn(message);
+
+        if (ApplicationManager.getApplication() != null && !ApplicationManager.getApplication().isUnitTestMode()) {
+            PluginNotifications.INSTANCE.makeNotification(message, MdBundle.message("parser.time-budget.title"), NotificationType.WARNING, PluginNotifications.INSTANCE.getNOTIFICATION_GROUP_ISSUES(), project, null);
+        }
+    }
+}
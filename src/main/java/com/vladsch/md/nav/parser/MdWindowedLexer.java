@@ -0,0 +1,245 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.lexer.LexerPosition;
+import com.intellij.lexer.RestartableLexer;
+import com.intellij.lexer.TokenIterator;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.tree.IElementType;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static com.vladsch.md.nav.psi.util.MdTypes.TEXT;
+
+/**
+ * Highlighting lexer for large files which parses markdown only in a window of the document, the rest of the
+ * text is a single plain text token before and after the window.
+ * <p>
+ * The window is kept in a {@link HighlightWindow} of the editor's syntax highlighter, so editors of the same document
+ * each highlight their own visible area. It is updated by the editor when it scrolls, see MdLargeFileMode.
+ * Window edges are moved to blank lines so that they fall between top level blocks for most markdown.
+ */
+public class MdWindowedLexer extends Lexer implements RestartableLexer {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    // limit of search for a blank line when aligning window edges
+    public static final int MAX_ALIGN_SCAN = 16 * 1024;
+
+    /**
+     * Highlighting window of one editor, null range until the editor sets it
+     */
+    public static class HighlightWindow {
+        private volatile @Nullable TextRange myRange = null;
+
+        @Nullable
+        public TextRange getRange() {
+            return myRange;
+        }
+
+        public void setRange(@Nullable TextRange range) {
+            myRange = range;
+        }
+    }
+
+    private final @NotNull HighlightWindow myHighlightWindow;
+    private final @NotNull MdLexer myWindowLexer;
+
+    private CharSequence myBuffer = "";
+    private int myEndOffset = 0;
+    private int myWindowStart = 0;
+    private int myWindowEnd = 0;
+    private boolean myInWindow = false;
+
+    private @Nullable IElementType myTokenType = null;
+    private int myTokenStart = 0;
+    private int myTokenEnd = 0;
+
+    public MdWindowedLexer(@NotNull MdRenderingProfile renderingProfile, @NotNull HighlightWindow highlightWindow) {
+        myHighlightWindow = highlightWindow;
+        myWindowLexer = new MdLexer(renderingProfile, true);
+    }
+
+    @NotNull
+    public static TextRange getHighlightWindow(@NotNull HighlightWindow highlightWindow, @NotNull CharSequence text) {
+        TextRange window = highlightWindow.getRange();
+        int length = text.length();
+        int start = window == null ? 0 : Math.min(window.getStartOffset(), length);
+        int end = window == null ? Math.min(DEFAULT_WINDOW_SIZE, length) : Math.min(window.getEndOffset(), length);
+        return new TextRange(blockStartBefore(text, start), blockEndAfter(text, Math.max(start, end)));
+    }
+
+    private static boolean isBlankLine(@NotNull CharSequence text, int lineStart) {
+        int iMax = text.length();
+        for (int i = lineStart; i < iMax; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') return true;
+            if (c != ' ' && c != '\t') return false;
+        }
+        return true;
+    }
+
+    private static int lineStart(@NotNull CharSequence text, int offset) {
+        while (offset > 0 && text.charAt(offset - 1) != '\n') offset--;
+        return offset;
+    }
+
+    /**
+     * @param text   text
+     * @param offset offset
+     * @return start of the first line at or before offset which follows a blank line, or line start if none found in scan limit
+     */
+    public static int blockStartBefore(@NotNull CharSequence text, int offset) {
+        int start = lineStart(text, offset);
+        int lineStart = start;
+        int limit = Math.max(0, offset - MAX_ALIGN_SCAN);
+
+        while (lineStart > limit) {
+            int prevLineStart = lineStart(text, lineStart - 1);
+            if (isBlankLine(text, prevLineStart)) return lineStart;
+            lineStart = prevLineStart;
+        }
+        return lineStart == 0 ? 0 : start;
+    }
+
+    /**
+     * @param text   text
+     * @param offset offset
+     * @return start of the first blank line at or after offset, or next line start if none found in scan limit
+     */
+    public static int blockEndAfter(@NotNull CharSequence text, int offset) {
+        int length = text.length();
+        int lineStart = lineStart(text, Math.min(offset, length));
+        if (lineStart < offset) {
+            // move to next line
+            while (lineStart < length && text.charAt(lineStart) != '\n') lineStart++;
+            if (lineStart < length) lineStart++;
+        }
+
+        int nextLineStart = lineStart;
+        int limit = Math.min(length, offset + MAX_ALIGN_SCAN);
+
+        while (lineStart < limit) {
+            if (isBlankLine(text, lineStart)) return lineStart;
+            while (lineStart < length && text.charAt(lineStart) != '\n') lineStart++;
+            if (lineStart < length) lineStart++;
+        }
+        return lineStart >= length ? length : nextLineStart;
+    }
+
+    @Override
+    public int getStartState() {
+        return 0;
+    }
+
+    @Override
+    public boolean isRestartableState(int state) {
+        return state == 0;
+    }
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState, TokenIterator tokenIterator) {
+        start(buffer, startOffset, endOffset, initialState);
+    }
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+        TextRange window = getHighlightWindow(myHighlightWindow, buffer);
+
+        myBuffer = buffer;
+        myEndOffset = endOffset;
+        myWindowStart = Math.max(startOffset, Math.min(window.getStartOffset(), endOffset));
+        myWindowEnd = Math.max(myWindowStart, Math.min(window.getEndOffset(), endOffset));
+        myInWindow = false;
+        nextToken(startOffset);
+    }
+
+    private void nextToken(int offset) {
+        if (offset >= myEndOffset) {
+            myInWindow = false;
+            myTokenType = null;
+            myTokenStart = myTokenEnd = myEndOffset;
+        } else if (offset < myWindowStart) {
+            setPlainText(offset, myWindowStart);
+        } else if (offset < myWindowEnd) {
+            myWindowLexer.start(myBuffer, offset, myWindowEnd, 0);
+            myInWindow = true;
+            setWindowToken();
+        } else {
+            setPlainText(offset, myEndOffset);
+        }
+    }
+
+    private void setPlainText(int start, int end) {
+        myInWindow = false;
+        myTokenType = TEXT;
+        myTokenStart = start;
+        myTokenEnd = end;
+    }
+
+    private void setWindowToken() {
+        IElementType tokenType = myWindowLexer.getTokenType();
+        if (tokenType == null) {
+            myInWindow = false;
+            nextToken(myWindowEnd);
+        } else {
+            myTokenType = tokenType;
+            myTokenStart = myWindowLexer.getTokenStart();
+            myTokenEnd = myWindowLexer.getTokenEnd();
+        }
+    }
+
+    @Override
+    public int getState() {
+        return myInWindow ? myWindowLexer.getState() : 0;
+    }
+
+    @Nullable
+    @Override
+    public IElementType getTokenType() {
+        return myTokenType;
+    }
+
+    @Override
+    public int getTokenStart() {
+        return myTokenStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+        return myTokenEnd;
+    }
+
+    @Override
+    public void advance() {
+        if (myInWindow) {
+            myWindowLexer.advance();
+            setWindowToken();
+        } else {
+            nextToken(myTokenEnd);
+        }
+    }
+
+    @NotNull
+    @Override
+    public LexerPosition getCurrentPosition() {
+        return new MdLexer.MarkdownLexerPosition(myTokenStart, getState());
+    }
+
+    @Override
+    public void restore(@NotNull LexerPosition position) {
+        start(myBuffer, position.getOffset(), myEndOffset, position.getState());
+    }
+
+    @NotNull
+    @Override
+    public CharSequence getBufferSequence() {
+        return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+        return myEndOffset;
+    }
+}
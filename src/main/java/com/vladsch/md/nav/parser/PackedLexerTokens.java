@@ -0,0 +1,278 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Lexer tokens stored in parallel primitive arrays: start, end and nesting offsets plus a short element type index.
+ * <p>
+ * Element types are indexed by {@link IElementType#getIndex()} and resolved with {@link IElementType#find(short)}, types
+ * which are not registered with the platform get a negative index into a local registry.
+ * <p>
+ * {@link LexerToken} instances are only created on request, as a view for code which needs the object API.
+ */
+public class PackedLexerTokens implements LexerTokens {
+    // zero length arrays are shared, an empty instance allocates its arrays on first add
+    private static final int[] EMPTY_INTS = new int[0];
+    private static final short[] EMPTY_SHORTS = new short[0];
+
+    private static final ArrayList<IElementType> ourUnregisteredTypes = new ArrayList<>();
+
+    private int[] myStarts;
+    private int[] myEnds;
+    private int[] myNesting;
+    private short[] myTypes;
+    private int mySize;
+
+    public PackedLexerTokens(int capacity) {
+        myStarts = capacity == 0 ? EMPTY_INTS : new int[capacity];
+        myEnds = capacity == 0 ? EMPTY_INTS : new int[capacity];
+        myNesting = capacity == 0 ? EMPTY_INTS : new int[capacity];
+        myTypes = capacity == 0 ? EMPTY_SHORTS : new short[capacity];
+        mySize = 0;
+    }
+
+    /**
+     * @return new empty instance, instances are mutable so an empty one is not shared
+     */
+    @NotNull
+    public static PackedLexerTokens empty() {
+        return new PackedLexerTokens(0);
+    }
+
+    @NotNull
+    public static PackedLexerTokens of(@NotNull LexerToken[] lexerTokens) {
+        if (lexerTokens.length == 0) return empty();
+
+        PackedLexerTokens tokens = new PackedLexerTokens(lexerTokens.length);
+        for (LexerToken token : lexerTokens) {
+            tokens.add(token.getRange().getStart(), token.getRange().getEnd(), token.getElementType(), token.getNesting());
+        }
+        return tokens;
+    }
+
+    public static short typeIndex(@NotNull IElementType elementType) {
+        short index = elementType.getIndex();
+        if (index >= 0) return index;
+
+        synchronized (ourUnregisteredTypes) {
+            int i = ourUnregisteredTypes.indexOf(elementType);
+            if (i < 0) {
+                i = ourUnregisteredTypes.size();
+                ourUnregisteredTypes.add(elementType);
+            }
+            return (short) (-i - 1);
+        }
+    }
+
+    @NotNull
+    public static IElementType elementType(short typeIndex) {
+        if (typeIndex >= 0) return IElementType.find(typeIndex);
+
+        synchronized (ourUnregisteredTypes) {
+            return ourUnregisteredTypes.get(-typeIndex - 1);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > myStarts.length) {
+            int newCapacity = Math.max(capacity, myStarts.length + (myStarts.length >> 1) + 16);
+            myStarts = Arrays.copyOf(myStarts, newCapacity);
+            myEnds = Arrays.copyOf(myEnds, newCapacity);
+            myNesting = Arrays.copyOf(myNesting, newCapacity);
+            myTypes = Arrays.copyOf(myTypes, newCapacity);
+        }
+    }
+
+    public void add(int start, int end, @NotNull IElementType elementType, int nesting) {
+        addIndexed(start, end, typeIndex(elementType), nesting);
+    }
+
+    public void addIndexed(int start, int end, short typeIndex, int nesting) {
+        ensureCapacity(mySize + 1);
+        myStarts[mySize] = start;
+        myEnds[mySize] = end;
+        myNesting[mySize] = nesting;
+        myTypes[mySize] = typeIndex;
+        mySize++;
+    }
+
+    /**
+     * View of source tokens with tokens in [before, after) removed and offsets of the tokens after them shifted by delta
+     * <p>
+     * The view is created in constant time, offsets are shifted on access. It must not outlive changes to the source.
+     *
+     * @param source source tokens
+     * @param before index of first removed token
+     * @param after  index after last removed token
+     * @param delta  offset to add to start and end of tokens following the removed ones
+     * @return tokens view
+     */
+    @NotNull
+    public static LexerTokens splicedView(@NotNull LexerTokens source, int before, int after, int delta) {
+        return new SplicedView(source, before, after, delta);
+    }
+
+    private static class SplicedView implements LexerTokens {
+        private final @NotNull LexerTokens mySource;
+        private final int myBefore;
+        private final int mySkip;
+        private final int myDelta;
+        private final int myViewSize;
+
+        SplicedView(@NotNull LexerTokens source, int before, int after, int delta) {
+            mySource = source;
+            myBefore = before;
+            mySkip = after - before;
+            myDelta = delta;
+            myViewSize = source.size() - mySkip;
+        }
+
+        private int sourceIndex(int index) {
+            return index < myBefore ? index : index + mySkip;
+        }
+
+        @Override
+        public int size() {
+            return myViewSize;
+        }
+
+        @Override
+        public int getStart(int index) {
+            return index < myBefore ? mySource.getStart(index) : mySource.getStart(index + mySkip) + myDelta;
+        }
+
+        @Override
+        public int getEnd(int index) {
+            return index < myBefore ? mySource.getEnd(index) : mySource.getEnd(index + mySkip) + myDelta;
+        }
+
+        @Override
+        public int getNesting(int index) {
+            return mySource.getNesting(sourceIndex(index));
+        }
+
+        @Override
+        public short getTypeIndex(int index) {
+            return mySource.getTypeIndex(sourceIndex(index));
+        }
+
+        @Override
+        public int findStartIndex(int offset) {
+            int index = mySource.findStartIndex(offset);
+            if (index < myBefore) return index;
+
+            // in the shifted part
+            int low = myBefore;
+            int high = myViewSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getStart(mid) < offset) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Append tokens of another list with offsets shifted by delta
+     *
+     * @param tokens     source tokens
+     * @param startIndex first token index to append
+     * @param endIndex   index after last token to append
+     * @param delta      offset to add to start and end of appended tokens
+     */
+    public void addShifted(@NotNull LexerTokens tokens, int startIndex, int endIndex, int delta) {
+        int count = endIndex - startIndex;
+        if (count <= 0) return;
+
+        ensureCapacity(mySize + count);
+
+        if (!(tokens instanceof PackedLexerTokens)) {
+            for (int i = startIndex; i < endIndex; i++) {
+                addIndexed(tokens.getStart(i) + delta, tokens.getEnd(i) + delta, tokens.getTypeIndex(i), tokens.getNesting(i));
+            }
+            return;
+        }
+
+        PackedLexerTokens packed = (PackedLexerTokens) tokens;
+        System.arraycopy(packed.myNesting, startIndex, myNesting, mySize, count);
+        System.arraycopy(packed.myTypes, startIndex, myTypes, mySize, count);
+        for (int i = 0; i < count; i++) {
+            myStarts[mySize + i] = packed.myStarts[startIndex + i] + delta;
+            myEnds[mySize + i] = packed.myEnds[startIndex + i] + delta;
+        }
+        mySize += count;
+    }
+
+    /**
+     * Remove tokens which end after the given offset, keeping the order of the remaining tokens
+     *
+     * @param offset offset
+     */
+    public void removeEndingAfter(int offset) {
+        int size = 0;
+        for (int i = 0; i < mySize; i++) {
+            if (myEnds[i] <= offset) {
+                if (size != i) {
+                    myStarts[size] = myStarts[i];
+                    myEnds[size] = myEnds[i];
+                    myNesting[size] = myNesting[i];
+                    myTypes[size] = myTypes[i];
+                }
+                size++;
+            }
+        }
+        mySize = size;
+    }
+
+    public void trimToSize() {
+        if (mySize < myStarts.length) {
+            myStarts = Arrays.copyOf(myStarts, mySize);
+            myEnds = Arrays.copyOf(myEnds, mySize);
+            myNesting = Arrays.copyOf(myNesting, mySize);
+            myTypes = Arrays.copyOf(myTypes, mySize);
+        }
+    }
+
+    @Override
+    public int size() {
+        return mySize;
+    }
+
+    @Override
+    public int getStart(int index) {
+        return myStarts[index];
+    }
+
+    @Override
+    public int getEnd(int index) {
+        return myEnds[index];
+    }
+
+    @Override
+    public int getNesting(int index) {
+        return myNesting[index];
+    }
+
+    @Override
+    public short getTypeIndex(int index) {
+        return myTypes[index];
+    }
+
+    @Override
+    public int findStartIndex(int offset) {
+        int low = 0;
+        int high = mySize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (myStarts[mid] < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
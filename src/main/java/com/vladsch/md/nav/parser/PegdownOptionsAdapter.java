@@ -56,12 +56,15 @@ import static com.vladsch.md.nav.parser.MdLexParser.SPACE_IN_LINK_URLS;
 import static com.vladsch.md.nav.parser.api.HtmlPurpose.EXPORT;
 import static com.vladsch.md.nav.parser.api.HtmlPurpose.RENDER;
 import static com.vladsch.md.nav.parser.api.ParserPurpose.HTML_MIME;
+import static com.vladsch.md.nav.parser.api.ParserPurpose.INDEXING;
 import static com.vladsch.md.nav.parser.api.ParserPurpose.JAVAFX;
 import static com.vladsch.md.nav.parser.api.ParserPurpose.JIRA;
 import static com.vladsch.md.nav.parser.api.ParserPurpose.PARSER;
 import static com.vladsch.md.nav.parser.api.ParserPurpose.YOU_TRACK;
 
 public class PegdownOptionsAdapter {
+    // inline extensions left out of the indexing parse, they never contain stub elements or change block structure
+    public static final int INDEXING_EXCLUDED_EXTENSIONS = QUOTES | SMARTS | STRIKETHROUGH | SUBSCRIPT | SUPERSCRIPT | INSERTED;
 
     final private MdParserOptions options;
     private int myPegdownExtensions;
@@ -114,6 +117,10 @@ public class PegdownOptionsAdapter {
         myPegdownExtensions = renderingProfile.getParserSettings().getPegdownFlags();
         myParserOptions = renderingProfile.getParserSettings().getOptionsFlags();
 
+        // indexing uses the editor parser's block options so stub element offsets are the same as in the editor PSI
+        boolean forParser = parserPurpose == PARSER || parserPurpose == INDEXING;
+        if (parserPurpose == INDEXING) myPegdownExtensions &= ~INDEXING_EXCLUDED_EXTENSIONS;
+
         RenderingOptions renderingOptions = new RenderingOptions(parserPurpose, htmlPurpose, renderingProfile, linkResolver);
         for (MdParserExtension extension : MdParserExtension.EXTENSIONS.getValue()) {
             extension.setRenderingOptions(renderingOptions);
@@ -187,7 +194,7 @@ public class PegdownOptionsAdapter {
             options.set(Parser.BLOCK_QUOTE_IGNORE_BLANK_LINE, true);
         }
 
-        if (parserPurpose == PARSER) {
+        if (forParser) {
             //options.set(Parser.LISTS_EMPTY_BULLET_ITEM_INTERRUPTS_ITEM_PARAGRAPH, true);
             // set all bullets interrupt to prevent wrap on typing merging lists
             MutableListOptions listOptions = new MutableListOptions(options);
@@ -234,7 +241,7 @@ public class PegdownOptionsAdapter {
             options.set(AbbreviationExtension.ABBREVIATIONS_KEEP, KeepType.FIRST);
         }
 
-        if (parserPurpose != JIRA && parserPurpose != YOU_TRACK && parserPurpose != HTML_MIME) {
+        if (parserPurpose != JIRA && parserPurpose != YOU_TRACK && parserPurpose != HTML_MIME && parserPurpose != INDEXING) {
             if (htmlSettings.getAddAnchorLinks()) {
                 options.addExtension(AnchorLinkExtension.class, AnchorLinkExtension::create);
                 options.set(AnchorLinkExtension.ANCHORLINKS_WRAP_TEXT, htmlSettings.getAnchorLinksWrapText());
@@ -258,7 +265,7 @@ public class PegdownOptionsAdapter {
             }
         }
 
-        if (parserPurpose != PARSER && haveExtensions(HARDWRAPS)) {
+        if (!forParser && haveExtensions(HARDWRAPS)) {
             options.set(HtmlRenderer.SOFT_BREAK, "<br />\n");
             options.set(HtmlRenderer.HARD_BREAK, "<br />\n<br />\n");
         }
@@ -266,7 +273,7 @@ public class PegdownOptionsAdapter {
         if (!haveExtensions(ATXHEADERSPACE)) {
             options.set(Parser.HEADING_NO_ATX_SPACE, true);
         } else {
-            if (parserPurpose == PARSER) {
+            if (forParser) {
                 options.set(Parser.HEADING_NO_EMPTY_HEADING_WITHOUT_SPACE, true);
             }
         }
@@ -279,7 +286,7 @@ public class PegdownOptionsAdapter {
         options.set(HtmlRenderer.HEADER_ID_GENERATOR_TO_DASH_CHARS, " -");
         options.set(HtmlRenderer.HEADER_ID_GENERATOR_NON_DASH_CHARS, "_");
 
-        if (parserPurpose == PARSER) {
+        if (forParser) {
             // 3 for pegdown compatibility, 1 for commonmark, something else for GFM which will take 1 without trailing spaces if in a list, outside a list 1 or 2+ with spaces even if in a list
             options.set(Parser.HEADING_SETEXT_MARKER_LENGTH, 3);
         }
@@ -316,7 +323,7 @@ public class PegdownOptionsAdapter {
             options.addExtension(TablesExtension.class, TablesExtension::create);
             options.set(TablesExtension.TRIM_CELL_WHITESPACE, false);
             options.set(TablesExtension.HEADER_SEPARATOR_COLUMN_MATCH, false);
-            if (parserPurpose != PARSER) {
+            if (!forParser) {
                 options.set(TablesExtension.WITH_CAPTION, !haveOptions(ParserOptions.GFM_TABLE_RENDERING.getFlags()));
             }
         }
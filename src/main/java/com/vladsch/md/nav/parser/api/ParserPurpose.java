@@ -4,6 +4,11 @@ package com.vladsch.md.nav.parser.api;
 
 public enum ParserPurpose {
     PARSER,
+    /**
+     * Parse for stub building and indexing, block options of {@link #PARSER} without inline extensions whose output
+     * is not indexed, so stub element offsets are the same as in the editor parse
+     */
+    INDEXING,
     JAVAFX,
     SWING,
     HTML,
@@ -0,0 +1,68 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Modification stamps of files containing cached PSI elements
+ * <p>
+ * Elements of a file stay valid while the file is valid and its modification stamp is unchanged, so validity of cached
+ * elements is checked in constant time per file and elements are only validated individually on a stamp mismatch.
+ */
+public class CachedElementsStamp {
+    private final @NotNull PsiFile[] myFiles;
+    private volatile @NotNull long[] myStamps;
+
+    public CachedElementsStamp(@NotNull PsiFile file) {
+        this(new PsiFile[] { file });
+    }
+
+    public CachedElementsStamp(@NotNull Collection<? extends PsiFile> files) {
+        this(files.toArray(PsiFile.EMPTY_ARRAY));
+    }
+
+    private CachedElementsStamp(@NotNull PsiFile[] files) {
+        myFiles = files;
+        myStamps = getStamps(files);
+    }
+
+    @NotNull
+    private static long[] getStamps(@NotNull PsiFile[] files) {
+        long[] stamps = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            stamps[i] = files[i].isValid() ? files[i].getModificationStamp() : -1;
+        }
+        return stamps;
+    }
+
+    /**
+     * @return true if all files are valid and not modified since the elements were cached or last validated
+     */
+    public boolean isStampValid() {
+        long[] stamps = myStamps;
+        for (int i = 0; i < myFiles.length; i++) {
+            PsiFile file = myFiles[i];
+            if (stamps[i] == -1 || !file.isValid() || file.getModificationStamp() != stamps[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check validity, on stamp mismatch validate elements and if valid update stamps
+     *
+     * @param elementsValidator validator of all cached elements
+     * @return true if valid
+     */
+    public boolean isValid(@NotNull BooleanSupplier elementsValidator) {
+        if (isStampValid()) return true;
+        if (!elementsValidator.getAsBoolean()) return false;
+
+        myStamps = getStamps(myFiles);
+        return true;
+    }
+}
@@ -15,6 +15,7 @@ import com.vladsch.flexmark.util.misc.Ref;
 import com.vladsch.flexmark.util.misc.Utils;
 import com.vladsch.md.nav.parser.MdParserDefinition;
 import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
+import com.vladsch.md.nav.parser.cache.data.CachedDataMemoryBudget;
 import com.vladsch.md.nav.parser.cache.data.transaction.CachedTransactionContext;
 import com.vladsch.md.nav.psi.element.MdFile;
 import com.vladsch.md.nav.psi.element.MdJekyllIncludeLinkRef;
@@ -64,28 +65,62 @@ public class MdCachedFileElements {
         public boolean isValid(@NotNull MdCachedFileElements value) {
             return value.isValid();
         }
+
+        @Override
+        public long estimateSize(@NotNull MdCachedFileElements value) {
+            return value.estimateSize();
+        }
     };
 
-    final private static CachedDataKey<MdFile, Map<String, ? extends Set<MdReferenceElement>>> REFERENCED_ELEMENT_MAP =
-            new CachedDataKey<MdFile, Map<String, ? extends Set<MdReferenceElement>>>("FILE:REFERENCING_ELEMENTS") {
+    /**
+     * Referenced elements by reference id with stamps of the files containing them
+     */
+    static class ReferencedElementMap extends HashMap<String, Set<MdReferenceElement>> {
+        @Nullable CachedElementsStamp myStamp = null;
+
+        boolean isValid() {
+            CachedElementsStamp stamp = myStamp;
+            return stamp == null ? areElementsValid() : stamp.isValid(this::areElementsValid);
+        }
+
+        boolean areElementsValid() {
+            for (Set<MdReferenceElement> elements : values()) {
+                for (MdReferenceElement element : elements) {
+                    if (!element.isValid()) return false;
+                }
+            }
+            return true;
+        }
+
+        long estimateSize() {
+            // sets are mostly single element, id strings are shared with PSI text
+            return CachedDataMemoryBudget.hashMapSize(size()) * 2;
+        }
+    }
+
+    final private static CachedDataKey<MdFile, ReferencedElementMap> REFERENCED_ELEMENT_MAP =
+            new CachedDataKey<MdFile, ReferencedElementMap>("FILE:REFERENCING_ELEMENTS") {
 
                 @Override
-                public boolean isValid(@NotNull Map<String, ? extends Set<MdReferenceElement>> value) {
-                    for (Set<MdReferenceElement> elements : value.values()) {
-                        for (MdReferenceElement element : elements) {
-                            if (!element.isValid()) return false;
-                        }
-                    }
-                    return true;
+                public boolean isValid(@NotNull ReferencedElementMap value) {
+                    return value.isValid();
+                }
+
+                @Override
+                public long estimateSize(@NotNull ReferencedElementMap value) {
+                    return value.estimateSize();
                 }
 
                 @NotNull
                 @Override
-                public Map<String, ? extends Set<MdReferenceElement>> compute(@NotNull CachedTransactionContext<MdFile> context) {
+                public ReferencedElementMap compute(@NotNull CachedTransactionContext<MdFile> context) {
                     MdFile file = context.getDataOwner();
-                    HashMap<String, Set<MdReferenceElement>> referencesMap = new HashMap<>();
+                    ReferencedElementMap referencesMap = new ReferencedElementMap();
+                    HashSet<PsiFile> elementFiles = new HashSet<>();
                     final PsiFile[] lastFile = { null };
 
+                    elementFiles.add(file);
+
                     // NOTE: add all referencing elements from included files and including files
                     MdCachedFileElements.findChildrenOfAnyType(file, false, true, true, arrayOf(MdReferencingElementReference.class), (childReference, source) -> {
                         PsiReference reference = childReference.getReference();
@@ -103,6 +138,7 @@ public class MdCachedFileElements {
                                         String id = ((MdReferenceElement) referenceElement).getReferenceId();
                                         PsiSet<MdReferenceElement> referenceElements = (PsiSet<MdReferenceElement>) referencesMap.computeIfAbsent(id, k -> new PsiSet<>(HashSet::new));
                                         referenceElements.add((MdReferenceElement) referenceElement);
+                                        elementFiles.add(referenceElement.getContainingFile());
 
                                         if (lastFile[0] != source.file) {
                                             lastFile[0] = source.file;
@@ -115,6 +151,7 @@ public class MdCachedFileElements {
                         return Result.CONTINUE();
                     });
 
+                    referencesMap.myStamp = new CachedElementsStamp(elementFiles);
                     return referencesMap;
                 }
             };
@@ -127,6 +164,16 @@ public class MdCachedFileElements {
                     return true;
                 }
 
+                @Override
+                public long estimateSize(@NotNull Map<IElementType, ? extends Map<String, Integer>> value) {
+                    // outer map has one entry per reference element type
+                    long size = CachedDataMemoryBudget.hashMapSize(value.size());
+                    for (Map<String, Integer> countMap : value.values()) {
+                        size += CachedDataMemoryBudget.hashMapSize(countMap.size());
+                    }
+                    return size;
+                }
+
                 @NotNull
                 @Override
                 public Map<IElementType, ? extends Map<String, Integer>> compute(@NotNull CachedTransactionContext<MdFile> context) {
@@ -221,23 +268,39 @@ public class MdCachedFileElements {
     private final @NotNull MdFile myFile;
     private final @NotNull ArrayList<PsiElement> myElements;
     private final @NotNull HashMap<Class<?>, int[]> myClassIndexMap;
+    private final @NotNull CachedElementsStamp myStamp;
 
     public MdCachedFileElements(@NotNull MdFile file, @NotNull ArrayList<PsiElement> elements, @NotNull HashMap<Class<?>, int[]> classIndexMap) {
         myFile = file;
         myElements = elements;
         myClassIndexMap = classIndexMap;
+        myStamp = new CachedElementsStamp(file);
     }
 
     /**
+     * Constant time if the file was not modified since elements were collected, otherwise validates all elements
+     *
      * @return true if all elements in the stash are valid
      */
     public boolean isValid() {
+        return myStamp.isValid(this::areElementsValid);
+    }
+
+    private boolean areElementsValid() {
         for (PsiElement element : myElements) {
             if (!element.isValid()) return false;
         }
         return true;
     }
 
+    long estimateSize() {
+        long size = CachedDataMemoryBudget.OBJECT_SIZE + CachedDataMemoryBudget.arrayListSize(myElements.size()) + CachedDataMemoryBudget.hashMapSize(myClassIndexMap.size());
+        for (int[] indices : myClassIndexMap.values()) {
+            size += CachedDataMemoryBudget.intArraySize(indices.length);
+        }
+        return size;
+    }
+
     @NotNull
     public static <T> HashSet<Class<? extends T>> resolvedClassSet(@NotNull Class<? extends T>[] requestedClasses) {
         HashSet<Class<? extends T>> resolvedClassSet = new HashSet<>();
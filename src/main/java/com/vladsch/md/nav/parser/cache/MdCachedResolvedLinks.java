@@ -11,7 +11,9 @@ import com.vladsch.flexmark.util.misc.DelimitedBuilder;
 import com.vladsch.flexmark.util.sequence.Escaping;
 import com.vladsch.md.nav.MdFileType;
 import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
+import com.vladsch.md.nav.parser.cache.data.CachedDataMemoryBudget;
 import com.vladsch.md.nav.parser.cache.data.ProjectCachedData;
+import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFileScope;
 import com.vladsch.md.nav.parser.cache.data.dependency.RestartableProjectFileDependency;
 import com.vladsch.md.nav.parser.cache.data.transaction.CachedTransactionContext;
 import com.vladsch.md.nav.parser.cache.data.transaction.IndentingLogger;
@@ -20,14 +22,18 @@ import com.vladsch.md.nav.psi.element.MdImageLinkRef;
 import com.vladsch.md.nav.psi.element.MdLinkRefElement;
 import com.vladsch.md.nav.psi.element.MdWikiLinkRef;
 import com.vladsch.md.nav.psi.util.MdLinkType;
+import com.vladsch.md.nav.psi.util.MdPsiImplUtil;
 import com.vladsch.md.nav.settings.MdApplicationSettings;
 import com.vladsch.md.nav.settings.MdDebugSettings;
 import com.vladsch.md.nav.util.FileRef;
 import com.vladsch.md.nav.util.ImageLinkRef;
 import com.vladsch.md.nav.util.LinkRef;
+import com.vladsch.md.nav.util.Links;
 import com.vladsch.md.nav.util.PathInfo;
 import com.vladsch.md.nav.util.ProjectFileRef;
+import com.vladsch.md.nav.util.Want;
 import com.vladsch.md.nav.util.WikiLinkRef;
+import com.vladsch.md.nav.vcs.GitHubLinkResolver;
 import com.vladsch.plugin.util.HelpersKt;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -169,6 +175,9 @@ public class MdCachedResolvedLinks {
         }
     }
 
+    private static final long AVERAGE_ADDRESS_SIZE = CachedDataMemoryBudget.stringSize("../directory/sub-directory/file-name.md");
+    private static final long AVERAGE_NAME_SIZE = CachedDataMemoryBudget.stringSize("file-name.md");
+
     static class CachedLinkData {
         final @NotNull ArrayList<CachedLinkTarget> myCachedLinkTargets = new ArrayList<>();     // holds target link address & flags
         final @NotNull HashMap<String, Integer> myCachedLinkTargetIndexMap = new HashMap<>();   // holds paths of all virtual file targets to indices
@@ -183,10 +192,38 @@ public class MdCachedResolvedLinks {
         boolean myHaveUndefinedMarkdown = false;
         boolean myIsValid = true;
         boolean myNextIsValid = true;
+        @Nullable LinkProjectFilePredicate myFilePredicate = null;   // project file predicate of current links, not copied
 
         CachedLinkData() {
         }
 
+        /**
+         * Update project file monitor's index of the file predicate after undefined links, wiki links or next validity changed
+         */
+        void updateFileScope() {
+            LinkProjectFilePredicate filePredicate = myFilePredicate;
+            if (filePredicate != null && !filePredicate.myFile.getProject().isDisposed()) {
+                ProjectFileMonitor.getInstance(filePredicate.myFile.getProject()).updateFileScope(filePredicate);
+            }
+        }
+
+        /**
+         * Link address strings are estimated at an average length, computing their real length is not constant time
+         *
+         * @return estimated size
+         */
+        long estimateSize() {
+            int links = myLinks.size() + myImages.size() + myWikis.size();
+            int undefined = myUndefinedExtensions.size() + myUndefinedNames.size();
+
+            return CachedDataMemoryBudget.OBJECT_SIZE
+                    + CachedDataMemoryBudget.arrayListSize(myCachedLinkTargets.size())
+                    + myCachedLinkTargets.size() * (CachedDataMemoryBudget.OBJECT_SIZE + AVERAGE_ADDRESS_SIZE)
+                    + CachedDataMemoryBudget.hashMapSize(myCachedLinkTargetIndexMap.size())
+                    + CachedDataMemoryBudget.hashMapSize(links) + links * AVERAGE_ADDRESS_SIZE
+                    + CachedDataMemoryBudget.hashMapSize(undefined) + undefined * AVERAGE_NAME_SIZE;
+        }
+
         void copyFrom(@NotNull CachedLinkData other) {
             myFilePath = other.myFilePath;
             myHaveUndefinedMarkdown = other.myHaveUndefinedMarkdown;
@@ -355,12 +392,17 @@ public class MdCachedResolvedLinks {
     }
 
     /**
-     * Persistent links, not invalidated, computes to empty
+     * Persistent links, not invalidated, computes to links restored from {@link MdResolvedLinksStore} or empty
      */
     final static CachedDataKey<MdFile, CachedLinkData> CACHED_PERSISTENT_LINKS = new CachedDataKey<MdFile, CachedLinkData>("CACHED_PERSISTENT_LINKS") {
         @NotNull
         @Override
         public CachedLinkData compute(@NotNull CachedTransactionContext<MdFile> context) {
+            if (getDebugSettings().getPersistFileLinkCache()) {
+                MdFile file = context.getDataOwner();
+                CachedLinkData restoredLinks = MdResolvedLinksStore.getInstance(file.getProject()).restoreLinks(file);
+                if (restoredLinks != null) return restoredLinks;
+            }
             return new CachedLinkData();
         }
 
@@ -368,6 +410,11 @@ public class MdCachedResolvedLinks {
         public boolean isValid(@NotNull CachedLinkData value) {
             return true;
         }
+
+        @Override
+        public long estimateSize(@NotNull CachedLinkData value) {
+            return value.estimateSize();
+        }
     };
 
     @SuppressWarnings("unchecked")
@@ -498,6 +545,10 @@ public class MdCachedResolvedLinks {
             }
 
             persistentLinks.copyFrom(cachedLinkData);
+
+            if (getDebugSettings().getPersistFileLinkCache()) {
+                MdResolvedLinksStore.getInstance(file.getProject()).updateLinks(file, persistentLinks);
+            }
             return cachedLinkData;
         }
 
@@ -510,6 +561,11 @@ public class MdCachedResolvedLinks {
         public boolean isValid(@NotNull CachedLinkData value) {
             return true;
         }
+
+        @Override
+        public long estimateSize(@NotNull CachedLinkData value) {
+            return value.estimateSize();
+        }
     };
 
     static class LinkProjectFilePredicate extends RestartableProjectFileDependency {
@@ -518,6 +574,30 @@ public class MdCachedResolvedLinks {
         public LinkProjectFilePredicate(@NotNull MdFile file, @NotNull CachedLinkData cachedLinkData) {
             super(file);
             this.cachedLinkData = cachedLinkData;
+            cachedLinkData.myFilePredicate = this;
+        }
+
+        /**
+         * Only new files with undefined link extensions, or markdown files when there are wiki links, can invalidate links,
+         * any file once links are invalidated on the next notification
+         *
+         * @return scope or null for any file
+         */
+        @Nullable
+        @Override
+        public ProjectFileScope getFileScope() {
+            ReentrantLock lock = ProjectCachedData.fileCachedData((MdFile) myFile).getKeyLock(CACHED_LINKS);
+            try {
+                lock.lock();
+                if (!cachedLinkData.myIsValid || !cachedLinkData.myNextIsValid) return null;
+
+                ProjectFileScope fileScope = new ProjectFileScope();
+                if (cachedLinkData.hasUndefinedLinks()) fileScope.addExtensions(cachedLinkData.myUndefinedExtensions);
+                if (!cachedLinkData.myWikis.isEmpty()) fileScope.addFileType(MdFileType.INSTANCE);
+                return fileScope;
+            } finally {
+                lock.unlock();
+            }
         }
 
         @Override
@@ -689,12 +769,59 @@ public class MdCachedResolvedLinks {
                 lock.unlock();
             }
 
+            if (cachedLinkAdded || !cachedLinkData.myNextIsValid) {
+                cachedLinkData.updateFileScope();
+            }
+
             if (cachedLinkAdded) {
                 HelpersKt.debug(LOG_CACHE_DETAIL, () -> String.format("Add cached link for %s type: %s link: %s to %s", containingFile.getName(), linkType, linkRefFilePath, cachedLink.myTargetLinkAddress));
             }
         }
     }
 
+    /**
+     * Resolve all links of the file which are not in its cached links and add them to the cache
+     * <p>
+     * Links are resolved by one {@link GitHubLinkResolver#multiResolveAll} batch, the same way as done by
+     * {@link com.vladsch.md.nav.psi.reference.MdPsiReference}, so that references of the file's links get their
+     * targets from the cache. Used by line markers, the preview and linked file warm-up, other reference resolution
+     * still resolves and caches links one at a time. Links resolving to more than one target are not cached.
+     *
+     * @param file markdown file
+     */
+    public static void resolveAllLinks(@NotNull MdFile file) {
+        if (!getDebugSettings().getUseFileLinkCache() || file.getVirtualFile() == null) return;
+
+        ArrayList<LinkRef> linkRefs = new ArrayList<>();
+        HashSet<String> linkKeys = new HashSet<>();
+
+        MdCachedFileElements.findChildrenOfAnyType(file, false, false, false, LINK_REF_CLASSES, link -> {
+            LinkRef linkRef = MdPsiImplUtil.getLinkRef(link);
+
+            if (linkRef != null && !linkRef.getFilePathNoQuery().isEmpty() && !hasCachedLink(file, linkRef)) {
+                // same link text is resolved once
+                if (linkKeys.add(getLinkType(linkRef) + ":" + linkRef.getFilePathNoQuery())) {
+                    linkRefs.add(linkRef);
+                }
+            }
+        });
+
+        if (linkRefs.isEmpty()) return;
+
+        long start = System.nanoTime();
+        GitHubLinkResolver resolver = new GitHubLinkResolver(file);
+
+        resolver.multiResolveAll(linkRefs, Want.INSTANCE.invoke(Links.getURL()), (linkRef, pathInfos) -> {
+            if (pathInfos.isEmpty()) {
+                addUndefinedCachedLink(file, linkRef);
+            } else if (pathInfos.size() == 1) {
+                addCachedLink(file, linkRef, pathInfos.get(0));
+            }
+        });
+
+        HelpersKt.debug(LOG_CACHE, () -> String.format("Resolved %d links of %s in %.3f ms", linkRefs.size(), file.getName(), (System.nanoTime() - start) / 1000000.0));
+    }
+
     public static void addUndefinedCachedLink(@NotNull MdFile containingFile, @NotNull LinkRef linkRef) {
         String linkRefFilePath = linkRef.isNormalized() ? linkRef.getFilePath() : Escaping.unescapeString(linkRef.getFilePath());
 
@@ -722,6 +849,7 @@ public class MdCachedResolvedLinks {
                 }
 
                 if (cachedLinkAdded) {
+                    cachedLinkData.updateFileScope();
                     HelpersKt.debug(LOG_CACHE_DETAIL, () -> String.format("Add undefined cached link type: %s link: %s", linkType, linkRefPathForCache));
                 }
             }
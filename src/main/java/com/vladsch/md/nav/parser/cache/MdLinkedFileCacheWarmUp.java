@@ -0,0 +1,197 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiReference;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.vladsch.md.nav.MdFileType;
+import com.vladsch.md.nav.psi.element.MdFile;
+import com.vladsch.md.nav.psi.element.MdLinkRefElement;
+import com.vladsch.md.nav.util.MdCancelableJobScheduler;
+import com.vladsch.plugin.util.CancellableRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+
+/**
+ * Computes cached data of files linked from the selected markdown file in the background, so that navigation, anchor
+ * completion and anchor validation of links into these files does not have to compute it on first use.
+ * <p>
+ * When a markdown file is selected its links and Jekyll includes are resolved, which also fills its CACHED_LINKS, then
+ * the element stash, headings and anchor targets of the linked markdown files are computed. Work is limited to
+ * {@link #MAX_LINKED_FILES} files and {@link #TIME_BUDGET_MS} per selection and runs one file at a time in read
+ * actions which yield to write actions, a step interrupted by a write action is run again after it. Selecting another
+ * file cancels the warm-up in progress or still queued.
+ */
+public class MdLinkedFileCacheWarmUp implements Disposable {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.cache");
+
+    public static final int SELECTION_DELAY = 250;
+    public static final int MAX_LINKED_FILES = 25;
+    public static final int TIME_BUDGET_MS = 1000;
+
+    @NotNull
+    public static MdLinkedFileCacheWarmUp getInstance(@NotNull Project project) {
+        return project.getService(MdLinkedFileCacheWarmUp.class);
+    }
+
+    final @NotNull Project myProject;
+    private final @NotNull ExecutorService myExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("MdLinkedFileCacheWarmUp", 1);
+    private @NotNull CancellableRunnable myPendingWarmUp = CancellableRunnable.NULL;
+    private @Nullable EmptyProgressIndicator myStepIndicator = null;
+    private volatile int mySelection = 0;   // incremented when selection changes, cancels warm-up of previous selection
+
+    public MdLinkedFileCacheWarmUp(@NotNull Project project) {
+        myProject = project;
+        Disposer.register(myProject, this);
+    }
+
+    /**
+     * Schedule warm-up for files linked from the selected file, called when editor selection changes
+     *
+     * @param virtualFile selected file or null if no file is selected
+     */
+    public synchronized void fileSelected(@Nullable VirtualFile virtualFile) {
+        cancel();
+
+        if (virtualFile == null || virtualFile.getFileType() != MdFileType.INSTANCE) return;
+        if (!MdCachedResolvedLinks.getDebugSettings().getWarmUpLinkedFileCache()) return;
+
+        int selection = mySelection;
+        myPendingWarmUp = MdCancelableJobScheduler.getInstance().schedule("MdLinkedFileCacheWarmUp.warmUp", SELECTION_DELAY, () -> {
+            myExecutor.execute(() -> warmUp(virtualFile, selection));
+        });
+    }
+
+    private synchronized void cancel() {
+        // NOTE: warm-up already queued on the executor is stopped by the selection change
+        mySelection++;
+        myPendingWarmUp.cancel();
+        myPendingWarmUp = CancellableRunnable.NULL;
+        if (myStepIndicator != null) myStepIndicator.cancel();
+    }
+
+    private boolean isSelected(int selection) {
+        return mySelection == selection && !myProject.isDisposed();
+    }
+
+    void warmUp(@NotNull VirtualFile virtualFile, int selection) {
+        if (!isSelected(selection) || !virtualFile.isValid() || DumbService.isDumb(myProject)) return;
+
+        long deadline = System.nanoTime() + TIME_BUDGET_MS * 1_000_000L;
+
+        try {
+            LinkedHashSet<MdFile> linkedFiles = new LinkedHashSet<>();
+
+            if (!runStep(() -> {
+                linkedFiles.clear();
+                collectLinkedFiles(virtualFile, linkedFiles, deadline);
+            }, selection, deadline)) {
+                LOG.debug("Cache warm-up of " + virtualFile.getPath() + " cancelled");
+                return;
+            }
+
+            int warmedUp = 0;
+            for (MdFile linkedFile : linkedFiles) {
+                // NOTE: cached data computed before a write action interrupts a step is kept
+                if (!runStep(() -> warmUpFile(linkedFile), selection, deadline)) break;
+                warmedUp++;
+            }
+
+            if (LOG.isDebugEnabled()) LOG.debug(String.format("Cache warm-up of %s: %d of %d linked files", virtualFile.getPath(), warmedUp, linkedFiles.size()));
+        } catch (ProcessCanceledException ignored) {
+            // another file was selected
+        }
+    }
+
+    /**
+     * Run a warm-up step in a read action with its own progress indicator, so a write action only interrupts the step
+     * and not the rest of the warm-up. An interrupted step is run again after the write action.
+     *
+     * @param step      step to run
+     * @param selection selection of the warm-up
+     * @param deadline  time budget deadline
+     * @return true if step completed, false if selection changed or time budget was used up
+     */
+    private boolean runStep(@NotNull Runnable step, int selection, long deadline) {
+        while (isSelected(selection) && System.nanoTime() <= deadline) {
+            EmptyProgressIndicator indicator = new EmptyProgressIndicator();
+            synchronized (this) {
+                if (mySelection != selection) return false;
+                myStepIndicator = indicator;
+            }
+
+            try {
+                if (ProgressManager.getInstance().runInReadActionWithWriteActionPriority(step, indicator)) return true;
+            } finally {
+                synchronized (this) {
+                    if (myStepIndicator == indicator) myStepIndicator = null;
+                }
+            }
+
+            ProgressIndicatorUtils.yieldToPendingWriteActions();
+        }
+        return false;
+    }
+
+    private void collectLinkedFiles(@NotNull VirtualFile virtualFile, @NotNull LinkedHashSet<MdFile> linkedFiles, long deadline) {
+        if (myProject.isDisposed() || !virtualFile.isValid() || DumbService.isDumb(myProject)) return;
+
+        PsiFile psiFile = PsiManager.getInstance(myProject).findFile(virtualFile);
+        if (!(psiFile instanceof MdFile)) return;
+
+        MdFile file = (MdFile) psiFile;
+
+        // fills the file's cached links so resolving references below does not match links one at a time
+        MdCachedResolvedLinks.resolveAllLinks(file);
+
+        ArrayList<MdLinkRefElement> linkRefs = new ArrayList<>();
+        MdCachedFileElements.findChildrenOfAnyType(file, false, false, false, MdCachedResolvedLinks.LINK_REF_CLASSES, link -> {
+            linkRefs.add(link);
+        });
+
+        for (MdLinkRefElement linkRef : linkRefs) {
+            ProgressManager.checkCanceled();
+            if (linkedFiles.size() >= MAX_LINKED_FILES || System.nanoTime() > deadline) break;
+
+            // resolved from the file's cached links
+            PsiReference reference = linkRef.getReference();
+            PsiElement resolved = reference == null ? null : reference.resolve();
+
+            if (resolved instanceof MdFile && resolved != file && resolved.isValid()) {
+                linkedFiles.add((MdFile) resolved);
+            }
+        }
+    }
+
+    private static void warmUpFile(@NotNull MdFile file) {
+        if (!file.isValid()) return;
+
+        // computes the element stash of the file, its headings and anchor targets used for anchor resolution
+        file.getHeaderElements();
+        file.getAnchorTargets();
+    }
+
+    @Override
+    public void dispose() {
+        cancel();
+    }
+}
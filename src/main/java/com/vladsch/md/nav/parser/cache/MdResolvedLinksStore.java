@@ -0,0 +1,425 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.io.IOUtil;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.CachedLink;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.CachedLinkData;
+import com.vladsch.md.nav.parser.cache.data.CachedDataSet;
+import com.vladsch.md.nav.parser.cache.data.ProjectCachedData;
+import com.vladsch.md.nav.psi.element.MdFile;
+import com.vladsch.md.nav.psi.util.MdLinkType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * On disk store of persistent resolved links of {@link MdCachedResolvedLinks}, so links resolved in a previous IDE
+ * session are available on the first link validation pass after restart.
+ * <p>
+ * Links are stored per file path with the file's content hash and VFS timestamp and length. The store is loaded on
+ * first access and stored links are restored only if the file's timestamp and length match, or if its current content
+ * has the same hash. Only defined links are stored, undefined links are resolved again. Restored links are still
+ * validated by CACHED_LINKS computation the same as links kept across file modifications.
+ * <p>
+ * The content hash, timestamp and length are recorded when links of a file are registered after CACHED_LINKS
+ * computation, from the text that was computed. The store is written in the background when the project is closed,
+ * without loading or hashing file content. Links of deleted, moved or renamed files are dropped.
+ */
+public class MdResolvedLinksStore implements Disposable {
+    private static final Logger LOG = Logger.getInstance("com.vladsch.md.nav.parser.cache");
+
+    private static final int STORE_VERSION = 1;
+    private static final MdLinkType[] LINK_TYPES = { MdLinkType.LINK, MdLinkType.IMAGE, MdLinkType.WIKI };
+
+    // one writer so saves of the same store are written in order
+    private static final ExecutorService ourSaveExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("MdResolvedLinksStore", 1);
+
+    @NotNull
+    public static MdResolvedLinksStore getInstance(@NotNull Project project) {
+        return project.getService(MdResolvedLinksStore.class);
+    }
+
+    static class StoredLinks {
+        final long myTimeStamp;
+        final long myLength;
+        final int myContentHash;
+        final @NotNull ArrayList<CachedLink> myLinks;
+
+        StoredLinks(long timeStamp, long length, int contentHash, @NotNull ArrayList<CachedLink> links) {
+            myTimeStamp = timeStamp;
+            myLength = length;
+            myContentHash = contentHash;
+            myLinks = links;
+        }
+    }
+
+    /**
+     * Links of a file registered in this session, only the defined links are kept strongly. The live link data is held
+     * weakly to pick up links resolved after the last CACHED_LINKS computation.
+     */
+    static class LiveLinks {
+        final @NotNull VirtualFile myFile;
+        final long myTimeStamp;
+        final long myLength;
+        final int myContentHash;
+        final @NotNull ArrayList<CachedLink> myLinks;
+        final @NotNull WeakReference<CachedLinkData> myLinkData;
+        final @NotNull WeakReference<CachedDataSet> myCachedData;
+
+        LiveLinks(@NotNull VirtualFile file, long timeStamp, long length, int contentHash, @NotNull ArrayList<CachedLink> links, @NotNull CachedLinkData linkData, @NotNull CachedDataSet cachedData) {
+            myFile = file;
+            myTimeStamp = timeStamp;
+            myLength = length;
+            myContentHash = contentHash;
+            myLinks = links;
+            myLinkData = new WeakReference<>(linkData);
+            myCachedData = new WeakReference<>(cachedData);
+        }
+
+        /**
+         * @return defined links, from live link data if it is still used
+         */
+        @NotNull
+        ArrayList<CachedLink> getLinks() {
+            CachedLinkData linkData = myLinkData.get();
+            CachedDataSet cachedData = myCachedData.get();
+            if (linkData == null || cachedData == null) return myLinks;
+
+            // NOTE: lock is taken from the data set, key locks are replaced when its cached data is cleared
+            ReentrantLock lock = cachedData.getKeyLock(MdCachedResolvedLinks.CACHED_LINKS);
+            lock.lock();
+            try {
+                return definedLinks(linkData);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    final @NotNull Project myProject;
+    final @NotNull File myStoreFile;
+    private @Nullable HashMap<String, StoredLinks> myStoredLinks = null;
+    private final @NotNull HashMap<String, LiveLinks> myLiveLinks = new HashMap<>();
+    // store is read outside of the live links lock
+    private final @NotNull Object myLoadLock = new Object();
+
+    public MdResolvedLinksStore(@NotNull Project project) {
+        this(project, new File(PathManager.getSystemPath(), "markdown-navigator/resolved-links/" + project.getLocationHash() + ".dat"));
+    }
+
+    MdResolvedLinksStore(@NotNull Project project, @NotNull File storeFile) {
+        myProject = project;
+        myStoreFile = storeFile;
+        Disposer.register(myProject, this);
+
+        myProject.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void before(@NotNull List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    if (event instanceof VFileDeleteEvent || event instanceof VFileMoveEvent || event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+                        VirtualFile file = event.getFile();
+                        if (file != null) removePath(file.getPath(), file.isDirectory());
+                    }
+                }
+            }
+        });
+    }
+
+    static int getContentHash(@NotNull CharSequence text) {
+        return StringUtil.stringHashCode(text);
+    }
+
+    static int getContentHash(@NotNull MdFile file) {
+        return getContentHash(file.getViewProvider().getContents());
+    }
+
+    @NotNull
+    static ArrayList<CachedLink> definedLinks(@NotNull CachedLinkData linkData) {
+        ArrayList<CachedLink> links = new ArrayList<>();
+        for (MdLinkType linkType : LINK_TYPES) {
+            linkData.forAllCachedLinks(linkType, link -> {
+                if (!link.isUndefined()) links.add(link);
+            });
+        }
+        return links;
+    }
+
+    /**
+     * Drop links of deleted, moved or renamed file or of all files under a directory, their paths no longer match
+     *
+     * @param path        file path
+     * @param isDirectory true if path is a directory
+     */
+    private void removePath(@NotNull String path, boolean isDirectory) {
+        synchronized (myLiveLinks) {
+            myLiveLinks.remove(path);
+            if (myStoredLinks != null) myStoredLinks.remove(path);
+
+            if (isDirectory) {
+                String prefix = path + "/";
+                myLiveLinks.keySet().removeIf(filePath -> filePath.startsWith(prefix));
+                if (myStoredLinks != null) myStoredLinks.keySet().removeIf(filePath -> filePath.startsWith(prefix));
+            }
+        }
+    }
+
+    /**
+     * Get persistent links of the file, loads the store on first call
+     *
+     * @param file file
+     * @return links registered for the file in this session or stored links if they are still valid for the file, null otherwise
+     */
+    @Nullable
+    CachedLinkData restoreLinks(@NotNull MdFile file) {
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile == null) return null;
+
+        String filePath = virtualFile.getPath();
+        StoredLinks storedLinks;
+
+        loadStoredLinks();
+
+        synchronized (myLiveLinks) {
+            // links of this session, persistent links were evicted from cached data
+            LiveLinks liveLinks = myLiveLinks.get(filePath);
+            if (liveLinks != null && liveLinks.myFile.equals(virtualFile)) {
+                CachedLinkData linkData = liveLinks.myLinkData.get();
+                return linkData != null ? linkData : linkData(filePath, liveLinks.myLinks);
+            }
+
+            storedLinks = myStoredLinks == null ? null : myStoredLinks.remove(filePath);
+        }
+
+        if (storedLinks == null) return null;
+
+        boolean isValid = storedLinks.myTimeStamp == virtualFile.getTimeStamp() && storedLinks.myLength == virtualFile.getLength();
+        if (!isValid && storedLinks.myContentHash != getContentHash(file)) {
+            LOG.debug("Discarded stored links for modified file " + filePath);
+            return null;
+        }
+
+        return linkData(filePath, storedLinks.myLinks);
+    }
+
+    @NotNull
+    private static CachedLinkData linkData(@NotNull String filePath, @NotNull ArrayList<CachedLink> links) {
+        CachedLinkData linkData = new CachedLinkData();
+        linkData.myFilePath = filePath;
+        for (CachedLink link : links) {
+            linkData.addCachedLink(link);
+        }
+        return linkData;
+    }
+
+    /**
+     * Register persistent links of the file after CACHED_LINKS computation, called with the CACHED_LINKS key lock held
+     *
+     * @param file            file
+     * @param persistentLinks persistent links of the file, modified under the CACHED_LINKS key lock
+     */
+    void updateLinks(@NotNull MdFile file, @NotNull CachedLinkData persistentLinks) {
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile == null || !virtualFile.isInLocalFileSystem()) return;
+
+        // unsaved file content is not the one on disk, only the content hash can validate it
+        long timeStamp = FileDocumentManager.getInstance().isFileModified(virtualFile) ? -1 : virtualFile.getTimeStamp();
+        LiveLinks liveLinks = new LiveLinks(virtualFile, timeStamp, virtualFile.getLength(), getContentHash(file), definedLinks(persistentLinks), persistentLinks, ProjectCachedData.fileCachedData(file));
+        synchronized (myLiveLinks) {
+            myLiveLinks.put(virtualFile.getPath(), liveLinks);
+        }
+    }
+
+    boolean hasLiveLinks(@NotNull String filePath) {
+        synchronized (myLiveLinks) {
+            return myLiveLinks.containsKey(filePath);
+        }
+    }
+
+    private static int linkTypeIndex(@NotNull MdLinkType linkType) {
+        for (int i = 0; i < LINK_TYPES.length; i++) {
+            if (LINK_TYPES[i] == linkType) return i;
+        }
+        throw new IllegalStateException("Unhandled MdLinkType: " + linkType);
+    }
+
+    /**
+     * Load the store on first call, the file is read without holding the live links lock
+     */
+    private void loadStoredLinks() {
+        synchronized (myLoadLock) {
+            synchronized (myLiveLinks) {
+                if (myStoredLinks != null) return;
+            }
+
+            HashMap<String, StoredLinks> storedLinks = new HashMap<>();
+            if (myStoreFile.exists()) {
+                try {
+                    load(storedLinks);
+                } catch (IOException | RuntimeException e) {
+                    LOG.info("Failed to load resolved links from " + myStoreFile, e);
+                    storedLinks.clear();
+                }
+            }
+
+            synchronized (myLiveLinks) {
+                myStoredLinks = storedLinks;
+            }
+        }
+    }
+
+    private void load(@NotNull HashMap<String, StoredLinks> storedLinks) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myStoreFile)))) {
+            if (in.readInt() != STORE_VERSION) return;
+
+            int files = in.readInt();
+            for (int i = 0; i < files; i++) {
+                String filePath = IOUtil.readUTF(in);
+                long timeStamp = in.readLong();
+                long length = in.readLong();
+                int contentHash = in.readInt();
+                int linkCount = in.readInt();
+                ArrayList<CachedLink> links = new ArrayList<>(linkCount);
+
+                for (int j = 0; j < linkCount; j++) {
+                    MdLinkType linkType = LINK_TYPES[in.readByte()];
+                    String linkAddress = IOUtil.readUTF(in);
+                    String targetLinkAddress = IOUtil.readUTF(in);
+                    byte flags = in.readByte();
+                    links.add(new CachedLink(linkType, linkAddress, targetLinkAddress, flags));
+                }
+
+                storedLinks.put(filePath, new StoredLinks(timeStamp, length, contentHash, links));
+            }
+        }
+    }
+
+    /**
+     * Live links and stored links not used in this session, for files which still exist
+     *
+     * @return links to save
+     */
+    @NotNull
+    private HashMap<String, StoredLinks> getLinksToSave() {
+        loadStoredLinks();
+
+        ArrayList<Map.Entry<String, StoredLinks>> storedEntries;
+        ArrayList<Map.Entry<String, LiveLinks>> liveEntries;
+
+        synchronized (myLiveLinks) {
+            storedEntries = myStoredLinks == null ? new ArrayList<>() : new ArrayList<>(myStoredLinks.entrySet());
+            liveEntries = new ArrayList<>(myLiveLinks.entrySet());
+        }
+
+        HashMap<String, StoredLinks> storedLinks = new HashMap<>();
+        LocalFileSystem fileSystem = LocalFileSystem.getInstance();
+
+        for (Map.Entry<String, StoredLinks> entry : storedEntries) {
+            if (fileSystem.findFileByPath(entry.getKey()) != null) {
+                storedLinks.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // NOTE: key locks are taken outside of live links lock, updateLinks() is called with the key lock held
+        for (Map.Entry<String, LiveLinks> entry : liveEntries) {
+            LiveLinks liveLinks = entry.getValue();
+            VirtualFile virtualFile = liveLinks.myFile;
+            if (!virtualFile.isValid() || !virtualFile.getPath().equals(entry.getKey())) continue;
+
+            ArrayList<CachedLink> links = liveLinks.getLinks();
+            if (!links.isEmpty()) {
+                storedLinks.put(entry.getKey(), new StoredLinks(liveLinks.myTimeStamp, liveLinks.myLength, liveLinks.myContentHash, links));
+            }
+        }
+        return storedLinks;
+    }
+
+    /**
+     * Save live links and stored links not used in this session for files which still exist
+     */
+    void save() {
+        write(getLinksToSave());
+    }
+
+    private void write(@NotNull HashMap<String, StoredLinks> storedLinks) {
+        try {
+            File parentDir = myStoreFile.getParentFile();
+            if (!parentDir.exists() && !parentDir.mkdirs()) {
+                throw new IOException("Cannot create directory " + parentDir);
+            }
+
+            // written to a temporary file and renamed, a store being loaded is never partially written
+            File tempFile = new File(parentDir, myStoreFile.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(STORE_VERSION);
+                out.writeInt(storedLinks.size());
+
+                for (Map.Entry<String, StoredLinks> entry : storedLinks.entrySet()) {
+                    StoredLinks links = entry.getValue();
+                    IOUtil.writeUTF(out, entry.getKey());
+                    out.writeLong(links.myTimeStamp);
+                    out.writeLong(links.myLength);
+                    out.writeInt(links.myContentHash);
+                    out.writeInt(links.myLinks.size());
+
+                    for (CachedLink link : links.myLinks) {
+                        out.writeByte(linkTypeIndex(link.myLinkType));
+                        IOUtil.writeUTF(out, link.myLinkAddress);
+                        IOUtil.writeUTF(out, link.myTargetLinkAddress);
+                        out.writeByte(link.myFlags);
+                    }
+                }
+            }
+
+            FileUtil.rename(tempFile, myStoreFile);
+        } catch (IOException e) {
+            LOG.info("Failed to save resolved links to " + myStoreFile, e);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (MdCachedResolvedLinks.getDebugSettings().getPersistFileLinkCache()) {
+            // links are collected before the project's cached data is released, written in the background
+            HashMap<String, StoredLinks> storedLinks = getLinksToSave();
+            ourSaveExecutor.execute(() -> write(storedLinks));
+        }
+
+        synchronized (myLiveLinks) {
+            myLiveLinks.clear();
+            myStoredLinks = null;
+        }
+    }
+}
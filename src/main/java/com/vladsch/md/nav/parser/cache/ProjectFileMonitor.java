@@ -6,9 +6,10 @@ import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -24,14 +25,20 @@ import com.intellij.util.messages.MessageBusConnection;
 import com.vladsch.md.nav.parser.cache.data.dependency.DataKeyDependency;
 import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFileDependency;
 import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFilePredicate;
+import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFileScope;
+import com.vladsch.md.nav.parser.cache.data.transaction.CachedDataStatistics;
 import com.vladsch.md.nav.parser.cache.data.transaction.IndentingLogger;
 import com.vladsch.plugin.util.HelpersKt;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 
 public class ProjectFileMonitor implements Disposable {
     private static final Logger LOG = Logger.getInstance("com.vladsch.md.nav.parser.cache");
@@ -46,13 +53,24 @@ public class ProjectFileMonitor implements Disposable {
     }
 
     final @NotNull Project myProject;
-    final @NotNull HashSet<ProjectFileDependency> myDataKeyDependencies = new HashSet<>();
     final Alarm myAlarm;
 
+    // dependencies indexed by scope of their predicate, null scope dependencies are tested for any file
+    final @NotNull HashMap<ProjectFileDependency, ProjectFileScope> myDataKeyDependencies = new HashMap<>();
+    final @NotNull HashMap<ProjectFilePredicate, ProjectFileDependency> myPredicateDependencies = new HashMap<>();
+    final @NotNull HashSet<ProjectFileDependency> myAnyFileDependencies = new HashSet<>();
+    final @NotNull HashMap<String, HashSet<ProjectFileDependency>> myFilePathDependencies = new HashMap<>();
+    final @NotNull HashMap<String, HashSet<ProjectFileDependency>> myExtensionDependencies = new HashMap<>();
+    final @NotNull HashMap<String, HashSet<ProjectFileDependency>> myDirectoryDependencies = new HashMap<>();
+    final @NotNull HashMap<FileType, HashSet<ProjectFileDependency>> myFileTypeDependencies = new HashMap<>();
+
+    // VFS changed files waiting for the next alarm tick
+    final @NotNull LinkedHashSet<VirtualFile> myPendingFiles = new LinkedHashSet<>();
+
     public ProjectFileMonitor(@NotNull Project project) {
         myProject = project;
         Disposer.register(myProject, this);
-        myAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, myProject);
+        myAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, myProject);
 
         final Application application = ApplicationManager.getApplication();
         MessageBusConnection messageBusConnection = project.getMessageBus().connect(this);
@@ -65,6 +83,8 @@ public class ProjectFileMonitor implements Disposable {
              */
             @Override
             public void daemonStarting(@NotNull Collection<FileEditor> fileEditors) {
+                // NOTE: checked before analysis starts so a file invalidating its own dependencies is highlighted with fresh data,
+                //  only candidate dependencies for the files are tested
                 PsiManager psiManager = PsiManagerEx.getInstance(myProject);
                 for (FileEditor fileEditor : fileEditors) {
                     VirtualFile virtualFile = fileEditor.getFile();
@@ -83,7 +103,6 @@ public class ProjectFileMonitor implements Disposable {
             @Override
             public void after(@NotNull List<? extends VFileEvent> events) {
                 ArrayList<VirtualFile> virtualFiles = new ArrayList<>();
-                PsiManager psiManager = PsiManagerEx.getInstance(myProject);
                 for (VFileEvent event : events) {
                     VirtualFile virtualFile = event.getFile();
                     if (virtualFile != null && virtualFile.isValid()) {
@@ -92,23 +111,21 @@ public class ProjectFileMonitor implements Disposable {
                 }
 
                 if (!virtualFiles.isEmpty() && !myAlarm.isDisposed()) {
-                    myAlarm.addRequest(() -> {
-                        if (myProject.isDisposed()) return;
-
-                        for (VirtualFile virtualFile : virtualFiles) {
-                            if (virtualFile.isValid()) {
-                                PsiFile psiFile = psiManager.findFile(virtualFile);
-                                if (psiFile != null) {
-                                    checkDependencies(false, psiFile);
-                                }
-                            }
-                        }
+                    boolean schedule;
+                    synchronized (myPendingFiles) {
+                        // batches before the next tick are checked together
+                        schedule = myPendingFiles.isEmpty();
+                        myPendingFiles.addAll(virtualFiles);
+                    }
+
+                    if (schedule) {
                         // NOTE: in tests there should be no delay otherwise the possible rescan
                         //  is triggered in the middle of highlighting for full spec test case
                         //  for release the delay is added just in case there was an external
                         //  jar modification and the jar needs to be re-indexed, otherwise an
                         //  exception that stub is invalid is generated by the IDE.
-                    }, application.isUnitTestMode() ? 0 : 100, ModalityState.NON_MODAL);
+                        myAlarm.addRequest(() -> checkPendingFiles(), application.isUnitTestMode() ? 0 : 100);
+                    }
                 }
             }
         });
@@ -116,61 +133,143 @@ public class ProjectFileMonitor implements Disposable {
 
     @Override
     public void dispose() {
-        myDataKeyDependencies.clear();
+        synchronized (myDataKeyDependencies) {
+            myDataKeyDependencies.clear();
+            myPredicateDependencies.clear();
+            myAnyFileDependencies.clear();
+            myFilePathDependencies.clear();
+            myExtensionDependencies.clear();
+            myDirectoryDependencies.clear();
+            myFileTypeDependencies.clear();
+        }
+
+        synchronized (myPendingFiles) {
+            myPendingFiles.clear();
+        }
     }
 
-    public void checkDependencies(boolean fromDaemonCodeAnalyzer, @NotNull PsiFile psiFile) {
-        HashSet<ProjectFileDependency> dependencies;
+    void checkPendingFiles() {
+        if (myProject.isDisposed()) return;
+
+        ArrayList<VirtualFile> virtualFiles;
+        synchronized (myPendingFiles) {
+            virtualFiles = new ArrayList<>(myPendingFiles);
+            myPendingFiles.clear();
+        }
 
+        removeInvalidDependencies();
+
+        PsiManager psiManager = PsiManagerEx.getInstance(myProject);
+        for (VirtualFile virtualFile : virtualFiles) {
+            ReadAction.run(() -> {
+                if (!myProject.isDisposed() && virtualFile.isValid()) {
+                    PsiFile psiFile = psiManager.findFile(virtualFile);
+                    if (psiFile != null) {
+                        checkDependencies(false, psiFile);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Remove dependencies whose data key was invalidated by other dependencies, once per batch of changed files
+     * since these are no longer reached by candidate lookup
+     */
+    void removeInvalidDependencies() {
+        ArrayList<ProjectFileDependency> dependencies;
         synchronized (myDataKeyDependencies) {
-            dependencies = new HashSet<>(myDataKeyDependencies);
+            dependencies = new ArrayList<>(myDataKeyDependencies.keySet());
         }
 
         for (ProjectFileDependency dependency : dependencies) {
-            boolean isValid = false;
-
-            DataKeyDependency keyDependency = dependency.getDataKeyDependency();
-            if (keyDependency.isValid()) {
-                // it is still valid, so we need to invalidate it
-                try {
-                    if (dependency.getFilePredicate().test(psiFile)) {
-                        isValid = true;
-                    }
-                } catch (Throwable e) {
-                    LOG.error("Project file dependency exception " + dependency, e);
+            if (!dependency.getDataKeyDependency().isValid()) {
+                removeDependency(dependency);
+                HelpersKt.debug(LOG_CACHE_DETAIL, () -> String.format("ProjectFileMonitor: Removing invalidated project file cache monitor for %s", dependency.getDataKeyDependency()));
+            }
+        }
+    }
+
+    @NotNull
+    Collection<ProjectFileDependency> getCandidateDependencies(@NotNull VirtualFile virtualFile) {
+        LinkedHashSet<ProjectFileDependency> dependencies = new LinkedHashSet<>();
+        String extension = virtualFile.getExtension();
+        FileType fileType = virtualFile.getFileType();
+
+        synchronized (myDataKeyDependencies) {
+            dependencies.addAll(myAnyFileDependencies);
+            addCandidates(dependencies, myFilePathDependencies.get(virtualFile.getPath()));
+            if (extension != null) addCandidates(dependencies, myExtensionDependencies.get(extension));
+            addCandidates(dependencies, myFileTypeDependencies.get(fileType));
+
+            if (!myDirectoryDependencies.isEmpty()) {
+                VirtualFile parent = virtualFile.getParent();
+                while (parent != null) {
+                    addCandidates(dependencies, myDirectoryDependencies.get(parent.getPath()));
+                    parent = parent.getParent();
                 }
             }
+        }
+        return dependencies;
+    }
+
+    private static void addCandidates(@NotNull LinkedHashSet<ProjectFileDependency> dependencies, @Nullable HashSet<ProjectFileDependency> candidates) {
+        if (candidates != null) dependencies.addAll(candidates);
+    }
+
+    public void checkDependencies(boolean fromDaemonCodeAnalyzer, @NotNull PsiFile psiFile) {
+        VirtualFile virtualFile = psiFile.getVirtualFile();
+        if (virtualFile == null) return;
 
-            if (!isValid) {
-                synchronized (myDataKeyDependencies) {
-                    myDataKeyDependencies.remove(dependency);
+        for (ProjectFileDependency dependency : getCandidateDependencies(virtualFile)) {
+            checkDependency(fromDaemonCodeAnalyzer, psiFile, dependency);
+        }
+    }
+
+    void checkDependency(boolean fromDaemonCodeAnalyzer, @NotNull PsiFile psiFile, @NotNull ProjectFileDependency dependency) {
+        boolean isValid = false;
+
+        DataKeyDependency keyDependency = dependency.getDataKeyDependency();
+        if (keyDependency.isValid()) {
+            // it is still valid, so we need to invalidate it
+            try {
+                if (dependency.getFilePredicate().test(psiFile)) {
+                    isValid = true;
                 }
+            } catch (Throwable e) {
+                LOG.error("Project file dependency exception " + dependency, e);
+            }
+        }
+
+        if (!isValid) {
+            removeDependency(dependency);
 
-                dependency.getDataKeyDependency().invalidateDependency();
+            if (keyDependency.invalidateDependency()) {
+                CachedDataStatistics.getInstance().invalidated(keyDependency.getDataKey(), ProjectFileDependency.class.getSimpleName());
+            }
 
-                PsiFile dependentFile = dependency.getFilePredicate().getDependentFile();
-                String onFilePath = psiFile.getVirtualFile().getPath();
+            PsiFile dependentFile = dependency.getFilePredicate().getDependentFile();
+            String onFilePath = psiFile.getVirtualFile().getPath();
 
-                if (dependentFile != null && dependentFile.isValid()) {
-                    boolean selfInvalidation = dependentFile.equals(psiFile);
-                    if (selfInvalidation) onFilePath = "<self>";
+            if (dependentFile != null && dependentFile.isValid()) {
+                boolean selfInvalidation = dependentFile.equals(psiFile);
+                if (selfInvalidation) onFilePath = "<self>";
 
-                    String finalOnFilePath = onFilePath;
-                    HelpersKt.debug(LOG_CACHE, () -> String.format("ProjectFileMonitor(%s): Removing project file cache monitor for %s on %s", fromDaemonCodeAnalyzer ? "analyzer" : "vfs", dependentFile.getVirtualFile().getPath(), finalOnFilePath));
+                String finalOnFilePath = onFilePath;
+                HelpersKt.debug(LOG_CACHE, () -> String.format("ProjectFileMonitor(%s): Removing project file cache monitor for %s on %s", fromDaemonCodeAnalyzer ? "analyzer" : "vfs", dependentFile.getVirtualFile().getPath(), finalOnFilePath));
 
-                    Project project = dependentFile.getProject();
-                    if (!project.isDisposed() && dependentFile.isValid() && !selfInvalidation) {
-                        ApplicationManager.getApplication().invokeLater(() -> {
-                            if (!project.isDisposed()) {
-                                DaemonCodeAnalyzer.getInstance(project).restart(dependentFile);
-                                HelpersKt.debug(LOG_CACHE, () -> String.format("ProjectFileMonitor(%s): Restarted code analyzer for %s on %s", fromDaemonCodeAnalyzer ? "analyzer" : "vfs", dependentFile.getVirtualFile().getPath(), finalOnFilePath));
-                            }
-                        });
-                    }
-                } else {
-                    String finalOnFilePath1 = onFilePath;
-                    HelpersKt.debug(LOG_CACHE, () -> String.format("ProjectFileMonitor(%s): Removing project file cache monitor for %s on %s", fromDaemonCodeAnalyzer ? "analyzer" : "vfs", dependency.getDataKeyDependency(), finalOnFilePath1));
+                Project project = dependentFile.getProject();
+                if (!project.isDisposed() && dependentFile.isValid() && !selfInvalidation) {
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        if (!project.isDisposed()) {
+                            DaemonCodeAnalyzer.getInstance(project).restart(dependentFile);
+                            HelpersKt.debug(LOG_CACHE, () -> String.format("ProjectFileMonitor(%s): Restarted code analyzer for %s on %s", fromDaemonCodeAnalyzer ? "analyzer" : "vfs", dependentFile.getVirtualFile().getPath(), finalOnFilePath));
+                        }
+                    });
                 }
+            } else {
+                String finalOnFilePath1 = onFilePath;
+                HelpersKt.debug(LOG_CACHE, () -> String.format("ProjectFileMonitor(%s): Removing project file cache monitor for %s on %s", fromDaemonCodeAnalyzer ? "analyzer" : "vfs", dependency.getDataKeyDependency(), finalOnFilePath1));
             }
         }
     }
@@ -178,9 +277,79 @@ public class ProjectFileMonitor implements Disposable {
     @NotNull
     public ProjectFileDependency getDependency(@NotNull DataKeyDependency dependency, @NotNull ProjectFilePredicate predicate) {
         ProjectFileDependency fileDependency = new ProjectFileDependency(dependency, predicate);
+
+        // predicate scope is computed outside of the lock, predicates can lock their own data
+        ProjectFileScope fileScope = predicate.getFileScope();
+
         synchronized (myDataKeyDependencies) {
-            myDataKeyDependencies.add(fileDependency);
+            if (!myDataKeyDependencies.containsKey(fileDependency)) {
+                myDataKeyDependencies.put(fileDependency, fileScope);
+                myPredicateDependencies.put(predicate, fileDependency);
+                indexDependency(fileDependency, fileScope);
+            }
         }
         return fileDependency;
     }
+
+    /**
+     * Re-index dependency of the predicate after its file scope changed
+     *
+     * @param predicate predicate whose {@link ProjectFilePredicate#getFileScope()} changed
+     */
+    public void updateFileScope(@NotNull ProjectFilePredicate predicate) {
+        ProjectFileScope fileScope = predicate.getFileScope();
+
+        synchronized (myDataKeyDependencies) {
+            ProjectFileDependency fileDependency = myPredicateDependencies.get(predicate);
+            if (fileDependency == null || fileDependency.getFilePredicate() != predicate || !myDataKeyDependencies.containsKey(fileDependency)) return;
+
+            ProjectFileScope previousScope = myDataKeyDependencies.get(fileDependency);
+            if (Objects.equals(previousScope, fileScope)) return;
+
+            unindexDependency(fileDependency, previousScope);
+            myDataKeyDependencies.put(fileDependency, fileScope);
+            indexDependency(fileDependency, fileScope);
+        }
+    }
+
+    void removeDependency(@NotNull ProjectFileDependency dependency) {
+        synchronized (myDataKeyDependencies) {
+            if (myDataKeyDependencies.containsKey(dependency)) {
+                ProjectFileScope fileScope = myDataKeyDependencies.remove(dependency);
+                ProjectFilePredicate predicate = dependency.getFilePredicate();
+                if (myPredicateDependencies.get(predicate) == dependency) myPredicateDependencies.remove(predicate);
+                unindexDependency(dependency, fileScope);
+            }
+        }
+    }
+
+    private void indexDependency(@NotNull ProjectFileDependency dependency, @Nullable ProjectFileScope fileScope) {
+        if (fileScope == null) {
+            myAnyFileDependencies.add(dependency);
+        } else {
+            for (String filePath : fileScope.getFilePaths()) myFilePathDependencies.computeIfAbsent(filePath, k -> new HashSet<>()).add(dependency);
+            for (String extension : fileScope.getExtensions()) myExtensionDependencies.computeIfAbsent(extension, k -> new HashSet<>()).add(dependency);
+            for (String directory : fileScope.getDirectories()) myDirectoryDependencies.computeIfAbsent(directory, k -> new HashSet<>()).add(dependency);
+            for (FileType fileType : fileScope.getFileTypes()) myFileTypeDependencies.computeIfAbsent(fileType, k -> new HashSet<>()).add(dependency);
+        }
+    }
+
+    private void unindexDependency(@NotNull ProjectFileDependency dependency, @Nullable ProjectFileScope fileScope) {
+        if (fileScope == null) {
+            myAnyFileDependencies.remove(dependency);
+        } else {
+            for (String filePath : fileScope.getFilePaths()) removeIndexed(myFilePathDependencies, filePath, dependency);
+            for (String extension : fileScope.getExtensions()) removeIndexed(myExtensionDependencies, extension, dependency);
+            for (String directory : fileScope.getDirectories()) removeIndexed(myDirectoryDependencies, directory, dependency);
+            for (FileType fileType : fileScope.getFileTypes()) removeIndexed(myFileTypeDependencies, fileType, dependency);
+        }
+    }
+
+    private static <K> void removeIndexed(@NotNull HashMap<K, HashSet<ProjectFileDependency>> index, @NotNull K key, @NotNull ProjectFileDependency dependency) {
+        HashSet<ProjectFileDependency> dependencies = index.get(key);
+        if (dependencies != null) {
+            dependencies.remove(dependency);
+            if (dependencies.isEmpty()) index.remove(key);
+        }
+    }
 }
@@ -39,6 +39,25 @@ public abstract class CachedDataKey<H extends CachedDataOwner, T> {
         return isValid((T) value);
     }
 
+    /**
+     * Approximate retained size of the value in bytes, used by {@link CachedDataMemoryBudget}
+     * <p>
+     * Called when the value is computed and again every {@link CachedDataMemoryBudget#SIZE_SAMPLE_HITS} cache hits to
+     * pick up growth, so it should not do more than walk the value's own collections. Override for values holding
+     * collections, PSI elements referenced by the value are not included since they are held by the PSI tree.
+     *
+     * @param value value
+     * @return size in bytes
+     */
+    public long estimateSize(@NotNull T value) {
+        return CachedDataMemoryBudget.DEFAULT_VALUE_SIZE;
+    }
+
+    public long estimatedSize(@NotNull Object value) {
+        //noinspection unchecked
+        return estimateSize((T) value);
+    }
+
     @Override
     public String toString() {
         // factory applied to null in constructor, no sense doing it again here
@@ -0,0 +1,312 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.parser.cache.data;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+
+/**
+ * Global memory budget for values of all {@link CachedDataSet} instances
+ * <p>
+ * Keeps approximate sizes of cached values, as estimated by {@link CachedDataKey#estimateSize(Object)}, with their
+ * last access time. When the total exceeds the budget from debug settings the least recently used values are
+ * evicted from their data sets until the total is below {@link #LOW_WATER_PERCENT} of the budget. Evicted values
+ * are computed again on next access.
+ * <p>
+ * Cache hits only update the entry's access time, ordering by recency is done when evicting.
+ * <p>
+ * Values are also held by soft references in the data set so they are released under memory pressure regardless
+ * of the budget, with the size of released values kept here until they are evicted. Entries of collected data sets
+ * are removed on the next add or remove.
+ * <p>
+ * Nothing is recorded while the budget is disabled.
+ */
+public class CachedDataMemoryBudget {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.cache");
+
+    public static final int LOW_WATER_PERCENT = 90;
+
+    // approximate sizes in bytes on a 64 bit JVM with compressed references
+    public static final long OBJECT_SIZE = 16;
+    public static final long REFERENCE_SIZE = 4;
+    public static final long HASH_MAP_ENTRY_SIZE = 32 + REFERENCE_SIZE;
+    public static final long DEFAULT_VALUE_SIZE = 64;
+
+    private static CachedDataMemoryBudget DEFAULT = null;
+
+    @NotNull
+    public static CachedDataMemoryBudget getInstance() {
+        if (ApplicationManager.getApplication() == null) {
+            if (DEFAULT == null) DEFAULT = new CachedDataMemoryBudget();
+            return DEFAULT;
+        }
+        return ServiceManager.getService(CachedDataMemoryBudget.class);
+    }
+
+    public static long stringSize(@Nullable String text) {
+        return text == null ? 0 : OBJECT_SIZE + 24 + text.length();
+    }
+
+    public static long arrayListSize(int size) {
+        return OBJECT_SIZE + 16 + size * REFERENCE_SIZE;
+    }
+
+    public static long hashMapSize(int size) {
+        // table is sized at most twice the entries for default load factor
+        return OBJECT_SIZE + 32 + size * (HASH_MAP_ENTRY_SIZE + 2 * REFERENCE_SIZE);
+    }
+
+    public static long intArraySize(int size) {
+        return 16 + size * 4L;
+    }
+
+    // the key is the weak reference so keys of collected data sets can be removed when they are queued
+    private static class EntryKey extends WeakReference<CachedDataSet> {
+        final @NotNull CachedDataKey<?, ?> myDataKey;
+        final int myHashCode;
+
+        // lookup key, not queued
+        EntryKey(@NotNull CachedDataSet dataSet, @NotNull CachedDataKey<?, ?> dataKey) {
+            this(dataSet, dataKey, null);
+        }
+
+        EntryKey(@NotNull CachedDataSet dataSet, @NotNull CachedDataKey<?, ?> dataKey, @Nullable ReferenceQueue<CachedDataSet> queue) {
+            super(dataSet, queue);
+            myDataKey = dataKey;
+            myHashCode = System.identityHashCode(dataSet) * 31 + dataKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntryKey)) return false;
+
+            EntryKey other = (EntryKey) o;
+            if (myHashCode != other.myHashCode || myDataKey != other.myDataKey) return false;
+
+            CachedDataSet dataSet = get();
+            return dataSet != null && dataSet == other.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return myHashCode;
+        }
+    }
+
+    private static class Entry {
+        long size;
+        boolean removed;
+        volatile long lastAccess;
+        int hits;
+
+        Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static class EvictionCandidate {
+        final @NotNull EntryKey key;
+        final @NotNull Entry entry;
+        final long lastAccess;
+
+        EvictionCandidate(@NotNull EntryKey key, @NotNull Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+    // hits between size estimates of a value, values can grow after being computed
+    public static final int SIZE_SAMPLE_HITS = 64;
+
+    private final ConcurrentHashMap<EntryKey, Entry> myEntries = new ConcurrentHashMap<>(256);
+    private final ReferenceQueue<CachedDataSet> myCollectedDataSets = new ReferenceQueue<>();
+    private final AtomicLong myTotalSize = new AtomicLong();
+    private final AtomicLong myAccessClock = new AtomicLong();
+    private final Object myEvictionLock = new Object();
+    private long myEvictions = 0;
+    private MdApplicationSettings myApplicationSettings = null;
+
+    /**
+     * @return budget in bytes, 0 if not limited
+     */
+    public long getBudget() {
+        if (ApplicationManager.getApplication() == null) return 0;
+
+        if (myApplicationSettings == null) {
+            myApplicationSettings = MdApplicationSettings.getInstance();
+        }
+
+        long budgetMb = myApplicationSettings.getDebugSettings().getCachedDataMemoryBudget();
+        return budgetMb <= 0 ? 0 : budgetMb * 1024 * 1024;
+    }
+
+    public long getTotalSize() {
+        return myTotalSize.get();
+    }
+
+    public long getEvictions() {
+        synchronized (myEvictionLock) {
+            return myEvictions;
+        }
+    }
+
+    /**
+     * Value was computed and set in data set
+     *
+     * @param dataSet data set
+     * @param dataKey data key
+     * @param size    estimated size of value
+     */
+    void added(@NotNull CachedDataSet dataSet, @NotNull CachedDataKey<?, ?> dataKey, long size) {
+        if (getBudget() <= 0) {
+            // not tracked, drop the entry of a value set while the budget was enabled
+            removed(dataSet, dataKey);
+            return;
+        }
+
+        removeCollected();
+
+        Entry entry = new Entry(size, myAccessClock.incrementAndGet());
+        Entry previous = myEntries.put(new EntryKey(dataSet, dataKey, myCollectedDataSets), entry);
+        myTotalSize.addAndGet(size);
+        if (previous != null) remove(previous);
+        evictOverBudget();
+    }
+
+    /**
+     * Value was used, update its access time. Its size is estimated again every {@link #SIZE_SAMPLE_HITS} hits
+     * since values can grow after being computed.
+     * <p>
+     * Takes no global lock, recency is kept in the entry and entries are only ordered when evicting.
+     *
+     * @param dataSet data set
+     * @param dataKey data key
+     * @param value   cached value
+     */
+    void accessed(@NotNull CachedDataSet dataSet, @NotNull CachedDataKey<?, ?> dataKey, @NotNull Object value) {
+        Entry entry = myEntries.get(new EntryKey(dataSet, dataKey));
+        if (entry == null) return;
+
+        entry.lastAccess = myAccessClock.incrementAndGet();
+
+        // racy count is fine, it only spaces out the estimates
+        if (++entry.hits % SIZE_SAMPLE_HITS != 0) return;
+
+        long size = dataKey.estimatedSize(value);
+        long previousSize;
+        synchronized (entry) {
+            if (entry.removed || size <= entry.size) return;
+            previousSize = entry.size;
+            entry.size = size;
+        }
+
+        myTotalSize.addAndGet(size - previousSize);
+        evictOverBudget();
+    }
+
+    private void remove(@NotNull Entry entry) {
+        long size;
+        synchronized (entry) {
+            if (entry.removed) return;
+            entry.removed = true;
+            size = entry.size;
+        }
+        myTotalSize.addAndGet(-size);
+    }
+
+    void removed(@NotNull CachedDataSet dataSet, @NotNull CachedDataKey<?, ?> dataKey) {
+        removeCollected();
+
+        Entry entry = myEntries.remove(new EntryKey(dataSet, dataKey));
+        if (entry != null) remove(entry);
+    }
+
+    private void removeCollected() {
+        Reference<? extends CachedDataSet> reference;
+        while ((reference = myCollectedDataSets.poll()) != null) {
+            // a replaced entry keeps its first key, later keys for it are not in the map
+            Entry entry = myEntries.remove((EntryKey) reference);
+            if (entry != null) remove(entry);
+        }
+    }
+
+    void removedAll(@NotNull CachedDataSet dataSet) {
+        removeCollected();
+
+        Iterator<Map.Entry<EntryKey, Entry>> iterator = myEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<EntryKey, Entry> mapEntry = iterator.next();
+            CachedDataSet entryDataSet = mapEntry.getKey().get();
+            if (entryDataSet == null || entryDataSet == dataSet) {
+                iterator.remove();
+                remove(mapEntry.getValue());
+            }
+        }
+    }
+
+    private void evictOverBudget() {
+        long budget = getBudget();
+        if (budget <= 0 || myTotalSize.get() <= budget) return;
+
+        ArrayList<EntryKey> evicted = null;
+
+        synchronized (myEvictionLock) {
+            if (myTotalSize.get() <= budget) return;
+
+            // access times are snapshot so the order does not change while sorting
+            ArrayList<EvictionCandidate> candidates = new ArrayList<>(myEntries.size());
+            for (Map.Entry<EntryKey, Entry> mapEntry : myEntries.entrySet()) {
+                candidates.add(new EvictionCandidate(mapEntry.getKey(), mapEntry.getValue()));
+            }
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccess));
+
+            long lowWater = budget * LOW_WATER_PERCENT / 100;
+            for (EvictionCandidate candidate : candidates) {
+                if (myTotalSize.get() <= lowWater) break;
+                if (!myEntries.remove(candidate.key, candidate.entry)) continue;
+
+                remove(candidate.entry);
+
+                if (candidate.key.get() != null) {
+                    if (evicted == null) evicted = new ArrayList<>();
+                    evicted.add(candidate.key);
+                    myEvictions++;
+                }
+            }
+        }
+
+        if (evicted != null) {
+            // remove outside of eviction lock, data set remove takes the data set lock
+            for (EntryKey entryKey : evicted) {
+                CachedDataSet dataSet = entryKey.get();
+                if (dataSet != null) dataSet.evict(entryKey.myDataKey);
+            }
+
+            if (LOG.isDebugEnabled()) LOG.debug(getStatistics());
+        }
+    }
+
+    @NotNull
+    public String getStatistics() {
+        return String.format("CachedDataMemoryBudget entries: %d, size: %d KB, budget: %d KB, evictions: %d", myEntries.size(), myTotalSize.get() / 1024, getBudget() / 1024, getEvictions());
+    }
+}
@@ -6,10 +6,13 @@ import com.intellij.reference.SoftReference;
 import com.vladsch.md.nav.parser.cache.data.dependency.DataDependency;
 import com.vladsch.md.nav.parser.cache.data.dependency.DataKeyDependency;
 import com.vladsch.md.nav.parser.cache.data.dependency.VersionedData;
+import com.vladsch.md.nav.parser.cache.data.transaction.CachedDataStatistics;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class CachedDataSet implements CachedDataHolder {
@@ -26,18 +29,60 @@ public class CachedDataSet implements CachedDataHolder {
     private final @NotNull String myName;
     private final @NotNull HashMap<CachedDataKey<?, ?>, SoftReference<VersionedData>> myCachedDataSet = new HashMap<>();
     private final @NotNull HashMap<CachedDataKey<?, ?>, ReentrantLock> myComputingKeyLocks = new HashMap<>();
+    private final @NotNull ConcurrentHashMap<CachedDataKey<?, ?>, ComputingValue> myComputingValues = new ConcurrentHashMap<>();
     private long myTimeStamp = 0;
 
     public CachedDataSet(@NotNull String name) {
         myName = name;
     }
 
+    /**
+     * Computation of a key value in progress, completed when the computing thread is done, with or without a value
+     */
+    public static final class ComputingValue extends CompletableFuture<Void> {
+        private final @NotNull Thread myOwner = Thread.currentThread();
+
+        /**
+         * @return true if current thread is computing the value
+         */
+        public boolean isOwner() {
+            return myOwner == Thread.currentThread();
+        }
+    }
+
+    /**
+     * Called by transaction manager when key value needs to be computed
+     *
+     * @param dataKey data key
+     *
+     * @return computing value owned by the current thread if no other thread is computing the key, otherwise the other thread's computing value
+     */
+    @NotNull
+    public ComputingValue startComputing(@NotNull CachedDataKey<?, ?> dataKey) {
+        ComputingValue computingValue = new ComputingValue();
+        ComputingValue otherValue = myComputingValues.putIfAbsent(dataKey, computingValue);
+        return otherValue != null ? otherValue : computingValue;
+    }
+
+    /**
+     * Called by transaction manager when the owner of computing value is done computing, after the value is set
+     *
+     * @param dataKey        data key
+     * @param computingValue computing value returned by {@link #startComputing(CachedDataKey)}
+     */
+    public void endComputing(@NotNull CachedDataKey<?, ?> dataKey, @NotNull ComputingValue computingValue) {
+        myComputingValues.remove(dataKey, computingValue);
+        computingValue.complete(null);
+    }
+
     public void clearCachedData() {
         synchronized (myCachedDataSet) {
             myTimeStamp++;
             myCachedDataSet.clear();
             myComputingKeyLocks.clear();
         }
+
+        CachedDataMemoryBudget.getInstance().removedAll(this);
     }
 
     @Override
@@ -49,9 +94,36 @@ public class CachedDataSet implements CachedDataHolder {
             removed = myCachedDataSet.remove(dataKey) != null;
         }
 
+        if (removed) CachedDataMemoryBudget.getInstance().removed(this, dataKey);
         return removed;
     }
 
+    /**
+     * Called by memory budget to remove least recently used data, already removed from the budget
+     *
+     * @param dataKey data key
+     */
+    void evict(@NotNull CachedDataKey<?, ?> dataKey) {
+        boolean removed;
+
+        synchronized (myCachedDataSet) {
+            myTimeStamp++;
+            removed = myCachedDataSet.remove(dataKey) != null;
+        }
+
+        if (removed) CachedDataStatistics.getInstance().invalidated(dataKey, CachedDataStatistics.INVALIDATED_BY_EVICTION);
+    }
+
+    /**
+     * Called by transaction manager when valid cached data is used
+     *
+     * @param dataKey data key
+     * @param value   cached value
+     */
+    public void accessed(@NotNull CachedDataKey<?, ?> dataKey, @NotNull Object value) {
+        CachedDataMemoryBudget.getInstance().accessed(this, dataKey, value);
+    }
+
     @Override
     public boolean isDependent(@NotNull CachedDataKey<?, ?> dataKey, @Nullable DataDependency dependency) {
         if (dependency != null) {
@@ -119,6 +191,34 @@ public class CachedDataSet implements CachedDataHolder {
         return data != null && data.isValid() ? data.value : null;
     }
 
+    /**
+     * Get type of dependency which invalidated data for the key, used for statistics
+     *
+     * @param dataKey data key
+     *
+     * @return simple class name of the invalid dependency, "collected" if data was garbage collected,
+     *         null if there is no data for the key or the data is valid
+     */
+    @Nullable
+    public String getInvalidDependencyType(@NotNull CachedDataKey<?, ?> dataKey) {
+        SoftReference<VersionedData> reference;
+
+        synchronized (myCachedDataSet) {
+            reference = myCachedDataSet.get(dataKey);
+        }
+
+        if (reference == null) return null;
+
+        VersionedData data = reference.get();
+        if (data == null) return CachedDataStatistics.INVALIDATED_BY_COLLECTED;
+
+        DataDependency dependency = data.getInvalidDependency();
+        if (dependency == null) return null;
+
+        Class<?> dependencyClass = dependency.getClass();
+        return dependencyClass.getSimpleName().isEmpty() ? dependencyClass.getName() : dependencyClass.getSimpleName();
+    }
+
     /**
      * Get Versioned object for data key
      *
@@ -146,6 +246,8 @@ public class CachedDataSet implements CachedDataHolder {
             myTimeStamp++;
             myCachedDataSet.put(dataKey, new SoftReference<>(new VersionedData(myTimeStamp, value, dependencies, versions)));
         }
+
+        CachedDataMemoryBudget.getInstance().added(this, dataKey, dataKey.estimatedSize(value));
     }
 
     @NotNull
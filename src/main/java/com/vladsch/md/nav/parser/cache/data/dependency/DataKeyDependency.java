@@ -29,8 +29,11 @@ final public class DataKeyDependency implements DataDependency {
         return myCachedData.getVersion(myDataKey);
     }
 
-    public void invalidateDependency() {
-        myCachedData.remove(myDataKey);
+    /**
+     * @return true if cached data for the key was removed
+     */
+    public boolean invalidateDependency() {
+        return myCachedData.remove(myDataKey);
     }
 
     public boolean isValid() {
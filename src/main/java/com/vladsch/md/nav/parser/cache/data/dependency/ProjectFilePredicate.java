@@ -10,7 +10,7 @@ import java.util.function.Predicate;
 
 public interface ProjectFilePredicate extends Predicate<PsiFile> {
     /**
-     * NOTE: not invoked on ADT nor inside read action, have to do all that manually
+     * NOTE: invoked in a read action on a pooled thread for VFS changes, on EDT before code analysis of open files
      * if false is returned then key for the dependency will be invalidated.
      * CachedDataSet and CachedDataKey determined by where dependency was added.
      * <p>
@@ -32,4 +32,17 @@ public interface ProjectFilePredicate extends Predicate<PsiFile> {
     default PsiFile getDependentFile() {
         return null;
     }
+
+    /**
+     * Override and implement to limit files tested by this predicate, the predicate is only tested for files in the scope.
+     * <p>
+     * If the scope changes after the dependency was added call ProjectFileMonitor.updateFileScope() for the predicate.
+     * NOTE: can be invoked from any thread, while the predicate's data key is being computed.
+     *
+     * @return files which can invalidate this predicate or null if any file can invalidate it
+     */
+    @Nullable
+    default ProjectFileScope getFileScope() {
+        return null;
+    }
 }
@@ -0,0 +1,115 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.parser.cache.data.dependency;
+
+import com.intellij.openapi.fileTypes.FileType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Files which can invalidate a {@link ProjectFilePredicate}, used by ProjectFileMonitor to index dependencies so
+ * only candidate predicates are tested for a changed file.
+ * <p>
+ * A file is in scope if its path, extension or file type was added or it is under one of the added directories.
+ * An empty scope matches no files.
+ */
+final public class ProjectFileScope {
+    private final @NotNull HashSet<String> myFilePaths = new HashSet<>();
+    private final @NotNull HashSet<String> myExtensions = new HashSet<>();
+    private final @NotNull HashSet<String> myDirectories = new HashSet<>();
+    private final @NotNull HashSet<FileType> myFileTypes = new HashSet<>();
+
+    @NotNull
+    public ProjectFileScope addFilePath(@NotNull String filePath) {
+        myFilePaths.add(filePath);
+        return this;
+    }
+
+    @NotNull
+    public ProjectFileScope addExtension(@NotNull String extension) {
+        myExtensions.add(extension);
+        return this;
+    }
+
+    @NotNull
+    public ProjectFileScope addExtensions(@NotNull Collection<String> extensions) {
+        myExtensions.addAll(extensions);
+        return this;
+    }
+
+    /**
+     * @param directoryPath directory path, without trailing /
+     * @return this
+     */
+    @NotNull
+    public ProjectFileScope addDirectory(@NotNull String directoryPath) {
+        myDirectories.add(directoryPath);
+        return this;
+    }
+
+    @NotNull
+    public ProjectFileScope addFileType(@NotNull FileType fileType) {
+        myFileTypes.add(fileType);
+        return this;
+    }
+
+    @NotNull
+    public Set<String> getFilePaths() {
+        return Collections.unmodifiableSet(myFilePaths);
+    }
+
+    @NotNull
+    public Set<String> getExtensions() {
+        return Collections.unmodifiableSet(myExtensions);
+    }
+
+    @NotNull
+    public Set<String> getDirectories() {
+        return Collections.unmodifiableSet(myDirectories);
+    }
+
+    @NotNull
+    public Set<FileType> getFileTypes() {
+        return Collections.unmodifiableSet(myFileTypes);
+    }
+
+    public boolean isEmpty() {
+        return myFilePaths.isEmpty() && myExtensions.isEmpty() && myDirectories.isEmpty() && myFileTypes.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ProjectFileScope)) return false;
+
+        ProjectFileScope scope = (ProjectFileScope) o;
+
+        if (!myFilePaths.equals(scope.myFilePaths)) return false;
+        if (!myExtensions.equals(scope.myExtensions)) return false;
+        if (!myDirectories.equals(scope.myDirectories)) return false;
+        return myFileTypes.equals(scope.myFileTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = myFilePaths.hashCode();
+        result = 31 * result + myExtensions.hashCode();
+        result = 31 * result + myDirectories.hashCode();
+        result = 31 * result + myFileTypes.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectFileScope{" +
+                "paths=" + myFilePaths +
+                ", extensions=" + myExtensions +
+                ", directories=" + myDirectories +
+                ", fileTypes=" + myFileTypes +
+                '}';
+    }
+}
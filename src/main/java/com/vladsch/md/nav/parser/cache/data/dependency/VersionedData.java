@@ -33,11 +33,19 @@ public class VersionedData {
     }
 
     public boolean isValid() {
+        return getInvalidDependency() == null;
+    }
+
+    /**
+     * @return first dependency which was invalidated or changed version, null if data is valid
+     */
+    @Nullable
+    public DataDependency getInvalidDependency() {
         int iMax = dependencies.length;
         for (int i = 0; i < iMax; i++) {
             long version = dependencies[i].getVersion();
-            if (version == -1 || version != versions[i]) return false;
+            if (version == -1 || version != versions[i]) return dependencies[i];
         }
-        return true;
+        return null;
     }
 }
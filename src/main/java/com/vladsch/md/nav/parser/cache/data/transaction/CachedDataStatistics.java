@@ -0,0 +1,240 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.parser.cache.data.transaction;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.intellij.openapi.diagnostic.Logger.getInstance;
+
+/**
+ * Per {@link CachedDataKey} counters of cached data access, updated by {@link CachedTransactionManager}
+ * <p>
+ * Invalidations are counted by the type of the dependency which invalidated the cached value: the simple class name of
+ * a {@link com.vladsch.md.nav.parser.cache.data.dependency.DataDependency} with a changed version,
+ * {@link #INVALIDATED_BY_VALUE} when the key rejected its own value, {@link #INVALIDATED_BY_COLLECTED} for values
+ * released by the garbage collector, {@link #INVALIDATED_BY_EVICTION} for values evicted by the memory budget and
+ * ProjectFileDependency for values invalidated by ProjectFileMonitor.
+ */
+public class CachedDataStatistics {
+    private static final Logger LOG = getInstance("com.vladsch.md.nav.parser.cache");
+
+    public static final String INVALIDATED_BY_VALUE = "value";
+    public static final String INVALIDATED_BY_COLLECTED = "collected";
+    public static final String INVALIDATED_BY_EVICTION = "evicted";
+
+    private static CachedDataStatistics DEFAULT = null;
+
+    @NotNull
+    public static CachedDataStatistics getInstance() {
+        if (ApplicationManager.getApplication() == null) {
+            if (DEFAULT == null) DEFAULT = new CachedDataStatistics();
+            return DEFAULT;
+        }
+        return ServiceManager.getService(CachedDataStatistics.class);
+    }
+
+    public static class KeyStatistics {
+        final @NotNull String myKeyName;
+        final AtomicLong myHits = new AtomicLong();
+        final AtomicLong myMisses = new AtomicLong();
+        final AtomicLong myWaits = new AtomicLong();
+        final AtomicLong myComputeNanos = new AtomicLong();
+        final AtomicLong myMaxComputeNanos = new AtomicLong();
+        final AtomicLong myMaxDepth = new AtomicLong();
+        final ConcurrentHashMap<String, AtomicLong> myInvalidations = new ConcurrentHashMap<>();
+
+        KeyStatistics(@NotNull String keyName) {
+            myKeyName = keyName;
+        }
+
+        @NotNull
+        public String getKeyName() {
+            return myKeyName;
+        }
+
+        public long getHits() {
+            return myHits.get();
+        }
+
+        /**
+         * @return number of computations of the key value
+         */
+        public long getMisses() {
+            return myMisses.get();
+        }
+
+        /**
+         * @return number of times a thread waited for the key value being computed by another thread
+         */
+        public long getWaits() {
+            return myWaits.get();
+        }
+
+        public long getComputeNanos() {
+            return myComputeNanos.get();
+        }
+
+        public long getMaxComputeNanos() {
+            return myMaxComputeNanos.get();
+        }
+
+        /**
+         * @return max number of open transactions, including the key's own, when the key was computed
+         */
+        public long getMaxDepth() {
+            return myMaxDepth.get();
+        }
+
+        public long getInvalidations() {
+            long total = 0;
+            for (AtomicLong count : myInvalidations.values()) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        /**
+         * @return invalidation counts by dependency type, sorted by type
+         */
+        @NotNull
+        public Map<String, Long> getInvalidationsByType() {
+            TreeMap<String, Long> map = new TreeMap<>();
+            myInvalidations.forEach((type, count) -> map.put(type, count.get()));
+            return map;
+        }
+    }
+
+    private final ConcurrentHashMap<String, KeyStatistics> myKeyStatistics = new ConcurrentHashMap<>();
+
+    @NotNull
+    private KeyStatistics getKeyStatistics(@NotNull CachedDataKey<?, ?> dataKey) {
+        // keys are compared by name so counters of re-created keys for the same data are combined
+        return myKeyStatistics.computeIfAbsent(dataKey.getName(), KeyStatistics::new);
+    }
+
+    public void hit(@NotNull CachedDataKey<?, ?> dataKey) {
+        getKeyStatistics(dataKey).myHits.incrementAndGet();
+    }
+
+    public void awaited(@NotNull CachedDataKey<?, ?> dataKey) {
+        getKeyStatistics(dataKey).myWaits.incrementAndGet();
+    }
+
+    /**
+     * Count computation of the key value
+     *
+     * @param dataKey      data key
+     * @param computeNanos nano seconds of the computation, including nested computations of other keys
+     * @param depth        number of open transactions, including the one for this key
+     */
+    public void computed(@NotNull CachedDataKey<?, ?> dataKey, long computeNanos, int depth) {
+        KeyStatistics statistics = getKeyStatistics(dataKey);
+        statistics.myMisses.incrementAndGet();
+        statistics.myComputeNanos.addAndGet(computeNanos);
+        statistics.myMaxComputeNanos.accumulateAndGet(computeNanos, Math::max);
+        statistics.myMaxDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    public void invalidated(@NotNull CachedDataKey<?, ?> dataKey, @NotNull String dependencyType) {
+        getKeyStatistics(dataKey).myInvalidations.computeIfAbsent(dependencyType, type -> new AtomicLong()).incrementAndGet();
+    }
+
+    public void resetCounters() {
+        myKeyStatistics.clear();
+    }
+
+    /**
+     * @return snapshot of key statistics, sorted by total compute time, longest first
+     */
+    @NotNull
+    public List<KeyStatistics> getKeyStatistics() {
+        ArrayList<KeyStatistics> list = new ArrayList<>(myKeyStatistics.values());
+        list.sort(Comparator.comparingLong(KeyStatistics::getComputeNanos).reversed().thenComparing(KeyStatistics::getKeyName));
+        return list;
+    }
+
+    @NotNull
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-48s %10s %10s %10s %10s %12s %12s %6s  %s%n", "key", "hits", "misses", "waits", "invalid", "total ms", "max ms", "depth", "invalidated by"));
+
+        for (KeyStatistics statistics : getKeyStatistics()) {
+            sb.append(String.format("%-48s %10d %10d %10d %10d %12.3f %12.3f %6d  %s%n"
+                    , statistics.getKeyName()
+                    , statistics.getHits()
+                    , statistics.getMisses()
+                    , statistics.getWaits()
+                    , statistics.getInvalidations()
+                    , statistics.getComputeNanos() / 1e6
+                    , statistics.getMaxComputeNanos() / 1e6
+                    , statistics.getMaxDepth()
+                    , statistics.getInvalidationsByType()
+            ));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return statistics as a JSON array of key objects
+     */
+    @NotNull
+    public String getStatisticsJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        String sep = "\n";
+
+        for (KeyStatistics statistics : getKeyStatistics()) {
+            sb.append(sep);
+            sep = ",\n";
+
+            sb.append("  {\"key\": ").append(jsonString(statistics.getKeyName()))
+                    .append(", \"hits\": ").append(statistics.getHits())
+                    .append(", \"misses\": ").append(statistics.getMisses())
+                    .append(", \"waits\": ").append(statistics.getWaits())
+                    .append(", \"computeNanos\": ").append(statistics.getComputeNanos())
+                    .append(", \"maxComputeNanos\": ").append(statistics.getMaxComputeNanos())
+                    .append(", \"maxDepth\": ").append(statistics.getMaxDepth())
+                    .append(", \"invalidations\": {");
+
+            String typeSep = "";
+            for (Map.Entry<String, Long> entry : statistics.getInvalidationsByType().entrySet()) {
+                sb.append(typeSep).append(jsonString(entry.getKey())).append(": ").append(entry.getValue());
+                typeSep = ", ";
+            }
+            sb.append("}}");
+        }
+
+        sb.append("\n]\n");
+        return sb.toString();
+    }
+
+    @NotNull
+    private static String jsonString(@NotNull String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    public void logStatistics() {
+        if (LOG.isDebugEnabled()) LOG.debug(getStatistics());
+    }
+}
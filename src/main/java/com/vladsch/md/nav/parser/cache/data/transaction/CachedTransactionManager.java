@@ -3,6 +3,8 @@
 package com.vladsch.md.nav.parser.cache.data.transaction;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.vladsch.flexmark.util.sequence.RepeatedSequence;
 import com.vladsch.md.nav.parser.cache.ProjectFileMonitor;
 import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
@@ -16,6 +18,9 @@ import org.jetbrains.annotations.NotNull;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.vladsch.md.nav.parser.cache.data.transaction.IndentingLogger.INDENT;
@@ -25,10 +30,12 @@ import static com.vladsch.md.nav.parser.cache.data.transaction.IndentingLogger.L
 // per thread instance of this class
 public class CachedTransactionManager implements LogIndenter {
     public static final String ADD_DEPENDENCY = "ADD_DEPENDENCY: ";
+    public static final long AWAIT_CHECK_CANCELED_MILLIS = 10;
 
     private final @NotNull Stack<CachedDataTransaction<?, ?>> myOpenTransactions = new Stack<>();
 
     final @NotNull DataDependencyManager myManager;
+    final @NotNull CachedDataStatistics myStatistics = CachedDataStatistics.getInstance();
     int myIndentOffset = 0;
 
     public CachedTransactionManager(@NotNull DataDependencyManager manager) {
@@ -126,50 +133,68 @@ public class CachedTransactionManager implements LogIndenter {
             throwWithTransactionTrace(alreadyComputing);
         }
 
-        ReentrantLock lock = cachedData.getKeyLock(dataKey);
+        myOpenTransactions.push(transaction);
         try {
-            lock.lock();
-
             try {
-                myOpenTransactions.push(transaction);
-
-                try {
-                    myIndentOffset = -1;
-                    if (LOG_COMPUTE.isDebugEnabled()) {
-                        if (LOG_COMPUTE.isStackTraceEnabled()) {
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("GET: ").append(cachedData.getDataKeyWithCacheDescription(dataKey)).append("\n");
-                            getStackTraces(sb, myOpenTransactions.size() - 1);
-                            LOG_COMPUTE.debug(sb.toString());
-                        } else {
-                            LOG_COMPUTE.debug("GET: " + transaction.myCachedData.getDataKeyWithCacheDescription(transaction.myDataKey));
-                        }
+                myIndentOffset = -1;
+                if (LOG_COMPUTE.isDebugEnabled()) {
+                    if (LOG_COMPUTE.isStackTraceEnabled()) {
+                        StringBuilder sb = new StringBuilder();
+                        sb.append("GET: ").append(cachedData.getDataKeyWithCacheDescription(dataKey)).append("\n");
+                        getStackTraces(sb, myOpenTransactions.size() - 1);
+                        LOG_COMPUTE.debug(sb.toString());
+                    } else {
+                        LOG_COMPUTE.debug("GET: " + transaction.myCachedData.getDataKeyWithCacheDescription(transaction.myDataKey));
                     }
-                } finally {
-                    myIndentOffset = 0;
                 }
+            } finally {
+                myIndentOffset = 0;
+            }
+
+            CachedDataSet.ComputingValue computingValue;
+
+            while (true) {
+                //noinspection unchecked
+                T value = (T) cachedData.getOrNull(dataKey);
+                if (value != null && dataKey.isValid(value)) {
+                    return validValue(cachedData, dataKey, value);
+                }
+
+                // only one thread computes a key, others wait for it to finish and use its value
+                computingValue = cachedData.startComputing(dataKey);
+                if (computingValue.isOwner()) break;
+
+                myStatistics.awaited(dataKey);
+                if (LOG_COMPUTE.isDebugEnabled()) LOG_COMPUTE.debug("AWAITING: " + cachedData.getDataKeyWithCacheDescription(dataKey));
+                awaitComputed(computingValue);
+            }
+
+            ReentrantLock lock = cachedData.getKeyLock(dataKey);
+            try {
+                lock.lock();
 
                 //noinspection unchecked
                 T value = (T) cachedData.getOrNull(dataKey);
 
                 if (value != null) {
                     if (dataKey.isValid(value)) {
-                        // need to add dependency to parent since it depends on this key, even if this time around the key is valid
-                        if (myOpenTransactions.size() > 1) {
-                            // this transaction is at size-1, parent at size-2
-                            myOpenTransactions.get(myOpenTransactions.size() - 2).addDependency(cachedData.getDependency(dataKey));
-                        }
-                        return value;
+                        return validValue(cachedData, dataKey, value);
                     }
 
                     // data not valid
+                    myStatistics.invalidated(dataKey, CachedDataStatistics.INVALIDATED_BY_VALUE);
                     if (LOG_COMPUTE.isDebugEnabled()) LOG_COMPUTE.debug("STALE_DATA: " + cachedData.getDataKeyWithCacheDescription(dataKey));
                     else LOG_COMPUTE.warn("STALE_DATA: " + cachedData.getDataKeyWithCacheDescription(dataKey));
                     cachedData.remove(dataKey);
+                } else {
+                    String invalidDependencyType = cachedData.getInvalidDependencyType(dataKey);
+                    if (invalidDependencyType != null) myStatistics.invalidated(dataKey, invalidDependencyType);
                 }
 
                 if (LOG_COMPUTE.isDebugEnabled()) LOG_COMPUTE.debug("COMPUTING: " + cachedData.getDataKeyWithCacheDescription(dataKey));
+                long computeStart = System.nanoTime();
                 value = dataKey.compute(transaction);
+                myStatistics.computed(dataKey, System.nanoTime() - computeStart, myOpenTransactions.size());
                 assert dataKey.isValid(value);
 
                 DataDependency[] dependencies = new DataDependency[versionedDependencies.size()];
@@ -202,10 +227,47 @@ public class CachedTransactionManager implements LogIndenter {
 
                 return value;
             } finally {
-                myOpenTransactions.pop();
+                lock.unlock();
+                // waiting threads use the value set above or if computation failed, compute it themselves
+                cachedData.endComputing(dataKey, computingValue);
             }
         } finally {
-            lock.unlock();
+            myOpenTransactions.pop();
+        }
+    }
+
+    private <H extends CachedDataOwner, T> T validValue(@NotNull CachedDataSet cachedData, @NotNull CachedDataKey<H, T> dataKey, @NotNull T value) {
+        // need to add dependency to parent since it depends on this key, even if this time around the key is valid
+        if (myOpenTransactions.size() > 1) {
+            // this transaction is at size-1, parent at size-2
+            myOpenTransactions.get(myOpenTransactions.size() - 2).addDependency(cachedData.getDependency(dataKey));
+        }
+        myStatistics.hit(dataKey);
+        cachedData.accessed(dataKey, value);
+        return value;
+    }
+
+    /**
+     * Wait for another thread to finish computing a key, checking for cancellation of this thread's progress
+     * <p>
+     * NOTE: threads computing keys which depend on each other in opposite order will wait for each other, same as
+     *  with blocking on key locks. Dependencies between keys must be acyclic.
+     *
+     * @param computingValue computing value of the other thread
+     */
+    private static void awaitComputed(@NotNull CachedDataSet.ComputingValue computingValue) {
+        boolean checkCanceled = ApplicationManager.getApplication() != null;
+
+        while (!computingValue.isDone()) {
+            if (checkCanceled) ProgressManager.checkCanceled();
+
+            try {
+                computingValue.get(AWAIT_CHECK_CANCELED_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException ignored) {
+                // check for cancellation, computation errors are handled by re-computing
+            } catch (InterruptedException e) {
+                throw new ProcessCanceledException(e);
+            }
         }
     }
 
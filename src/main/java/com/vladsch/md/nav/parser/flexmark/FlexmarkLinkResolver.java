@@ -19,6 +19,7 @@ import com.vladsch.flexmark.util.data.DataHolder;
 import com.vladsch.md.nav.MdImageCache;
 import com.vladsch.md.nav.MdProjectComponent;
 import com.vladsch.md.nav.parser.api.MdLinkMapProvider;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks;
 import com.vladsch.md.nav.psi.element.MdFile;
 import com.vladsch.md.nav.settings.MdRenderingProfile;
 import com.vladsch.md.nav.settings.MdRenderingProfileManager;
@@ -59,6 +60,7 @@ public class FlexmarkLinkResolver implements LinkResolver, Disposable {
     final Want.Options.Locals localFormat;
     final boolean openRemoteLinks;
     final boolean showUnresolvedLinkRefs;
+    private boolean allLinksResolved;
 
     @Override
     public void dispose() {
@@ -171,6 +173,12 @@ public class FlexmarkLinkResolver implements LinkResolver, Disposable {
                             }
                         }
 
+                        if (file != null && !allLinksResolved) {
+                            // resolve uncached links of the file in one batch instead of one at a time
+                            allLinksResolved = true;
+                            MdCachedResolvedLinks.resolveAllLinks(file);
+                        }
+
                         resolvedTarget = resolver.resolve(targetRef, Want.INSTANCE.invoke(remoteFormat, localFormat, Links.getURL()), null);
 
                         localOnly[0] = false;
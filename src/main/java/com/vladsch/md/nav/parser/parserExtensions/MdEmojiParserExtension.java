@@ -55,7 +55,8 @@ public class MdEmojiParserExtension implements MdParserExtension {
 
     @Override
     public void setFlexmarkOptions(final MdParserOptions options) {
-        if (options.haveOptions(EMOJI_SHORTCUTS)) {
+        // emoji shortcuts are not indexed
+        if (options.haveOptions(EMOJI_SHORTCUTS) && options.getParserPurpose() != ParserPurpose.INDEXING) {
             ParserPurpose parserPurpose = options.getParserPurpose();
             HtmlPurpose htmlPurpose = options.getHtmlPurpose();
             MdRenderingProfile renderingProfile = options.getRenderingProfile();
@@ -64,7 +64,7 @@ class MdIndexUtil {
                     // have to match several characters for spaces
                     var handled = false
                     try {
-                        val regex = WikiLinkRef.linkAsFileRegex(linkRefAddress).toRegex()
+                        val regex = MdRegexCache.regex(WikiLinkRef.linkAsFileRegex(linkRefAddress))
                         if (fileNameNoExt.matches(regex) || fileName.matches(regex)) {
                             // have possible match, we process this key now
                             keys.add(key)
@@ -78,7 +78,7 @@ class MdIndexUtil {
                     if (linkAnchor != null && !handled) {
                         // wiki pages can have anchor looking text embedded in them, include matches just in case
                         try {
-                            val regex1 = "$linkRefAddress\\Q$linkAnchor\\E".toRegex()
+                            val regex1 = MdRegexCache.regex("$linkRefAddress\\Q$linkAnchor\\E")
                             if (fileNameNoExt.matches(regex1) || fileName.matches(regex1)) {
                                 // have possible match, we process this key now
                                 keys.add(key)
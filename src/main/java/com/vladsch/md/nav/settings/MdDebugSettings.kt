@@ -26,6 +26,14 @@ class MdDebugSettings(private val mySettingsExtensions: MdExtendableSettingsImpl
     var showSizePreferencesDialog: Boolean = false
     var showTextHexDialog: Boolean = false
     var useFileLinkCache: Boolean = true
+    var persistFileLinkCache: Boolean = true
+    var warmUpLinkedFileCache: Boolean = true
+    var incrementalLexerParse: Boolean = true
+    var parserTimeBudget: Int = 5000
+    var backgroundLexerParse: Boolean = true
+    var lightStubTreeIndexing: Boolean = false
+    var indexingParserPurpose: Boolean = true
+    var cachedDataMemoryBudget: Int = 64
 
     @Deprecated("Use DocumentSettings instead")
     var yandexFromLanguage: String = "de"
@@ -61,6 +69,14 @@ class MdDebugSettings(private val mySettingsExtensions: MdExtendableSettingsImpl
         this.showSizePreferencesDialog = other.showSizePreferencesDialog
         this.showTextHexDialog = other.showTextHexDialog
         this.useFileLinkCache = other.useFileLinkCache
+        this.persistFileLinkCache = other.persistFileLinkCache
+        this.warmUpLinkedFileCache = other.warmUpLinkedFileCache
+        this.incrementalLexerParse = other.incrementalLexerParse
+        this.parserTimeBudget = other.parserTimeBudget
+        this.backgroundLexerParse = other.backgroundLexerParse
+        this.lightStubTreeIndexing = other.lightStubTreeIndexing
+        this.indexingParserPurpose = other.indexingParserPurpose
+        this.cachedDataMemoryBudget = other.cachedDataMemoryBudget
 
         if (withExtensions) mySettingsExtensions.copyFrom(other)
     }
@@ -89,7 +105,15 @@ class MdDebugSettings(private val mySettingsExtensions: MdExtendableSettingsImpl
         StringAttribute("translateTo", true, { yandexToLanguage }, { yandexToLanguage = it }),
         StringAttribute("translateKey", true, { yandexKey }, { yandexKey = it }),
         BooleanAttribute("showTextHexDialog", { showTextHexDialog }, { showTextHexDialog = it }),
-        BooleanAttribute("useFileLinkCache", { useFileLinkCache }, { useFileLinkCache = it })
+        BooleanAttribute("useFileLinkCache", { useFileLinkCache }, { useFileLinkCache = it }),
+        BooleanAttribute("persistFileLinkCache", { persistFileLinkCache }, { persistFileLinkCache = it }),
+        BooleanAttribute("warmUpLinkedFileCache", { warmUpLinkedFileCache }, { warmUpLinkedFileCache = it }),
+        BooleanAttribute("incrementalLexerParse", { incrementalLexerParse }, { incrementalLexerParse = it }),
+        IntAttribute("parserTimeBudget", { parserTimeBudget }, { parserTimeBudget = it }),
+        BooleanAttribute("backgroundLexerParse", { backgroundLexerParse }, { backgroundLexerParse = it }),
+        BooleanAttribute("lightStubTreeIndexing", { lightStubTreeIndexing }, { lightStubTreeIndexing = it }),
+        BooleanAttribute("indexingParserPurpose", { indexingParserPurpose }, { indexingParserPurpose = it }),
+        IntAttribute("cachedDataMemoryBudget", { cachedDataMemoryBudget }, { cachedDataMemoryBudget = it })
     ))
 
     companion object {
@@ -116,6 +140,14 @@ class MdDebugSettings(private val mySettingsExtensions: MdExtendableSettingsImpl
         if (showSizePreferencesDialog != other.showSizePreferencesDialog) return false
         if (showTextHexDialog != other.showTextHexDialog) return false
         if (useFileLinkCache != other.useFileLinkCache) return false
+        if (persistFileLinkCache != other.persistFileLinkCache) return false
+        if (warmUpLinkedFileCache != other.warmUpLinkedFileCache) return false
+        if (incrementalLexerParse != other.incrementalLexerParse) return false
+        if (parserTimeBudget != other.parserTimeBudget) return false
+        if (backgroundLexerParse != other.backgroundLexerParse) return false
+        if (lightStubTreeIndexing != other.lightStubTreeIndexing) return false
+        if (indexingParserPurpose != other.indexingParserPurpose) return false
+        if (cachedDataMemoryBudget != other.cachedDataMemoryBudget) return false
 
         return mySettingsExtensions == other
     }
@@ -138,6 +170,14 @@ class MdDebugSettings(private val mySettingsExtensions: MdExtendableSettingsImpl
         result += 31 * result + showSizePreferencesDialog.hashCode()
         result += 31 * result + showTextHexDialog.hashCode()
         result += 31 * result + useFileLinkCache.hashCode()
+        result += 31 * result + persistFileLinkCache.hashCode()
+        result += 31 * result + warmUpLinkedFileCache.hashCode()
+        result += 31 * result + incrementalLexerParse.hashCode()
+        result += 31 * result + parserTimeBudget.hashCode()
+        result += 31 * result + backgroundLexerParse.hashCode()
+        result += 31 * result + lightStubTreeIndexing.hashCode()
+        result += 31 * result + indexingParserPurpose.hashCode()
+        result += 31 * result + cachedDataMemoryBudget.hashCode()
         return result
     }
 }
@@ -22,6 +22,8 @@ class MdDocumentSettings(private val mySettingsExtensions: MdExtendableSettingsI
     var htmlLangInjections: Boolean = true
     var iconGutters: Boolean = true
     var joinStripPrefix: Boolean = false
+    var largeFileSize: Int = DEFAULT_LARGE_FILE_SIZE // 0 to disable
+    var largeFileLineCount: Int = DEFAULT_LARGE_FILE_LINE_COUNT // 0 to disable
     var maxBreadcrumbText: Int = DEFAULT_MAX_BREADCRUMB_TEXT
     var multiLineImageUrlInjections: Boolean = true
     var previewScrollDelay: Int = DEFAULT_PREVIEW_DELAY
@@ -110,6 +112,8 @@ class MdDocumentSettings(private val mySettingsExtensions: MdExtendableSettingsI
         this.htmlLangInjections = other.htmlLangInjections
         this.iconGutters = other.iconGutters
         this.joinStripPrefix = other.joinStripPrefix
+        this.largeFileSize = other.largeFileSize
+        this.largeFileLineCount = other.largeFileLineCount
         this.maxBreadcrumbText = other.maxBreadcrumbText
         this.multiLineImageUrlInjections = other.multiLineImageUrlInjections
         this.myDocumentIcon = other.myDocumentIcon
@@ -160,6 +164,8 @@ class MdDocumentSettings(private val mySettingsExtensions: MdExtendableSettingsI
             BooleanAttribute("htmlLangInjections", { htmlLangInjections }, { htmlLangInjections = it }),
             BooleanAttribute("iconGutters", { iconGutters }, { iconGutters = it }),
             BooleanAttribute("joinStripPrefix", { joinStripPrefix }, { joinStripPrefix = it }),
+            IntAttribute("largeFileSize", { largeFileSize }, { largeFileSize = it }),
+            IntAttribute("largeFileLineCount", { largeFileLineCount }, { largeFileLineCount = it }),
             IntAttribute("maxBreadcrumbText", { maxBreadcrumbText }, { maxBreadcrumbText = it }),
             BooleanAttribute("multiLineImageUrlInjections", { multiLineImageUrlInjections }, { multiLineImageUrlInjections = it }),
             IntAttribute("previewScrollDelay", { previewScrollDelay }, { previewScrollDelay = it }),
@@ -209,6 +215,8 @@ class MdDocumentSettings(private val mySettingsExtensions: MdExtendableSettingsI
         const val DEFAULT_PREVIEW_DELAY: Int = 500
         const val MIN_PREVIEW_DELAY: Int = 50
         const val MAX_PREVIEW_DELAY: Int = 1000
+        const val DEFAULT_LARGE_FILE_SIZE: Int = 2 * 1024 * 1024
+        const val DEFAULT_LARGE_FILE_LINE_COUNT: Int = 50000
     }
 
     override fun equals(other: Any?): Boolean {
@@ -226,6 +234,8 @@ class MdDocumentSettings(private val mySettingsExtensions: MdExtendableSettingsI
         if (htmlLangInjections != other.htmlLangInjections) return false
         if (iconGutters != other.iconGutters) return false
         if (joinStripPrefix != other.joinStripPrefix) return false
+        if (largeFileSize != other.largeFileSize) return false
+        if (largeFileLineCount != other.largeFileLineCount) return false
         if (maxBreadcrumbText != other.maxBreadcrumbText) return false
         if (multiLineImageUrlInjections != other.multiLineImageUrlInjections) return false
         if (previewScrollDelay != other.previewScrollDelay) return false
@@ -269,6 +279,8 @@ class MdDocumentSettings(private val mySettingsExtensions: MdExtendableSettingsI
         result += 31 * result + htmlLangInjections.hashCode()
         result += 31 * result + iconGutters.hashCode()
         result += 31 * result + joinStripPrefix.hashCode()
+        result += 31 * result + largeFileSize.hashCode()
+        result += 31 * result + largeFileLineCount.hashCode()
         result += 31 * result + maxBreadcrumbText.hashCode()
         result += 31 * result + multiLineImageUrlInjections.hashCode()
         result += 31 * result + myDocumentIcon.hashCode()
@@ -4,13 +4,14 @@ package com.vladsch.md.nav.todo;
 import com.intellij.lexer.Lexer;
 import com.intellij.psi.impl.cache.impl.OccurrenceConsumer;
 import com.intellij.psi.impl.cache.impl.id.LexerBasedIdIndexer;
-import com.vladsch.md.nav.parser.MdLexParser;
+import com.vladsch.md.nav.parser.MdLexer;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
 import org.jetbrains.annotations.NotNull;
 
 public class MdIdIndexer extends LexerBasedIdIndexer {
 
     public static Lexer createIndexingLexer(OccurrenceConsumer consumer) {
-        return new MdFilterLexer(MdLexParser.createLexer(null), consumer);
+        return new MdFilterLexer(MdLexer.createIndexingLexer(MdRenderingProfile.getDEFAULT()), consumer);
     }
 
     @NotNull
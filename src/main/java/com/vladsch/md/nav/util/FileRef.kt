@@ -43,12 +43,12 @@ open class FileRef(fullPath: String, private val _virtualFile: VirtualFile?) : P
         if (wikiHomeDirEnd > 0) {
             val wikiHomeDirStart = this._fullPath.lastIndexOf('/', wikiHomeDirEnd)
             if (wikiHomeDirStart > 1) {
-                val wikiHomeDirName = this._fullPath.substring(wikiHomeDirStart + 1, wikiHomeDirEnd)
+                val wikiHomeDirNameLength = wikiHomeDirEnd - wikiHomeDirStart - 1
                 // now previous to start has to be the same directory
                 val mainRepoDirStart = this._fullPath.lastIndexOf('/', wikiHomeDirStart - 1)
                 if (mainRepoDirStart >= 0) {
-                    val mainRepoDirName = this._fullPath.substring(mainRepoDirStart + 1, wikiHomeDirStart)
-                    if (mainRepoDirName == wikiHomeDirName) {
+                    val mainRepoDirNameLength = wikiHomeDirStart - mainRepoDirStart - 1
+                    if (mainRepoDirNameLength == wikiHomeDirNameLength && this._fullPath.regionMatches(mainRepoDirStart + 1, this._fullPath, wikiHomeDirStart + 1, wikiHomeDirNameLength)) {
                         mainRepoDirEnd = wikiHomeDirStart
                         wikiHomeDirEnd += WIKI_HOME_DIR_EXTENSION.length
                     } else {
@@ -73,7 +73,7 @@ open class FileRef(fullPath: String, private val _virtualFile: VirtualFile?) : P
         get() = isUnderWikiDir && isWikiPageExt
 
     val isWikiHomePage: Boolean
-        get() = isWikiPage && WIKI_HOME_FILENAME == fileNameNoExt
+        get() = isWikiPage && fileNameNoExtEquals(WIKI_HOME_FILENAME)
 
     val wikiDir: String
         get() = if (_wikiHomeDirEnd <= 0) EMPTY_STRING else _fullPath.substring(0, _wikiHomeDirEnd)
@@ -5,7 +5,6 @@ import com.vladsch.md.nav.vcs.GitHubLinkResolver
 import com.vladsch.plugin.util.ifEmptyNullArgs
 import com.vladsch.plugin.util.splicer
 import com.vladsch.plugin.util.suffixWith
-import com.vladsch.plugin.util.urlDecode
 
 import java.util.*
 
@@ -129,12 +128,86 @@ open class LinkRef(val containingFile: FileRef, fullPath: String, anchorText: St
         // URL encode/decode handling
         @JvmStatic
         fun urlEncode(linkAddress: String, exclusionMap: Map<String, String>?): String {
-            return mapLinkChars(linkAddress, fileUrlMap, exclusionMap)
+            return mapLinkChars(linkAddress, fileUrlTable, exclusionMap)
         }
 
+        /**
+         * Decode URL encoded text, same result as URLDecoder.decode(linkAddress, "UTF-8")
+         *
+         * @param linkAddress text to decode
+         * @return decoded text, linkAddress if it has nothing to decode or is not a valid URL encoding
+         */
         @JvmStatic
         fun urlDecode(linkAddress: String): String {
-            return linkAddress.urlDecode()
+            val length = linkAddress.length
+            var i = 0
+
+            while (i < length) {
+                val c = linkAddress[i]
+                if (c == '%' || c == '+') break
+                i++
+            }
+
+            if (i == length) return linkAddress
+
+            val sb = StringBuilder(length)
+            sb.append(linkAddress, 0, i)
+            var bytes: ByteArray? = null
+
+            while (i < length) {
+                val c = linkAddress[i]
+                when (c) {
+                    '+' -> {
+                        sb.append(' ')
+                        i++
+                    }
+
+                    '%' -> {
+                        // consecutive escapes are decoded together as UTF-8 bytes
+                        val escapeBytes = bytes ?: ByteArray((length - i) / 3).also { bytes = it }
+                        var pos = 0
+
+                        while (i + 2 < length && linkAddress[i] == '%') {
+                            val value = escapeValue(linkAddress, i + 1)
+                            if (value < 0) return linkAddress
+                            escapeBytes[pos++] = value.toByte()
+                            i += 3
+                        }
+
+                        // incomplete trailing escape
+                        if (i < length && linkAddress[i] == '%') return linkAddress
+
+                        sb.append(String(escapeBytes, 0, pos, Charsets.UTF_8))
+                    }
+
+                    else -> {
+                        sb.append(c)
+                        i++
+                    }
+                }
+            }
+            return sb.toString()
+        }
+
+        private val HEX_DIGITS: IntArray = IntArray(128) { Character.digit(it, 16) }
+
+        private fun hexDigit(c: Char): Int {
+            return if (c.toInt() < HEX_DIGITS.size) HEX_DIGITS[c.toInt()] else Character.digit(c, 16)
+        }
+
+        // value of the two chars after %, -1 if not valid, accepts the same text as Integer.parseInt(text, 16)
+        private fun escapeValue(text: String, index: Int): Int {
+            val digit = hexDigit(text[index + 1])
+            if (digit < 0) return -1
+
+            return when (val c = text[index]) {
+                '+' -> digit
+                '-' -> if (digit == 0) 0 else -1
+                else -> {
+                    val highDigit = hexDigit(c)
+                    if (highDigit < 0) -1 else highDigit * 16 + digit
+                }
+            }
         }
 
         // prepare text for matching files, wrap in (?:) so matches as a block
@@ -143,6 +216,62 @@ open class LinkRef(val containingFile: FileRef, fullPath: String, anchorText: St
             return "(?:\\Q$linkText\\E)"
         }
 
+        // single char strings of ASCII chars, to look up exclusion map keys without allocating
+        private val ASCII_CHAR_STRINGS: Array<String> = Array(128) { it.toChar().toString() }
+
+        /**
+         * Create lookup table for [mapLinkChars] from a char map
+         *
+         * Chars are mapped in one pass so no replacement text can contain a char mapped after it
+         *
+         * @param charMap map of single ASCII char strings to their replacement text
+         * @return table of replacement text indexed by char
+         */
+        @JvmStatic
+        fun linkCharTable(charMap: Map<String, String>): Array<String?> {
+            val charTable = arrayOfNulls<String>(128)
+            for (pair in charMap) {
+                require(pair.key.length == 1 && pair.key[0].toInt() < charTable.size) { "Only single ASCII char keys can be mapped by table: \"${pair.key}\"" }
+                charTable[pair.key[0].toInt()] = pair.value
+            }
+            return charTable
+        }
+
+        private fun mappedChar(c: Char, charTable: Array<String?>, exclusionMap: Map<String, String>?): String? {
+            if (c.toInt() >= charTable.size) return null
+            val mapped = charTable[c.toInt()] ?: return null
+            return if (exclusionMap != null && exclusionMap.containsKey(ASCII_CHAR_STRINGS[c.toInt()])) null else mapped
+        }
+
+        /**
+         * Map chars in one pass using a table created by [linkCharTable]
+         *
+         * @param linkAddress  text to map
+         * @param charTable    replacement text for chars
+         * @param exclusionMap chars which are not to be mapped, keyed by char string, or null
+         * @return mapped text, linkAddress if no chars were mapped
+         */
+        @JvmStatic
+        fun mapLinkChars(linkAddress: String, charTable: Array<String?>, exclusionMap: Map<String, String>?): String {
+            val length = linkAddress.length
+            var i = 0
+
+            while (i < length && mappedChar(linkAddress[i], charTable, exclusionMap) == null) i++
+
+            if (i == length) return linkAddress
+
+            val sb = StringBuilder(length + 16)
+            sb.append(linkAddress, 0, i)
+
+            while (i < length) {
+                val c = linkAddress[i++]
+                val mapped = mappedChar(c, charTable, exclusionMap)
+                if (mapped == null) sb.append(c)
+                else sb.append(mapped)
+            }
+            return sb.toString()
+        }
+
         @JvmStatic
         fun mapLinkChars(linkAddress: String, charMap: Map<String, String>, exclusionMap: Map<String, String>?): String {
             var result = linkAddress
@@ -220,6 +349,8 @@ open class LinkRef(val containingFile: FileRef, fullPath: String, anchorText: St
             Pair("}", "%7D")
         )
 
+        private val fileUrlTable: Array<String?> = linkCharTable(fileUrlMap)
+
         // char in file name to link map
         @JvmField
         val gitBookFileUrlExclusionsMap: Map<String, String> = mapOf(
@@ -344,7 +475,7 @@ open class WikiLinkRef(containingFile: FileRef, fullPath: String, anchor: String
 
         // convert link to file name, usually url decode
         @JvmStatic
-        fun linkAsFile(linkAddress: String): String = mapLinkCharsRegex(linkAddress, wikiLinkRegexMap)
+        fun linkAsFile(linkAddress: String): String = mapLinkChars(linkAddress, wikiLinkTable, null)
 
         // prepare text for matching files, wrap in (?:) so matches as a block
         @JvmStatic
@@ -365,6 +496,8 @@ open class WikiLinkRef(containingFile: FileRef, fullPath: String, anchor: String
             //                Pair(">", "-")
         )
 
+        private val wikiLinkTable: Array<String?> = linkCharTable(wikiLinkMap)
+
         // GitHub Wiki Change: No longer true
         //        val wikiLinkMatchRegex = "-| |\\+|>|<|/".toRegex()
         val wikiLinkMatchRegex: Regex = "-| |\\+|/".toRegex()
@@ -0,0 +1,100 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.util
+
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bounded cache of compiled regular expressions, keyed by pattern text and options
+ *
+ * Link matching builds the same pattern text for every resolve of a link and the same wiki link patterns for every
+ * reference search, compiling these dominates short resolves. Least recently used patterns are dropped when the
+ * cache is full. Invalid patterns are not cached, [PatternSyntaxException][java.util.regex.PatternSyntaxException] is
+ * thrown on every request.
+ */
+object MdRegexCache {
+    const val MAX_PATTERNS = 1024
+
+    private data class PatternKey(val pattern: String, val options: Set<RegexOption>)
+
+    private val patterns = object : LinkedHashMap<PatternKey, Regex>(256, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<PatternKey, Regex>?): Boolean {
+            return size > MAX_PATTERNS
+        }
+    }
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    @JvmStatic
+    fun regex(pattern: String): Regex {
+        return regex(pattern, emptySet())
+    }
+
+    @JvmStatic
+    fun regex(pattern: String, option: RegexOption): Regex {
+        return regex(pattern, setOf(option))
+    }
+
+    @JvmStatic
+    fun regex(pattern: String, options: Set<RegexOption>): Regex {
+        val key = PatternKey(pattern, options)
+
+        synchronized(patterns) {
+            val regex = patterns[key]
+            if (regex != null) {
+                hits.incrementAndGet()
+                return regex
+            }
+        }
+
+        // compiled outside the lock, concurrent requests for the same pattern may compile it more than once
+        misses.incrementAndGet()
+        val regex = Regex(pattern, options)
+
+        synchronized(patterns) {
+            patterns[key] = regex
+        }
+        return regex
+    }
+
+    @JvmStatic
+    val hitCount: Long get() = hits.get()
+
+    @JvmStatic
+    val missCount: Long get() = misses.get()
+
+    /**
+     * @return ratio of requests which did not compile their pattern, 0 if there were no requests
+     */
+    @JvmStatic
+    val hitRate: Double
+        get() {
+            val hitCount = hits.get()
+            val total = hitCount + misses.get()
+            return if (total == 0L) 0.0 else hitCount.toDouble() / total
+        }
+
+    @JvmStatic
+    val size: Int
+        get() = synchronized(patterns) { patterns.size }
+
+    @JvmStatic
+    fun resetCounters() {
+        hits.set(0)
+        misses.set(0)
+    }
+
+    @JvmStatic
+    fun clear() {
+        synchronized(patterns) {
+            patterns.clear()
+        }
+    }
+
+    @JvmStatic
+    fun getStatistics(): String {
+        return String.format("MdRegexCache patterns: %d, hits: %d, misses: %d, hit rate: %.1f%%", size, hitCount, missCount, hitRate * 100)
+    }
+}
@@ -78,7 +78,7 @@ open class PathInfo(fullPath: String) : Comparable<PathInfo> {
         get() = if (_nameStart == 0 && _nameEnd.min(_queryStart) >= _fullPath.length) _fullPath else _fullPath.substring(_nameStart, _nameEnd.min(_queryStart))
 
     val ext: String
-        get() = if (_nameEnd + 1 >= _fullPath.length) EMPTY_STRING else _fullPath.substring(_nameEnd + 1, _queryStart)
+        get() = if (_nameEnd + 1 >= _fullPath.length) EMPTY_STRING else internedExt(_fullPath, _nameEnd + 1, _queryStart) ?: _fullPath.substring(_nameEnd + 1, _queryStart)
 
     val extWithDot: String
         get() = if (_nameEnd >= _fullPath.length) EMPTY_STRING else _fullPath.substring(_nameEnd, _queryStart)
@@ -95,16 +95,45 @@ open class PathInfo(fullPath: String) : Comparable<PathInfo> {
     val hasQuery: Boolean
         get() = _queryStart < _fullPath.length
 
-    fun isExtIn(ignoreCase: Boolean = true, vararg extList: String): Boolean = isExtIn(ext, ignoreCase, *extList)
+    // NOTE: comparisons of path parts below are done in place, without extracting the parts, use these on hot paths
+
+    private val extStart: Int
+        get() = if (_nameEnd + 1 >= _fullPath.length) 0 else _nameEnd + 1
+
+    private val extEnd: Int
+        get() = if (_nameEnd + 1 >= _fullPath.length) 0 else _queryStart
+
+    private val fileNameNoExtEnd: Int
+        get() = _nameEnd.min(_queryStart)
+
+    private fun regionEquals(start: Int, end: Int, other: String, otherStart: Int, otherEnd: Int, ignoreCase: Boolean): Boolean {
+        val length = end - start
+        return length >= 0 && length == otherEnd - otherStart && _fullPath.regionMatches(start, other, otherStart, length, ignoreCase)
+    }
+
+    fun extEquals(ext: String, ignoreCase: Boolean = false): Boolean = regionEquals(extStart, extEnd, ext, 0, ext.length, ignoreCase)
+
+    fun extEquals(other: PathInfo, ignoreCase: Boolean = false): Boolean = regionEquals(extStart, extEnd, other._fullPath, other.extStart, other.extEnd, ignoreCase)
+
+    fun fileNameNoExtEquals(fileNameNoExt: String, ignoreCase: Boolean = false): Boolean = regionEquals(_nameStart, fileNameNoExtEnd, fileNameNoExt, 0, fileNameNoExt.length, ignoreCase)
+
+    fun fileNameNoExtEquals(other: PathInfo, ignoreCase: Boolean = false): Boolean = regionEquals(_nameStart, fileNameNoExtEnd, other._fullPath, other._nameStart, other.fileNameNoExtEnd, ignoreCase)
+
+    fun isExtIn(ignoreCase: Boolean = true, vararg extList: String): Boolean {
+        for (listExt in extList) {
+            if (extEquals(listExt, ignoreCase)) return true
+        }
+        return false
+    }
 
     val isImageExt: Boolean
-        get() = hasExt && isImageExt(ext)
+        get() = hasExt && isExtIn(true, *IMAGE_EXTENSIONS)
 
     val isMarkdownExt: Boolean
-        get() = hasExt && isMarkdownExt(ext)
+        get() = hasExt && isExtIn(true, *MARKDOWN_EXTENSIONS)
 
     val isWikiPageExt: Boolean
-        get() = hasExt && isWikiPageExt(ext)
+        get() = hasExt && isExtIn(true, *WIKI_PAGE_EXTENSIONS)
 
     fun contains(c: Char, ignoreCase: Boolean = false): Boolean {
         return _fullPath.contains(c, ignoreCase)
@@ -263,6 +292,10 @@ open class PathInfo(fullPath: String) : Comparable<PathInfo> {
         @JvmField
         val WIKI_PAGE_EXTENSIONS: Array<String> = MdFileType.EXTENSIONS
 
+        // extensions returned by ext without allocating a new string
+        @JvmField
+        val INTERNED_EXTENSIONS: Array<String> = arrayOf(*MARKDOWN_EXTENSIONS, *IMAGE_EXTENSIONS, "txt", "html", "htm", "java", "kt", "js", "json", "xml", "yml", "yaml", "PNG", "JPG")
+
         @JvmField
         val URL_PREFIXES: Array<String> = arrayOf("http://", "https://")
 
@@ -381,26 +414,27 @@ open class PathInfo(fullPath: String) : Comparable<PathInfo> {
 
         @JvmStatic
         fun <T : PathInfo> appendParts(fullPath: String?, parts: Collection<String>, construct: (fullPath: String) -> T): T {
-            var path: String = cleanFullPath(fullPath)
+            val path = StringBuilder(cleanFullPath(fullPath))
 
             for (mainPart in parts) {
                 @Suppress("NAME_SHADOWING")
                 val mainPart = mainPart.replace('\\', '/')
                 for (part in mainPart.split('/')) {
-                    var cleanPart = part.removePrefix("/").removeSuffix("/")
-                    if (cleanPart != "..") cleanPart = cleanPart.removeSuffix(".")
+                    val cleanPart = if (part != "..") part.removeSuffix(".") else part
 
-                    if (cleanPart !in arrayOf("", ".")) {
+                    if (cleanPart.isNotEmpty() && cleanPart != ".") {
                         if (cleanPart == "..") {
-                            path = PathInfo(path).path.removeSuffix("/")
+                            val parentPath = PathInfo(path.toString()).path.removeSuffix("/")
+                            path.setLength(0)
+                            path.append(parentPath)
                         } else {
-                            if (path.isEmpty() || !path.endsWith('/')) path += '/'
-                            path += cleanPart
+                            if (path.isEmpty() || path[path.length - 1] != '/') path.append('/')
+                            path.append(cleanPart)
                         }
                     }
                 }
             }
-            return construct(path)
+            return construct(path.toString())
         }
 
         @JvmStatic
@@ -424,6 +458,15 @@ open class PathInfo(fullPath: String) : Comparable<PathInfo> {
             }
         }
 
+        @JvmStatic
+        fun internedExt(path: String, start: Int, end: Int): String? {
+            val length = end - start
+            for (ext in INTERNED_EXTENSIONS) {
+                if (ext.length == length && path.regionMatches(start, ext, 0, length, false)) return ext
+            }
+            return null
+        }
+
         @JvmStatic
         fun isExtIn(ext: String, ignoreCase: Boolean = true, vararg extList: String): Boolean {
             for (listExt in extList) {
@@ -444,8 +487,20 @@ open class PathInfo(fullPath: String) : Comparable<PathInfo> {
         @JvmStatic
         fun removeDotDirectory(path: CharSequence?): String = path?.toString().orEmpty().replace("/./", "/").removePrefix("./")
 
+        @JvmStatic
+        fun isCleanPath(path: String): Boolean {
+            if (path.isEmpty()) return true
+
+            val last = path[path.length - 1]
+            return !path[0].isWhitespace() && !last.isWhitespace() && last != '.' && (last != '/' || path.length == 1)
+                && path.indexOf('\\') < 0 && !path.startsWith("./") && !path.contains("/./")
+        }
+
         @JvmStatic
         fun cleanFullPath(fullPath: CharSequence?): String {
+            // most paths are already clean, these are returned without creating intermediate strings
+            if (fullPath is String && isCleanPath(fullPath)) return fullPath
+
             var cleanPath = removeDotDirectory(fullPath?.trim()).replace('\\', '/')
             if (!cleanPath.endsWith("//") && cleanPath != "/") cleanPath = cleanPath.removeSuffix("/")
             return cleanPath.removeSuffix(".")
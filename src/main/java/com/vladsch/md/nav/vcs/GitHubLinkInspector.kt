@@ -87,7 +87,7 @@ class GitHubLinkInspector(val resolver: GitHubLinkResolver) {
                     addResult(InspectionResult(null, ID_CASE_MISMATCH, Severity.WARNING, linkAddress, targetRef.path.suffixWith('/') + linkRef.linkToFile(linkRef.fileNameNoExt) + targetRef.ext.prefixWith('.')))
                 }
             } else {
-                if (linkAddressLocal.isEmpty() && linkRef.fileNameNoExt.equals(targetRef.fileNameNoExt, ignoreCase = true) && !linkRef.fileNameNoExt.equals(targetRef.fileNameNoExt, ignoreCase = false)
+                if (linkAddressLocal.isEmpty() && linkRef.fileNameNoExtEquals(targetRef, ignoreCase = true) && !linkRef.fileNameNoExtEquals(targetRef, ignoreCase = false)
                     || linkRef.filePath.equals(linkAddressLocal, ignoreCase = true) && !linkRef.filePath.equals(linkAddressLocal, ignoreCase = false)) {
                     val fixedPath = targetRef.path.suffixWith('/') + linkRef.linkToFile(linkRef.fileNameNoExt) + linkRef.ext.ifEmpty(targetRef.ext).prefixWith('.')
                     // CAUTION: no fixed file name provided if the case mismatch is in the path not the file name
@@ -105,7 +105,7 @@ class GitHubLinkInspector(val resolver: GitHubLinkResolver) {
                     addResult(InspectionResult(null, ID_LINK_NEEDS_EXT, Severity.ERROR, linkAddress, null))
                 }
 
-                if (linkRef.ext != targetRef.ext) {
+                if (!linkRef.extEquals(targetRef)) {
                     addResult(InspectionResult(null, ID_LINK_HAS_BAD_EXT, Severity.ERROR, linkAddress, null))
                 }
 
@@ -144,14 +144,14 @@ class GitHubLinkInspector(val resolver: GitHubLinkResolver) {
                     if (resolver.wasAnchorUsedInMatch(linkRef, targetRef)) {
                         // resolves to raw
                         addResult(InspectionResult(null, ID_LINK_TARGETS_WIKI_HAS_EXT, Severity.WARNING, linkAddressNoExt, null))
-                        if (anchorInfo.ext != targetRef.ext) {
+                        if (!anchorInfo.extEquals(targetRef)) {
                             addResult(InspectionResult(null, ID_LINK_TARGETS_WIKI_HAS_BAD_EXT, Severity.ERROR, linkAddress, null))
                         }
                     }
                 } else if (linkRef.isWikiPageExt && !resolver.wasAnchorUsedInMatch(linkRef, targetRef)) {
                     // resolves to raw
                     addResult(InspectionResult(null, ID_LINK_TARGETS_WIKI_HAS_EXT, Severity.WARNING, linkAddressNoExt, null))
-                    if (linkRef.ext != targetRef.ext) {
+                    if (!linkRef.extEquals(targetRef)) {
                         addResult(InspectionResult(null, ID_LINK_TARGETS_WIKI_HAS_BAD_EXT, Severity.ERROR, linkAddress, null))
                     }
                 }
@@ -192,11 +192,11 @@ class GitHubLinkInspector(val resolver: GitHubLinkResolver) {
             // check for all links and annotator will make sure it is image or reference
             // see if it is pointed at the raw/ or blob/ branch
             if (linkRef.containingFile.isWikiPage && !originalLinkRef.isURI) {
-                if (!linkRef.filePath.equals(linkAddressLocal, ignoreCase = true) && linkRef.filePath.replace("\\bblob/".toRegex(), "raw/").equals(linkAddressLocal, ignoreCase = true)) {
+                if (!linkRef.filePath.equals(linkAddressLocal, ignoreCase = true) && linkRef.filePath.replace(MdRegexCache.regex("\\bblob/"), "raw/").equals(linkAddressLocal, ignoreCase = true)) {
                     addResult(InspectionResult(null, ID_IMAGE_TARGET_NOT_IN_RAW, Severity.WARNING, linkAddress, null))
                 }
             } else if (originalLinkRef !is WikiLinkRef && originalLinkRef.isURL && originalLinkRef.isImageExt) {
-                if (!originalLinkRef.filePath.equals(linkAddressRemoteRaw, ignoreCase = true) && originalLinkRef.filePath.replace("\\bblob/".toRegex(), "raw/").equals(linkAddressRemoteRaw, ignoreCase = true)) {
+                if (!originalLinkRef.filePath.equals(linkAddressRemoteRaw, ignoreCase = true) && originalLinkRef.filePath.replace(MdRegexCache.regex("\\bblob/"), "raw/").equals(linkAddressRemoteRaw, ignoreCase = true)) {
                     addResult(InspectionResult(null, ID_IMAGE_TARGET_NOT_IN_RAW, Severity.WARNING, linkAddressRemoteRaw, null))
                 }
             }
@@ -151,7 +151,7 @@ open class GitHubLinkMatcher(val projectResolver: MdLinkResolver.ProjectResolver
     fun patternRegex(looseMatch: Boolean): Regex? {
         computeMatchText(wasURI = false, wasRepoRel = false)
         if (isOnlyCompletionMatchValid && !looseMatch) return null
-        return (if (looseMatch) linkLooseMatch else linkAllMatch)?.toRegex(RegexOption.IGNORE_CASE)
+        return (if (looseMatch) linkLooseMatch else linkAllMatch)?.let { MdRegexCache.regex(it, RegexOption.IGNORE_CASE) }
     }
 
     @Suppress("UNUSED_PARAMETER")
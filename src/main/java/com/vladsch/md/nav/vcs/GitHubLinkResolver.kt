@@ -30,6 +30,7 @@ import com.vladsch.md.nav.util.*
 import com.vladsch.plugin.util.*
 import icons.MdIcons
 import java.util.*
+import java.util.function.BiConsumer
 import java.util.regex.Pattern
 import javax.swing.Icon
 import kotlin.collections.ArrayList
@@ -48,6 +49,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
 
     companion object {
         private val LOG_CACHE_DETAIL = IndentingLogger.LOG_COMPUTE_DETAIL
+        private val LOG_MATCH = com.intellij.openapi.diagnostic.Logger.getInstance("com.vladsch.md.nav.github.matcher")
 
         const val GITHUB_BLOB_NAME: String = "blob"
         const val GITHUB_FORK_NAME: String = "fork"
@@ -148,7 +150,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
                 url.startsWith("https://raw.githubusercontent.com/") -> MdIcons.LinkTypes.GitHub
                 url.startsWith("http://raw.githubusercontent.com/") -> MdIcons.LinkTypes.GitHub
                 url.startsWith("mailto:") -> MdIcons.LinkTypes.Mail
-                url.matches("^.+@.+\\.\\+$".toRegex()) -> MdIcons.LinkTypes.Mail
+                url.matches(MdRegexCache.regex("^.+@.+\\.\\+$")) -> MdIcons.LinkTypes.Mail
                 PathInfo.isURL(url) -> MdIcons.LinkTypes.Web
                 PathInfo.isCustomURI(url) -> MdIcons.LinkTypes.CustomUri
                 else -> {
@@ -165,7 +167,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
         if (linkRef.isRelative || linkRef.isRepoRelative) {
             // should be a github link or unresolved
             for (link in GITHUB_NON_FILE_LINKS) {
-                if (linkRef.filePath.matches("^.*../$link\\b.*$".toRegex())) {
+                if (linkRef.filePath.matches(MdRegexCache.regex("^.*../$link\\b.*$"))) {
                     val resolved = resolve(linkRef, Want(Local.NONE, Remote.NONE, Links.URL), null)
                     if (resolved is LinkRef) linkRef = resolved
                     break
@@ -193,6 +195,11 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
 
     private var matcher: GitHubLinkMatcher? = null
 
+    // candidate project files shared by links resolved in a batch, keyed by file name index lookup
+    private data class CandidateKey(val candidateNames: List<String>?, val wikiMatchingRules: Boolean, val targetFileTypes: Set<FileType>)
+
+    private var batchCandidates: HashMap<CandidateKey, List<VirtualFile>>? = null
+
     val renderingProfile: MdRenderingProfile by lazy {
         renderingProfile ?: MdRenderingProfileManager.getInstance(project).getRenderingProfile(containingFile.virtualFile)
     }
@@ -577,6 +584,32 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
         return getMatchedRefs(relLink, null, opts, inList)
     }
 
+    /**
+     * Resolve links of the containing file in one pass
+     *
+     * Links with the same file name, target file types and match rules share one project file candidate lookup,
+     * each link is then matched against its group's candidates. Results are the same as those of [multiResolve].
+     *
+     * @param linkRefs  links of the containing file
+     * @param options   resolve options, same as for [multiResolve]
+     * @param consumer  called with each link and its resolved targets, in order of links
+     */
+    fun multiResolveAll(linkRefs: Collection<LinkRef>, options: Int, consumer: BiConsumer<LinkRef, List<PathInfo>>) {
+        val savedCandidates = batchCandidates
+        if (savedCandidates == null) batchCandidates = HashMap()
+
+        try {
+            for (linkRef in linkRefs) {
+                consumer.accept(linkRef, multiResolve(linkRef, options, null))
+            }
+        } finally {
+            if (savedCandidates == null) {
+                LOG_MATCH.debug { "multiResolveAll ${linkRefs.size} links, candidate groups: ${batchCandidates?.size}" }
+                batchCandidates = null
+            }
+        }
+    }
+
     // FIX: change this to take an exact resolve list and a loose matched list so that
     // all types of issues could be analyzed, not just based on single target
     override fun inspect(linkRef: LinkRef, targetRef: FileRef, referenceId: Any?): List<InspectionResult> {
@@ -749,6 +782,34 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
         }
     }
 
+    /**
+     * File names or name prefixes for [MdProjectFileNameIndex] lookup of files which can match the link
+     *
+     * @return list of prefixes of file name index keys, null if any file can match
+     */
+    private fun getCandidateFileNames(linkRef: LinkRef, linkMatcher: GitHubLinkMatcher, options: Int): List<String>? {
+        val fileName = linkMatcher.fileName
+
+        if (linkMatcher.isCompletionMatch) return null
+        if (!linkMatcher.wikiMatchingRules) return listOf(fileName)
+        if (fileName.isEmpty() || wantCompletionMatch(options)) return null
+
+        if (linkRef is WikiLinkRef) {
+            // wiki link separators also match sub-directories, a sub-directory can start after any separator
+            val fileNameKey = MdProjectFileNameIndex.nameKey(linkMatcher.linkRef.filePathNoExt.trim())
+            val names = ArrayList<String>()
+            names.add(fileNameKey)
+
+            var pos = fileNameKey.indexOf('-')
+            while (pos >= 0) {
+                if (pos + 1 < fileNameKey.length) names.add(fileNameKey.substring(pos + 1))
+                pos = fileNameKey.indexOf('-', pos + 1)
+            }
+            return names
+        }
+        return listOf(fileName)
+    }
+
     fun getMatchedRefs(linkRef: LinkRef, linkMatcher: GitHubLinkMatcher?, options: Int, fromList: List<PathInfo>?): List<PathInfo> {
         assert(linkRef.isNormalized)
 
@@ -770,15 +831,15 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
 
         // FIX: need to have a flag or to modify the regex to exclude wiki matches when exact matching in the repo
         val allMatchWiki =
-            if (wantLooseMatch(options)) linkLooseMatch.toRegex(RegexOption.IGNORE_CASE)
-            else if (wantCompletionMatch(options)) linkCompletionMatch.toRegex(RegexOption.IGNORE_CASE)
-            else if (linkMatcher.wikiMatchingRules) linkAllMatch.toRegex(RegexOption.IGNORE_CASE)
-            else linkMatcher.linkFileMatch!!.toRegex()
+            if (wantLooseMatch(options)) MdRegexCache.regex(linkLooseMatch, RegexOption.IGNORE_CASE)
+            else if (wantCompletionMatch(options)) MdRegexCache.regex(linkCompletionMatch, RegexOption.IGNORE_CASE)
+            else if (linkMatcher.wikiMatchingRules) MdRegexCache.regex(linkAllMatch, RegexOption.IGNORE_CASE)
+            else MdRegexCache.regex(linkMatcher.linkFileMatch!!)
 
         val allMatchNonWiki =
             if (wantLooseMatch(options)) allMatchWiki
             else if (wantCompletionMatch(options)) allMatchWiki
-            else if (linkMatcher.wikiMatchingRules) linkAllMatch.toRegex()
+            else if (linkMatcher.wikiMatchingRules) MdRegexCache.regex(linkAllMatch)
             else allMatchWiki
 
         val fixedPrefix = linkMatcher.fixedPrefix
@@ -830,40 +891,88 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
                     var triedQuickMatch: Long = 0
                     var triedPrefixMatch: Long = 0
                     var triedMatch: Long = 0
-                    for (type in targetFileTypes) {
-                        FileTypeIndex.processFiles(type, { virtualFile ->
-                            //println("checking file type: $type, path: ${virtualFile.path}")
-                            val fileName = virtualFile.name
+
+                    val matchCandidate = { virtualFile: VirtualFile ->
+                        // NOTE: virtual file path is built on every call
+                        val filePath = virtualFile.path
+                        triedPrefixMatch++
+                        if (filePath.startsWith(fixedPrefix)) {
+                            triedMatch++
+                            if (filePath.matches(matchPattern)) {
+                                val fileRef = ProjectFileRef(virtualFile, project)
+                                val newFileRef = if (rawGitHubLink) FileRef(fileRef) else fileRef
+                                if (rawGitHubLink) newFileRef.isRawFile = true
+                                matches.add(newFileRef)
+                            }
+                        }
+                    }
+
+                    // completion matches can match any file name, all others match files whose name starts with the link's file name:
+                    // case sensitive for repo links, not case sensitive and with wiki separators for wiki matching rules
+                    val candidateNames = getCandidateFileNames(linkRef, linkMatcher, options)
+                    val candidateKey = CandidateKey(candidateNames, linkMatcher.wikiMatchingRules, targetFileTypes)
+                    val batchFiles = batchCandidates?.get(candidateKey)
+
+                    if (batchFiles != null) {
+                        // another link of the batch did the lookup
+                        for (virtualFile in batchFiles) {
                             triedQuickMatch++
-                            if (completionMatch || linkMatcher.wikiMatchingRules || fileName.length == fileNameNoDot.length && fileName == fileNameNoDot || fileName.length >= fileNameDot.length && fileName.startsWith(fileNameDot)) {
-                                triedPrefixMatch++
-                                if (virtualFile.path.startsWith(fixedPrefix)) {
-                                    triedMatch++
-                                    if (virtualFile.path.matches(matchPattern)) {
-                                        val fileRef = ProjectFileRef(virtualFile, project)
-                                        val newFileRef = if (rawGitHubLink) FileRef(fileRef) else fileRef
-                                        if (rawGitHubLink) newFileRef.isRawFile = true
-                                        matches.add(newFileRef)
+                            matchCandidate(virtualFile)
+                        }
+                    } else if (candidateNames == null) {
+                        val candidates = if (batchCandidates != null) ArrayList<VirtualFile>() else null
+
+                        for (type in targetFileTypes) {
+                            FileTypeIndex.processFiles(type, { virtualFile ->
+                                triedQuickMatch++
+                                candidates?.add(virtualFile)
+                                matchCandidate(virtualFile)
+                                true
+                            }, projectScope)
+                        }
+
+                        if (candidates != null) batchCandidates?.put(candidateKey, candidates)
+                    } else {
+                        val candidates = LinkedHashSet<VirtualFile>()
+                        val fileNameIndex = MdProjectFileNameIndex.getInstance(project)
+
+                        for (candidateName in candidateNames) {
+                            fileNameIndex.processFiles(candidateName, true) { virtualFile ->
+                                val fileName = virtualFile.name
+                                triedQuickMatch++
+                                if (linkMatcher.wikiMatchingRules || fileName.length == fileNameNoDot.length && fileName == fileNameNoDot || fileName.length >= fileNameDot.length && fileName.startsWith(fileNameDot)) {
+                                    if (virtualFile.fileType in targetFileTypes && projectScope.contains(virtualFile)) {
+                                        candidates.add(virtualFile)
                                     }
                                 }
+                                true
                             }
-                            true
-                        }, projectScope)
-
-                        if (includeNoExtFiles && type == PlainTextFileType.INSTANCE) {
-                            // #741, links
-                            // add plain text marked files, these do not show up as original extension or as plain text indexed
-                            val projectPlainTextFileTypeManager: ProjectPlainTextFileTypeManager? = ProjectPlainTextFileTypeManager.getInstance(project)
-                            if (projectPlainTextFileTypeManager != null) {
-                                for (virtualFile in projectPlainTextFileTypeManager.files) {
-                                    val fileName = virtualFile.name
-                                    triedQuickMatch++
-                                    if (completionMatch || linkMatcher.wikiMatchingRules || fileName.length == fileNameNoDot.length && fileName == fileNameNoDot || fileName.length >= fileNameDot.length && fileName.startsWith(fileNameDot)) {
-                                        triedPrefixMatch++
-                                        if (virtualFile.path.startsWith(fixedPrefix)) {
-                                            triedMatch++
-                                            if (virtualFile.path.matches(matchPattern)) {
-                                                val fileRef = ProjectFileRef(virtualFile, project)
+                        }
+
+                        batchCandidates?.put(candidateKey, ArrayList(candidates))
+
+                        for (virtualFile in candidates) {
+                            matchCandidate(virtualFile)
+                        }
+                    }
+
+                    if (includeNoExtFiles && PlainTextFileType.INSTANCE in targetFileTypes) {
+                        // #741, links
+                        // add plain text marked files, these do not show up as original extension or as plain text indexed
+                        val projectPlainTextFileTypeManager: ProjectPlainTextFileTypeManager? = ProjectPlainTextFileTypeManager.getInstance(project)
+                        if (projectPlainTextFileTypeManager != null) {
+                            for (virtualFile in projectPlainTextFileTypeManager.files) {
+                                val fileName = virtualFile.name
+                                triedQuickMatch++
+                                if (completionMatch || linkMatcher.wikiMatchingRules || fileName.length == fileNameNoDot.length && fileName == fileNameNoDot || fileName.length >= fileNameDot.length && fileName.startsWith(fileNameDot)) {
+                                    triedPrefixMatch++
+                                    val filePath = virtualFile.path
+                                    if (filePath.startsWith(fixedPrefix)) {
+                                        triedMatch++
+                                        if (filePath.matches(matchPattern)) {
+                                            val fileRef = ProjectFileRef(virtualFile, project)
+                                            // NOTE: file name index candidates include marked files
+                                            if (!matches.contains(fileRef)) {
                                                 val newFileRef = if (rawGitHubLink) FileRef(fileRef) else fileRef
                                                 if (rawGitHubLink) newFileRef.isRawFile = true
                                                 matches.add(newFileRef)
@@ -877,31 +986,27 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
 
                     // need to try all directories under the project tree and modules because without loose matching does not get any hits
                     if (includeDirsInCompletion && includeNoExtFiles && !rawGitHubLink) {
-                        // create a list of directories by removing file name from collected files
-                        val projectDirectories = MdLinkResolverManager.getInstance(project).getProjectDirectories()
-
-                        // NOTE: the returned array has nulls so should be checked.
-                        for (virtualFile: VirtualFile? in projectDirectories) {
-                            virtualFile ?: continue
-
+                        // only directories under the fixed prefix can match
+                        MdLinkResolverManager.getInstance(project).processProjectDirectories(fixedPrefix) { virtualFile ->
                             val fileName = virtualFile.name
                             triedQuickMatch++
                             if (completionMatch || linkMatcher.wikiMatchingRules || fileName.length == fileNameNoDot.length && fileName == fileNameNoDot || fileName.length >= fileNameDot.length && fileName.startsWith(fileNameDot)) {
                                 triedPrefixMatch++
-                                if (virtualFile.path.startsWith(fixedPrefix)) {
-                                    triedMatch++
-                                    if (virtualFile.path.matches(matchPattern)) {
-                                        val fileRef = ProjectFileRef(virtualFile, project)
-                                        if (!fileRef.isUnderWikiDir) {
-                                            if (!matches.contains(fileRef)) {
-                                                matches.add(fileRef)
-                                            }
+                                triedMatch++
+                                if (virtualFile.path.matches(matchPattern)) {
+                                    val fileRef = ProjectFileRef(virtualFile, project)
+                                    if (!fileRef.isUnderWikiDir) {
+                                        if (!matches.contains(fileRef)) {
+                                            matches.add(fileRef)
                                         }
                                     }
                                 }
                             }
+                            true
                         }
                     }
+
+                    LOG_MATCH.debug { "getMatchedRefs ${linkRef.filePath} candidates: $triedQuickMatch, name matched: $triedPrefixMatch, regex tested: $triedMatch, matched: ${matches.size}" }
                 }
             } else {
                 // filter from a pre-created list, used to get looseMatch, then from that list get exact matches
@@ -946,7 +1051,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
                     // these match raw file content
                     // case sensitive: linkFileMatch = "^$fixedPrefix$filenamePattern$"
                     // case sensitive: linkFileAnchorMatch = "^$fixedPrefix$filenamePattern$anchorPattern$"
-                    val fileOrAnchorMatch = (if (linkMatcher.linkFileAnchorMatch == null) linkMatcher.linkFileMatch else linkMatcher.linkFileMatch + "|" + linkMatcher.linkFileAnchorMatch)?.toRegex()
+                    val fileOrAnchorMatch = (if (linkMatcher.linkFileAnchorMatch == null) linkMatcher.linkFileMatch else linkMatcher.linkFileMatch + "|" + linkMatcher.linkFileAnchorMatch)?.let { MdRegexCache.regex(it) }
                     if (fileOrAnchorMatch != null) {
                         for (fileRef in matches) {
                             if (fileRef is FileRef && fileRef.filePath.matches(fileOrAnchorMatch)) {
@@ -961,7 +1066,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
 
                     // these match raw file content and images
                     // case sensitive: linkFileMatch = "^$fixedPrefix$filenamePattern$"
-                    val fileMatch = linkMatcher.linkFileMatch?.toRegex()
+                    val fileMatch = linkMatcher.linkFileMatch?.let { MdRegexCache.regex(it) }
                     if (fileMatch != null) {
                         for (fileRef in matches) {
                             if (fileRef is FileRef) {
@@ -1002,7 +1107,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
                     }
                 }
 
-                val linkFileMatchRegex = linkMatcher.linkFileMatch?.toRegex() ?: linkAllMatch.toRegex()
+                val linkFileMatchRegex = MdRegexCache.regex(linkMatcher.linkFileMatch ?: linkAllMatch)
                 resolved.sortWith(Comparator { self, other ->
                     val selfMatch = self.filePath.matches(linkFileMatchRegex)
                     val otherMatch = other.filePath.matches(linkFileMatchRegex)
@@ -1468,7 +1573,7 @@ class GitHubLinkResolver(projectResolver: ProjectResolver
                             return filePath
                         } else {
                             // main repo file, if it starts with blob/something/ or raw/something then we can handle it
-                            val repoPrefixPathPattern = ("^([^/]+)\\Q/\\E([^/]+)\\Q/\\E").toRegex()
+                            val repoPrefixPathPattern = MdRegexCache.regex("^([^/]+)\\Q/\\E([^/]+)\\Q/\\E")
                             if (fileName.matches(repoPrefixPathPattern)) {
                                 val match = repoPrefixPathPattern.find(fileName)
                                 if (match != null) {
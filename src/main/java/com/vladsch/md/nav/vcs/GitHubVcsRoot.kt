@@ -17,6 +17,7 @@ import java.io.BufferedReader
 import java.io.File
 import java.io.FileReader
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 
 /**
@@ -147,6 +148,11 @@ class GitHubVcsRoot private constructor(gitHubBaseUrl: String?, basePath: String
         private val URL_VALUE = Pattern.compile("\\s*url\\s*=\\s*([^\\s]*)")
         private const val GIT_CONFIG = "config"
 
+        private class GitConfigInfo(val lastModified: Long, val length: Long, val baseUrl: String?)
+
+        // remote origin URL of git config files, reparsed when modified
+        private val gitConfigs = ConcurrentHashMap<String, GitConfigInfo>()
+
         @JvmStatic
         fun create(gitHubBaseUrl: String, basePath: String): GitHubVcsRoot {
             return GitHubVcsRoot(gitHubBaseUrl, basePath, null)
@@ -215,6 +221,21 @@ class GitHubVcsRoot private constructor(gitHubBaseUrl: String?, basePath: String
         }
 
         private fun getBaseUrl(gitConfigFile: File): String? {
+            val configPath = gitConfigFile.path
+            val lastModified = gitConfigFile.lastModified()
+            val length = gitConfigFile.length()
+            val cached = gitConfigs[configPath]
+
+            if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+                return cached.baseUrl
+            }
+
+            val baseUrl = readBaseUrl(gitConfigFile)
+            gitConfigs[configPath] = GitConfigInfo(lastModified, length, baseUrl)
+            return baseUrl
+        }
+
+        private fun readBaseUrl(gitConfigFile: File): String? {
             var baseUrl: String? = null
 
             var reader: BufferedReader? = null
@@ -2,10 +2,15 @@
 
 package com.vladsch.md.nav.vcs
 
+import com.intellij.ProjectTopics
+import com.intellij.dvcs.repo.VcsRepositoryManager
+import com.intellij.dvcs.repo.VcsRepositoryMappingListener
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.ModalityState
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
 import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.vcs.FileStatus
 import com.intellij.openapi.vcs.FileStatusManager
@@ -45,6 +50,8 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
         private val NULL = LazyFunction<Project, MdLinkResolverManager>(Function { t -> MdLinkResolverManager(t) })
         private val DUMMY_REPO = Object()
 
+        const val MAX_CACHED_REPOS = 4096
+
         @JvmStatic
         fun getInstance(project: Project): MdLinkResolverManager {
             return if (project.isDefault) NULL.getValue(project)
@@ -52,8 +59,7 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
         }
     }
 
-    private val projectDirectories = ArrayList<VirtualFile>()
-    private var rescanProjectDirectories = true
+    private val projectDirectoryTree = MdProjectDirectoryTree(project)
     private val onProjectSettingsChangedActivities: ArrayList<MdOnProjectSettingsChangedActivity> = ArrayList()
     private val inProjectSettingsChangedActivity = ConcurrentHashMap<MdOnProjectSettingsChangedActivity, Long>()
     private val projectSettingsChangedAlarm = Alarm(this)
@@ -64,13 +70,38 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
     // this one has real roots
     private var gitHubVcsRoots = ConcurrentHashMap<String, GitHubVcsRoot>()
 
-    // this has all paths inquired for vcs since last update
-    private var gitHubVcsRepos = ConcurrentHashMap<String, Any>()
+    // real roots by base path and by base URL without protocol, for longest prefix lookup
+    private var gitHubVcsRootPaths = MdPathPrefixTrie<GitHubVcsRoot>()
+    private var gitHubVcsRootUrls = MdPathPrefixTrie<GitHubVcsRoot>()
+
+    // this has most recently inquired paths for vcs since last update
+    private var gitHubVcsRepos = RepoCache()
+
+    private class RepoCache : LinkedHashMap<String, Any>(256, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Any>?): Boolean {
+            return size > MAX_CACHED_REPOS
+        }
+    }
 
     private fun clearVcsMaps(newVcsMap: ConcurrentHashMap<String, GitHubVcsRoot>) {
+        val rootPaths = MdPathPrefixTrie<GitHubVcsRoot>()
+        val rootUrls = MdPathPrefixTrie<GitHubVcsRoot>()
+
+        // NOTE: roots with longer base path replace others with the same base URL
+        for (gitHubVcs in newVcsMap.values.sortedBy { it.basePath.length }) {
+            rootPaths.put(gitHubVcs.basePath.suffixWith('/'), gitHubVcs)
+
+            if (gitHubVcs.baseUrl != null) {
+                val baseUrl = gitHubVcs.baseUrl.removeAnyPrefix("http://", "https://").suffixWith('/')
+                rootUrls.put(if (gitHubVcs.isWiki) baseUrl + "wiki/" else baseUrl, gitHubVcs)
+            }
+        }
+
         synchronized(VCS_MAPS_LOCK) {
             gitHubVcsRoots = newVcsMap
-            gitHubVcsRepos = ConcurrentHashMap()
+            gitHubVcsRootPaths = rootPaths
+            gitHubVcsRootUrls = rootUrls
+            gitHubVcsRepos = RepoCache()
         }
     }
 
@@ -80,77 +111,41 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
     }
 
     fun getProjectDirectories(): ArrayList<VirtualFile> {
-        if (rescanProjectDirectories && !project.isDisposed) {
-            val allVersionedRoots = ProjectLevelVcsManager.getInstance(project).allVersionedRoots
-            allVersionedRoots.sortByDescending { it.name }
-            val dirsToVisit = mutableListOf<VirtualFile>(*allVersionedRoots)
-            val dirsVisited = mutableSetOf<VirtualFile>()
-            val triedDirs = HashSet<VirtualFile>() // don't list roots in the completion list
-            triedDirs.addAll(allVersionedRoots)
-            val projectDirectories = ArrayList<VirtualFile>()
-            projectDirectories.clear()
-
-            val baseDir = project.getProjectBaseDirectory()
-            if (baseDir != null) dirsToVisit.add(baseDir)
-
-            while (dirsToVisit.isNotEmpty()) {
-                val parentDir = dirsToVisit.removeAt(0)
-                if (!parentDir.isValid) continue
-
-                if (!dirsVisited.contains(parentDir)) {
-                    dirsVisited.add(parentDir)
-
-                    if (!triedDirs.contains(parentDir)) {
-                        triedDirs.add(parentDir)
-                        projectDirectories.add(parentDir)
-                    }
-
-                    parentDir.children.filterTo(dirsToVisit) { it.isDirectory && it.isInLocalFileSystem && !dirsVisited.contains(it) && !it.name.startsWith(".") }
-                }
-            }
-
-            synchronized(this.projectDirectories) {
-                this.projectDirectories.clear()
-                this.projectDirectories.addAll(projectDirectories)
-                rescanProjectDirectories = false
-            }
-        }
+        return projectDirectoryTree.getDirectories()
+    }
 
-        return ArrayList(projectDirectories)
+    /**
+     * Process project directories whose path starts with the given prefix, see [MdProjectDirectoryTree.processDirectories]
+     */
+    fun processProjectDirectories(pathPrefix: String, processor: (VirtualFile) -> Boolean): Boolean {
+        return projectDirectoryTree.processDirectories(pathPrefix, processor)
     }
 
     override fun getGitHubRepo(path: String?): GitHubVcsRoot? {
         if (project.isDisposed) return null
         val projectBasePath: String = project.basePath ?: return null
 
-        var vcsRoots: ConcurrentHashMap<String, GitHubVcsRoot>?
-        var vcsRepos: ConcurrentHashMap<String, Any>?
+        val vcsRootPaths: MdPathPrefixTrie<GitHubVcsRoot>
+        val vcsRepoMap: RepoCache
 
         synchronized(VCS_MAPS_LOCK) {
-            vcsRoots = gitHubVcsRoots
-            vcsRepos = gitHubVcsRepos
+            vcsRootPaths = gitHubVcsRootPaths
+            vcsRepoMap = gitHubVcsRepos
         }
 
-        val vcsRootMap = vcsRoots ?: return null
-        val vcsRepoMap = vcsRepos ?: return null
-
         val findPath = path ?: projectBasePath
-        var gitHubVcsRoot: GitHubVcsRoot? = null
-
-        val cached = vcsRepoMap[findPath]
+        val cached = synchronized(vcsRepoMap) { vcsRepoMap[findPath] }
 
         if (cached != null) {
             return cached as? GitHubVcsRoot
         }
 
-        for (gitHubVcs in vcsRootMap.values) {
-            if ((gitHubVcsRoot == null || gitHubVcs.basePath.length > gitHubVcsRoot.basePath.length) && findPath.startsWith(gitHubVcs.basePath.suffixWith('/'))) {
-                MdProjectComponent.LOG.debug { "tentative gitHubRepo ${gitHubVcs.basePath} for $findPath" }
-                gitHubVcsRoot = gitHubVcs
-            }
+        val gitHubVcsRoot = vcsRootPaths.findLongestPrefix(findPath)
+
+        synchronized(vcsRepoMap) {
+            vcsRepoMap[findPath] = gitHubVcsRoot ?: DUMMY_REPO
         }
 
-        vcsRepoMap[findPath] = gitHubVcsRoot ?: DUMMY_REPO
         MdProjectComponent.LOG.debug { "gitHubRepo $path for ${gitHubVcsRoot?.basePath}" }
         return gitHubVcsRoot
     }
@@ -158,44 +153,29 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
     private fun getGitHubRepoFromURL(url: String): GitHubVcsRoot? {
         if (project.isDisposed) return null
 
-        var vcsRoots: ConcurrentHashMap<String, GitHubVcsRoot>?
-        var vcsRepos: ConcurrentHashMap<String, Any>?
+        val vcsRootUrls: MdPathPrefixTrie<GitHubVcsRoot>
+        val vcsRepoMap: RepoCache
 
         synchronized(VCS_MAPS_LOCK) {
-            vcsRoots = gitHubVcsRoots
-            vcsRepos = gitHubVcsRepos
+            vcsRootUrls = gitHubVcsRootUrls
+            vcsRepoMap = gitHubVcsRepos
         }
 
-        val vcsRootMap = vcsRoots ?: return null
-        val vcsRepoMap = vcsRepos ?: return null
-
         val useUrl = url.removeAnyPrefix("http://", "https://")
         val findPath = PathInfo(useUrl).path
-        val cached = vcsRepoMap[findPath]
+        val cached = synchronized(vcsRepoMap) { vcsRepoMap[findPath] }
+
         if (cached != null) {
             return cached as? GitHubVcsRoot
         }
 
-        var gitHubVcsRoot: GitHubVcsRoot? = null
-        for (gitHubVcs in vcsRootMap.values) {
-            if (gitHubVcs.baseUrl != null && (gitHubVcsRoot == null || gitHubVcs.basePath.length > gitHubVcsRoot.basePath.length)) {
-                val suffixWith = gitHubVcs.baseUrl.removeAnyPrefix("http://", "https://").suffixWith('/')
+        // wiki roots are keyed by their base URL followed by wiki/
+        val gitHubVcsRoot = vcsRootUrls.findLongestPrefix(useUrl)
 
-                if (gitHubVcs.isWiki) {
-                    if (useUrl.startsWith(suffixWith + "wiki/")) {
-                        MdProjectComponent.LOG.debug { "tentative gitHubRepo ${gitHubVcs.basePath} for URL $url" }
-                        gitHubVcsRoot = gitHubVcs
-                    }
-                } else {
-                    if (useUrl.startsWith(suffixWith)) {
-                        MdProjectComponent.LOG.debug { "tentative gitHubRepo ${gitHubVcs.basePath} for URL $url" }
-                        gitHubVcsRoot = gitHubVcs
-                    }
-                }
-            }
+        synchronized(vcsRepoMap) {
+            vcsRepoMap[findPath] = gitHubVcsRoot ?: DUMMY_REPO
         }
 
-        vcsRepoMap[findPath] = gitHubVcsRoot ?: DUMMY_REPO
         MdProjectComponent.LOG.debug { "gitHubRepo $url for ${gitHubVcsRoot?.basePath}" }
         return gitHubVcsRoot
     }
@@ -272,51 +252,19 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
         }
 
         clearVcsMaps(gitHubVcsMap)
-        rescanProjectDirectories = true
+        projectDirectoryTree.invalidate()
     }
 
     override fun dispose() {
         onProjectSettingsChangedActivities.clear()
+        projectDirectoryTree.clear()
     }
 
-    private fun fileSystemChanged(file: VirtualFile) {
+    fun vfsFireAfter(event: VFileEvent) {
         if (project.isDisposed) return
-        if (file.isDirectory) rescanProjectDirectories = true
-    }
 
-    fun vfsFireAfter(event: VFileEvent) {
-        when (event) {
-            is VFileContentChangeEvent -> {
-                fileSystemChanged(event.file)
-            }
-            is VFileCopyEvent -> {
-                val original = event.file
-                val copy = event.newParent.findChild(event.newChildName)
-                if (copy != null) {
-                    fileSystemChanged(original)
-                }
-            }
-            is VFileCreateEvent -> {
-                val newChild = event.file
-                if (newChild != null) {
-                    fileSystemChanged(newChild)
-                }
-            }
-            is VFileDeleteEvent -> {
-                // issue #776, JavaFx Preview displays cached image for deleted file
-                fileSystemChanged(event.file)
-            }
-            is VFileMoveEvent -> {
-                fileSystemChanged(event.file)
-            }
-            is VFilePropertyChangeEvent -> {
-                // NOTE: this one fires often when document is modified with writeable property changing
-                // fileSystemChanged(event.file)
-                //            val pce = event
-                //            adapted.propertyChanged(
-                //                VirtualFilePropertyEvent(event.getRequestor(), pce.file, pce.propertyName, pce.oldValue, pce.newValue))
-            }
-        }
+        // only directory changes are tracked, by the project directory tree
+        projectDirectoryTree.vfsFireAfter(event)
     }
 
     internal fun projectInitialized() {
@@ -353,6 +301,14 @@ class MdLinkResolverManager(override val project: Project) : Disposable, Project
             }
         })
 
+        // excluded directories are not in the project directory tree
+        messageBusConnection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) {
+                projectDirectoryTree.invalidate()
+            }
+        })
+
+        messageBusConnection.subscribe(VcsRepositoryManager.VCS_REPOSITORY_MAPPING_UPDATED, VcsRepositoryMappingListener { updateVcsRoots() })
         messageBusConnection.subscribe(ProjectLevelVcsManager.VCS_CONFIGURATION_CHANGED, VcsListener { updateVcsRoots() })
         messageBusConnection.subscribe(ProjectLevelVcsManager.VCS_CONFIGURATION_CHANGED_IN_PLUGIN, VcsListener { updateVcsRoots() })
 
@@ -0,0 +1,69 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.vcs
+
+/**
+ * Trie of `/` separated path segments used to find the value of the longest prefix of a path or URL
+ *
+ * Keys are directory paths ending in `/`, a key is a prefix of a path if the path starts with the key, so lookup
+ * is done in one pass over the path's segments instead of testing every key.
+ */
+class MdPathPrefixTrie<T : Any> {
+
+    private class Node<T : Any> {
+        var children: HashMap<String, Node<T>>? = null
+        var value: T? = null
+    }
+
+    private val root = Node<T>()
+
+    var size: Int = 0
+        private set
+
+    /**
+     * Set value for path prefix, replacing any previous value for the same prefix
+     *
+     * @param prefix path prefix, text after last `/` is ignored
+     * @param value  value for the prefix
+     */
+    fun put(prefix: String, value: T) {
+        var node = root
+        var start = 0
+
+        while (true) {
+            val end = prefix.indexOf('/', start)
+            if (end < 0) break
+
+            val segment = prefix.substring(start, end)
+            val children = node.children ?: HashMap<String, Node<T>>().also { node.children = it }
+            node = children.getOrPut(segment) { Node() }
+            start = end + 1
+        }
+
+        if (node.value == null) size++
+        node.value = value
+    }
+
+    /**
+     * Find value of the longest prefix of the path
+     *
+     * @param path path or URL
+     * @return value of longest prefix which the path starts with or null if none
+     */
+    fun findLongestPrefix(path: String): T? {
+        var node = root
+        var found: T? = null
+        var start = 0
+
+        while (true) {
+            val end = path.indexOf('/', start)
+            if (end < 0) break
+
+            val children = node.children ?: break
+            node = children[path.substring(start, end)] ?: break
+            if (node.value != null) found = node.value
+            start = end + 1
+        }
+        return found
+    }
+}
@@ -0,0 +1,206 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.vcs
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vcs.ProjectLevelVcsManager
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.newvfs.events.*
+import com.vladsch.plugin.util.getProjectBaseDirectory
+import java.util.*
+
+/**
+ * Directories of the project tree used for directory link resolution and completion
+ *
+ * Contains directories under the project base directory and VCS roots, excluding the roots themselves, directories
+ * whose name starts with `.` and excluded directories. Directories are kept in a map sorted by path so that
+ * directories under a path prefix can be processed without scanning the tree.
+ *
+ * Built on first use and updated from VFS directory events. Sub-trees of created, copied, moved or renamed directories
+ * are only queued by the VFS listener, which runs in the write action, and added on next use. Changes to VCS or project
+ * roots cause a rebuild on next use.
+ *
+ * @param baseDirectory provides the project base directory, tests use a local directory
+ */
+class MdProjectDirectoryTree(val project: Project, private val baseDirectory: () -> VirtualFile? = { project.getProjectBaseDirectory() }) {
+
+    companion object {
+        private val LOG = com.intellij.openapi.diagnostic.Logger.getInstance("com.vladsch.md.nav.vcs")
+    }
+
+    private val directories = TreeMap<String, VirtualFile>()
+    private val roots = HashSet<VirtualFile>()
+    private val pendingDirectories = ArrayList<VirtualFile>()
+    private var rebuildTree = true
+
+    val size: Int
+        get() = synchronized(directories) { directories.size }
+
+    /**
+     * Rebuild the tree on next use, called when VCS roots or project roots change
+     */
+    fun invalidate() {
+        synchronized(directories) {
+            rebuildTree = true
+        }
+    }
+
+    fun vfsFireAfter(event: VFileEvent) {
+        when (event) {
+            is VFileCreateEvent -> {
+                if (event.isDirectory) addDirectory(event.file)
+            }
+            is VFileCopyEvent -> {
+                val copy = event.newParent.findChild(event.newChildName)
+                if (copy != null && copy.isDirectory) addDirectory(copy)
+            }
+            is VFileDeleteEvent -> {
+                if (event.file.isDirectory) removeDirectory(event.file.path)
+            }
+            is VFileMoveEvent -> {
+                if (event.file.isDirectory) {
+                    removeDirectory(event.oldParent.path.removeSuffix("/") + "/" + event.file.name)
+                    addDirectory(event.file)
+                }
+            }
+            is VFilePropertyChangeEvent -> {
+                if (event.propertyName == VirtualFile.PROP_NAME && event.file.isDirectory) {
+                    val parent = event.file.parent
+                    if (parent != null) removeDirectory(parent.path.removeSuffix("/") + "/" + event.oldValue)
+                    addDirectory(event.file)
+                }
+            }
+        }
+    }
+
+    private fun isTracked(dir: VirtualFile): Boolean {
+        return roots.contains(dir) || directories.containsKey(dir.path)
+    }
+
+    private fun isIncluded(dir: VirtualFile, fileIndex: ProjectFileIndex): Boolean {
+        return dir.isValid && dir.isDirectory && dir.isInLocalFileSystem && !dir.name.startsWith(".") && !fileIndex.isExcluded(dir)
+    }
+
+    private fun addDirectory(dir: VirtualFile?) {
+        if (dir == null || project.isDisposed) return
+
+        synchronized(directories) {
+            if (rebuildTree) return
+
+            // NOTE: children of created, copied or moved directories do not get their own events,
+            //  their sub-tree is added on next use
+            pendingDirectories.add(dir)
+        }
+    }
+
+    private fun addPendingDirectories() {
+        val start = System.nanoTime()
+        val fileIndex = ProjectFileIndex.getInstance(project)
+        val size = directories.size
+
+        // NOTE: parents are queued before their children
+        for (dir in pendingDirectories) {
+            if (!dir.isValid) continue
+
+            val parent = dir.parent ?: continue
+            if (isTracked(parent) && !isTracked(dir)) {
+                addSubTree(dir, fileIndex)
+            }
+        }
+
+        pendingDirectories.clear()
+        LOG.debug { "MdProjectDirectoryTree added ${directories.size - size} directories in ${(System.nanoTime() - start) / 1000000f} ms" }
+    }
+
+    private fun addSubTree(dir: VirtualFile, fileIndex: ProjectFileIndex) {
+        val dirsToVisit = ArrayDeque<VirtualFile>()
+        dirsToVisit.add(dir)
+
+        while (dirsToVisit.isNotEmpty()) {
+            val parentDir = dirsToVisit.removeFirst()
+            if (!isIncluded(parentDir, fileIndex) || isTracked(parentDir)) continue
+
+            directories[parentDir.path] = parentDir
+            parentDir.children.filterTo(dirsToVisit) { it.isDirectory }
+        }
+    }
+
+    private fun removeDirectory(path: String) {
+        synchronized(directories) {
+            if (rebuildTree) return
+
+            directories.remove(path)
+            directories.subMap("$path/", true, "$path/${Character.MAX_VALUE}", false).clear()
+        }
+    }
+
+    private fun buildTree() {
+        val start = System.nanoTime()
+        val fileIndex = ProjectFileIndex.getInstance(project)
+        val allVersionedRoots = ProjectLevelVcsManager.getInstance(project).allVersionedRoots
+
+        directories.clear()
+        roots.clear()
+        pendingDirectories.clear()
+
+        // don't list roots in the completion list
+        roots.addAll(allVersionedRoots)
+
+        for (root in allVersionedRoots) {
+            if (root.isValid) root.children.filter { it.isDirectory }.forEach { addSubTree(it, fileIndex) }
+        }
+
+        val baseDir = baseDirectory()
+        if (baseDir != null && baseDir.isValid && !roots.contains(baseDir)) {
+            directories[baseDir.path] = baseDir
+            baseDir.children.filter { it.isDirectory }.forEach { addSubTree(it, fileIndex) }
+        }
+
+        rebuildTree = false
+        LOG.debug { "MdProjectDirectoryTree built for ${directories.size} directories in ${(System.nanoTime() - start) / 1000000f} ms" }
+    }
+
+    /**
+     * Process directories whose path starts with the given prefix, in order of their paths
+     *
+     * NOTE: must be called in a read action, the processor is called under the tree lock and must not change files
+     *
+     * @param pathPrefix path prefix, empty to process all directories
+     * @param processor  directory processor, return false to stop processing
+     * @return false if processing was stopped
+     */
+    fun processDirectories(pathPrefix: String, processor: (VirtualFile) -> Boolean): Boolean {
+        synchronized(directories) {
+            if (project.isDisposed) return true
+            if (rebuildTree) buildTree()
+            else if (pendingDirectories.isNotEmpty()) addPendingDirectories()
+
+            val dirs = if (pathPrefix.isEmpty()) directories.values
+            else directories.subMap(pathPrefix, true, pathPrefix + Character.MAX_VALUE, false).values
+
+            for (dir in dirs) {
+                if (!processor.invoke(dir)) return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * @return directories of the tree in order of their paths
+     */
+    fun getDirectories(): ArrayList<VirtualFile> {
+        val dirs = ArrayList<VirtualFile>()
+        processDirectories("") { dirs.add(it) }
+        return dirs
+    }
+
+    fun clear() {
+        synchronized(directories) {
+            directories.clear()
+            roots.clear()
+            pendingDirectories.clear()
+            rebuildTree = true
+        }
+    }
+}
@@ -0,0 +1,263 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+
+package com.vladsch.md.nav.vcs
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.*
+import java.util.*
+
+/**
+ * Index of file names of project content files used by [GitHubLinkResolver.getMatchedRefs] to get files which can
+ * match a link's file name without testing every project file against the link's regex.
+ *
+ * Files are kept in a sorted map keyed by their lowercase file name with wiki link separators ` `, `+` and `/` mapped
+ * to `-`. Lookups of a key or key prefix return a superset of case sensitive, case insensitive and wiki page name
+ * matches, which are filtered by the caller's name test.
+ *
+ * Built on first use and updated on file creation, deletion, rename and move. Files under a created, copied, moved or
+ * renamed directory are added on next use, without rescanning the rest of the project. Changes to project roots cause
+ * a rebuild on next use.
+ */
+class MdProjectFileNameIndex(val project: Project) : Disposable {
+
+    companion object {
+        private val LOG = com.intellij.openapi.diagnostic.Logger.getInstance("com.vladsch.md.nav.vcs")
+
+        @JvmStatic
+        fun getInstance(project: Project): MdProjectFileNameIndex {
+            return project.getService(MdProjectFileNameIndex::class.java)
+        }
+
+        /**
+         * Index key for a file name or link text
+         *
+         * @param name file name
+         * @return lowercase name with wiki separators mapped to `-`
+         */
+        @JvmStatic
+        fun nameKey(name: String): String {
+            val sb = StringBuilder(name.length)
+            for (c in name) {
+                sb.append(if (c == ' ' || c == '+' || c == '/') '-' else Character.toLowerCase(c))
+            }
+            return sb.toString()
+        }
+    }
+
+    private val fileNames = TreeMap<String, ArrayList<VirtualFile>>()
+    private var fileCount = 0
+    private var rebuildIndex = true
+    private val pendingDirectories = ArrayList<VirtualFile>()
+
+    init {
+        val applicationMessageBusConnection = ApplicationManager.getApplication().messageBus.connect(this)
+        applicationMessageBusConnection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun before(events: MutableList<out VFileEvent>) {
+                if (project.isDisposed) return
+
+                synchronized(fileNames) {
+                    if (rebuildIndex) return
+
+                    for (event in events) {
+                        // NOTE: files under a directory are only valid before it is deleted
+                        if (event is VFileDeleteEvent && event.file.isDirectory) removeDirectory(event.file)
+                    }
+                }
+            }
+
+            override fun after(events: MutableList<out VFileEvent>) {
+                if (project.isDisposed) return
+
+                synchronized(fileNames) {
+                    if (rebuildIndex) return
+
+                    for (event in events) {
+                        vfsFireAfter(event)
+                        if (rebuildIndex) break
+                    }
+                }
+            }
+        })
+
+        project.messageBus.connect(this).subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) {
+                synchronized(fileNames) {
+                    rebuildIndex = true
+                }
+            }
+        })
+    }
+
+    private fun vfsFireAfter(event: VFileEvent) {
+        when (event) {
+            is VFileCreateEvent -> {
+                // NOTE: children of created directories do not get their own events
+                val file = event.file
+                if (event.isDirectory) addDirectory(file)
+                else addFile(file)
+            }
+            is VFileCopyEvent -> {
+                val copy = event.newParent.findChild(event.newChildName)
+                if (copy != null && copy.isDirectory) addDirectory(copy)
+                else addFile(copy)
+            }
+            is VFileDeleteEvent -> {
+                // directories are removed before delete
+                if (!event.file.isDirectory) removeFile(event.file.name, event.file)
+            }
+            is VFileMoveEvent -> {
+                // may have moved in or out of project content
+                if (event.file.isDirectory) {
+                    removeDirectory(event.file)
+                    addDirectory(event.file)
+                } else {
+                    removeFile(event.file.name, event.file)
+                    addFile(event.file)
+                }
+            }
+            is VFilePropertyChangeEvent -> {
+                if (event.propertyName == VirtualFile.PROP_NAME) {
+                    // file names under a renamed directory do not change but the directory may now be excluded
+                    if (event.file.isDirectory) {
+                        removeDirectory(event.file)
+                        addDirectory(event.file)
+                    } else {
+                        removeFile(event.oldValue as String, event.file)
+                        addFile(event.file)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun addFile(file: VirtualFile?) {
+        if (file == null || !file.isValid || file.isDirectory) return
+        if (!ProjectFileIndex.getInstance(project).isInContent(file)) return
+
+        val files = fileNames.computeIfAbsent(nameKey(file.name)) { ArrayList(1) }
+        if (!files.contains(file)) {
+            files.add(file)
+            fileCount++
+        }
+    }
+
+    private fun removeFile(fileName: String, file: VirtualFile) {
+        val key = nameKey(fileName)
+        val files = fileNames[key] ?: return
+        if (files.remove(file)) {
+            fileCount--
+            if (files.isEmpty()) fileNames.remove(key)
+        }
+    }
+
+    private fun addDirectory(directory: VirtualFile?) {
+        if (directory == null) return
+        pendingDirectories.add(directory)
+    }
+
+    /**
+     * Remove files under the directory, files keep their identity when their directory is moved or renamed
+     */
+    private fun removeDirectory(directory: VirtualFile) {
+        pendingDirectories.removeIf { VfsUtilCore.isAncestor(directory, it, false) }
+
+        val iterator = fileNames.values.iterator()
+        while (iterator.hasNext()) {
+            val files = iterator.next()
+            val size = files.size
+            files.removeIf { VfsUtilCore.isAncestor(directory, it, true) }
+            fileCount -= size - files.size
+            if (files.isEmpty()) iterator.remove()
+        }
+    }
+
+    private fun addPendingDirectories() {
+        val start = System.nanoTime()
+        val fileIndex = ProjectFileIndex.getInstance(project)
+        val directories = pendingDirectories.size
+
+        for (directory in pendingDirectories) {
+            if (!directory.isValid) continue
+
+            fileIndex.iterateContentUnderDirectory(directory) { file ->
+                addFile(file)
+                true
+            }
+        }
+
+        pendingDirectories.clear()
+        LOG.debug { "MdProjectFileNameIndex added $directories directories, $fileCount files in ${(System.nanoTime() - start) / 1000000f} ms" }
+    }
+
+    private fun buildIndex() {
+        val start = System.nanoTime()
+        fileNames.clear()
+        fileCount = 0
+        pendingDirectories.clear()
+
+        ProjectFileIndex.getInstance(project).iterateContent { file ->
+            if (!file.isDirectory) {
+                fileNames.computeIfAbsent(nameKey(file.name)) { ArrayList(1) }.add(file)
+                fileCount++
+            }
+            true
+        }
+
+        rebuildIndex = false
+        LOG.debug { "MdProjectFileNameIndex built for ${fileNames.size} names, $fileCount files in ${(System.nanoTime() - start) / 1000000f} ms" }
+    }
+
+    /**
+     * Process files whose name key is equal to the key of the given name or starts with it
+     *
+     * NOTE: must be called in a read action, the processor is called under the index lock and must not change files
+     *
+     * @param name      file name or name prefix, key computed using [nameKey]
+     * @param isPrefix  true if all files with keys starting with key of name should be processed
+     * @param processor file processor, return false to stop processing
+     * @return false if processing was stopped
+     */
+    fun processFiles(name: String, isPrefix: Boolean, processor: (VirtualFile) -> Boolean): Boolean {
+        val key = nameKey(name)
+
+        synchronized(fileNames) {
+            if (project.isDisposed) return true
+            if (rebuildIndex) buildIndex()
+            else if (pendingDirectories.isNotEmpty()) addPendingDirectories()
+
+            val fileLists: Collection<ArrayList<VirtualFile>> = if (isPrefix) {
+                if (key.isEmpty()) fileNames.values
+                else fileNames.subMap(key, true, key + Character.MAX_VALUE, false).values
+            } else {
+                val files = fileNames[key] ?: return true
+                listOf(files)
+            }
+
+            for (files in fileLists) {
+                for (file in files) {
+                    if (!processor.invoke(file)) return false
+                }
+            }
+        }
+        return true
+    }
+
+    override fun dispose() {
+        synchronized(fileNames) {
+            fileNames.clear()
+            fileCount = 0
+            pendingDirectories.clear()
+            rebuildIndex = true
+        }
+    }
+}
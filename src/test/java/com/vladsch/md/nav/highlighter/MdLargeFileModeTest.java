@@ -0,0 +1,46 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.highlighter;
+
+import com.intellij.openapi.util.TextRange;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MdLargeFileModeTest {
+    private static final TextRange WINDOW = new TextRange(100, 200);
+
+    @Test
+    public void test_noWindow() {
+        assertNull(MdLargeFileMode.shiftWindow(null, 10, 0, 5));
+    }
+
+    @Test
+    public void test_editAfter() {
+        assertEquals(WINDOW, MdLargeFileMode.shiftWindow(WINDOW, 200, 0, 5));
+        assertEquals(WINDOW, MdLargeFileMode.shiftWindow(WINDOW, 250, 10, 0));
+    }
+
+    @Test
+    public void test_editBefore() {
+        assertEquals(new TextRange(105, 205), MdLargeFileMode.shiftWindow(WINDOW, 10, 0, 5));
+        assertEquals(new TextRange(90, 190), MdLargeFileMode.shiftWindow(WINDOW, 10, 10, 0));
+        assertEquals(new TextRange(90, 190), MdLargeFileMode.shiftWindow(WINDOW, 90, 10, 0));
+    }
+
+    @Test
+    public void test_editInside() {
+        assertEquals(new TextRange(100, 205), MdLargeFileMode.shiftWindow(WINDOW, 150, 0, 5));
+        assertEquals(new TextRange(100, 190), MdLargeFileMode.shiftWindow(WINDOW, 150, 10, 0));
+    }
+
+    @Test
+    public void test_editOverlapping() {
+        // deleted text across the window start
+        assertEquals(new TextRange(90, 180), MdLargeFileMode.shiftWindow(WINDOW, 90, 20, 0));
+        // replaced text across the window end
+        assertEquals(new TextRange(100, 250), MdLargeFileMode.shiftWindow(WINDOW, 190, 20, 60));
+        // whole window deleted
+        assertEquals(new TextRange(50, 50), MdLargeFileMode.shiftWindow(WINDOW, 50, 200, 0));
+    }
+}
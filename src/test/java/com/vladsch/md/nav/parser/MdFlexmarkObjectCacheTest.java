@@ -0,0 +1,100 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.md.nav.flex.settings.FlexmarkHtmlSettings;
+import com.vladsch.md.nav.parser.api.HtmlPurpose;
+import com.vladsch.md.nav.parser.api.ParserPurpose;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+
+public class MdFlexmarkObjectCacheTest extends BasePlatformTestCase {
+    private MdFlexmarkObjectCache myCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myCache = MdFlexmarkObjectCache.getInstance();
+        myCache.clear();
+        myCache.resetCounters();
+    }
+
+    private MdRenderingProfile projectProfile() {
+        MdRenderingProfile renderingProfile = new MdRenderingProfile();
+        renderingProfile.setProjectProfile(getProject());
+        return renderingProfile;
+    }
+
+    public void testProjectProfileHit() {
+        MdRenderingProfile renderingProfile = projectProfile();
+        assertTrue(renderingProfile.isProjectProfile());
+
+        DataHolder options = myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        assertEquals(0, myCache.getHits());
+        assertEquals(1, myCache.getMisses());
+
+        assertSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile));
+        assertEquals(1, myCache.getHits());
+        assertEquals(1, myCache.getMisses());
+    }
+
+    public void testEqualProfileHit() {
+        MdRenderingProfile renderingProfile = projectProfile();
+        DataHolder options = myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+
+        // a different instance with the same project and parser settings
+        MdRenderingProfile otherProfile = projectProfile();
+        assertSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, otherProfile));
+        assertEquals(1, myCache.getHits());
+    }
+
+    public void testChangedSettingsMiss() {
+        MdRenderingProfile renderingProfile = projectProfile();
+        DataHolder options = myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+
+        renderingProfile.getParserSettings().setPegdownFlags(renderingProfile.getParserSettings().getPegdownFlags() ^ Extensions.FOOTNOTES);
+        assertNotSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile));
+        assertEquals(2, myCache.getMisses());
+
+        // entry stored for the first lookup is not affected by the profile change
+        renderingProfile.getParserSettings().setPegdownFlags(renderingProfile.getParserSettings().getPegdownFlags() ^ Extensions.FOOTNOTES);
+        assertSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile));
+        assertEquals(1, myCache.getHits());
+    }
+
+    public void testPurposeMiss() {
+        MdRenderingProfile renderingProfile = projectProfile();
+        myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        myCache.getOptions(ParserPurpose.INDEXING, HtmlPurpose.RENDER, renderingProfile);
+        assertEquals(0, myCache.getHits());
+        assertEquals(2, myCache.getMisses());
+    }
+
+    public void testExtensionSettingsMiss() {
+        MdRenderingProfile renderingProfile = projectProfile();
+        DataHolder options = myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+
+        FlexmarkHtmlSettings htmlSettings = renderingProfile.getHtmlSettings().getExtension(FlexmarkHtmlSettings.KEY);
+        htmlSettings.setFlexmarkSpecExampleRenderHtml(!htmlSettings.getFlexmarkSpecExampleRenderHtml());
+        assertNotSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile));
+        assertEquals(2, myCache.getMisses());
+
+        // stored key has a copy of the extension settings
+        htmlSettings.setFlexmarkSpecExampleRenderHtml(!htmlSettings.getFlexmarkSpecExampleRenderHtml());
+        assertSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile));
+        assertEquals(1, myCache.getHits());
+    }
+
+    public void testProjectClosedRemoved() {
+        MdRenderingProfile renderingProfile = projectProfile();
+        DataHolder options = myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile);
+        DataHolder defaultOptions = myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, new MdRenderingProfile());
+
+        myCache.projectClosed(getProject());
+        assertNotSame(options, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, renderingProfile));
+
+        // entries without a project are kept
+        assertSame(defaultOptions, myCache.getOptions(ParserPurpose.PARSER, HtmlPurpose.RENDER, new MdRenderingProfile()));
+        assertEquals(3, myCache.getMisses());
+    }
+}
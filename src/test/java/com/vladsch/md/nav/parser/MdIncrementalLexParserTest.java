@@ -0,0 +1,171 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.parser.ast.MdASTNode;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Incremental parse of edited text must give the same lexer data as a full parse of the edited text
+ */
+public class MdIncrementalLexParserTest extends BasePlatformTestCase {
+    private static final String EXAMPLE_START = "```````````````````````````````` example";
+    private static final int EDIT_POSITIONS = 40;
+
+    private static final String[] EDITS = {
+            "\n",
+            "inserted paragraph text\n\n",
+            "* inserted item\n",
+            "# Inserted Heading\n\n",
+            "[inserted]: /url\n\n",
+            "> [inserted]: /url\n\n",
+            "* item\n\n  [inserted]: /url\n\n",
+            "*[INS]: inserted abbreviation\n\n",
+            "> * [^inserted]: footnote text\n\n",
+    };
+
+    private MdRenderingProfile myRenderingProfile;
+    private int myIncrementalParses;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myRenderingProfile = MdRenderingProfile.getDEFAULT();
+    }
+
+    @NotNull
+    private static String specText() throws IOException {
+        try (InputStream stream = MdIncrementalLexParserTest.class.getResourceAsStream("lex_parser_ast_spec.md")) {
+            assertNotNull(stream);
+            return new String(FileUtil.loadBytes(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return markdown source of spec examples, tabs are shown as → in the spec
+     */
+    @NotNull
+    static ArrayList<String> specExamples() throws IOException {
+        ArrayList<String> examples = new ArrayList<>();
+        StringBuilder example = null;
+
+        for (String line : specText().split("\n", -1)) {
+            if (example == null) {
+                if (line.startsWith(EXAMPLE_START)) example = new StringBuilder();
+            } else if (line.equals(".")) {
+                examples.add(example.toString().replace('→', '\t'));
+                example = null;
+            } else {
+                example.append(line).append('\n');
+            }
+        }
+        return examples;
+    }
+
+    private void dumpNode(@NotNull StringBuilder out, @NotNull MdASTNode node, int indent) {
+        for (int i = 0; i < indent; i++) out.append("  ");
+        out.append(node.getElementType()).append('[').append(node.getStartOffset()).append(", ").append(node.getEndOffset()).append("]\n");
+        for (MdASTNode child : node.getChildren()) {
+            dumpNode(out, child, indent + 1);
+        }
+    }
+
+    @NotNull
+    private String dump(@NotNull LexerData lexerData) {
+        StringBuilder out = new StringBuilder();
+        PackedLexerTokens tokens = lexerData.tokens;
+        for (int i = 0; i < tokens.size(); i++) {
+            out.append(tokens.getElementType(i)).append('[').append(tokens.getStart(i)).append(", ").append(tokens.getEnd(i)).append("] ").append(tokens.getNesting(i)).append('\n');
+        }
+        dumpNode(out, lexerData.rootNode, 0);
+        return out.toString();
+    }
+
+    private void assertIncrementalParse(@NotNull String message, @NotNull String text, @NotNull String editedText) {
+        MdIncrementalLexParser incrementalParser = new MdIncrementalLexParser(myRenderingProfile);
+        incrementalParser.parseMarkdown(text);
+
+        // edited text parsed by a previous edit would be taken from the cache without an incremental parse
+        MdLexerDataCache.getInstance().clear();
+        LexerData incrementalData = incrementalParser.parseMarkdown(editedText);
+        if (incrementalParser.isIncremental()) myIncrementalParses++;
+
+        LexerData fullData = MdLexParserManager.parseMarkdownUncached(myRenderingProfile, editedText);
+        assertEquals(message, dump(fullData), dump(incrementalData));
+    }
+
+    @NotNull
+    private String definitionFreeText() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String example : specExamples()) {
+            if (example.isEmpty()) continue;
+            if (MdIncrementalLexParser.hasDefinitions(MdLexParserManager.parseMarkdownUncached(myRenderingProfile, example).rootNode)) continue;
+            sb.append(example).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    public void testNestedDefinitions() {
+        assertTrue(MdIncrementalLexParser.hasDefinitions(MdLexParserManager.parseMarkdownUncached(myRenderingProfile, "> [ref]: /url\n").rootNode));
+        assertTrue(MdIncrementalLexParser.hasDefinitions(MdLexParserManager.parseMarkdownUncached(myRenderingProfile, "* item\n\n  [ref]: /url\n").rootNode));
+        assertFalse(MdIncrementalLexParser.hasDefinitions(MdLexParserManager.parseMarkdownUncached(myRenderingProfile, "> [ref] text\n").rootNode));
+    }
+
+    public void testEditsMatchFullParse() throws IOException {
+        String text = definitionFreeText();
+        assertTrue("spec examples too short for incremental parse", text.length() >= MdIncrementalLexParser.MIN_INCREMENTAL_LENGTH);
+
+        ArrayList<Integer> lineStarts = new ArrayList<>();
+        lineStarts.add(0);
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') lineStarts.add(i + 1);
+        }
+
+        int step = Math.max(1, lineStarts.size() / EDIT_POSITIONS);
+        for (int i = 0; i < lineStarts.size(); i += step) {
+            int offset = lineStarts.get(i);
+            String edit = EDITS[(i / step) % EDITS.length];
+            String editedText = text.substring(0, offset) + edit + text.substring(offset);
+
+            assertIncrementalParse("insert at " + offset + ": " + edit, text, editedText);
+            assertIncrementalParse("remove at " + offset + ": " + edit, editedText, text);
+        }
+
+        // edits adding definitions or not converging are parsed in full
+        assertTrue("no incremental parses", myIncrementalParses > 0);
+    }
+
+    public void testAppendParsedIncrementally() throws IOException {
+        String text = definitionFreeText();
+        String editedText = text + "appended paragraph text\n";
+
+        assertIncrementalParse("append", text, editedText);
+        assertEquals(1, myIncrementalParses);
+
+        assertIncrementalParse("remove appended", editedText, text);
+        assertEquals(2, myIncrementalParses);
+    }
+
+    public void testCharEditsMatchFullParse() throws IOException {
+        String text = definitionFreeText();
+        int step = Math.max(1, text.length() / EDIT_POSITIONS);
+
+        for (int offset = step / 2; offset < text.length(); offset += step) {
+            // typing and deleting in the middle of a line
+            String editedText = text.substring(0, offset) + "]" + text.substring(offset + 1);
+            assertIncrementalParse("replace at " + offset, text, editedText);
+
+            String deletedText = text.substring(0, offset) + text.substring(offset + 1);
+            assertIncrementalParse("delete at " + offset, text, deletedText);
+        }
+
+        assertTrue("no incremental parses", myIncrementalParses > 0);
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.psi.tree.TokenSet;
+import com.vladsch.flexmark.util.sequence.Range;
+import com.vladsch.plugin.util.psi.PsiUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Previous implementation of {@link MdLexParser#getData(PackedLexerTokens)}: sort of token objects, merge pass and recursive split,
+ * kept as the baseline of {@link MdLexParserBenchmark}
+ */
+public class MdLexParserBaseline {
+    @Nullable
+    public static LexerToken[] getData(@NotNull LexerToken[] tokens) {
+        TokenSet NON_MERGE_TOKEN_SET = LexParserState.getInstance().getState().NON_MERGE_TOKEN_SET;
+
+        if (tokens.length > 0) {
+            Arrays.sort(tokens);
+
+            // now need to step through and merge consecutive tokens
+            int iMax = tokens.length;
+            LexerToken thisToken = tokens[0];
+            ArrayList<LexerToken> lexerTokens = new ArrayList<>(iMax);
+
+            for (int i = 1; i < iMax; i++) {
+                LexerToken thatToken = tokens[i];
+
+                if (thisToken.getRange().equals(thatToken.getRange())) {
+                    if (thisToken.getNesting() < thatToken.getNesting()) thisToken = thatToken;
+                    continue;
+                }
+
+                if (!thatToken.doesExtend(thisToken) || PsiUtils.isTypeOf(thisToken.getElementType(), NON_MERGE_TOKEN_SET)) {
+                    lexerTokens.add(thisToken);
+                    thisToken = thatToken;
+                } else {
+                    thisToken.setRange(thisToken.getRange().expandToInclude(thatToken.getRange()));
+                }
+            }
+            lexerTokens.add(thisToken);
+
+            // now we generate lexemes from the combined optimized tokens
+            tokens = lexerTokens.toArray(new LexerToken[0]);
+
+            // we create a list of non-intersecting, sorted, ranges
+            ArrayList<LexerToken> lexemes = new ArrayList<>(tokens.length);
+            splitLexemes(lexemes, tokens, 0, Integer.MAX_VALUE);
+            return lexemes.toArray(new LexerToken[0]);
+        }
+
+        return null;
+    }
+
+    private static int splitLexemes(@NotNull ArrayList<LexerToken> lexemes, @NotNull LexerToken[] tokens, int start, int rangeEnd) {
+        LexerToken token = tokens[start];
+        Range range = token.getRange();
+        Range range1;
+
+        if (range.getEnd() <= rangeEnd) {
+            int end = tokens.length;
+
+            start++;
+            for (; start < end && (range1 = tokens[start].getRange()).getEnd() <= rangeEnd; start++) {
+                if (range.compare(range1) <= 0 && (range.doesNotOverlap(range1) || range.equals(range1))) {
+                    // it comes before, add it, if it equals, then skip it
+                    if (!range.equals(range1)) {
+                        if (range.equals(token.getRange())) {
+                            lexemes.add(token);
+                        } else {
+                            lexemes.add(new LexerToken(range, token.getElementType()));
+                        }
+                        token = tokens[start];
+                        range = token.getRange();
+                    }
+                } else if (!range.doesContain(range1)) {
+                    lexemes.add(token);
+                    token = tokens[start];
+                    range = token.getRange();
+                } else {
+                    if (range.doesOverlap(range1) && !range.doesContain(range1)) {
+                        // split the range and continue if it contains it, then skip it
+                        Range newRange = range.withEnd(range1.getStart());
+                        if (newRange.isEmpty()) {
+                            token = tokens[start];
+                            range = token.getRange();
+                        } else {
+                            lexemes.add(new LexerToken(newRange, token.getElementType()));
+
+                            range = range.withStart(range1.getEnd());
+                            if (range.isEmpty()) {
+                                token = tokens[start];
+                                range = token.getRange();
+                            } else {
+                                start = splitLexemes(lexemes, tokens, start, range.getStart());
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (!range.isEmpty()) {
+                if (range.equals(token.getRange())) {
+                    lexemes.add(token);
+                } else {
+                    lexemes.add(new LexerToken(range, token.getElementType()));
+                }
+            }
+        }
+        return start;
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexer token benchmarks over test-data/performance files, run by {@link MdLexParserBenchmarkTest}
+ * since parsing needs the platform application.
+ * <p>
+ * tokens counter gives lexemes per second, gc profiler gc.alloc.rate.norm gives bytes allocated per parse.
+ * getDataBaseline runs the previous sort, merge and recursive split of token objects on the same visitor tokens,
+ * for comparison with getData.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MdLexParserBenchmark {
+    public static final String PERFORMANCE_DATA_DIR = "test-data/performance";
+
+    @State(Scope.Benchmark)
+    public static class ParseState {
+        @Param({ "markdown_example.md" })
+        public String fileName;
+
+        MdRenderingProfile renderingProfile;
+        String text;
+        PackedLexerTokens visitorTokens;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            renderingProfile = MdRenderingProfile.getDEFAULT();
+            text = new String(Files.readAllBytes(new File(PERFORMANCE_DATA_DIR, fileName).toPath()), StandardCharsets.UTF_8);
+
+            Document document = MdLexParserManager.parseFlexmarkDocument(renderingProfile, text, true);
+            LexParserFlexmarkASTVisitor visitor = new LexParserFlexmarkASTVisitor(document);
+            visitor.build();
+            visitorTokens = visitor.getPackedTokens();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class TokenCounter {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public PackedLexerTokens getData(ParseState state, TokenCounter counter) {
+        PackedLexerTokens lexemes = MdLexParser.getData(state.visitorTokens);
+        counter.tokens += lexemes.size();
+        return lexemes;
+    }
+
+    @Benchmark
+    public LexerToken[] getDataBaseline(ParseState state, TokenCounter counter) {
+        // the baseline changes token ranges while merging, the visitor used to create these objects for every parse
+        LexerToken[] lexemes = MdLexParserBaseline.getData(state.visitorTokens.toTokenArray());
+        counter.tokens += lexemes == null ? 0 : lexemes.length;
+        return lexemes;
+    }
+
+    @Benchmark
+    public LexerData parseMarkdown(ParseState state, TokenCounter counter) {
+        LexerData lexerData = MdLexParserManager.parseMarkdownUncached(state.renderingProfile, state.text);
+        counter.tokens += lexerData.tokens.size();
+        return lexerData;
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Runs {@link MdLexParserBenchmark} and {@link MdStubTreeBenchmark} in the test JVM, without forking, so the benchmarks have the platform application.
+ * <p>
+ * Skipped unless md.nav.benchmark system property is true, use: ./gradlew test --tests '*MdLexParserBenchmarkTest' -Pbenchmark
+ */
+public class MdLexParserBenchmarkTest extends BasePlatformTestCase {
+    public static final String BENCHMARK_PROPERTY = "md.nav.benchmark";
+
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    public void testLexParserBenchmark() throws RunnerException {
+        if (!Boolean.getBoolean(BENCHMARK_PROPERTY)) return;
+
+        String[] fileNames = new File(MdLexParserBenchmark.PERFORMANCE_DATA_DIR).list((dir, name) -> name.endsWith(".md"));
+        assertNotNull("missing " + MdLexParserBenchmark.PERFORMANCE_DATA_DIR, fileNames);
+        Arrays.sort(fileNames);
+
+        Options options = new OptionsBuilder()
+                .include(MdLexParserBenchmark.class.getName())
+                .param("fileName", fileNames)
+                .forks(0)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    public void testStubTreeBenchmark() throws RunnerException {
+        if (!Boolean.getBoolean(BENCHMARK_PROPERTY)) return;
+
+        Options options = new OptionsBuilder()
+                .include(MdStubTreeBenchmark.class.getName())
+                .forks(0)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.parser.api.ParserPurpose;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stubs are built from the same lexer data whether the editor parse of the text is cached or not
+ */
+public class MdLexParserManagerTest extends BasePlatformTestCase {
+    // inline constructs left out of the indexing parse, next to stub elements
+    private static final String TEXT = "# Heading 'quoted' text\n" +
+            "\n" +
+            "Some \"smart\" text -- with ~~strike [link](url.md)~~ and ^sup^ ~sub~ ++ins++ :smile: [[Wiki Page]]\n" +
+            "\n" +
+            "* item ![image](image.png) 'single' \"double\" ... <https://example.com>\n";
+
+    private MdRenderingProfile myRenderingProfile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myRenderingProfile = MdRenderingProfile.getDEFAULT();
+        MdLexerDataCache.getInstance().clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            MdLexerDataCache.getInstance().clear();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    @NotNull
+    private static String dump(@NotNull LexerData lexerData) {
+        StringBuilder out = new StringBuilder();
+        PackedLexerTokens tokens = lexerData.tokens;
+        for (int i = 0; i < tokens.size(); i++) {
+            out.append(tokens.getElementType(i)).append('[').append(tokens.getStart(i)).append(", ").append(tokens.getEnd(i)).append("]\n");
+        }
+        return out.toString();
+    }
+
+    public void testStubsIndependentOfCache() {
+        String uncached = dump(MdLexParserManager.parseMarkdownForStubs(myRenderingProfile, TEXT));
+
+        // editor parse puts the text in the cache
+        MdLexParserManager.parseMarkdown(myRenderingProfile, TEXT);
+        assertNotNull(MdLexParserManager.getCachedLexerData(myRenderingProfile, TEXT));
+
+        assertEquals(uncached, dump(MdLexParserManager.parseMarkdownForStubs(myRenderingProfile, TEXT)));
+        assertEquals(uncached, dump(MdLexParserManager.parseMarkdownUncached(ParserPurpose.PARSER, myRenderingProfile, TEXT)));
+    }
+
+    public void testStubsNotCached() {
+        MdLexParserManager.parseMarkdownForStubs(myRenderingProfile, TEXT);
+        assertNull(MdLexParserManager.getCachedLexerData(myRenderingProfile, TEXT));
+    }
+
+    public void testIndexingIndependentOfCache() {
+        String uncached = dump(MdLexParserManager.parseMarkdownForIndexing(myRenderingProfile, TEXT));
+
+        MdLexParserManager.parseMarkdown(myRenderingProfile, TEXT);
+        assertEquals(uncached, dump(MdLexParserManager.parseMarkdownForIndexing(myRenderingProfile, TEXT)));
+    }
+
+    public void testBudgetExceededPlainText() throws InterruptedException {
+        MdParseBudget budget = new MdParseBudget(1);
+        Thread.sleep(5);
+
+        LexerData lexerData = MdLexParserManager.parseMarkdownUncached(ParserPurpose.PARSER, myRenderingProfile, TEXT, budget);
+        assertTrue(budget.isExceeded());
+        assertEquals(dump(MdLexParser.parsePlainText(TEXT)), dump(lexerData));
+        assertTrue(lexerData.rootNode.getChildren().isEmpty());
+    }
+
+    public void testBudgetNotExceeded() {
+        MdParseBudget budget = new MdParseBudget(60 * 1000);
+
+        LexerData lexerData = MdLexParserManager.parseMarkdownUncached(ParserPurpose.PARSER, myRenderingProfile, TEXT, budget);
+        assertFalse(budget.isExceeded());
+        assertEquals(dump(MdLexParserManager.parseMarkdownUncached(myRenderingProfile, TEXT)), dump(lexerData));
+    }
+}
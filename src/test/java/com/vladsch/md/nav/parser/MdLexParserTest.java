@@ -0,0 +1,84 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Lexemes of {@link MdLexParser#getData(PackedLexerTokens)} must be the same, token for token, as the ones of
+ * {@link MdLexParserBaseline} for the same visitor tokens
+ */
+public class MdLexParserTest extends BasePlatformTestCase {
+    private MdRenderingProfile myRenderingProfile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myRenderingProfile = MdRenderingProfile.getDEFAULT();
+    }
+
+    @NotNull
+    private PackedLexerTokens visitorTokens(@NotNull String text) {
+        Document document = MdLexParserManager.parseFlexmarkDocument(myRenderingProfile, text, true);
+        assertNotNull(document);
+        LexParserFlexmarkASTVisitor visitor = new LexParserFlexmarkASTVisitor(document);
+        visitor.build();
+        return visitor.getPackedTokens();
+    }
+
+    private void assertSameLexemes(@NotNull String message, @NotNull String text) {
+        PackedLexerTokens visitorTokens = visitorTokens(text);
+        PackedLexerTokens lexemes = MdLexParser.getData(visitorTokens);
+        LexerToken[] baseline = MdLexParserBaseline.getData(visitorTokens.toTokenArray());
+
+        if (baseline == null) {
+            assertEquals(message, 0, lexemes.size());
+            return;
+        }
+
+        assertEquals(message + " lexemes", baseline.length, lexemes.size());
+        for (int i = 0; i < baseline.length; i++) {
+            LexerToken token = baseline[i];
+            String tokenMessage = message + " lexeme " + i + " " + token;
+            assertEquals(tokenMessage, token.getRange().getStart(), lexemes.getStart(i));
+            assertEquals(tokenMessage, token.getRange().getEnd(), lexemes.getEnd(i));
+            assertEquals(tokenMessage, token.getElementType(), lexemes.getElementType(i));
+            assertEquals(tokenMessage, token.getNesting(), lexemes.getNesting(i));
+        }
+    }
+
+    private static void addFiles(@NotNull ArrayList<File> files, @NotNull File dir) {
+        File[] dirFiles = dir.listFiles();
+        if (dirFiles == null) return;
+
+        for (File file : dirFiles) {
+            if (file.isDirectory()) addFiles(files, file);
+            else if (file.getName().endsWith(".md")) files.add(file);
+        }
+    }
+
+    public void testPerformanceData() throws IOException {
+        ArrayList<File> files = new ArrayList<>();
+        addFiles(files, new File(MdLexParserBenchmark.PERFORMANCE_DATA_DIR));
+        assertFalse("missing " + MdLexParserBenchmark.PERFORMANCE_DATA_DIR, files.isEmpty());
+
+        for (File file : files) {
+            assertSameLexemes(file.getPath(), FileUtil.loadFile(file, StandardCharsets.UTF_8));
+        }
+    }
+
+    public void testSpecExamples() throws IOException {
+        ArrayList<String> examples = MdIncrementalLexParserTest.specExamples();
+        for (int i = 0; i < examples.size(); i++) {
+            assertSameLexemes("example " + (i + 1), examples.get(i));
+        }
+    }
+}
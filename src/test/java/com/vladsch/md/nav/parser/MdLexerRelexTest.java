@@ -0,0 +1,116 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.highlighter.MdSyntaxHighlighter;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Highlighter re-lexed after an edit must have the same tokens as a fresh lex of the edited text
+ */
+public class MdLexerRelexTest extends BasePlatformTestCase {
+    private static final int EDIT_POSITIONS = 20;
+
+    // text before and after the edit, the edit is the difference between them
+    private static final String[][] EDITS = {
+            // setext heading underline merges with the preceding paragraph
+            { "Heading text\n\n---\n\nmore *text*\n", "Heading text\n---\n\nmore *text*\n" },
+            { "Heading text\n\n===\n\nmore *text*\n", "Heading text\n===\n\nmore *text*\n" },
+            // lazy continuation of a block quote
+            { "> quoted text\n\nlazy *line*\n\nmore text\n", "> quoted text\nlazy *line*\n\nmore text\n" },
+            // reference definitions before and after the reference
+            { "see [ref] here\n\ntext\n\n", "see [ref] here\n\ntext\n\n[ref]: /url\n" },
+            { "text\n\nsee [ref] here\n", "[ref]: /url\n\ntext\n\nsee [ref] here\n" },
+            { "see [ref] here\n\n[ref]: /url\n", "see [ref] here\n\n[ref]: /url2 \"title\"\n" },
+            // abbreviation and footnote definitions
+            { "text ABBR\n\nmore text\n", "*[ABBR]: abbreviation\n\ntext ABBR\n\nmore text\n" },
+            { "text[^1]\n\nmore text\n", "text[^1]\n\nmore text\n\n[^1]: footnote\n" },
+            // tight list becomes loose
+            { "* item 1\n* item 2\n* item 3\n", "* item 1\n* item 2\n\n* item 3\n" },
+            // fenced code opened before following blocks
+            { "text\n\n``\n\n# Heading\n\n* item\n", "text\n\n```\n\n# Heading\n\n* item\n" },
+    };
+
+    @NotNull
+    private static LexerEditorHighlighter createHighlighter(@NotNull Document document) {
+        LexerEditorHighlighter highlighter = new LexerEditorHighlighter(new MdSyntaxHighlighter(MdRenderingProfile.getDEFAULT(), false, false), EditorColorsManager.getInstance().getGlobalScheme());
+        highlighter.setText(document.getImmutableCharSequence());
+        return highlighter;
+    }
+
+    @NotNull
+    private static String dump(@NotNull LexerEditorHighlighter highlighter) {
+        StringBuilder out = new StringBuilder();
+        HighlighterIterator iterator = highlighter.createIterator(0);
+        while (!iterator.atEnd()) {
+            out.append(iterator.getTokenType()).append('[').append(iterator.getStart()).append(", ").append(iterator.getEnd()).append("]\n");
+            iterator.advance();
+        }
+        return out.toString();
+    }
+
+    private void assertRelex(@NotNull String message, @NotNull String text, @NotNull String editedText) {
+        int length = text.length();
+        int editedLength = editedText.length();
+        int maxCommon = Math.min(length, editedLength);
+
+        int prefix = 0;
+        while (prefix < maxCommon && text.charAt(prefix) == editedText.charAt(prefix)) prefix++;
+
+        int suffix = 0;
+        while (suffix < maxCommon - prefix && text.charAt(length - suffix - 1) == editedText.charAt(editedLength - suffix - 1)) suffix++;
+
+        Document document = EditorFactory.getInstance().createDocument(text);
+        LexerEditorHighlighter highlighter = createHighlighter(document);
+        document.addDocumentListener(highlighter);
+
+        int changeStart = prefix;
+        int changeEnd = length - suffix;
+        String replacement = editedText.substring(prefix, editedLength - suffix);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.replaceString(changeStart, changeEnd, replacement));
+        assertEquals(editedText, document.getText());
+
+        LexerEditorHighlighter freshHighlighter = createHighlighter(EditorFactory.getInstance().createDocument(editedText));
+        assertEquals(message, dump(freshHighlighter), dump(highlighter));
+    }
+
+    public void testEdits() {
+        for (String[] edit : EDITS) {
+            assertRelex("edit: " + edit[0], edit[0], edit[1]);
+            assertRelex("undo: " + edit[1], edit[1], edit[0]);
+        }
+    }
+
+    public void testEditsInSpecExamples() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String example : MdIncrementalLexParserTest.specExamples()) {
+            if (example.isEmpty()) continue;
+            sb.append(example).append("\n\n");
+        }
+
+        String text = sb.toString();
+        int step = Math.max(1, text.length() / EDIT_POSITIONS);
+        int editIndex = 0;
+
+        for (int offset = 0; offset < text.length(); offset += step) {
+            // edits are inserted at a line start, following a blank line
+            int lineStart = text.lastIndexOf("\n\n", offset);
+            int insertOffset = lineStart < 0 ? 0 : lineStart + 2;
+
+            String[] edit = EDITS[editIndex++ % EDITS.length];
+            String before = text.substring(0, insertOffset) + edit[0] + text.substring(insertOffset);
+            String after = text.substring(0, insertOffset) + edit[1] + text.substring(insertOffset);
+
+            assertRelex("edit at " + insertOffset + ": " + edit[0], before, after);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.lang.FCTSBackedLighterAST;
+import com.intellij.lang.FileASTNode;
+import com.intellij.lang.LighterAST;
+import com.intellij.lang.TreeBackedLighterAST;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.stubs.LightStubBuilder;
+import com.intellij.psi.stubs.SerializationManagerEx;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import com.vladsch.md.nav.settings.MdDebugSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Stubs built from {@link MdLightStubTree} must be the same as the ones built from the PsiBuilder light tree and
+ * from the PSI tree of the file
+ */
+public class MdLightStubTreeTest extends BasePlatformTestCase {
+    static final int SYNTHETIC_FILES = 20;
+
+    private MdDebugSettings myDebugSettings;
+    private boolean mySavedLightStubTreeIndexing;
+    private int myFileCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myDebugSettings = MdApplicationSettings.getInstance().getDebugSettings();
+        mySavedLightStubTreeIndexing = myDebugSettings.getLightStubTreeIndexing();
+        myFileCount = 0;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            myDebugSettings.setLightStubTreeIndexing(mySavedLightStubTreeIndexing);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    @NotNull
+    private LighterAST lightTree(@NotNull PsiFile file, boolean lightStubTreeIndexing) {
+        myDebugSettings.setLightStubTreeIndexing(lightStubTreeIndexing);
+        FileASTNode node = file.getNode();
+        return new FCTSBackedLighterAST(node.getCharTable(), MdFileElementType.INSTANCE.parseContentsLight(node));
+    }
+
+    @NotNull
+    private static StubElement<?> buildStubs(@NotNull PsiFile file, @NotNull LighterAST tree) {
+        LightStubBuilder.FORCED_AST.set(tree);
+        try {
+            StubElement<?> stub = new LightStubBuilder().buildStubTree(file);
+            assertNotNull(stub);
+            return stub;
+        } finally {
+            LightStubBuilder.FORCED_AST.set(null);
+        }
+    }
+
+    @NotNull
+    private static byte[] serialize(@NotNull StubElement<?> stub) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationManagerEx.getInstanceEx().serialize(stub, out);
+        return out.toByteArray();
+    }
+
+    private void assertSameStubs(@NotNull String message, @NotNull String text) {
+        PsiFile file = myFixture.addFileToProject("file" + (++myFileCount) + ".md", text);
+
+        StubElement<?> lightStubs = buildStubs(file, lightTree(file, true));
+        StubElement<?> builderStubs = buildStubs(file, lightTree(file, false));
+        StubElement<?> psiStubs = buildStubs(file, new TreeBackedLighterAST(file.getNode()));
+
+        String expected = DebugUtil.stubTreeToString(psiStubs);
+        assertEquals(message + " PsiBuilder", expected, DebugUtil.stubTreeToString(builderStubs));
+        assertEquals(message + " light stub tree", expected, DebugUtil.stubTreeToString(lightStubs));
+
+        byte[] serialized = serialize(builderStubs);
+        assertTrue(message + " serialized", Arrays.equals(serialized, serialize(lightStubs)));
+        assertTrue(message + " serialized PSI", Arrays.equals(serialized, serialize(psiStubs)));
+    }
+
+    private static void addFiles(@NotNull ArrayList<File> files, @NotNull File dir) {
+        File[] dirFiles = dir.listFiles();
+        if (dirFiles == null) return;
+
+        for (File file : dirFiles) {
+            if (file.isDirectory()) addFiles(files, file);
+            else if (file.getName().endsWith(".md")) files.add(file);
+        }
+    }
+
+    public void testPerformanceData() throws IOException {
+        ArrayList<File> files = new ArrayList<>();
+        addFiles(files, new File(MdLexParserBenchmark.PERFORMANCE_DATA_DIR));
+        assertFalse("missing " + MdLexParserBenchmark.PERFORMANCE_DATA_DIR, files.isEmpty());
+
+        for (File file : files) {
+            assertSameStubs(file.getPath(), FileUtil.loadFile(file, StandardCharsets.UTF_8));
+        }
+    }
+
+    public void testSyntheticFiles() {
+        // generated the same way as the MdStubTreeBenchmark corpus
+        Random random = new Random(SYNTHETIC_FILES);
+        for (int i = 0; i < SYNTHETIC_FILES; i++) {
+            assertSameStubs("synthetic " + i, MdStubTreeBenchmark.syntheticFile(random, i));
+        }
+    }
+
+    public void testEmptyFile() {
+        assertSameStubs("empty", "");
+    }
+}
@@ -0,0 +1,144 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser;
+
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.util.Ref;
+import com.intellij.util.diff.FlyweightCapableTreeStructure;
+import com.vladsch.md.nav.settings.MdRenderingProfile;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stub tree building over a synthetic corpus, PsiBuilder light tree vs {@link MdLightStubTree}, run by
+ * {@link MdLexParserBenchmarkTest} since parsing needs the platform application.
+ * <p>
+ * One operation builds and walks the stub trees of the whole corpus. Both benchmarks parse each file uncached with
+ * {@link MdLexParserManager#parseMarkdownForStubs(MdRenderingProfile, CharSequence)}, the PsiBuilder through the
+ * stub lexer, so they differ only in how the tree is built.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MdStubTreeBenchmark {
+    @State(Scope.Benchmark)
+    public static class CorpusState {
+        @Param({ "10000" })
+        public int fileCount;
+
+        MdRenderingProfile renderingProfile;
+        MdParserDefinition parserDefinition;
+        String[] files;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            renderingProfile = MdRenderingProfile.getDEFAULT();
+            parserDefinition = new MdParserDefinition();
+            files = new String[fileCount];
+
+            Random random = new Random(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                files[i] = syntheticFile(random, i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class NodeCounter {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    static String syntheticFile(Random random, int index) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Document ").append(index).append("\n\n");
+
+        int sections = 2 + random.nextInt(6);
+        for (int s = 0; s < sections; s++) {
+            sb.append("## Section ").append(s).append("\n\n");
+
+            int paragraphs = 1 + random.nextInt(4);
+            for (int p = 0; p < paragraphs; p++) {
+                sb.append("Some text with a [link](doc").append(random.nextInt(1000)).append(".md#section-").append(s).append(")");
+                sb.append(", a [[Wiki Page ").append(random.nextInt(100)).append("]] and **bold** text");
+                if (random.nextBoolean()) sb.append(", ![image](images/img").append(random.nextInt(50)).append(".png)");
+                if (random.nextBoolean()) sb.append(", a [reference][ref").append(p).append("]");
+                sb.append(" and <https://example.com/page").append(random.nextInt(100)).append(">.\n\n");
+            }
+
+            if (random.nextBoolean()) {
+                int items = 2 + random.nextInt(5);
+                for (int item = 0; item < items; item++) {
+                    sb.append("* item ").append(item).append(" see [item](item").append(item).append(".md)\n");
+                }
+                sb.append("\n");
+            }
+
+            if (random.nextInt(3) == 0) {
+                sb.append("```java\nclass Test").append(s).append(" {\n}\n```\n\n");
+            }
+        }
+
+        for (int p = 0; p < 4; p++) {
+            sb.append("[ref").append(p).append("]: refs/ref").append(p).append(".md\n");
+        }
+        return sb.toString();
+    }
+
+    static long walk(FlyweightCapableTreeStructure<LighterASTNode> tree, LighterASTNode node) {
+        long count = 1;
+        Ref<LighterASTNode[]> children = new Ref<>();
+        int size = tree.getChildren(tree.prepareForGetChildren(node), children);
+        for (int i = 0; i < size; i++) {
+            count += walk(tree, children.get()[i]);
+        }
+        tree.disposeChildren(children.get(), size);
+        return count;
+    }
+
+    @Benchmark
+    public long psiBuilderTree(CorpusState state, NodeCounter counter) {
+        PsiBuilderFactory factory = PsiBuilderFactory.getInstance();
+        long nodes = 0;
+
+        for (String file : state.files) {
+            MdLexer lexer = MdLexer.createStubLexer(state.renderingProfile);
+            PsiBuilder builder = factory.createBuilder(state.parserDefinition, lexer, file);
+            FlyweightCapableTreeStructure<LighterASTNode> tree = new MdParserAdapter().parseLightStub(MdFileElementType.INSTANCE, builder);
+            nodes += walk(tree, tree.getRoot());
+        }
+
+        counter.nodes += nodes;
+        return nodes;
+    }
+
+    @Benchmark
+    public long lightStubTree(CorpusState state, NodeCounter counter) {
+        long nodes = 0;
+
+        for (String file : state.files) {
+            LexerData lexerData = MdLexParserManager.parseMarkdownForStubs(state.renderingProfile, file);
+            MdLightStubTree tree = MdLightStubTree.build(file, lexerData);
+            nodes += walk(tree, tree.getRoot());
+        }
+
+        counter.nodes += nodes;
+        return nodes;
+    }
+}
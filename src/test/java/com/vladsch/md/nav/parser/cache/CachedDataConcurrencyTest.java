@@ -0,0 +1,233 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
+import com.vladsch.md.nav.parser.cache.data.CachedDataOwner;
+import com.vladsch.md.nav.parser.cache.data.CachedDataSet;
+import com.vladsch.md.nav.parser.cache.data.dependency.DataDependency;
+import com.vladsch.md.nav.parser.cache.data.transaction.CachedTransactionContext;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-threaded stress test of compute once cached values, each key value is computed by one thread for every
+ * version of its dependencies while the other threads wait for it.
+ */
+public class CachedDataConcurrencyTest extends BasePlatformTestCase {
+    static final int THREADS = 8;
+    static final int ROUNDS = 50;
+    static final int GETS_PER_ROUND = 20;
+
+    static class TestOwner implements CachedDataOwner {
+        final @NotNull Project myProject;
+        final @NotNull CachedDataSet myCachedData = new CachedDataSet("TestOwner");
+
+        TestOwner(@NotNull Project project) {
+            myProject = project;
+        }
+
+        @NotNull
+        @Override
+        public Project getProject() {
+            return myProject;
+        }
+
+        @NotNull
+        @Override
+        public CachedDataSet getCachedData() {
+            return myCachedData;
+        }
+    }
+
+    static class TestDependency implements DataDependency {
+        final AtomicLong myVersion = new AtomicLong(1);
+
+        @Override
+        public long getVersion() {
+            return myVersion.get();
+        }
+
+        @Override
+        public String toString() {
+            return "TestDependency{" + myVersion.get() + '}';
+        }
+    }
+
+    final TestDependency myChildDependency = new TestDependency();
+    final TestDependency myParentDependency = new TestDependency();
+    final AtomicInteger myChildComputes = new AtomicInteger();
+    final AtomicInteger myParentComputes = new AtomicInteger();
+
+    final CachedDataKey<TestOwner, Long> CHILD = new CachedDataKey<TestOwner, Long>("TEST_CHILD") {
+        @NotNull
+        @Override
+        public Long compute(@NotNull CachedTransactionContext<TestOwner> context) {
+            myChildComputes.incrementAndGet();
+            context.addDependency(myChildDependency);
+            pause();
+            return myChildDependency.getVersion();
+        }
+
+        @Override
+        public boolean isValid(@NotNull Long value) {
+            return true;
+        }
+    };
+
+    final CachedDataKey<TestOwner, Long> PARENT = new CachedDataKey<TestOwner, Long>("TEST_PARENT") {
+        @NotNull
+        @Override
+        public Long compute(@NotNull CachedTransactionContext<TestOwner> context) {
+            myParentComputes.incrementAndGet();
+            long child = context.get(CHILD);
+            context.addDependency(myParentDependency);
+            pause();
+            return child * 1000 + myParentDependency.getVersion();
+        }
+
+        @Override
+        public boolean isValid(@NotNull Long value) {
+            return true;
+        }
+    };
+
+    static void pause() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    public void testComputeOnce() throws Exception {
+        TestOwner owner = new TestOwner(getProject());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            int expectedChildComputes = 0;
+            int expectedParentComputes = 0;
+
+            for (int round = 0; round < ROUNDS; round++) {
+                // dependencies only change between rounds, while no computation is in progress
+                if (round % 3 == 1) {
+                    myParentDependency.myVersion.incrementAndGet();
+                } else if (round > 0) {
+                    myChildDependency.myVersion.incrementAndGet();
+                    expectedChildComputes++;
+                }
+                if (round == 0) expectedChildComputes++;
+                expectedParentComputes++;
+
+                long expectedChild = myChildDependency.getVersion();
+                long expectedParent = expectedChild * 1000 + myParentDependency.getVersion();
+                int finalRound = round;
+
+                ArrayList<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    int thread = t;
+                    futures.add(executor.submit(() -> {
+                        barrier.await();
+                        for (int i = 0; i < GETS_PER_ROUND; i++) {
+                            // mix of threads getting the child directly and through the parent
+                            if ((thread + i) % 3 == 0) {
+                                long child = CachedData.get(owner, CHILD);
+                                if (child != expectedChild) errors.add("round " + finalRound + " child " + child + " expected " + expectedChild);
+                            } else {
+                                long parent = CachedData.get(owner, PARENT);
+                                if (parent != expectedParent) errors.add("round " + finalRound + " parent " + parent + " expected " + expectedParent);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+
+                for (Future<?> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+
+                assertEquals("round " + round, Collections.emptyList(), errors);
+                assertEquals("child computes round " + round, expectedChildComputes, myChildComputes.get());
+                assertEquals("parent computes round " + round, expectedParentComputes, myParentComputes.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testAwaitCanceled() throws Exception {
+        TestOwner owner = new TestOwner(getProject());
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CachedDataKey<TestOwner, Long> SLOW = new CachedDataKey<TestOwner, Long>("TEST_SLOW") {
+            @NotNull
+            @Override
+            public Long compute(@NotNull CachedTransactionContext<TestOwner> context) {
+                computing.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                return 42L;
+            }
+
+            @Override
+            public boolean isValid(@NotNull Long value) {
+                return true;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Long> computed = executor.submit(() -> CachedData.get(owner, SLOW));
+            assertTrue(computing.await(30, TimeUnit.SECONDS));
+
+            EmptyProgressIndicator indicator = new EmptyProgressIndicator();
+            AtomicReference<Throwable> thrown = new AtomicReference<>();
+            Future<?> waiting = executor.submit(() -> {
+                try {
+                    ProgressManager.getInstance().runProcess(() -> CachedData.get(owner, SLOW), indicator);
+                } catch (Throwable e) {
+                    thrown.set(e);
+                }
+            });
+
+            Thread.sleep(50);
+            indicator.cancel();
+            waiting.get(30, TimeUnit.SECONDS);
+
+            assertTrue("expected ProcessCanceledException, got " + thrown.get(), thrown.get() instanceof ProcessCanceledException);
+            assertFalse(computed.isDone());
+
+            release.countDown();
+            assertEquals(Long.valueOf(42L), computed.get(30, TimeUnit.SECONDS));
+            assertEquals(Long.valueOf(42L), CachedData.get(owner, SLOW));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
+import com.vladsch.md.nav.parser.cache.data.CachedDataMemoryBudget;
+import com.vladsch.md.nav.parser.cache.data.CachedDataSet;
+import com.vladsch.md.nav.parser.cache.data.dependency.DataDependency;
+import com.vladsch.md.nav.parser.cache.data.transaction.CachedTransactionContext;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import com.vladsch.md.nav.settings.MdDebugSettings;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sizes of cached values are tracked by the memory budget and least recently used values are evicted when over budget
+ */
+public class CachedDataMemoryBudgetTest extends BasePlatformTestCase {
+    static final long KB = 1024;
+    static final int BUDGET_MB = 1;
+
+    static class SizedValue {
+        long mySize;
+
+        SizedValue(long size) {
+            mySize = size;
+        }
+    }
+
+    static class SizedKey extends CachedDataKey<CachedDataConcurrencyTest.TestOwner, SizedValue> {
+        SizedKey(@NotNull String name) {
+            super(name);
+        }
+
+        @NotNull
+        @Override
+        public SizedValue compute(@NotNull CachedTransactionContext<CachedDataConcurrencyTest.TestOwner> context) {
+            return new SizedValue(0);
+        }
+
+        @Override
+        public boolean isValid(@NotNull SizedValue value) {
+            return true;
+        }
+
+        @Override
+        public long estimateSize(@NotNull SizedValue value) {
+            return value.mySize;
+        }
+    }
+
+    final SizedKey KEY_A = new SizedKey("TEST_A");
+    final SizedKey KEY_B = new SizedKey("TEST_B");
+    final SizedKey KEY_C = new SizedKey("TEST_C");
+
+    private MdDebugSettings myDebugSettings;
+    private int mySavedBudget;
+    private CachedDataMemoryBudget myBudget;
+    private CachedDataSet myDataSet;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myDebugSettings = MdApplicationSettings.getInstance().getDebugSettings();
+        mySavedBudget = myDebugSettings.getCachedDataMemoryBudget();
+        myDebugSettings.setCachedDataMemoryBudget(BUDGET_MB);
+        myBudget = CachedDataMemoryBudget.getInstance();
+        myDataSet = new CachedDataConcurrencyTest.TestOwner(getProject()).getCachedData();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            myDataSet.clearCachedData();
+            myDebugSettings.setCachedDataMemoryBudget(mySavedBudget);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    private void setValue(@NotNull SizedKey dataKey, @NotNull SizedValue value) {
+        myDataSet.setValue(dataKey, value, new DataDependency[0], new long[0]);
+    }
+
+    public void testSizeAccounting() {
+        long totalSize = myBudget.getTotalSize();
+
+        setValue(KEY_A, new SizedValue(100 * KB));
+        setValue(KEY_B, new SizedValue(200 * KB));
+        assertEquals(totalSize + 300 * KB, myBudget.getTotalSize());
+
+        // replaced value is only counted once
+        setValue(KEY_A, new SizedValue(50 * KB));
+        assertEquals(totalSize + 250 * KB, myBudget.getTotalSize());
+
+        myDataSet.remove(KEY_B);
+        assertEquals(totalSize + 50 * KB, myBudget.getTotalSize());
+
+        myDataSet.clearCachedData();
+        assertEquals(totalSize, myBudget.getTotalSize());
+    }
+
+    public void testBudgetDisabled() {
+        long totalSize = myBudget.getTotalSize();
+        setValue(KEY_A, new SizedValue(100 * KB));
+        assertEquals(totalSize + 100 * KB, myBudget.getTotalSize());
+
+        // value replaced while disabled is no longer counted, new values are not recorded
+        myDebugSettings.setCachedDataMemoryBudget(0);
+        setValue(KEY_A, new SizedValue(200 * KB));
+        setValue(KEY_B, new SizedValue(200 * KB));
+        assertEquals(totalSize, myBudget.getTotalSize());
+    }
+
+    public void testCollectedDataSetRemoved() {
+        long totalSize = myBudget.getTotalSize();
+
+        CachedDataSet dataSet = new CachedDataConcurrencyTest.TestOwner(getProject()).getCachedData();
+        dataSet.setValue(KEY_B, new SizedValue(100 * KB), new DataDependency[0], new long[0]);
+        assertEquals(totalSize + 100 * KB, myBudget.getTotalSize());
+
+        //noinspection UnusedAssignment
+        dataSet = null;
+        for (int i = 0; i < 10 && myBudget.getTotalSize() > totalSize; i++) {
+            System.gc();
+
+            // collected entries are removed on the next add
+            setValue(KEY_A, new SizedValue(0));
+        }
+        assertEquals(totalSize, myBudget.getTotalSize());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        SizedValue valueA = new SizedValue(400 * KB);
+        setValue(KEY_A, valueA);
+        setValue(KEY_B, new SizedValue(400 * KB));
+
+        // A is now more recently used than B
+        myDataSet.accessed(KEY_A, valueA);
+
+        long evictions = myBudget.getEvictions();
+        setValue(KEY_C, new SizedValue(400 * KB));
+
+        assertNotNull(myDataSet.getOrNull(KEY_A));
+        assertNull(myDataSet.getOrNull(KEY_B));
+        assertNotNull(myDataSet.getOrNull(KEY_C));
+        assertTrue(myBudget.getEvictions() > evictions);
+        assertTrue(myBudget.getTotalSize() <= BUDGET_MB * KB * KB * CachedDataMemoryBudget.LOW_WATER_PERCENT / 100);
+    }
+
+    public void testGrowthSampledOnAccess() {
+        long totalSize = myBudget.getTotalSize();
+        SizedValue value = new SizedValue(100 * KB);
+        setValue(KEY_A, value);
+
+        value.mySize = 200 * KB;
+        for (int i = 1; i < CachedDataMemoryBudget.SIZE_SAMPLE_HITS; i++) {
+            myDataSet.accessed(KEY_A, value);
+        }
+        assertEquals(totalSize + 100 * KB, myBudget.getTotalSize());
+
+        myDataSet.accessed(KEY_A, value);
+        assertEquals(totalSize + 200 * KB, myBudget.getTotalSize());
+    }
+
+    public void testGrowthOverBudgetEvicts() {
+        SizedValue valueA = new SizedValue(100 * KB);
+        setValue(KEY_A, valueA);
+        setValue(KEY_B, new SizedValue(400 * KB));
+
+        valueA.mySize = 800 * KB;
+        for (int i = 0; i < CachedDataMemoryBudget.SIZE_SAMPLE_HITS; i++) {
+            myDataSet.accessed(KEY_A, valueA);
+        }
+
+        assertNotNull(myDataSet.getOrNull(KEY_A));
+        assertNull(myDataSet.getOrNull(KEY_B));
+    }
+}
@@ -0,0 +1,169 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.intellij.testFramework.fixtures.TempDirTestFixture;
+import com.intellij.testFramework.fixtures.impl.TempDirTestFixtureImpl;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.CachedLink;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.CachedLinkData;
+import com.vladsch.md.nav.psi.element.MdFile;
+import com.vladsch.md.nav.psi.util.MdLinkType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Stored links are restored in the next session only for files with the same timestamp and length, or the same content,
+ * as when their links were registered
+ */
+public class MdResolvedLinksStoreTest extends BasePlatformTestCase {
+    static final String TEXT = "[link](other.md)\n";
+
+    private File myStoreFile;
+    private final ArrayList<MdResolvedLinksStore> myStores = new ArrayList<>();
+
+    @Override
+    protected TempDirTestFixture getTempDirFixture() {
+        // stored links are only kept for local files
+        return new TempDirTestFixtureImpl();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myStoreFile = FileUtil.createTempFile("resolved-links", ".dat", true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            // stores are registered with the light project which outlives the test
+            for (MdResolvedLinksStore store : myStores) {
+                Disposer.dispose(store);
+            }
+            myStores.clear();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    @NotNull
+    private MdFile saveLinks(@NotNull String text) {
+        return saveLinks(text, null);
+    }
+
+    /**
+     * @param text        file text when links are registered
+     * @param savedText   file text when the store is saved, null if not changed
+     * @return file
+     */
+    @NotNull
+    private MdFile saveLinks(@NotNull String text, @Nullable String savedText) {
+        VirtualFile otherFile = myFixture.addFileToProject("other.md", "").getVirtualFile();
+        PsiFile psiFile = myFixture.addFileToProject("test.md", text);
+        assertTrue(psiFile.getVirtualFile().isInLocalFileSystem());
+
+        CachedLinkData linkData = new CachedLinkData();
+        linkData.myFilePath = psiFile.getVirtualFile().getPath();
+        linkData.addCachedLink(CachedLink.cacheLink(MdLinkType.LINK, "other.md", otherFile.getUrl(), true, true));
+        linkData.addCachedLink(CachedLink.cacheUndefinedLink(MdLinkType.LINK, "missing.md", true));
+
+        MdResolvedLinksStore store = new MdResolvedLinksStore(getProject(), myStoreFile);
+        store.updateLinks((MdFile) psiFile, linkData);
+        if (savedText != null) {
+            try {
+                setContent(psiFile.getVirtualFile(), savedText);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        store.save();
+        Disposer.dispose(store);
+        return (MdFile) psiFile;
+    }
+
+    @NotNull
+    private MdResolvedLinksStore nextSession() {
+        MdResolvedLinksStore store = new MdResolvedLinksStore(getProject(), myStoreFile);
+        myStores.add(store);
+        return store;
+    }
+
+    private static void setContent(@NotNull VirtualFile file, @NotNull String text) throws IOException {
+        WriteAction.runAndWait(() -> VfsUtil.saveText(file, text));
+    }
+
+    public void testTimeStampMatch() {
+        MdFile file = saveLinks(TEXT);
+
+        CachedLinkData linkData = nextSession().restoreLinks(file);
+        assertNotNull(linkData);
+        assertEquals(file.getVirtualFile().getPath(), linkData.myFilePath);
+        assertNotNull(linkData.getCachedLink(MdLinkType.LINK, "other.md"));
+
+        // undefined links are resolved again
+        assertNull(linkData.getCachedLink(MdLinkType.LINK, "missing.md"));
+    }
+
+    public void testContentHashMatch() throws IOException {
+        MdFile file = saveLinks(TEXT);
+
+        // same content with a different timestamp, as after a checkout
+        VirtualFile virtualFile = file.getVirtualFile();
+        File ioFile = new File(virtualFile.getPath());
+        assertTrue(ioFile.setLastModified(ioFile.lastModified() - 10000));
+        virtualFile.refresh(false, false);
+
+        CachedLinkData linkData = nextSession().restoreLinks(file);
+        assertNotNull(linkData);
+        assertNotNull(linkData.getCachedLink(MdLinkType.LINK, "other.md"));
+    }
+
+    public void testStaleLinksDiscarded() throws IOException {
+        MdFile file = saveLinks(TEXT);
+
+        setContent(file.getVirtualFile(), "[changed](other.md)\n");
+        MdFile changedFile = (MdFile) myFixture.getPsiManager().findFile(file.getVirtualFile());
+        assertNotNull(changedFile);
+
+        MdResolvedLinksStore store = nextSession();
+        assertNull(store.restoreLinks(changedFile));
+
+        // discarded links are not restored on the next request
+        setContent(file.getVirtualFile(), TEXT);
+        assertNull(store.restoreLinks(changedFile));
+    }
+
+    public void testChangedAfterUpdateDiscarded() {
+        // stored with the stamps of the text the links were resolved for, not of the text at save
+        MdFile file = saveLinks(TEXT, "[changed](other.md)\n");
+        MdFile changedFile = (MdFile) myFixture.getPsiManager().findFile(file.getVirtualFile());
+        assertNotNull(changedFile);
+
+        assertNull(nextSession().restoreLinks(changedFile));
+    }
+
+    public void testDeletedFileDropped() throws IOException {
+        MdFile file = saveLinks(TEXT);
+        VirtualFile virtualFile = file.getVirtualFile();
+        String path = virtualFile.getPath();
+
+        MdResolvedLinksStore store = nextSession();
+        CachedLinkData linkData = store.restoreLinks(file);
+        assertNotNull(linkData);
+        store.updateLinks(file, linkData);
+        assertTrue(store.hasLiveLinks(path));
+
+        WriteAction.runAndWait(() -> virtualFile.delete(this));
+        assertFalse(store.hasLiveLinks(path));
+    }
+}
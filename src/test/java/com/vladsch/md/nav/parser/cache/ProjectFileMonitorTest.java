@@ -0,0 +1,196 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.parser.cache;
+
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.MdFileType;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.CachedLink;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.CachedLinkData;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks.LinkProjectFilePredicate;
+import com.vladsch.md.nav.parser.cache.data.CachedDataKey;
+import com.vladsch.md.nav.parser.cache.data.CachedDataSet;
+import com.vladsch.md.nav.parser.cache.data.dependency.DataKeyDependency;
+import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFileDependency;
+import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFilePredicate;
+import com.vladsch.md.nav.parser.cache.data.dependency.ProjectFileScope;
+import com.vladsch.md.nav.parser.cache.data.transaction.CachedTransactionContext;
+import com.vladsch.md.nav.psi.element.MdFile;
+import com.vladsch.md.nav.psi.util.MdLinkType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Project file predicates are only tested for files in their scope, looked up by path, extension, directory and
+ * file type, and re-indexed when their scope changes
+ */
+public class ProjectFileMonitorTest extends BasePlatformTestCase {
+    static class ScopedPredicate implements ProjectFilePredicate {
+        @Nullable ProjectFileScope myScope;
+
+        ScopedPredicate(@Nullable ProjectFileScope scope) {
+            myScope = scope;
+        }
+
+        @Override
+        public boolean test(@NotNull PsiFile psiFile) {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public ProjectFileScope getFileScope() {
+            return myScope;
+        }
+    }
+
+    final CachedDataKey<CachedDataConcurrencyTest.TestOwner, Long> KEY = new CachedDataKey<CachedDataConcurrencyTest.TestOwner, Long>("TEST_SCOPE") {
+        @NotNull
+        @Override
+        public Long compute(@NotNull CachedTransactionContext<CachedDataConcurrencyTest.TestOwner> context) {
+            return 0L;
+        }
+
+        @Override
+        public boolean isValid(@NotNull Long value) {
+            return true;
+        }
+    };
+
+    private ProjectFileMonitor myMonitor;
+    private int myDataSetCount;
+    private VirtualFile myReadme;
+    private VirtualFile myImage;
+    private VirtualFile myNotes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // not the project service, only dependencies added by the test are indexed
+        myMonitor = new ProjectFileMonitor(getProject());
+        myDataSetCount = 0;
+        myReadme = myFixture.addFileToProject("docs/Readme.md", "").getVirtualFile();
+        myImage = myFixture.addFileToProject("docs/images/image.png", "").getVirtualFile();
+        myNotes = myFixture.addFileToProject("notes/notes.txt", "").getVirtualFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            // registered with the light project which outlives the test
+            Disposer.dispose(myMonitor);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    @NotNull
+    private ProjectFileDependency addDependency(@NotNull ProjectFilePredicate predicate) {
+        CachedDataSet cachedData = new CachedDataSet("ProjectFileMonitorTest" + (++myDataSetCount));
+        return myMonitor.getDependency(new DataKeyDependency(cachedData, KEY), predicate);
+    }
+
+    private void assertCandidate(@NotNull ProjectFileDependency dependency, @NotNull VirtualFile... virtualFiles) {
+        for (VirtualFile virtualFile : new VirtualFile[] { myReadme, myImage, myNotes }) {
+            boolean expected = false;
+            for (VirtualFile candidate : virtualFiles) {
+                if (candidate.equals(virtualFile)) {
+                    expected = true;
+                    break;
+                }
+            }
+            assertEquals(virtualFile.getPath(), expected, myMonitor.getCandidateDependencies(virtualFile).contains(dependency));
+        }
+    }
+
+    public void testFilePath() {
+        ProjectFileDependency dependency = addDependency(new ScopedPredicate(new ProjectFileScope().addFilePath(myReadme.getPath())));
+        assertCandidate(dependency, myReadme);
+    }
+
+    public void testExtension() {
+        ProjectFileDependency dependency = addDependency(new ScopedPredicate(new ProjectFileScope().addExtension("png")));
+        assertCandidate(dependency, myImage);
+    }
+
+    public void testDirectory() {
+        ProjectFileDependency dependency = addDependency(new ScopedPredicate(new ProjectFileScope().addDirectory(myReadme.getParent().getPath())));
+        assertCandidate(dependency, myReadme, myImage);
+    }
+
+    public void testFileType() {
+        ProjectFileDependency dependency = addDependency(new ScopedPredicate(new ProjectFileScope().addFileType(MdFileType.INSTANCE)));
+        assertCandidate(dependency, myReadme);
+    }
+
+    public void testAnyFile() {
+        ProjectFileDependency dependency = addDependency(new ScopedPredicate(null));
+        assertCandidate(dependency, myReadme, myImage, myNotes);
+    }
+
+    public void testEmptyScope() {
+        ProjectFileDependency dependency = addDependency(new ScopedPredicate(new ProjectFileScope()));
+        assertCandidate(dependency);
+    }
+
+    public void testUpdateFileScope() {
+        ScopedPredicate predicate = new ScopedPredicate(new ProjectFileScope().addExtension("png"));
+        ProjectFileDependency dependency = addDependency(predicate);
+        assertCandidate(dependency, myImage);
+
+        // not re-indexed until updated
+        predicate.myScope = new ProjectFileScope().addExtension("txt");
+        assertCandidate(dependency, myImage);
+
+        myMonitor.updateFileScope(predicate);
+        assertCandidate(dependency, myNotes);
+        assertFalse(myMonitor.myExtensionDependencies.containsKey("png"));
+
+        predicate.myScope = null;
+        myMonitor.updateFileScope(predicate);
+        assertCandidate(dependency, myReadme, myImage, myNotes);
+
+        predicate.myScope = new ProjectFileScope().addFilePath(myReadme.getPath());
+        myMonitor.updateFileScope(predicate);
+        assertCandidate(dependency, myReadme);
+        assertFalse(myMonitor.myAnyFileDependencies.contains(dependency));
+    }
+
+    public void testRemovedDependency() {
+        ScopedPredicate predicate = new ScopedPredicate(new ProjectFileScope().addExtension("png").addDirectory(myNotes.getParent().getPath()));
+        ProjectFileDependency dependency = addDependency(predicate);
+        assertCandidate(dependency, myImage, myNotes);
+
+        myMonitor.removeDependency(dependency);
+        assertCandidate(dependency);
+        assertTrue(myMonitor.myExtensionDependencies.isEmpty());
+        assertTrue(myMonitor.myDirectoryDependencies.isEmpty());
+
+        // removed predicate is not re-indexed
+        predicate.myScope = null;
+        myMonitor.updateFileScope(predicate);
+        assertCandidate(dependency);
+    }
+
+    public void testLinkPredicateScope() {
+        MdFile file = (MdFile) myFixture.addFileToProject("links.md", "");
+
+        CachedLinkData linkData = new CachedLinkData();
+        linkData.myFilePath = file.getVirtualFile().getPath();
+        LinkProjectFilePredicate predicate = new LinkProjectFilePredicate(file, linkData);
+        ProjectFileDependency dependency = addDependency(predicate);
+        assertCandidate(dependency);
+
+        // undefined links are invalidated by files with their extension
+        linkData.addCachedLink(CachedLink.cacheUndefinedLink(MdLinkType.LINK, "missing.png", false));
+        myMonitor.updateFileScope(predicate);
+        assertCandidate(dependency, myImage);
+
+        // widened to any file when invalidated on the next notification
+        linkData.myNextIsValid = false;
+        assertNull(predicate.getFileScope());
+        myMonitor.updateFileScope(predicate);
+        assertCandidate(dependency, myReadme, myImage, myNotes);
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.util;
+
+import kotlin.text.StringsKt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Previous implementation of {@link PathInfo} path cleaning, part appending and part comparisons, done on extracted
+ * part strings, kept as the baseline of {@link PathInfoBenchmark}
+ */
+public class PathInfoBaseline {
+    @NotNull
+    public static String cleanFullPath(@Nullable CharSequence fullPath) {
+        String cleanPath = PathInfo.removeDotDirectory(fullPath == null ? null : StringsKt.trim(fullPath)).replace('\\', '/');
+        if (!cleanPath.endsWith("//") && !cleanPath.equals("/")) cleanPath = StringsKt.removeSuffix(cleanPath, "/");
+        return StringsKt.removeSuffix(cleanPath, ".");
+    }
+
+    @NotNull
+    public static String appendParts(@Nullable String fullPath, @NotNull String... parts) {
+        String path = cleanFullPath(fullPath);
+
+        for (String mainPart : parts) {
+            for (String part : mainPart.replace('\\', '/').split("/", -1)) {
+                String cleanPart = StringsKt.removeSuffix(StringsKt.removePrefix(part, "/"), "/");
+                if (!cleanPart.equals("..")) cleanPart = StringsKt.removeSuffix(cleanPart, ".");
+
+                if (!cleanPart.isEmpty() && !cleanPart.equals(".")) {
+                    if (cleanPart.equals("..")) {
+                        path = StringsKt.removeSuffix(new PathInfo(path).getPath(), "/");
+                    } else {
+                        if (path.isEmpty() || !path.endsWith("/")) path += '/';
+                        path += cleanPart;
+                    }
+                }
+            }
+        }
+        return path;
+    }
+
+    @NotNull
+    public static String ext(@NotNull PathInfo pathInfo) {
+        String extWithDot = pathInfo.getExtWithDot();
+        return extWithDot.isEmpty() ? "" : extWithDot.substring(1);
+    }
+
+    public static boolean extEquals(@NotNull PathInfo pathInfo, @NotNull PathInfo other, boolean ignoreCase) {
+        return ignoreCase ? ext(pathInfo).equalsIgnoreCase(ext(other)) : ext(pathInfo).equals(ext(other));
+    }
+
+    public static boolean fileNameNoExtEquals(@NotNull PathInfo pathInfo, @NotNull PathInfo other, boolean ignoreCase) {
+        return ignoreCase ? pathInfo.getFileNameNoExt().equalsIgnoreCase(other.getFileNameNoExt()) : pathInfo.getFileNameNoExt().equals(other.getFileNameNoExt());
+    }
+
+    public static boolean isImageExt(@NotNull PathInfo pathInfo) {
+        return pathInfo.getHasExt() && PathInfo.isImageExt(ext(pathInfo), true);
+    }
+
+    public static boolean isMarkdownExt(@NotNull PathInfo pathInfo) {
+        return pathInfo.getHasExt() && PathInfo.isMarkdownExt(ext(pathInfo), true);
+    }
+
+    public static boolean isWikiPageExt(@NotNull PathInfo pathInfo) {
+        return pathInfo.getHasExt() && PathInfo.isWikiPageExt(ext(pathInfo), true);
+    }
+
+    public static boolean isWikiHomePage(@NotNull FileRef fileRef) {
+        return fileRef.isWikiPage() && PathInfo.WIKI_HOME_FILENAME.equals(fileRef.getFileNameNoExt());
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Path part extraction and comparison done for every link and link target candidate on resolve and inspection of
+ * links in test-data/performance files, run by {@link PathInfoBenchmarkTest}.
+ * <p>
+ * One operation processes all links of the file, gc profiler gc.alloc.rate.norm gives bytes allocated per operation.
+ * Baseline benchmarks do the same with {@link PathInfoBaseline}, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathInfoBenchmark {
+    public static final String PERFORMANCE_DATA_DIR = "test-data/performance";
+    public static final String CONTAINING_FILE = "/Users/vlad/src/MarkdownTest/docs/Readme.md";
+    public static final String WIKI_CONTAINING_FILE = "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/Home.md";
+
+    static final Pattern LINK_ADDRESS = Pattern.compile("\\]\\(([^)\\s]+)");
+
+    @State(Scope.Benchmark)
+    public static class LinkState {
+        @Param({ "TestReadLinks.md", "TestReadImages.md" })
+        public String fileName;
+
+        FileRef containingFile;
+        FileRef wikiContainingFile;
+        String[] linkAddresses;
+        String[] targetPaths;
+        LinkRef[] linkRefs;
+        FileRef[] targetRefs;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            String text = new String(Files.readAllBytes(new File(PERFORMANCE_DATA_DIR, fileName).toPath()), StandardCharsets.UTF_8);
+            ArrayList<String> addresses = new ArrayList<>();
+            Matcher matcher = LINK_ADDRESS.matcher(text);
+            while (matcher.find()) {
+                addresses.add(matcher.group(1));
+            }
+
+            containingFile = new FileRef(CONTAINING_FILE);
+            wikiContainingFile = new FileRef(WIKI_CONTAINING_FILE);
+            linkAddresses = addresses.toArray(new String[0]);
+            targetPaths = new String[linkAddresses.length];
+            linkRefs = new LinkRef[linkAddresses.length];
+            targetRefs = new FileRef[linkAddresses.length];
+
+            for (int i = 0; i < linkAddresses.length; i++) {
+                targetPaths[i] = PathInfo.appendParts(containingFile.getPath(), linkAddresses[i]).getFilePath();
+                linkRefs[i] = LinkRef.parseLinkRef(containingFile, linkAddresses[i], null);
+                targetRefs[i] = new FileRef(i % 2 == 0 ? targetPaths[i] : wikiContainingFile.getPath() + new PathInfo(targetPaths[i]).getFileName());
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseLinkRefs(LinkState state, Blackhole blackhole) {
+        for (String linkAddress : state.linkAddresses) {
+            LinkRef linkRef = LinkRef.parseLinkRef(state.containingFile, linkAddress, null);
+            blackhole.consume(linkRef.isMarkdownExt());
+            blackhole.consume(linkRef.isImageExt());
+            blackhole.consume(linkRef.getHasExt());
+        }
+    }
+
+    @Benchmark
+    public void appendParts(LinkState state, Blackhole blackhole) {
+        String path = state.containingFile.getPath();
+        for (String linkAddress : state.linkAddresses) {
+            blackhole.consume(PathInfo.appendParts(path, linkAddress));
+        }
+    }
+
+    @Benchmark
+    public void appendPartsBaseline(LinkState state, Blackhole blackhole) {
+        String path = state.containingFile.getPath();
+        for (String linkAddress : state.linkAddresses) {
+            blackhole.consume(new PathInfo(PathInfoBaseline.appendParts(path, linkAddress)));
+        }
+    }
+
+    @Benchmark
+    public void matchCandidates(LinkState state, Blackhole blackhole) {
+        // done for every candidate matching a link's regex
+        for (String targetPath : state.targetPaths) {
+            FileRef fileRef = new FileRef(targetPath);
+            blackhole.consume(fileRef.isWikiPage());
+            blackhole.consume(fileRef.isUnderWikiDir() && !fileRef.isMarkdownExt());
+            blackhole.consume(fileRef.isWikiHomePage());
+        }
+    }
+
+    @Benchmark
+    public void inspectLinks(LinkState state, Blackhole blackhole) {
+        LinkRef[] linkRefs = state.linkRefs;
+        FileRef[] targetRefs = state.targetRefs;
+
+        for (int i = 0; i < linkRefs.length; i++) {
+            LinkRef linkRef = linkRefs[i];
+            FileRef targetRef = targetRefs[i];
+            blackhole.consume(linkRef.extEquals(targetRef, false));
+            blackhole.consume(linkRef.fileNameNoExtEquals(targetRef, true) && !linkRef.fileNameNoExtEquals(targetRef, false));
+            blackhole.consume(targetRef.getExt());
+        }
+    }
+
+    @Benchmark
+    public void inspectLinksBaseline(LinkState state, Blackhole blackhole) {
+        LinkRef[] linkRefs = state.linkRefs;
+        FileRef[] targetRefs = state.targetRefs;
+
+        for (int i = 0; i < linkRefs.length; i++) {
+            LinkRef linkRef = linkRefs[i];
+            FileRef targetRef = targetRefs[i];
+            blackhole.consume(PathInfoBaseline.extEquals(linkRef, targetRef, false));
+            blackhole.consume(PathInfoBaseline.fileNameNoExtEquals(linkRef, targetRef, true) && !PathInfoBaseline.fileNameNoExtEquals(linkRef, targetRef, false));
+            blackhole.consume(PathInfoBaseline.ext(targetRef));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.util;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.parser.MdLexParserBenchmarkTest;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Path parts and comparisons of {@link PathInfoBenchmark} links must be the same as those of {@link PathInfoBaseline}.
+ * <p>
+ * Also runs {@link PathInfoBenchmark} in the test JVM, without forking, so the markdown file type is registered.
+ * Skipped unless md.nav.benchmark system property is true, use: ./gradlew test --tests '*PathInfoBenchmarkTest' -Pbenchmark
+ */
+public class PathInfoBenchmarkTest extends BasePlatformTestCase {
+    static final String[] PATHS = {
+            "",
+            "/",
+            ".",
+            "./docs/Readme.md",
+            "docs/./Readme.md",
+            "docs/Readme.md/",
+            "docs//",
+            "docs/Readme.",
+            " docs/Readme.md ",
+            "docs\\sub\\Readme.md",
+            "../images/image.PNG",
+            "Readme.md?raw=true",
+            "Readme.md#anchor",
+            "https://github.com/vsch/idea-multimarkdown/blob/master/Readme.md",
+            "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/Home.md",
+            "/Users/vlad/src/MarkdownTest/Other.wiki/Home.md",
+            "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/sub/Page-Name.markdown",
+    };
+
+    @Override
+    protected boolean runInDispatchThread() {
+        return false;
+    }
+
+    private static void assertSameParts(@NotNull String message, @NotNull PathInfo pathInfo) {
+        assertEquals(message, PathInfoBaseline.ext(pathInfo), pathInfo.getExt());
+        assertEquals(message, PathInfoBaseline.isImageExt(pathInfo), pathInfo.isImageExt());
+        assertEquals(message, PathInfoBaseline.isMarkdownExt(pathInfo), pathInfo.isMarkdownExt());
+        assertEquals(message, PathInfoBaseline.isWikiPageExt(pathInfo), pathInfo.isWikiPageExt());
+
+        if (pathInfo instanceof FileRef) {
+            assertEquals(message, PathInfoBaseline.isWikiHomePage((FileRef) pathInfo), ((FileRef) pathInfo).isWikiHomePage());
+        }
+    }
+
+    private static void assertSameComparisons(@NotNull PathInfo pathInfo, @NotNull PathInfo other) {
+        String message = pathInfo.getFilePath() + " to " + other.getFilePath();
+        for (boolean ignoreCase : new boolean[] { false, true }) {
+            assertEquals(message, PathInfoBaseline.extEquals(pathInfo, other, ignoreCase), pathInfo.extEquals(other, ignoreCase));
+            assertEquals(message, PathInfoBaseline.fileNameNoExtEquals(pathInfo, other, ignoreCase), pathInfo.fileNameNoExtEquals(other, ignoreCase));
+        }
+    }
+
+    private static void assertSamePath(@NotNull String containingPath, @NotNull String path) {
+        assertEquals(path, PathInfoBaseline.cleanFullPath(path), PathInfo.cleanFullPath(path));
+        assertEquals(path, PathInfoBaseline.appendParts(containingPath, path), PathInfo.appendParts(containingPath, path).getFilePath());
+        assertSameParts(path, new PathInfo(path));
+        assertSameParts(path, new FileRef(path));
+    }
+
+    public void testPaths() {
+        for (String containingPath : new String[] { PathInfoBenchmark.CONTAINING_FILE, PathInfoBenchmark.WIKI_CONTAINING_FILE, "" }) {
+            for (String path : PATHS) {
+                assertSamePath(containingPath, path);
+            }
+        }
+
+        for (String path : PATHS) {
+            for (String other : PATHS) {
+                assertSameComparisons(new PathInfo(path), new PathInfo(other));
+            }
+        }
+    }
+
+    public void testBenchmarkLinks() throws IOException {
+        for (String fileName : new String[] { "TestReadLinks.md", "TestReadImages.md" }) {
+            PathInfoBenchmark.LinkState state = new PathInfoBenchmark.LinkState();
+            state.fileName = fileName;
+            state.setup();
+            assertFalse(fileName, state.linkAddresses.length == 0);
+
+            String containingPath = state.containingFile.getPath();
+            for (int i = 0; i < state.linkAddresses.length; i++) {
+                assertSamePath(containingPath, state.linkAddresses[i]);
+                assertSamePath(containingPath, state.targetPaths[i]);
+
+                LinkRef linkRef = state.linkRefs[i];
+                assertSameParts(linkRef.getFilePath(), linkRef);
+                assertSameParts(state.targetRefs[i].getFilePath(), state.targetRefs[i]);
+                assertSameComparisons(linkRef, state.targetRefs[i]);
+                assertSameComparisons(linkRef, state.targetRefs[(i + 1) % state.targetRefs.length]);
+            }
+        }
+    }
+
+    public void testPathInfoBenchmark() throws RunnerException {
+        if (!Boolean.getBoolean(MdLexParserBenchmarkTest.BENCHMARK_PROPERTY)) return;
+
+        Options options = new OptionsBuilder()
+                .include(PathInfoBenchmark.class.getName())
+                .forks(0)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
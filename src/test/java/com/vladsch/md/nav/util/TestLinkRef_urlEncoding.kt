@@ -0,0 +1,96 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.util
+
+import com.vladsch.plugin.util.urlDecode
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+
+/**
+ * Single pass link encoding and decoding must give the same result as mapping chars one at a time and URLDecoder
+ */
+class TestLinkRef_urlEncoding {
+    companion object {
+        const val TEST_DATA_DIR = "test-data"
+
+        private val LINK_ADDRESS = "\\]\\(<?([^)>\\s]+)|^\\s*\\[[^\\]]+\\]:\\s*<?([^>\\s]+)|\\[\\[([^\\]|]+)".toRegex(RegexOption.MULTILINE)
+
+        val specialAddresses = arrayOf(
+            "",
+            "%",
+            "%2",
+            "a%2",
+            "%25",
+            "%zz",
+            "%-1",
+            "%-0",
+            "%+1",
+            "%+g",
+            "a+b c",
+            "%E2%82%AC+%20sign",
+            "%E2%82",
+            "%C3%A9t%C3%A9%",
+            "%１０",
+            "%١٢",
+            "file name (copy) #1 [draft]",
+            "100% done & 50$ paid?",
+            "path/to/Wiki-Page+Name",
+            "été € {x}"
+        )
+
+        fun testDataLinkAddresses(): List<String> {
+            val addresses = LinkedHashSet<String>()
+            File(TEST_DATA_DIR).walkTopDown().filter { it.isFile && it.name.endsWith(".md") }.forEach { file ->
+                for (match in LINK_ADDRESS.findAll(file.readText())) {
+                    val address = match.groupValues.drop(1).first { it.isNotEmpty() }
+                    addresses.add(address)
+                    addresses.add(address.removePrefix("#").substringBefore('#'))
+                }
+            }
+            return addresses.toList()
+        }
+    }
+
+    private fun assertSameResult(message: String, expected: String, input: String, actual: String) {
+        assertEquals(message, expected, actual)
+        if (expected == input) assertSame(message, input, actual)
+    }
+
+    private fun assertSameEncoding(address: String) {
+        assertSameResult("urlEncode: $address", LinkRef.mapLinkChars(address, LinkRef.fileUrlMap, null), address, LinkRef.urlEncode(address, null))
+        assertSameResult("urlEncode gitBook: $address", LinkRef.mapLinkChars(address, LinkRef.fileUrlMap, LinkRef.gitBookFileUrlExclusionsMap), address, LinkRef.urlEncode(address, LinkRef.gitBookFileUrlExclusionsMap))
+        assertSameResult("urlDecode: $address", address.urlDecode(), address, LinkRef.urlDecode(address))
+        assertSameResult("linkAsFile: $address", LinkRef.mapLinkCharsRegex(address, WikiLinkRef.wikiLinkRegexMap), address, WikiLinkRef.linkAsFile(address))
+
+        val encoded = LinkRef.urlEncode(address, null)
+        assertSameResult("urlDecode encoded: $address", encoded.urlDecode(), encoded, LinkRef.urlDecode(encoded))
+    }
+
+    @Test
+    fun test_testDataLinks() {
+        val addresses = testDataLinkAddresses()
+        assertTrue("no links in $TEST_DATA_DIR", addresses.size > 100)
+
+        for (address in addresses) {
+            assertSameEncoding(address)
+        }
+    }
+
+    @Test
+    fun test_specialAddresses() {
+        for (address in specialAddresses) {
+            assertSameEncoding(address)
+        }
+    }
+
+    @Test
+    fun test_encodeDecode() {
+        assertEquals("file%20name%20%28copy%29%20%231%20%5Bdraft%5D", LinkRef.urlEncode("file name (copy) #1 [draft]", null))
+        assertEquals("a+b%20c", LinkRef.urlEncode("a+b c", LinkRef.gitBookFileUrlExclusionsMap))
+        assertEquals("été €", LinkRef.urlDecode("%C3%A9t%C3%A9+%E2%82%AC"))
+        assertEquals("%zz", LinkRef.urlDecode("%zz"))
+        assertEquals("path-to-Wiki-Page-Name", WikiLinkRef.linkAsFile("path/to Wiki-Page+Name"))
+    }
+}
@@ -27,6 +27,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.Parameterized
 import java.util.*
+import java.util.function.BiConsumer
 
 @RunWith(value = Parameterized::class)
 class TestLinkResolver_Basic_Readme constructor(
@@ -210,6 +211,22 @@ class TestLinkResolver_Basic_Readme constructor(
         compareOrderedLists(location + "\nMultiResolve exact does not match ${resolver.getMatcher(linkRef).linkAllMatch}", arrayOf<String>(), actuals)
     }
 
+    @Test
+    fun test_MultiResolveAll() {
+        if (skipTest) return
+        val options = Want(Local.REF, Remote.REF, Links.URL)
+        val linkRefs = listOf(linkRef, linkRefNoExt, linkRef)
+        val expected = linkRefs.map { linkRef -> resolver.multiResolve(linkRef, options, null).map { it.filePath }.toTypedArray() }
+        val actuals = ArrayList<Array<String>>()
+
+        resolver.multiResolveAll(linkRefs, options, BiConsumer { _, localRefs -> actuals.add(localRefs.map { it.filePath }.toTypedArray()) })
+
+        assertEqualsMessage(location + "\nMultiResolveAll link count", linkRefs.size, actuals.size)
+        for (i in linkRefs.indices) {
+            compareOrderedLists(location + "\nMultiResolveAll does not match multiResolve for ${linkRefs[i].filePath}", expected[i], actuals[i])
+        }
+    }
+
     @Test
     fun test_Resolve() {
         if (skipTest) return
@@ -0,0 +1,197 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.vcs;
+
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.parser.cache.MdCachedResolvedLinks;
+import com.vladsch.md.nav.psi.element.MdFile;
+import com.vladsch.md.nav.settings.MdApplicationSettings;
+import com.vladsch.md.nav.settings.MdDebugSettings;
+import com.vladsch.md.nav.util.FileRef;
+import com.vladsch.md.nav.util.LinkRef;
+import com.vladsch.md.nav.util.Links;
+import com.vladsch.md.nav.util.Match;
+import com.vladsch.md.nav.util.PathInfo;
+import com.vladsch.md.nav.util.Want;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links resolved in one {@link GitHubLinkResolver#multiResolveAll} batch, sharing project file candidates, must match
+ * the same files as links resolved one at a time with {@link GitHubLinkResolver#multiResolve}
+ */
+public class MdMultiResolveAllTest extends BasePlatformTestCase {
+    private static final String[] FILES = {
+            "docs/File-Name.md",
+            "docs/file-name.txt",
+            "docs/Sub Dir/Other File.md",
+            "docs/Sub Dir/other-file.md",
+            "docs/image.png",
+            "notes/Other File.md",
+            "notes/deep/File-Name.md",
+            "proj.wiki/Page-Name.md",
+            "proj.wiki/sub/Nested-Page.md",
+    };
+
+    // links with the same file name share one candidate lookup, repeated links are resolved from the batch candidates
+    private static final String[] LINKS = {
+            "docs/File-Name.md",
+            "notes/deep/File-Name.md",
+            "File-Name.md",
+            "docs/file-name.md",
+            "docs/file-name.txt",
+            "docs/Sub%20Dir/Other%20File.md",
+            "notes/Other%20File.md",
+            "docs/image.png",
+            "missing.png",
+            "docs/File-Name.md",
+            "proj.wiki/Page-Name",
+            "https://github.com/vsch/idea-multimarkdown",
+    };
+
+    private static final String[] WIKI_LINKS = {
+            "Page Name",
+            "page-name",
+            "Nested Page",
+            "Home",
+            "Page Name",
+    };
+
+    private MdDebugSettings myDebugSettings;
+    private boolean mySavedUseFileLinkCache;
+    private PsiFile myReadme;
+    private PsiFile myWikiHome;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myDebugSettings = MdApplicationSettings.getInstance().getDebugSettings();
+        mySavedUseFileLinkCache = myDebugSettings.getUseFileLinkCache();
+        myDebugSettings.setUseFileLinkCache(true);
+
+        StringBuilder readme = new StringBuilder();
+        for (String link : LINKS) {
+            readme.append("[link](").append(link).append(")\n\n");
+        }
+
+        StringBuilder wikiHome = new StringBuilder();
+        for (String link : WIKI_LINKS) {
+            wikiHome.append("[[").append(link).append("]]\n\n");
+        }
+
+        myReadme = myFixture.addFileToProject("Readme.md", readme.toString());
+        myWikiHome = myFixture.addFileToProject("proj.wiki/Home.md", wikiHome.toString());
+        for (String file : FILES) {
+            myFixture.addFileToProject(file, "");
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            myDebugSettings.setUseFileLinkCache(mySavedUseFileLinkCache);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    @NotNull
+    private static List<String> paths(@NotNull List<PathInfo> matches) {
+        ArrayList<String> paths = new ArrayList<>();
+        for (PathInfo pathInfo : matches) {
+            paths.add(pathInfo.getFilePath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    @NotNull
+    private List<LinkRef> linkRefs() {
+        ArrayList<LinkRef> linkRefs = new ArrayList<>();
+        FileRef readmeRef = new FileRef(myReadme.getVirtualFile());
+        for (String link : LINKS) {
+            linkRefs.add(LinkRef.parseLinkRef(readmeRef, link, null));
+        }
+        return linkRefs;
+    }
+
+    @NotNull
+    private List<LinkRef> wikiLinkRefs() {
+        ArrayList<LinkRef> linkRefs = new ArrayList<>();
+        FileRef wikiHomeRef = new FileRef(myWikiHome.getVirtualFile());
+        for (String link : WIKI_LINKS) {
+            linkRefs.add(LinkRef.parseWikiLinkRef(wikiHomeRef, link, null));
+        }
+        return linkRefs;
+    }
+
+    private void assertSameMatches(@NotNull PsiFile containingFile, @NotNull List<LinkRef> linkRefs, int options) {
+        GitHubLinkResolver resolver = new GitHubLinkResolver(containingFile);
+        ArrayList<List<String>> expected = new ArrayList<>();
+        for (LinkRef linkRef : linkRefs) {
+            expected.add(paths(resolver.multiResolve(linkRef, options, null)));
+        }
+
+        ArrayList<LinkRef> batchLinkRefs = new ArrayList<>();
+        ArrayList<List<String>> actual = new ArrayList<>();
+        new GitHubLinkResolver(containingFile).multiResolveAll(linkRefs, options, (linkRef, pathInfos) -> {
+            batchLinkRefs.add(linkRef);
+            actual.add(paths(pathInfos));
+        });
+
+        assertEquals(linkRefs, batchLinkRefs);
+        for (int i = 0; i < linkRefs.size(); i++) {
+            assertEquals(linkRefs.get(i).getFilePath(), expected.get(i), actual.get(i));
+        }
+    }
+
+    public void testMatches() {
+        assertSameMatches(myReadme, linkRefs(), 0);
+        assertSameMatches(myWikiHome, wikiLinkRefs(), 0);
+    }
+
+    public void testMatchesUrl() {
+        int options = Want.INSTANCE.invoke(Links.getURL());
+        assertSameMatches(myReadme, linkRefs(), options);
+        assertSameMatches(myWikiHome, wikiLinkRefs(), options);
+    }
+
+    public void testCompletionMatches() {
+        // completion matches share one file type scan instead of file name index lookups
+        int options = Want.INSTANCE.invoke(Match.getCOMPLETION());
+        assertSameMatches(myReadme, linkRefs(), options);
+        assertSameMatches(myWikiHome, wikiLinkRefs(), options);
+    }
+
+    private void assertCachedLinks(@NotNull PsiFile containingFile, @NotNull List<LinkRef> linkRefs) {
+        MdFile file = (MdFile) containingFile;
+        MdCachedResolvedLinks.resolveAllLinks(file);
+
+        GitHubLinkResolver resolver = new GitHubLinkResolver(containingFile);
+        int options = Want.INSTANCE.invoke(Links.getURL());
+        for (LinkRef linkRef : linkRefs) {
+            List<PathInfo> matches = resolver.multiResolve(linkRef, options, null);
+            if (matches.size() > 1) {
+                // links with more than one target are not cached
+                continue;
+            }
+
+            assertTrue(linkRef.getFilePath(), MdCachedResolvedLinks.hasCachedLink(file, linkRef));
+            PathInfo cachedLink = MdCachedResolvedLinks.getCachedLink(file, linkRef);
+            if (matches.isEmpty()) {
+                assertNull(linkRef.getFilePath(), cachedLink);
+            } else {
+                assertNotNull(linkRef.getFilePath(), cachedLink);
+                assertEquals(linkRef.getFilePath(), matches.get(0).getFilePath(), cachedLink.getFilePath());
+            }
+        }
+    }
+
+    public void testResolveAllLinks() {
+        assertCachedLinks(myReadme, linkRefs());
+        assertCachedLinks(myWikiHome, wikiLinkRefs());
+    }
+}
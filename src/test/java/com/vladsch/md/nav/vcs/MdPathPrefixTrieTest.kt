@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com>, all rights reserved.
+ *
+ * This code is private property of the copyright holder and cannot be used without
+ * having obtained a license or prior written permission of the copyright holder.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package com.vladsch.md.nav.vcs
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class MdPathPrefixTrieTest {
+    private val roots = arrayOf(
+        "/Users/vlad/src/MarkdownTest/",
+        "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/",
+        "/Users/vlad/src/MarkdownTest/modules/sub/",
+        "/Users/vlad/src/Other/"
+    )
+
+    private fun linearLongestPrefix(path: String): String? {
+        var found: String? = null
+        for (root in roots) {
+            if ((found == null || root.length > found.length) && path.startsWith(root)) found = root
+        }
+        return found
+    }
+
+    private fun trie(): MdPathPrefixTrie<String> {
+        val trie = MdPathPrefixTrie<String>()
+        for (root in roots) trie.put(root, root)
+        return trie
+    }
+
+    @Test
+    fun test_basic() {
+        val trie = trie()
+
+        assertEquals(4, trie.size)
+        assertEquals("/Users/vlad/src/MarkdownTest/", trie.findLongestPrefix("/Users/vlad/src/MarkdownTest/Readme.md"))
+        assertEquals("/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/", trie.findLongestPrefix("/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/Home.md"))
+        assertEquals("/Users/vlad/src/MarkdownTest/modules/sub/", trie.findLongestPrefix("/Users/vlad/src/MarkdownTest/modules/sub/docs/Readme.md"))
+        assertEquals("/Users/vlad/src/MarkdownTest/", trie.findLongestPrefix("/Users/vlad/src/MarkdownTest/modules/Readme.md"))
+        assertNull(trie.findLongestPrefix("/Users/vlad/src/Markdown/Readme.md"))
+        assertNull(trie.findLongestPrefix("/Users/vlad/src/MarkdownTest"))
+        assertNull(trie.findLongestPrefix(""))
+    }
+
+    @Test
+    fun test_replace() {
+        val trie = trie()
+
+        trie.put("/Users/vlad/src/Other/", "other")
+        assertEquals(4, trie.size)
+        assertEquals("other", trie.findLongestPrefix("/Users/vlad/src/Other/Readme.md"))
+    }
+
+    @Test
+    fun test_sameAsLinearScan() {
+        val trie = trie()
+        val paths = arrayOf(
+            "/Users/vlad/src/MarkdownTest/",
+            "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki",
+            "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki/",
+            "/Users/vlad/src/MarkdownTest/MarkdownTest.wiki.md",
+            "/Users/vlad/src/MarkdownTest/modules/sub",
+            "/Users/vlad/src/MarkdownTest/modules/sub/",
+            "/Users/vlad/src/MarkdownTest//double/Readme.md",
+            "/Users/vlad/src/OtherTest/Readme.md",
+            "/Users/vlad/src/Other/a/b/c/d.md",
+            "Users/vlad/src/Other/a.md",
+            "/"
+        )
+
+        for (path in paths) {
+            assertEquals(path, linearLongestPrefix(path), trie.findLongestPrefix(path))
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.vcs;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.testFramework.PsiTestUtil;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.intellij.testFramework.fixtures.TempDirTestFixture;
+import com.intellij.testFramework.fixtures.impl.TempDirTestFixtureImpl;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directory tree updated from VFS events must have the same directories as a tree built from scratch
+ */
+public class MdProjectDirectoryTreeTest extends BasePlatformTestCase {
+    private VirtualFile myRoot;
+    private MdProjectDirectoryTree myTree;
+
+    @Override
+    protected TempDirTestFixture getTempDirFixture() {
+        // only local file system directories are included in the tree
+        return new TempDirTestFixtureImpl();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myRoot = myFixture.getTempDirFixture().findOrCreateDir("project");
+        createDirectories("docs/sub", ".hidden/sub", "build/out");
+        PsiTestUtil.addContentRoot(getModule(), myRoot);
+        PsiTestUtil.addExcludedRoot(getModule(), directory("build"));
+
+        // wired the same as in MdLinkResolverManager
+        myTree = new MdProjectDirectoryTree(getProject(), () -> myRoot);
+        ApplicationManager.getApplication().getMessageBus().connect(getTestRootDisposable()).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    myTree.vfsFireAfter(event);
+                }
+            }
+        });
+
+        getProject().getMessageBus().connect(getTestRootDisposable()).subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootListener() {
+            @Override
+            public void rootsChanged(@NotNull ModuleRootEvent event) {
+                myTree.invalidate();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            // light project module outlives the test
+            PsiTestUtil.removeContentEntry(getModule(), myRoot);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    private void createDirectories(@NotNull String... paths) throws IOException {
+        WriteAction.runAndWait(() -> {
+            for (String path : paths) {
+                VfsUtil.createDirectoryIfMissing(myRoot, path);
+            }
+        });
+    }
+
+    @NotNull
+    private VirtualFile directory(@NotNull String path) {
+        VirtualFile directory = myRoot.findFileByRelativePath(path);
+        assertNotNull(path, directory);
+        return directory;
+    }
+
+    private void assertDirectories(@NotNull String... expected) {
+        ArrayList<String> paths = new ArrayList<>();
+        for (VirtualFile dir : myTree.getDirectories()) {
+            paths.add(VfsUtilCore.getRelativePath(dir, myRoot));
+        }
+        assertEquals(Arrays.asList(expected), paths);
+
+        // same as a tree built from scratch
+        MdProjectDirectoryTree builtTree = new MdProjectDirectoryTree(getProject(), () -> myRoot);
+        assertEquals(builtTree.getDirectories(), myTree.getDirectories());
+    }
+
+    public void testBuild() {
+        assertDirectories("", "docs", "docs/sub");
+    }
+
+    public void testCreated() throws IOException {
+        assertDirectories("", "docs", "docs/sub");
+
+        createDirectories("added/sub", "docs/sub/deep", ".hidden/added", "build/added");
+        assertDirectories("", "added", "added/sub", "docs", "docs/sub", "docs/sub/deep");
+    }
+
+    public void testCreatedExternally() {
+        assertDirectories("", "docs", "docs/sub");
+
+        // only the top directory gets an event on refresh
+        assertTrue(new File(myRoot.getPath(), "external/a/b").mkdirs());
+        assertTrue(new File(myRoot.getPath(), "external/c").mkdirs());
+        myRoot.refresh(false, true);
+
+        assertDirectories("", "docs", "docs/sub", "external", "external/a", "external/a/b", "external/c");
+    }
+
+    public void testCopied() throws IOException {
+        assertDirectories("", "docs", "docs/sub");
+
+        WriteAction.runAndWait(() -> directory("docs").copy(this, myRoot, "copied"));
+        assertDirectories("", "copied", "copied/sub", "docs", "docs/sub");
+    }
+
+    public void testMoved() throws IOException {
+        assertDirectories("", "docs", "docs/sub");
+
+        WriteAction.runAndWait(() -> directory("docs/sub").move(this, myRoot));
+        assertDirectories("", "docs", "sub");
+
+        // moved into an excluded directory
+        WriteAction.runAndWait(() -> directory("sub").move(this, directory("build")));
+        assertDirectories("", "docs");
+    }
+
+    public void testRenamed() throws IOException {
+        assertDirectories("", "docs", "docs/sub");
+
+        WriteAction.runAndWait(() -> directory("docs").rename(this, "renamed"));
+        assertDirectories("", "renamed", "renamed/sub");
+
+        WriteAction.runAndWait(() -> directory("renamed").rename(this, ".renamed"));
+        assertDirectories("");
+    }
+
+    public void testDeleted() throws IOException {
+        assertDirectories("", "docs", "docs/sub");
+
+        WriteAction.runAndWait(() -> directory("docs/sub").delete(this));
+        assertDirectories("", "docs");
+
+        // deleted before the tree is used again
+        createDirectories("docs/added/deep");
+        WriteAction.runAndWait(() -> directory("docs/added").delete(this));
+        assertDirectories("", "docs");
+    }
+
+    public void testExcludedRoots() throws IOException {
+        assertDirectories("", "docs", "docs/sub");
+
+        PsiTestUtil.addExcludedRoot(getModule(), directory("docs/sub"));
+        assertDirectories("", "docs");
+
+        createDirectories("docs/sub/added", "docs/added");
+        assertDirectories("", "docs", "docs/added");
+
+        PsiTestUtil.removeExcludedRoot(getModule(), directory("docs/sub"));
+        assertDirectories("", "docs", "docs/added", "docs/sub", "docs/sub/added");
+    }
+}
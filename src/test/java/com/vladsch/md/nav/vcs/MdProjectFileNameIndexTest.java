@@ -0,0 +1,168 @@
+// Copyright (c) 2015-2020 Vladimir Schneider <vladimir.schneider@gmail.com> Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.vladsch.md.nav.vcs;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeRegistry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.FileTypeIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.vladsch.md.nav.util.FileRef;
+import com.vladsch.md.nav.util.LinkRef;
+import com.vladsch.md.nav.util.PathInfo;
+import com.vladsch.md.nav.util.ProjectFileRef;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links resolved with file name index candidates must match the same files as links resolved from all project files
+ * found with FileTypeIndex, before and after directory changes
+ */
+public class MdProjectFileNameIndexTest extends BasePlatformTestCase {
+    private static final String[] FILES = {
+            "docs/File-Name.md",
+            "docs/file-name.txt",
+            "docs/Sub Dir/Other File.md",
+            "docs/Sub Dir/other-file.md",
+            "notes/Other File.md",
+            "notes/deep/File-Name.md",
+            "proj.wiki/Page-Name.md",
+            "proj.wiki/sub/Nested-Page.md",
+    };
+
+    private static final String[] LINKS = {
+            "docs/File-Name.md",
+            "docs/file-name.md",
+            "docs/file-name.txt",
+            "docs/Sub%20Dir/Other%20File.md",
+            "File-Name.md",
+            "notes/Other%20File.md",
+            "notes/deep/File-Name.md",
+            "moved/deep/File-Name.md",
+            "renamed/Other%20File.md",
+            "proj.wiki/Page-Name",
+    };
+
+    private static final String[] WIKI_LINKS = {
+            "Page Name",
+            "page-name",
+            "Nested Page",
+            "Home",
+    };
+
+    private PsiFile myReadme;
+    private PsiFile myWikiHome;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myReadme = myFixture.addFileToProject("Readme.md", "");
+        myWikiHome = myFixture.addFileToProject("proj.wiki/Home.md", "");
+        for (String file : FILES) {
+            myFixture.addFileToProject(file, "");
+        }
+    }
+
+    @NotNull
+    private List<PathInfo> scannedFiles() {
+        ArrayList<PathInfo> files = new ArrayList<>();
+        GlobalSearchScope projectScope = GlobalSearchScope.projectScope(getProject());
+        for (FileType fileType : FileTypeRegistry.getInstance().getRegisteredFileTypes()) {
+            for (VirtualFile virtualFile : FileTypeIndex.getFiles(fileType, projectScope)) {
+                files.add(new ProjectFileRef(virtualFile, getProject()));
+            }
+        }
+        return files;
+    }
+
+    @NotNull
+    private static List<String> paths(@NotNull List<PathInfo> matches) {
+        ArrayList<String> paths = new ArrayList<>();
+        for (PathInfo pathInfo : matches) {
+            paths.add(pathInfo.getFilePath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private void assertSameMatches(@NotNull PsiFile containingFile, @NotNull LinkRef linkRef, @NotNull List<PathInfo> scannedFiles) {
+        GitHubLinkResolver resolver = new GitHubLinkResolver(containingFile);
+        List<String> indexed = paths(resolver.multiResolve(linkRef, 0, null));
+        List<String> scanned = paths(resolver.multiResolve(linkRef, 0, scannedFiles));
+        assertEquals(linkRef.getFilePath(), scanned, indexed);
+    }
+
+    private void assertSameMatches() {
+        List<PathInfo> scannedFiles = scannedFiles();
+        FileRef readmeRef = new FileRef(myReadme.getVirtualFile());
+        FileRef wikiHomeRef = new FileRef(myWikiHome.getVirtualFile());
+
+        for (String link : LINKS) {
+            assertSameMatches(myReadme, LinkRef.parseLinkRef(readmeRef, link, null), scannedFiles);
+        }
+
+        for (String link : WIKI_LINKS) {
+            assertSameMatches(myWikiHome, LinkRef.parseWikiLinkRef(wikiHomeRef, link, null), scannedFiles);
+        }
+    }
+
+    @NotNull
+    private VirtualFile directory(@NotNull String path) {
+        VirtualFile directory = myFixture.findFileInTempDir(path);
+        assertNotNull(path, directory);
+        return directory;
+    }
+
+    public void testMatches() {
+        assertSameMatches();
+    }
+
+    public void testCreatedDirectory() throws IOException {
+        assertSameMatches();
+
+        VirtualFile root = myReadme.getVirtualFile().getParent();
+        WriteAction.runAndWait(() -> {
+            VirtualFile added = root.createChildDirectory(this, "added");
+            added.createChildData(this, "File-Name.md");
+            added.createChildDirectory(this, "sub").createChildData(this, "Other File.md");
+        });
+
+        assertSameMatches();
+    }
+
+    public void testMovedDirectory() throws IOException {
+        assertSameMatches();
+
+        VirtualFile moved = directory("notes/deep");
+        VirtualFile target = WriteAction.computeAndWait(() -> myReadme.getVirtualFile().getParent().createChildDirectory(this, "moved"));
+        WriteAction.runAndWait(() -> moved.move(this, target));
+
+        assertSameMatches();
+    }
+
+    public void testRenamedDirectory() throws IOException {
+        assertSameMatches();
+
+        WriteAction.runAndWait(() -> directory("notes").rename(this, "renamed"));
+        assertSameMatches();
+
+        WriteAction.runAndWait(() -> directory("proj.wiki/sub").rename(this, "renamed-sub"));
+        assertSameMatches();
+    }
+
+    public void testDeletedDirectory() throws IOException {
+        assertSameMatches();
+
+        WriteAction.runAndWait(() -> directory("docs/Sub Dir").delete(this));
+        assertSameMatches();
+
+        WriteAction.runAndWait(() -> directory("proj.wiki/sub").delete(this));
+        assertSameMatches();
+    }
+}